@@ -10,6 +10,7 @@ import app.k9mail.legacy.ui.folder.FolderNameFormatter
 import com.fsck.k9.R
 import com.fsck.k9.account.AccountRemoverWorker
 import com.fsck.k9.job.MailSyncWorker
+import com.fsck.k9.job.PqcCalibrationWorker
 import com.fsck.k9.mail.oauth.AuthStateStorage
 import com.fsck.k9.ui.changelog.ChangeLogMode
 import com.fsck.k9.ui.changelog.ChangelogViewModel
@@ -50,6 +51,7 @@ class DependencyInjectionTest : AutoCloseKoinTest() {
             withParameter<SizeFormatter> { RuntimeEnvironment.getApplication() }
             withParameter<ChangelogViewModel> { ChangeLogMode.CHANGE_LOG }
             withParameter<MailSyncWorker> { mock<WorkerParameters>() }
+            withParameter<PqcCalibrationWorker> { mock<WorkerParameters>() }
             withParameter<FolderIconProvider> {
                 ContextThemeWrapper(RuntimeEnvironment.getApplication(), R.style.Theme_K9_DayNight).theme
             }
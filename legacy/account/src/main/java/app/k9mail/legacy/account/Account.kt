@@ -330,6 +330,12 @@ class Account(
     @set:Synchronized
     var isPqcHideSignOnly = false
 
+    // Sign with one composite Ed25519 + PQC signature instead of separate PGP and PQC signatures. Needs an Ed25519
+    // PGP key, i.e. the X25519 classical KEM.
+    @get:Synchronized
+    @set:Synchronized
+    var isPqcCompositeSignatureEnabled = false
+
 
     // Used to save the chosen algorithm
     @get:Synchronized
@@ -339,6 +345,27 @@ class Account(
     @get:Synchronized
     @set:Synchronized
     var pqcKemAlgorithm: String? = null
+
+    // Key type of the account's PGP key, which selects the classical half of the hybrid KEM ("RSA" or "X25519").
+    // Only used when the key is generated; null means RSA.
+    @get:Synchronized
+    @set:Synchronized
+    var pqcClassicalKemAlgorithm: String? = null
+
+    // Let the on-device calibration pick the signing and KEM algorithms while the account has no key pair of that type
+    @get:Synchronized
+    @set:Synchronized
+    var isPqcAutoSelectAlgorithm = false
+
+    // Lowest NIST security category an automatically selected algorithm may have
+    @get:Synchronized
+    @set:Synchronized
+    var pqcMinimumNistLevel = 3
+
+    // Number of pre-generated KEM key pairs kept in memory, so generating or rotating a KEM key pair is instant
+    @get:Synchronized
+    @set:Synchronized
+    var pqcKemPoolSize = 2
     // --- End PQC Integration ---
 
     @get:Synchronized
@@ -20,6 +20,8 @@ import app.k9mail.legacy.notification.NotificationSettings
 import app.k9mail.legacy.notification.NotificationVibration
 import app.k9mail.legacy.notification.VibratePattern
 import com.fsck.k9.helper.Utility
+import com.fsck.k9.pqcExtension.calibration.PqcAlgorithmSelector
+import com.fsck.k9.pqcExtension.keyManagement.KemKeyPairPool
 import com.fsck.k9.preferences.Storage
 import com.fsck.k9.preferences.StorageEditor
 import timber.log.Timber
@@ -203,8 +205,16 @@ class AccountPreferenceSerializer(
             isPqcSigningEnabled = storage.getBoolean("$accountUuid.pqcEnabled", false)
             isPqcKemEnabled = storage.getBoolean("$accountUuid.pqcKemEnabled",false)
             isPqcHideSignOnly = storage.getBoolean("$accountUuid.pqcHideSignOnly",false)
+            isPqcCompositeSignatureEnabled = storage.getBoolean("$accountUuid.pqcCompositeSignature", false)
             pqcKemAlgorithm=storage.getString("$accountUuid.pqcKemAlgorithm",null)
             pqcSigningAlgorithm = storage.getString("$accountUuid.pqcSigningAlgorithm", null)
+            pqcClassicalKemAlgorithm = storage.getString("$accountUuid.pqcClassicalKemAlgorithm", null)
+            isPqcAutoSelectAlgorithm = storage.getBoolean("$accountUuid.pqcAutoSelectAlgorithm", false)
+            pqcMinimumNistLevel = storage.getInt(
+                "$accountUuid.pqcMinimumNistLevel",
+                PqcAlgorithmSelector.DEFAULT_MINIMUM_NIST_LEVEL,
+            )
+            pqcKemPoolSize = storage.getInt("$accountUuid.pqcKemPoolSize", KemKeyPairPool.DEFAULT_POOL_SIZE)
             // --- End PQC Integration ---
 
             val isFinishedSetup = storage.getBoolean("$accountUuid.isFinishedSetup", true)
@@ -374,8 +384,13 @@ class AccountPreferenceSerializer(
             editor.putBoolean("$accountUuid.pqcEnabled", isPqcSigningEnabled)
             editor.putBoolean("$accountUuid.pqcKemEnabled", isPqcKemEnabled)
             editor.putBoolean("$accountUuid.pqcHideSignOnly", isPqcHideSignOnly)
+            editor.putBoolean("$accountUuid.pqcCompositeSignature", isPqcCompositeSignatureEnabled)
             editor.putString("$accountUuid.pqcSigningAlgorithm", pqcSigningAlgorithm)
             editor.putString("$accountUuid.pqcKemAlgorithm", pqcKemAlgorithm)
+            editor.putString("$accountUuid.pqcClassicalKemAlgorithm", pqcClassicalKemAlgorithm)
+            editor.putBoolean("$accountUuid.pqcAutoSelectAlgorithm", isPqcAutoSelectAlgorithm)
+            editor.putInt("$accountUuid.pqcMinimumNistLevel", pqcMinimumNistLevel)
+            editor.putInt("$accountUuid.pqcKemPoolSize", pqcKemPoolSize)
             // --- End PQC Integration ---
         }
 
@@ -500,8 +515,13 @@ class AccountPreferenceSerializer(
         editor.remove("$accountUuid.pqcEnabled")
         editor.remove("$accountUuid.pqcKemEnabled")
         editor.remove("$accountUuid.pqcHideSignOnly")
+        editor.remove("$accountUuid.pqcCompositeSignature")
         editor.remove("$accountUuid.pqcSigningAlgorithm")
         editor.remove("$accountUuid.pqcKemAlgorithm")
+        editor.remove("$accountUuid.pqcClassicalKemAlgorithm")
+        editor.remove("$accountUuid.pqcAutoSelectAlgorithm")
+        editor.remove("$accountUuid.pqcMinimumNistLevel")
+        editor.remove("$accountUuid.pqcKemPoolSize")
         // --- End PQC Integration ---
         deleteIdentities(account, storage, editor)
         // TODO: Remove preference settings that may exist for individual folders in the account.
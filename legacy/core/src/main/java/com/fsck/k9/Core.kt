@@ -38,6 +38,8 @@ object Core : KoinComponent {
         setServicesEnabled(context)
 
         restoreNotifications()
+
+        jobManager.schedulePqcCalibration()
     }
 
     /**
@@ -40,12 +40,11 @@ class AutocryptHeader {
         this.isPreferEncryptMutual = isPreferEncryptMutual;
     }
 
+    /**
+     * Returns the header line. Only non-critical parameters (starting with "_") are supported; values longer than a
+     * header line are folded, which is only lossless for base64 data.
+     */
     String toRawHeaderString() {
-        // TODO we don't properly fold lines here. if we want to support parameters, we need to do that somehow
-        if (!parameters.isEmpty()) {
-            throw new UnsupportedOperationException("arbitrary parameters not supported");
-        }
-
         StringBuilder builder = new StringBuilder();
         builder.append(AutocryptHeader.AUTOCRYPT_HEADER).append(": ");
         builder.append(AutocryptHeader.AUTOCRYPT_PARAM_ADDR).append('=').append(addr).append("; ");
@@ -53,6 +52,14 @@ class AutocryptHeader {
             builder.append(AutocryptHeader.AUTOCRYPT_PARAM_PREFER_ENCRYPT)
                     .append('=').append(AutocryptHeader.AUTOCRYPT_PREFER_ENCRYPT_MUTUAL).append("; ");
         }
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            if (!parameter.getKey().startsWith("_")) {
+                throw new UnsupportedOperationException("critical parameters not supported");
+            }
+            String value = parameter.getValue();
+            builder.append(parameter.getKey()).append('=');
+            builder.append(value.length() > HEADER_LINE_LENGTH ? createFoldedValue(value) : value).append("; ");
+        }
         builder.append(AutocryptHeader.AUTOCRYPT_PARAM_KEY_DATA).append("=");
         builder.append(createFoldedBase64KeyData(keyData));
 
@@ -60,17 +67,15 @@ class AutocryptHeader {
     }
 
     static String createFoldedBase64KeyData(byte[] keyData) {
-        String base64KeyData = ByteString.of(keyData).base64();
+        return createFoldedValue(ByteString.of(keyData).base64());
+    }
+
+    private static String createFoldedValue(String value) {
         StringBuilder result = new StringBuilder();
 
-        for (int i = 0, base64Length = base64KeyData.length(); i < base64Length; i += HEADER_LINE_LENGTH) {
-            if (i + HEADER_LINE_LENGTH <= base64Length) {
-                result.append("\r\n ");
-                result.append(base64KeyData, i, i + HEADER_LINE_LENGTH);
-            } else {
-                result.append("\r\n ");
-                result.append(base64KeyData, i, base64Length);
-            }
+        for (int i = 0, length = value.length(); i < length; i += HEADER_LINE_LENGTH) {
+            result.append("\r\n ");
+            result.append(value, i, Math.min(i + HEADER_LINE_LENGTH, length));
         }
 
         return result.toString();
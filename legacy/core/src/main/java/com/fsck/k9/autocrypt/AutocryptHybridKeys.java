@@ -0,0 +1,115 @@
+package com.fsck.k9.autocrypt;
+
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import okio.ByteString;
+import timber.log.Timber;
+
+
+/**
+ * The keys of a hybrid PQC/PGP peer carried in its Autocrypt header: the OpenPGP key in {@code keydata} and the PQC
+ * KEM and signature public keys in non-critical {@code _pqc-*} parameters. Clients without PQC support ignore these
+ * parameters and still see a valid Autocrypt header.
+ *
+ * PQC public keys are large, so once a contact has received them a sender may only name them by fingerprint, see
+ * {@link com.fsck.k9.pqcExtension.keyManagement.database.PqcKeyDatabase#fingerprintOf}.
+ */
+public class AutocryptHybridKeys {
+    static final String PARAM_PQC_KEM_ALGORITHM = "_pqc-kem-alg";
+    static final String PARAM_PQC_KEM_KEY = "_pqc-kem";
+    static final String PARAM_PQC_KEM_FINGERPRINT = "_pqc-kem-fpr";
+    static final String PARAM_PQC_SIG_ALGORITHM = "_pqc-sig-alg";
+    static final String PARAM_PQC_SIG_KEY = "_pqc-sig";
+    static final String PARAM_PQC_SIG_FINGERPRINT = "_pqc-sig-fpr";
+
+
+    @NonNull
+    public final byte[] keyData;
+    @Nullable
+    public final String kemAlgorithm;
+    @Nullable
+    public final byte[] kemKey;
+    @Nullable
+    public final String kemFingerprint;
+    @Nullable
+    public final String sigAlgorithm;
+    @Nullable
+    public final byte[] sigKey;
+    @Nullable
+    public final String sigFingerprint;
+
+    public AutocryptHybridKeys(@NonNull byte[] keyData, @Nullable String kemAlgorithm, @Nullable byte[] kemKey,
+            @Nullable String sigAlgorithm, @Nullable byte[] sigKey) {
+        this(keyData, kemAlgorithm, kemKey, null, sigAlgorithm, sigKey, null);
+    }
+
+    /**
+     * A PQC key that is given as well as its fingerprint is sent in full.
+     */
+    public AutocryptHybridKeys(@NonNull byte[] keyData, @Nullable String kemAlgorithm, @Nullable byte[] kemKey,
+            @Nullable String kemFingerprint, @Nullable String sigAlgorithm, @Nullable byte[] sigKey,
+            @Nullable String sigFingerprint) {
+        this.keyData = keyData;
+        this.kemAlgorithm = kemKey != null || kemFingerprint != null ? kemAlgorithm : null;
+        this.kemKey = kemAlgorithm != null ? kemKey : null;
+        this.kemFingerprint = kemAlgorithm != null && kemKey == null ? kemFingerprint : null;
+        this.sigAlgorithm = sigKey != null || sigFingerprint != null ? sigAlgorithm : null;
+        this.sigKey = sigAlgorithm != null ? sigKey : null;
+        this.sigFingerprint = sigAlgorithm != null && sigKey == null ? sigFingerprint : null;
+    }
+
+    public boolean hasPqcKeys() {
+        return kemKey != null || sigKey != null;
+    }
+
+    public boolean hasPqcKeyFingerprints() {
+        return kemFingerprint != null || sigFingerprint != null;
+    }
+
+    Map<String, String> toParameters() {
+        Map<String, String> parameters = new LinkedHashMap<>();
+        if (kemKey != null) {
+            parameters.put(PARAM_PQC_KEM_ALGORITHM, kemAlgorithm);
+            parameters.put(PARAM_PQC_KEM_KEY, ByteString.of(kemKey).base64());
+        } else if (kemFingerprint != null) {
+            parameters.put(PARAM_PQC_KEM_ALGORITHM, kemAlgorithm);
+            parameters.put(PARAM_PQC_KEM_FINGERPRINT, kemFingerprint);
+        }
+        if (sigKey != null) {
+            parameters.put(PARAM_PQC_SIG_ALGORITHM, sigAlgorithm);
+            parameters.put(PARAM_PQC_SIG_KEY, ByteString.of(sigKey).base64());
+        } else if (sigFingerprint != null) {
+            parameters.put(PARAM_PQC_SIG_ALGORITHM, sigAlgorithm);
+            parameters.put(PARAM_PQC_SIG_FINGERPRINT, sigFingerprint);
+        }
+        return parameters;
+    }
+
+    static AutocryptHybridKeys fromAutocryptHeader(AutocryptHeader autocryptHeader) {
+        Map<String, String> parameters = autocryptHeader.parameters;
+        return new AutocryptHybridKeys(autocryptHeader.keyData,
+                parameters.get(PARAM_PQC_KEM_ALGORITHM), decodeKey(parameters.get(PARAM_PQC_KEM_KEY)),
+                parameters.get(PARAM_PQC_KEM_FINGERPRINT),
+                parameters.get(PARAM_PQC_SIG_ALGORITHM), decodeKey(parameters.get(PARAM_PQC_SIG_KEY)),
+                parameters.get(PARAM_PQC_SIG_FINGERPRINT));
+    }
+
+    @Nullable
+    private static byte[] decodeKey(@Nullable String base64Key) {
+        if (base64Key == null) {
+            return null;
+        }
+
+        ByteString byteString = ByteString.decodeBase64(base64Key);
+        if (byteString == null) {
+            Timber.e("autocrypt: error parsing base64 data of PQC key");
+            return null;
+        }
+        return byteString.toByteArray();
+    }
+}
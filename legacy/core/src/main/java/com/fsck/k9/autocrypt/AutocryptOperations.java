@@ -59,6 +59,26 @@ public class AutocryptOperations {
         return true;
     }
 
+    /**
+     * Returns the hybrid PQC/PGP keys of the sender if the message has a valid Autocrypt header for the sender's
+     * address that carries PQC keys or their fingerprints.
+     */
+    @Nullable
+    public AutocryptHybridKeys getSenderHybridKeys(Message currentMessage) {
+        Address[] from = currentMessage.getFrom();
+        if (from == null || from.length == 0) {
+            return null;
+        }
+
+        AutocryptHeader autocryptHeader = autocryptHeaderParser.getValidAutocryptHeader(currentMessage);
+        if (autocryptHeader == null || !autocryptHeader.addr.equalsIgnoreCase(from[0].getAddress())) {
+            return null;
+        }
+
+        AutocryptHybridKeys hybridKeys = AutocryptHybridKeys.fromAutocryptHeader(autocryptHeader);
+        return hybridKeys.hasPqcKeys() || hybridKeys.hasPqcKeyFingerprints() ? hybridKeys : null;
+    }
+
     public boolean addAutocryptGossipUpdateToIntentIfPresent(Message message, MimeBodyPart decryptedPart, Intent intent) {
         Bundle updates = createGossipUpdateBundle(message, decryptedPart);
 
@@ -155,6 +175,15 @@ public class AutocryptOperations {
         message.addRawHeader(AutocryptHeader.AUTOCRYPT_HEADER, rawAutocryptHeader);
     }
 
+    public void addAutocryptHeaderToMessage(Message message, AutocryptHybridKeys hybridKeys,
+            String autocryptAddress, boolean preferEncryptMutual) {
+        AutocryptHeader autocryptHeader = new AutocryptHeader(
+                hybridKeys.toParameters(), autocryptAddress, hybridKeys.keyData, preferEncryptMutual);
+        String rawAutocryptHeader = autocryptHeader.toRawHeaderString();
+
+        message.addRawHeader(AutocryptHeader.AUTOCRYPT_HEADER, rawAutocryptHeader);
+    }
+
     public void addAutocryptGossipHeaderToPart(MimeBodyPart part, byte[] keyData, String autocryptAddress) {
         AutocryptGossipHeader autocryptGossipHeader = new AutocryptGossipHeader(autocryptAddress, keyData);
         String rawAutocryptHeader = autocryptGossipHeader.toRawHeaderString();
@@ -85,6 +85,8 @@ import com.fsck.k9.mailstore.SendState;
 import com.fsck.k9.mailstore.SpecialLocalFoldersCreator;
 import com.fsck.k9.notification.NotificationController;
 import com.fsck.k9.notification.NotificationStrategy;
+import com.fsck.k9.pqcExtension.helper.signature.PqcBatchVerifier;
+import com.fsck.k9.pqcExtension.message.PqcMessagebuilder;
 import app.k9mail.legacy.search.LocalSearch;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -643,6 +645,10 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
 
         backend.sync(folderServerId, syncConfig, syncListener);
 
+        if (!syncListener.syncFailed && PqcBatchVerifier.hasRemoteSigningKeys(context)) {
+            verifyPqcSignatures(account, folderId);
+        }
+
         if (commandException != null && !syncListener.syncFailed) {
             String rootMessage = getRootCauseMessage(commandException);
             Timber.e("Root cause failure in %s:%s was '%s'", account, folderServerId, rootMessage);
@@ -651,6 +657,21 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
         }
     }
 
+    /**
+     * Verify the hybrid PQC signatures of all messages in the folder that haven't been verified yet and store the
+     * results, so the verification status is available without opening the messages.
+     * <p>
+     * The verification runs on the executor of {@link PqcBatchVerifier}, not on the command queue.
+     */
+    public void verifyPqcSignatures(Account account, long folderId) {
+        try {
+            LocalStore localStore = localStoreProvider.getInstance(account);
+            PqcBatchVerifier.verifyFolderInBackground(context, localStore, folderId);
+        } catch (MessagingException e) {
+            Timber.e(e, "Unable to start PQC batch verification for folder %d", folderId);
+        }
+    }
+
     private SyncConfig createSyncConfig(Account account) {
         return new SyncConfig(
                     account.getExpungePolicy().toBackendExpungePolicy(),
@@ -1548,6 +1569,7 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
 
                         Timber.i("Sending message with UID %s", message.getUid());
                         backend.sendMessage(message);
+                        PqcMessagebuilder.recordKeyAnnouncements(context, account.getUuid(), message);
 
                         message.setFlag(Flag.X_SEND_IN_PROGRESS, false);
                         message.setFlag(Flag.SEEN, true);
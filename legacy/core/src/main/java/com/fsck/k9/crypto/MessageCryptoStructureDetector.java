@@ -33,6 +33,7 @@ public class MessageCryptoStructureDetector {
     private static final String APPLICATION_PGP_ENCRYPTED = "application/pgp-encrypted";
     private static final String APPLICATION_PGP_SIGNATURE = "application/pgp-signature";
     private static final String APPLICATION_PQC_ENCRYPTED = "application/pqc-encrypted";
+    private static final String APPLICATION_PQC_COMPOSITE_SIGNATURE = "application/pqc-composite-signature";
     private static final String TEXT_PLAIN = "text/plain";
     private static final String APPLICATION_PGP = "application/pgp";
     private static final String PGP_INLINE_START_MARKER = "-----BEGIN PGP MESSAGE-----";
@@ -137,7 +138,7 @@ public class MessageCryptoStructureDetector {
 
             Body body = part.getBody();
 
-            if (isMultipartSignedWithMultipleSignatures(part) || isPartMultipartSigned(part)) {
+            if (isPqcMultipartSigned(part) || isPartMultipartSigned(part)) {
                 signedParts.add(part);
                 continue;
             }
@@ -214,7 +215,7 @@ public class MessageCryptoStructureDetector {
     }
 
     private static boolean isPartEncryptedOrSigned(Part part) {
-        return isMultipartSignedWithMultipleSignatures(part) || isPartMultipartPqcEncrypted(part)
+        return isPqcMultipartSigned(part) || isPartMultipartPqcEncrypted(part)
             || isPartMultipartEncrypted(part) || isPartMultipartSigned(part)
             || isPartPgpInlineEncryptedOrSigned(part);
     }
@@ -360,6 +361,37 @@ public class MessageCryptoStructureDetector {
         return signatureCount >= 2;
     }
 
+    /**
+     * Returns true for a multipart/signed part whose PGP and PQC signatures are combined in one composite signature
+     * part.
+     */
+    public static boolean isMultipartSignedWithCompositeSignature(Part part) {
+        if (!isSameMimeType(part.getMimeType(), MULTIPART_SIGNED)) {
+            return false;
+        }
+
+        if (!(part.getBody() instanceof MimeMultipart)) {
+            return false;
+        }
+
+        MimeMultipart multipart = (MimeMultipart) part.getBody();
+        if (multipart.getCount() != 2) {
+            return false;
+        }
+
+        String protocolParameter = MimeUtility.getHeaderParameter(part.getContentType(), PROTOCOL_PARAMETER);
+        return APPLICATION_PQC_COMPOSITE_SIGNATURE.equalsIgnoreCase(protocolParameter) &&
+            multipart.getBodyPart(1).isMimeType(APPLICATION_PQC_COMPOSITE_SIGNATURE);
+    }
+
+    /**
+     * Returns true for a multipart/signed part with hybrid PGP + PQC signatures, either as separate signature parts
+     * or as a composite signature.
+     */
+    public static boolean isPqcMultipartSigned(Part part) {
+        return isMultipartSignedWithMultipleSignatures(part) || isMultipartSignedWithCompositeSignature(part);
+    }
+
     public static boolean isPartMultipartPqcEncrypted(Part part) {
         if (!isSameMimeType(part.getMimeType(), MULTIPART_ENCRYPTED)) {
             return false;
@@ -1,8 +1,13 @@
 package com.fsck.k9.job
 
+import androidx.work.BackoffPolicy
+import androidx.work.Constraints
+import androidx.work.ExistingWorkPolicy
+import androidx.work.OneTimeWorkRequestBuilder
 import androidx.work.WorkManager
 import app.k9mail.legacy.account.Account
 import app.k9mail.legacy.account.AccountManager
+import java.util.concurrent.TimeUnit
 import timber.log.Timber
 
 class K9JobManager(
@@ -20,6 +25,25 @@ class K9JobManager(
         mailSyncWorkerManager.scheduleMailSync(account)
     }
 
+    /**
+     * Measures the PQC algorithms while the device is charging, so the benchmarks neither drain the battery nor slow
+     * down the app. A calibration that runs out of time is continued by a retry.
+     */
+    fun schedulePqcCalibration() {
+        Timber.v("scheduling PQC calibration job")
+
+        val constraints = Constraints.Builder()
+            .setRequiresCharging(true)
+            .build()
+
+        val calibrationRequest = OneTimeWorkRequestBuilder<PqcCalibrationWorker>()
+            .setBackoffCriteria(BackoffPolicy.LINEAR, PQC_CALIBRATION_BACKOFF_DELAY_MINUTES, TimeUnit.MINUTES)
+            .setConstraints(constraints)
+            .build()
+
+        workManager.enqueueUniqueWork(PQC_CALIBRATION_WORK, ExistingWorkPolicy.KEEP, calibrationRequest)
+    }
+
     private fun scheduleMailSync() {
         cancelAllMailSyncJobs()
 
@@ -32,4 +56,9 @@ class K9JobManager(
         Timber.v("canceling mail sync job")
         workManager.cancelAllWorkByTag(MailSyncWorkerManager.MAIL_SYNC_TAG)
     }
+
+    private companion object {
+        const val PQC_CALIBRATION_WORK = "PqcCalibration"
+        const val PQC_CALIBRATION_BACKOFF_DELAY_MINUTES = 15L
+    }
 }
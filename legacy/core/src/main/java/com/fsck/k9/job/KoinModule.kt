@@ -21,4 +21,7 @@ val jobModule = module {
     factory { (parameters: WorkerParameters) ->
         MailSyncWorker(messagingController = get(), preferences = get(), context = get(), parameters)
     }
+    factory { (parameters: WorkerParameters) ->
+        PqcCalibrationWorker(context = get(), parameters)
+    }
 }
@@ -0,0 +1,28 @@
+package com.fsck.k9.job
+
+import android.content.Context
+import android.os.CancellationSignal
+import androidx.work.Worker
+import androidx.work.WorkerParameters
+import com.fsck.k9.pqcExtension.calibration.PqcAlgorithmCalibrator
+import timber.log.Timber
+
+// IMPORTANT: Update K9WorkerFactory when moving this class and the FQCN no longer starts with "com.fsck.k9".
+class PqcCalibrationWorker(
+    context: Context,
+    parameters: WorkerParameters,
+) : Worker(context, parameters) {
+    private val cancellationSignal = CancellationSignal()
+
+    override fun doWork(): Result {
+        Timber.d("Executing PQC algorithm calibration")
+
+        val complete = PqcAlgorithmCalibrator.calibrateIfNeeded(applicationContext, cancellationSignal)
+
+        return if (complete) Result.success() else Result.retry()
+    }
+
+    override fun onStopped() {
+        cancellationSignal.cancel()
+    }
+}
@@ -0,0 +1,11 @@
+package com.fsck.k9.mailstore
+
+import com.fsck.k9.mail.Message
+import com.fsck.k9.mail.MessageDownloadState
+
+/**
+ * Notified after a message received from the server was saved to the local message store.
+ */
+fun interface BackendMessageSaveListener {
+    fun onMessageSaved(message: Message, downloadState: MessageDownloadState)
+}
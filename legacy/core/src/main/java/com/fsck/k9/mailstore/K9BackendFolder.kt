@@ -13,6 +13,7 @@ class K9BackendFolder(
     private val messageStore: MessageStore,
     private val saveMessageDataCreator: SaveMessageDataCreator,
     folderServerId: String,
+    private val messageSaveListeners: List<BackendMessageSaveListener> = emptyList(),
 ) : BackendFolder {
     private val databaseId: String
     private val folderId: Long
@@ -88,6 +89,8 @@ class K9BackendFolder(
 
         val messageData = saveMessageDataCreator.createSaveMessageData(message, downloadState)
         messageStore.saveRemoteMessage(folderId, message.uid, messageData)
+
+        messageSaveListeners.forEach { it.onMessageSaved(message, downloadState) }
     }
 
     override fun getOldestMessageDate(): Date? {
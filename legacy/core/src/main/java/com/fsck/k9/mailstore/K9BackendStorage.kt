@@ -13,9 +13,10 @@ class K9BackendStorage(
     private val folderSettingsProvider: FolderSettingsProvider,
     private val saveMessageDataCreator: SaveMessageDataCreator,
     private val listeners: List<BackendFoldersRefreshListener>,
+    private val messageSaveListeners: List<BackendMessageSaveListener> = emptyList(),
 ) : BackendStorage {
     override fun getFolder(folderServerId: String): BackendFolder {
-        return K9BackendFolder(messageStore, saveMessageDataCreator, folderServerId)
+        return K9BackendFolder(messageStore, saveMessageDataCreator, folderServerId, messageSaveListeners)
     }
 
     override fun getFolderServerIds(): List<String> {
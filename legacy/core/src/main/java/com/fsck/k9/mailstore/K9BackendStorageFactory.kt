@@ -1,11 +1,13 @@
 package com.fsck.k9.mailstore
 
+import android.content.Context
 import app.k9mail.legacy.account.Account
 import app.k9mail.legacy.mailstore.FolderRepository
 import app.k9mail.legacy.mailstore.MessageStoreManager
 import com.fsck.k9.Preferences
 
 class K9BackendStorageFactory(
+    private val context: Context,
     private val preferences: Preferences,
     private val folderRepository: FolderRepository,
     private val messageStoreManager: MessageStoreManager,
@@ -28,6 +30,13 @@ class K9BackendStorageFactory(
             folderRepository,
         )
         val listeners = listOf(specialFolderListener, autoExpandFolderListener)
-        return K9BackendStorage(messageStore, folderSettingsProvider, saveMessageDataCreator, listeners)
+        val messageSaveListeners = listOf(KeyDistributionMessageSaveListener(context, account.uuid))
+        return K9BackendStorage(
+            messageStore,
+            folderSettingsProvider,
+            saveMessageDataCreator,
+            listeners,
+            messageSaveListeners,
+        )
     }
 }
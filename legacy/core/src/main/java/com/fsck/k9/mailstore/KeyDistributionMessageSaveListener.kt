@@ -0,0 +1,33 @@
+package com.fsck.k9.mailstore
+
+import android.content.Context
+import com.fsck.k9.mail.Message
+import com.fsck.k9.mail.MessageDownloadState
+import com.fsck.k9.pqcExtension.KeyDistribution.KeyDistributionImporter
+import com.fsck.k9.pqcExtension.KeyDistribution.KeyReciever
+import timber.log.Timber
+
+/**
+ * Queues the keys of key distribution messages and of PQC Autocrypt headers for import while messages are synced,
+ * so contacts' keys are available before the message is opened.
+ */
+class KeyDistributionMessageSaveListener(
+    private val context: Context,
+    private val accountUuid: String,
+) : BackendMessageSaveListener {
+    override fun onMessageSaved(message: Message, downloadState: MessageDownloadState) {
+        try {
+            val keys = if (KeyReciever.isKeyDistributionMessage(message)) {
+                // The key attachments are only available once the message has been downloaded completely
+                if (downloadState != MessageDownloadState.FULL) return
+                KeyReciever.extractPublicKeys(message)
+            } else {
+                KeyReciever.extractAutocryptKeys(message)
+            } ?: return
+
+            KeyDistributionImporter.enqueue(context, accountUuid, keys)
+        } catch (e: Exception) {
+            Timber.e(e, "Error queueing keys of synced message")
+        }
+    }
+}
@@ -19,6 +19,7 @@ val mailStoreModule = module {
     single { SpecialFolderSelectionStrategy() }
     single {
         K9BackendStorageFactory(
+            context = get(),
             preferences = get(),
             folderRepository = get(),
             messageStoreManager = get(),
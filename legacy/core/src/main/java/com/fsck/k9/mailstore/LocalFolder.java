@@ -553,6 +553,29 @@ public class LocalFolder {
         });
     }
 
+    /**
+     * Returns the multipart/signed messages of this folder that don't have a stored PQC verification result yet.
+     */
+    public List<LocalMessage> getMessagesWithoutPqcVerificationResult() throws MessagingException {
+        return localStore.getDatabase().execute(false, new DbCallback<List<LocalMessage>>() {
+            @Override
+            public List<LocalMessage> doDbWork(final SQLiteDatabase db) throws MessagingException {
+                open();
+                return LocalFolder.this.localStore.getMessages(LocalFolder.this,
+                        "SELECT " + LocalStore.GET_MESSAGES_COLS +
+                        "FROM messages " +
+                        "LEFT JOIN message_parts ON (message_parts.id = messages.message_part_id) " +
+                        "LEFT JOIN threads ON (threads.message_id = messages.id) " +
+                        "LEFT JOIN pqc_verification_results ON " +
+                        "(pqc_verification_results.message_id = messages.id) " +
+                        "WHERE empty = 0 AND deleted = 0 AND folder_id = ? AND " +
+                        "LOWER(messages.mime_type) = 'multipart/signed' AND " +
+                        "pqc_verification_results.message_id IS NULL ORDER BY date DESC",
+                        new String[] { Long.toString(databaseId) });
+            }
+        });
+    }
+
     public List<LocalMessage> getMessagesByUids(@NonNull List<String> uids) throws MessagingException {
         open();
         List<LocalMessage> messages = new ArrayList<>();
@@ -166,6 +166,8 @@ public class LocalStore {
     private final Account account;
     private final LockableDatabase database;
     private final OutboxStateRepository outboxStateRepository;
+    private final PqcVerificationResultRepository pqcVerificationResultRepository;
+    private final PqcCryptoResultRepository pqcCryptoResultRepository;
 
     static LocalStore createInstance(Account account, Context context) throws MessagingException {
         return new LocalStore(account, context);
@@ -192,6 +194,8 @@ public class LocalStore {
 
         Clock clock = DI.get(Clock.class);
         outboxStateRepository = new OutboxStateRepository(database, clock);
+        pqcVerificationResultRepository = new PqcVerificationResultRepository(database);
+        pqcCryptoResultRepository = new PqcCryptoResultRepository(database);
     }
 
     public static int getDbVersion() {
@@ -211,6 +215,14 @@ public class LocalStore {
         return outboxStateRepository;
     }
 
+    public PqcVerificationResultRepository getPqcVerificationResultRepository() {
+        return pqcVerificationResultRepository;
+    }
+
+    public PqcCryptoResultRepository getPqcCryptoResultRepository() {
+        return pqcCryptoResultRepository;
+    }
+
     public LocalFolder getFolder(String serverId) {
         return new LocalFolder(this, serverId);
     }
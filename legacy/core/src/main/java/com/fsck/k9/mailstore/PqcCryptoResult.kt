@@ -0,0 +1,19 @@
+package com.fsck.k9.mailstore
+
+/**
+ * Cached outcome of decrypting and/or verifying a PQC protected message part.
+ *
+ * [decryptionResult] and [signatureResult] hold `PqcDecryptionResult.RESULT_*` and `PqcSignatureResult.RESULT_*`
+ * codes, or `null` if the part wasn't encrypted or signed. [encryptedData] contains the decrypted MIME part,
+ * encrypted with a random key that in turn is wrapped by a device key and stored in [wrappedKey].
+ */
+class PqcCryptoResult(
+    val messageId: Long,
+    val partDigest: String,
+    val signerFingerprint: String,
+    val decryptionResult: Int?,
+    val signatureResult: Int?,
+    val wrappedKey: ByteArray?,
+    val encryptedData: ByteArray?,
+    val createdAt: Long,
+)
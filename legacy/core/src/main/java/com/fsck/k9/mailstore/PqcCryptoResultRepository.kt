@@ -0,0 +1,96 @@
+package com.fsck.k9.mailstore
+
+import android.content.ContentValues
+import android.database.Cursor
+import android.database.sqlite.SQLiteDatabase
+import app.k9mail.core.android.common.database.getIntOrNull
+import app.k9mail.core.android.common.database.getLongOrThrow
+
+class PqcCryptoResultRepository(private val database: LockableDatabase) {
+
+    fun getResult(messageId: Long, partDigest: String, signerFingerprint: String): PqcCryptoResult? {
+        return database.execute(false) { db ->
+            db.query(
+                TABLE_NAME,
+                COLUMNS,
+                "$COLUMN_MESSAGE_ID = ? AND $COLUMN_PART_DIGEST = ? AND $COLUMN_SIGNER_FINGERPRINT = ?",
+                arrayOf(messageId.toString(), partDigest, signerFingerprint),
+                null,
+                null,
+                null,
+            ).use { cursor ->
+                if (!cursor.moveToFirst()) return@use null
+
+                PqcCryptoResult(
+                    messageId = messageId,
+                    partDigest = partDigest,
+                    signerFingerprint = signerFingerprint,
+                    decryptionResult = cursor.getIntOrNull(COLUMN_DECRYPTION_RESULT),
+                    signatureResult = cursor.getIntOrNull(COLUMN_SIGNATURE_RESULT),
+                    wrappedKey = cursor.getBlobOrNull(COLUMN_WRAPPED_KEY),
+                    encryptedData = cursor.getBlobOrNull(COLUMN_ENCRYPTED_DATA),
+                    createdAt = cursor.getLongOrThrow(COLUMN_CREATED_AT),
+                )
+            }
+        }
+    }
+
+    /**
+     * Stores a result, replacing all older results for the same message.
+     */
+    fun saveResult(result: PqcCryptoResult) {
+        database.execute(true) { db ->
+            db.delete(TABLE_NAME, "$COLUMN_MESSAGE_ID = ?", arrayOf(result.messageId.toString()))
+
+            val contentValues = ContentValues().apply {
+                put(COLUMN_MESSAGE_ID, result.messageId)
+                put(COLUMN_PART_DIGEST, result.partDigest)
+                put(COLUMN_SIGNER_FINGERPRINT, result.signerFingerprint)
+                put(COLUMN_DECRYPTION_RESULT, result.decryptionResult)
+                put(COLUMN_SIGNATURE_RESULT, result.signatureResult)
+                put(COLUMN_WRAPPED_KEY, result.wrappedKey)
+                put(COLUMN_ENCRYPTED_DATA, result.encryptedData)
+                put(COLUMN_CREATED_AT, result.createdAt)
+            }
+
+            db.insertWithOnConflict(TABLE_NAME, null, contentValues, SQLiteDatabase.CONFLICT_REPLACE)
+        }
+    }
+
+    fun removeResults(messageId: Long) {
+        database.execute(false) { db ->
+            db.delete(TABLE_NAME, "$COLUMN_MESSAGE_ID = ?", arrayOf(messageId.toString()))
+        }
+    }
+
+    fun removeAllResults() {
+        database.execute(false) { db ->
+            db.delete(TABLE_NAME, null, null)
+        }
+    }
+
+    private fun Cursor.getBlobOrNull(columnName: String): ByteArray? {
+        val columnIndex = getColumnIndex(columnName)
+        return if (isNull(columnIndex)) null else getBlob(columnIndex)
+    }
+
+    companion object {
+        private const val TABLE_NAME = "pqc_crypto_results"
+        private const val COLUMN_MESSAGE_ID = "message_id"
+        private const val COLUMN_PART_DIGEST = "part_digest"
+        private const val COLUMN_SIGNER_FINGERPRINT = "signer_fingerprint"
+        private const val COLUMN_DECRYPTION_RESULT = "decryption_result"
+        private const val COLUMN_SIGNATURE_RESULT = "signature_result"
+        private const val COLUMN_WRAPPED_KEY = "wrapped_key"
+        private const val COLUMN_ENCRYPTED_DATA = "encrypted_data"
+        private const val COLUMN_CREATED_AT = "created_at"
+
+        private val COLUMNS = arrayOf(
+            COLUMN_DECRYPTION_RESULT,
+            COLUMN_SIGNATURE_RESULT,
+            COLUMN_WRAPPED_KEY,
+            COLUMN_ENCRYPTED_DATA,
+            COLUMN_CREATED_AT,
+        )
+    }
+}
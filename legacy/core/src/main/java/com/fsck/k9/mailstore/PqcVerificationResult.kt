@@ -0,0 +1,14 @@
+package com.fsck.k9.mailstore
+
+/**
+ * Persisted outcome of verifying the hybrid PGP + PQC signatures of a message.
+ *
+ * [result] holds one of the `PqcSignatureResult.RESULT_*` codes.
+ */
+data class PqcVerificationResult(
+    val messageId: Long,
+    val result: Int,
+    val sender: String?,
+    val algorithm: String?,
+    val verifiedAt: Long,
+)
@@ -0,0 +1,103 @@
+package com.fsck.k9.mailstore
+
+import android.content.ContentValues
+import android.database.sqlite.SQLiteDatabase
+import app.k9mail.core.android.common.database.getIntOrThrow
+import app.k9mail.core.android.common.database.getLongOrThrow
+import app.k9mail.core.android.common.database.getStringOrNull
+
+class PqcVerificationResultRepository(private val database: LockableDatabase) {
+
+    fun getResult(messageId: Long): PqcVerificationResult? {
+        return getResults(listOf(messageId))[messageId]
+    }
+
+    /**
+     * Returns the stored results for the given messages. Messages that haven't been verified yet are missing from
+     * the returned map.
+     */
+    fun getResults(messageIds: Collection<Long>): Map<Long, PqcVerificationResult> {
+        if (messageIds.isEmpty()) return emptyMap()
+
+        return database.execute(false) { db ->
+            val results = mutableMapOf<Long, PqcVerificationResult>()
+            for (chunk in messageIds.chunked(MAX_SELECTION_ARGS)) {
+                readResults(db, chunk, results)
+            }
+            results
+        }
+    }
+
+    /**
+     * Stores the given results in a single transaction, replacing older results for the same messages.
+     */
+    fun saveResults(results: Collection<PqcVerificationResult>) {
+        if (results.isEmpty()) return
+
+        database.execute(true) { db ->
+            for (result in results) {
+                val contentValues = ContentValues().apply {
+                    put(COLUMN_MESSAGE_ID, result.messageId)
+                    put(COLUMN_RESULT, result.result)
+                    put(COLUMN_SENDER, result.sender)
+                    put(COLUMN_ALGORITHM, result.algorithm)
+                    put(COLUMN_VERIFIED_AT, result.verifiedAt)
+                }
+
+                db.insertWithOnConflict(TABLE_NAME, null, contentValues, SQLiteDatabase.CONFLICT_REPLACE)
+            }
+        }
+    }
+
+    /**
+     * Drops all results for messages from the given sender, e.g. after their public keys changed.
+     */
+    fun removeResultsForSender(sender: String) {
+        database.execute(false) { db ->
+            db.delete(TABLE_NAME, "$COLUMN_SENDER = ?", arrayOf(sender.lowercase()))
+        }
+    }
+
+    private fun readResults(db: SQLiteDatabase, messageIds: List<Long>, results: MutableMap<Long, PqcVerificationResult>) {
+        val placeholders = messageIds.joinToString(separator = ",") { "?" }
+        db.query(
+            TABLE_NAME,
+            COLUMNS,
+            "$COLUMN_MESSAGE_ID IN ($placeholders)",
+            messageIds.map { it.toString() }.toTypedArray(),
+            null,
+            null,
+            null,
+        ).use { cursor ->
+            while (cursor.moveToNext()) {
+                val messageId = cursor.getLongOrThrow(COLUMN_MESSAGE_ID)
+                results[messageId] = PqcVerificationResult(
+                    messageId = messageId,
+                    result = cursor.getIntOrThrow(COLUMN_RESULT),
+                    sender = cursor.getStringOrNull(COLUMN_SENDER),
+                    algorithm = cursor.getStringOrNull(COLUMN_ALGORITHM),
+                    verifiedAt = cursor.getLongOrThrow(COLUMN_VERIFIED_AT),
+                )
+            }
+        }
+    }
+
+    companion object {
+        private const val TABLE_NAME = "pqc_verification_results"
+        private const val COLUMN_MESSAGE_ID = "message_id"
+        private const val COLUMN_RESULT = "result"
+        private const val COLUMN_SENDER = "sender"
+        private const val COLUMN_ALGORITHM = "algorithm"
+        private const val COLUMN_VERIFIED_AT = "verified_at"
+
+        private const val MAX_SELECTION_ARGS = 500
+
+        private val COLUMNS = arrayOf(
+            COLUMN_MESSAGE_ID,
+            COLUMN_RESULT,
+            COLUMN_SENDER,
+            COLUMN_ALGORITHM,
+            COLUMN_VERIFIED_AT,
+        )
+    }
+}
@@ -0,0 +1,130 @@
+package com.fsck.k9.pqcExtension.KeyDistribution;
+
+import android.content.Context;
+
+import com.fsck.k9.pqcExtension.KeyDistribution.KeyReciever.ReceivedKeys;
+import com.fsck.k9.pqcExtension.helper.PqcExecutors;
+import com.fsck.k9.pqcExtension.keyManagement.RemotePublicKey;
+import com.fsck.k9.pqcExtension.keyManagement.SimpleKeyStoreFactory;
+import com.fsck.k9.pqcExtension.keyManagement.SimpleKeyStoreFactory.KeyType;
+import com.fsck.k9.pqcExtension.keyManagement.database.PqcKeyDatabase;
+import timber.log.Timber;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Imports the keys of received key distribution messages and PQC Autocrypt headers in the background.
+ *
+ * A sync can save many messages with keys in a row, so keys are queued and imported in batches: one transaction per
+ * account and key type. Keys whose fingerprint is already stored for the sender are skipped, which makes the
+ * Autocrypt header repeated in every message of a contact and re-importing a message that was synced before cheap.
+ */
+public class KeyDistributionImporter {
+
+    private static final int MAX_BATCH_SIZE = 50;
+    private static final long BATCH_DELAY_MILLIS = 2000;
+
+    private static final List<PendingImport> pending = new ArrayList<>();
+
+    private static Context appContext = null;
+    private static boolean flushScheduled = false;
+    private static final ExecutorService executor = PqcExecutors.newSerialExecutor();
+
+    private static class PendingImport {
+        final String accountId;
+        final ReceivedKeys keys;
+
+        PendingImport(String accountId, ReceivedKeys keys) {
+            this.accountId = accountId;
+            this.keys = keys;
+        }
+    }
+
+    /**
+     * Queues the keys for import. The queue is imported after a short delay, or right away once a full batch has
+     * been queued.
+     */
+    public static synchronized void enqueue(Context context, String accountId, ReceivedKeys keys) {
+        appContext = context.getApplicationContext();
+        pending.add(new PendingImport(accountId, keys));
+
+        if (pending.size() >= MAX_BATCH_SIZE) {
+            executor.execute(KeyDistributionImporter::flush);
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            PqcExecutors.getPool().schedule(() -> executor.execute(KeyDistributionImporter::flush), BATCH_DELAY_MILLIS,
+                TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static void flush() {
+        Context context;
+        List<PendingImport> batch;
+        synchronized (KeyDistributionImporter.class) {
+            flushScheduled = false;
+            if (pending.isEmpty()) return;
+
+            context = appContext;
+            batch = new ArrayList<>(pending);
+            pending.clear();
+        }
+
+        // Grouped by account and key type; a later message of the same sender replaces the keys of an earlier one
+        Map<String, Map<KeyType, Map<String, RemotePublicKey>>> keysByAccount = new LinkedHashMap<>();
+        for (PendingImport pendingImport : batch) {
+            Map<KeyType, Map<String, RemotePublicKey>> keysByType = keysByAccount.get(pendingImport.accountId);
+            if (keysByType == null) {
+                keysByType = new LinkedHashMap<>();
+                keysByAccount.put(pendingImport.accountId, keysByType);
+            }
+            for (KeyType keyType : KeyType.values()) {
+                RemotePublicKey key = pendingImport.keys.getKey(keyType);
+                if (key == null) continue;
+
+                Map<String, RemotePublicKey> keysByEmail = keysByType.get(keyType);
+                if (keysByEmail == null) {
+                    keysByEmail = new LinkedHashMap<>();
+                    keysByType.put(keyType, keysByEmail);
+                }
+                keysByEmail.put(key.email.toLowerCase(Locale.ROOT), key);
+            }
+        }
+
+        for (Map.Entry<String, Map<KeyType, Map<String, RemotePublicKey>>> account : keysByAccount.entrySet()) {
+            for (Map.Entry<KeyType, Map<String, RemotePublicKey>> entry : account.getValue().entrySet()) {
+                importKeys(context, account.getKey(), entry.getKey(), entry.getValue().values());
+            }
+        }
+    }
+
+    private static void importKeys(Context context, String accountId, KeyType keyType,
+        Iterable<RemotePublicKey> keys) {
+        try {
+            PqcKeyDatabase database = PqcKeyDatabase.getInstance(context);
+            List<RemotePublicKey> newKeys = new ArrayList<>();
+            for (RemotePublicKey key : keys) {
+                String fingerprint = PqcKeyDatabase.fingerprintOf(keyType, key.publicKey);
+                if (fingerprint == null) {
+                    Timber.w("Skipping unparsable %s key from received message", keyType);
+                    continue;
+                }
+                RemotePublicKey knownKey = database.loadRemoteKey(keyType, key.email);
+                if (knownKey != null && fingerprint.equals(knownKey.fingerprint)) continue;
+
+                newKeys.add(new RemotePublicKey(key.email, key.algorithm, key.publicKey, fingerprint));
+            }
+            if (newKeys.isEmpty()) return;
+
+            SimpleKeyStoreFactory.getKeyStore(keyType).importRemotePublicKeys(context, accountId, newKeys);
+            Timber.i("Imported %d %s keys from received messages", newKeys.size(), keyType);
+        } catch (Exception e) {
+            Timber.e(e, "Failed to import %s keys from received messages", keyType);
+        }
+    }
+}
@@ -1,45 +1,71 @@
 package com.fsck.k9.pqcExtension.KeyDistribution;
 
 
-import android.app.PendingIntent;
 import android.content.Context;
-import android.os.AsyncTask;
 
-import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import app.k9mail.legacy.account.Account;
 import app.k9mail.legacy.account.Identity;
-import app.k9mail.legacy.message.controller.MessageReference;
-import com.fsck.k9.Preferences;
 import com.fsck.k9.controller.MessagingController;
 import com.fsck.k9.helper.Contacts;
 import com.fsck.k9.logging.Timber;
 import com.fsck.k9.mail.Address;
-
-import com.fsck.k9.mail.Flag;
-import com.fsck.k9.mail.Message;
-import com.fsck.k9.mail.Message.RecipientType;
+import com.fsck.k9.mail.BoundaryGenerator;
 import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.internet.AddressHeaderBuilder;
+import com.fsck.k9.mail.internet.Headers;
+import com.fsck.k9.mail.internet.MessageIdGenerator;
+import com.fsck.k9.mail.internet.MimeBodyPart;
+import com.fsck.k9.mail.internet.MimeHeader;
 import com.fsck.k9.mail.internet.MimeMessage;
-
-import com.fsck.k9.message.Attachment;
-import com.fsck.k9.message.MessageBuilder;
-import com.fsck.k9.message.SimpleMessageBuilder;
-import com.fsck.k9.message.SimpleMessageFormat;
+import com.fsck.k9.mail.internet.MimeMessageHelper;
+import com.fsck.k9.mail.internet.MimeMultipart;
+import com.fsck.k9.mail.internet.TextBody;
+import com.fsck.k9.mailstore.BinaryMemoryBody;
+import com.fsck.k9.pqcExtension.helper.PqcExecutors;
 import com.fsck.k9.pqcExtension.helper.PqcMessageHelper;
+import com.fsck.k9.pqcExtension.keyManagement.SimpleKeyStore;
+import com.fsck.k9.pqcExtension.keyManagement.SimpleKeyStoreFactory;
+import com.fsck.k9.pqcExtension.keyManagement.SimpleKeyStoreFactory.KeyType;
+import com.fsck.k9.pqcExtension.keyManagement.database.PqcKeyDatabase;
+import org.apache.james.mime4j.util.MimeUtil;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+
+/**
+ * Sends the public keys of an account to a list of contacts.
+ *
+ * The key attachments are built once per key version and account and kept in memory, so repeated distributions
+ * don't re-armor the keys. Recipients are sent in batches of {@link #MAX_RECIPIENTS_PER_MESSAGE} as Bcc of a single
+ * message. The outcome is tracked per recipient in the returned {@link Distribution}.
+ *
+ * Distribution messages are queued in the Outbox like any other message, so sending is retried when the device is
+ * offline or the server can't be reached.
+ */
+public class KeyDistributor {
 
+    public static final String KEY_DISTRIBUTION_HEADER = "X-Key-Distribution";
 
-public class KeyDistributor {
+    static final int MAX_RECIPIENTS_PER_MESSAGE = 50;
+
+    private static final String SUBJECT = "My public keys";
+    private static final String TEXT = "Attached are the public keys.";
+
+    private static final Map<String, CachedAttachments> attachmentCache = new HashMap<>();
+
+    private static final ExecutorService executor = PqcExecutors.newSerialExecutor();
 
     /**
      * Enum representing the different types of keys that can be attached to a message.
@@ -60,220 +86,265 @@ public class KeyDistributor {
         }
     }
 
+    public enum DeliveryState {
+        PENDING,
+        /**
+         * The message is in the Outbox, which sends it and retries on failure.
+         */
+        QUEUED,
+        /**
+         * The message couldn't be built, e.g. because the account has no PGP key.
+         */
+        FAILED
+    }
+
     /**
-     * Creates and sends an email message that contains public key attachments for key distribution.
-     * Supports PGP, PQC signature, and PQC KEM keys.
+     * Notified when the delivery state of a recipient changes. Called on the distribution thread.
      */
-    public static void createAndSendKeyDistributionMessage(
-        Context context,
-        MessagingController messagingController,
-        Preferences preferences,
-        Contacts contacts,
-        Account account,
-        List<String> to,
-        @Nullable String kemKey,
-        @Nullable String sigKey,
-        @Nullable String kemAlg,
-        @Nullable String sigAlg,
-        @NonNull String pgpKey,
-        @Nullable Long draftId,
-        @Nullable String plaintextSubject,
-        @Nullable MessageReference messageReference,
-        @Nullable Flag flag
-    ) throws Exception {
-
-        Identity identity = account.getIdentity(0);
-        List<Attachment> attachments = new ArrayList<>();
-
-        // Add PQC signature key if available
-        if (sigKey != null && sigAlg != null) {
-            String armored = PqcMessageHelper.armor(sigKey, "PQC SIGNATURE PUBLIC KEY", sigAlg);
-            attachments.add(createTempAttachment(context, armored, KeyAttachment.PQC_SIG.filename, KeyAttachment.PQC_SIG.mimeType));
-        }
+    public interface Listener {
+        void onDeliveryStateChanged(String email, DeliveryState state);
+    }
 
-        // Add PQC KEM key if available
-        if (kemKey != null && kemAlg != null) {
-            String armored = PqcMessageHelper.armor(kemKey, "PQC KEM PUBLIC KEY", kemAlg);
-            attachments.add(createTempAttachment(context, armored, KeyAttachment.PQC_KEM.filename, KeyAttachment.PQC_KEM.mimeType));
+    /**
+     * Delivery state of one distribution, per recipient address.
+     */
+    public static class Distribution {
+        private final Map<String, DeliveryState> deliveryStates = new LinkedHashMap<>();
+        private final Map<String, String> errors = new HashMap<>();
+        @Nullable
+        private final Listener listener;
+        private volatile boolean cancelled = false;
+        private Future<?> future;
+
+        Distribution(Collection<String> recipients, @Nullable Listener listener) {
+            this.listener = listener;
+            for (String recipient : recipients) {
+                deliveryStates.put(normalizeEmail(recipient), DeliveryState.PENDING);
+            }
         }
 
-        // Add PGP key (assumed to be already armored)
-        if (pgpKey != null && !pgpKey.trim().isEmpty()) {
-            // Der Key muss bereits korrekt armoured sein (z.B. via exportArmoredPublicKey)
-            attachments.add(createTempAttachment(
-                context,
-                pgpKey,
-                KeyAttachment.PGP.filename,
-                KeyAttachment.PGP.mimeType
-            ));
+        @Nullable
+        public synchronized DeliveryState getDeliveryState(String email) {
+            return deliveryStates.get(normalizeEmail(email));
         }
 
-        // Convert recipients to Address objects
-        List<Address> addressList = new ArrayList<>();
-        for (String email : to) {
-            addressList.add(new Address(email));
+        /**
+         * Returns the error that made sending to the recipient fail, or null.
+         */
+        @Nullable
+        public synchronized String getError(String email) {
+            return errors.get(normalizeEmail(email));
         }
 
-        // Build the message with the attachments and standard fields
-        SimpleMessageBuilder builder = (SimpleMessageBuilder) SimpleMessageBuilder.newInstance()
-            .setAccount(account)
-            .setIdentity(identity)
-            .setTo(addressList)
-            .setSubject(plaintextSubject != null ? plaintextSubject : "Key Distribution")
-            .setText("Attached are the public keys.")
-            .setMessageFormat(SimpleMessageFormat.TEXT)
-            .setDraft(false)
-            .setSentDate(new Date())
-            .setHideTimeZone(false)
-            .setAttachments(attachments);
-
-
-        // Asynchronously build and send the message
-        builder.buildAsync(new MessageBuilder.Callback() {
-            @Override
-            public void onMessageBuildSuccess(MimeMessage message, boolean isDraft) {
-                message.setHeader("X-Key-Distribution", "true");
-
-
-                new KeySendTask(
-                    messagingController,
-                    preferences,
-                    account,
-                    contacts,
-                    message,
-                    draftId,
-                    plaintextSubject,
-                    messageReference,
-                    flag
-                ).execute();
+        public synchronized List<String> getRecipients(DeliveryState state) {
+            List<String> recipients = new ArrayList<>();
+            for (Map.Entry<String, DeliveryState> entry : deliveryStates.entrySet()) {
+                if (entry.getValue() == state) {
+                    recipients.add(entry.getKey());
+                }
             }
+            return recipients;
+        }
 
-            @Override
-            public void onMessageBuildCancel() {
-                Timber.e("KeyDistributor: Message build cancelled.");
-            }
+        public boolean isDone() {
+            return future.isDone();
+        }
 
-            @Override
-            public void onMessageBuildException(MessagingException exception) {
-                Timber.e(exception, "KeyDistributor: Failed to build message.");
-            }
+        /**
+         * Stops the distribution after the batch that is currently being queued. Recipients of later batches stay
+         * {@link DeliveryState#PENDING}.
+         */
+        public void cancel() {
+            cancelled = true;
+            future.cancel(false);
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
 
-            @Override
-            public void onMessageBuildReturnPendingIntent(PendingIntent pendingIntent, int requestCode) {
-                Timber.e("KeyDistributor: Unexpected pending intent.");
+        synchronized List<String> getPendingRecipients() {
+            return getRecipients(DeliveryState.PENDING);
+        }
+
+        void setDeliveryState(List<String> recipients, DeliveryState state, @Nullable String error) {
+            synchronized (this) {
+                for (String recipient : recipients) {
+                    deliveryStates.put(recipient, state);
+                    if (error != null) {
+                        errors.put(recipient, error);
+                    }
+                }
             }
-        });
+            if (listener != null) {
+                for (String recipient : recipients) {
+                    listener.onDeliveryStateChanged(recipient, state);
+                }
+            }
+        }
     }
 
     /**
-     * Creates a temporary file for the given content to be used as an email attachment.
+     * Armored key attachments of one account, valid as long as the account's keys don't change.
      */
-    private static Attachment createTempAttachment(Context context, String content, String filename, String mimeType) throws IOException {
-        File tempFile = File.createTempFile("key-attachment-", ".asc", context.getCacheDir());
-        try (FileOutputStream fos = new FileOutputStream(tempFile)) {
-            fos.write(content.getBytes(StandardCharsets.UTF_8));
-        }
-
-        return new Attachment() {
-            @NonNull
-            @Override
-            public LoadingState getState() {
-                return LoadingState.COMPLETE;
-            }
+    private static class CachedAttachments {
+        final String keyVersion;
+        final Map<KeyAttachment, BinaryMemoryBody> bodies;
 
-            @Nullable
-            @Override
-            public String getFileName() {
-                return tempFile.getAbsolutePath();
-            }
+        CachedAttachments(String keyVersion, Map<KeyAttachment, BinaryMemoryBody> bodies) {
+            this.keyVersion = keyVersion;
+            this.bodies = bodies;
+        }
+    }
 
-            @Nullable
-            @Override
-            public String getContentType() {
-                return mimeType;
-            }
+    /**
+     * Sends the account's PGP public key and, if present, its PQC signature and KEM public keys to the given
+     * recipients in the background.
+     *
+     * @param listener optional listener for per-recipient delivery states
+     * @return the distribution, to follow its progress or cancel it
+     */
+    public static Distribution distributeKeys(Context context, MessagingController messagingController,
+        Contacts contacts, Account account, Collection<String> recipients, @Nullable Listener listener) {
+        Context appContext = context.getApplicationContext();
+        Distribution distribution = new Distribution(recipients, listener);
+        distribution.future = executor.submit(() -> {
+            sendDistribution(appContext, messagingController, contacts, account, distribution);
+            return null;
+        });
+        return distribution;
+    }
 
-            @Nullable
-            @Override
-            public String getName() {
-                return filename;
-            }
+    private static void sendDistribution(Context context, MessagingController messagingController,
+        Contacts contacts, Account account, Distribution distribution) throws Exception {
+        List<String> pending = distribution.getPendingRecipients();
+        Map<KeyAttachment, BinaryMemoryBody> attachments;
+        try {
+            attachments = getKeyAttachments(context, account);
+        } catch (Exception e) {
+            Timber.e(e, "KeyDistributor: Failed to load public keys");
+            distribution.setDeliveryState(pending, DeliveryState.FAILED, e.getMessage());
+            throw e;
+        }
 
-            @Nullable
-            @Override
-            public Long getSize() {
-                return tempFile.length();
+        for (int start = 0; start < pending.size(); start += MAX_RECIPIENTS_PER_MESSAGE) {
+            if (distribution.isCancelled()) {
+                Timber.i("KeyDistributor: Distribution cancelled");
+                return;
             }
 
-            @Override
-            public boolean isInternalAttachment() {
-                return false;
+            List<String> batch = pending.subList(start, Math.min(start + MAX_RECIPIENTS_PER_MESSAGE, pending.size()));
+            try {
+                MimeMessage message = buildMessage(account.getIdentity(0), toAddresses(batch), attachments);
+                messagingController.sendMessage(account, message, null, null);
+                distribution.setDeliveryState(batch, DeliveryState.QUEUED, null);
+                contacts.markAsContacted(toAddresses(batch));
+            } catch (Exception e) {
+                Timber.e(e, "KeyDistributor: Failed to queue keys for %d recipients", batch.size());
+                distribution.setDeliveryState(batch, DeliveryState.FAILED, e.getMessage());
             }
-        };
+        }
     }
 
     /**
-     * AsyncTask to send the message and optionally clean up the original draft.
+     * Returns the key attachments of the account, building them if the account's keys changed since they were last
+     * built.
      */
-    static class KeySendTask extends AsyncTask<Void, Void, Void> {
-        final MessagingController messagingController;
-        final Preferences preferences;
-        final Account account;
-        final Contacts contacts;
-        final Message message;
-        final Long draftId;
-        final String plaintextSubject;
-        final MessageReference messageReference;
-        final Flag flag;
-
-         KeySendTask(MessagingController messagingController, Preferences preferences, Account account,
-             Contacts contacts, Message message, Long draftId, String plaintextSubject,
-             MessageReference messageReference, Flag flag) {
-            this.messagingController = messagingController;
-            this.preferences = preferences;
-            this.account = account;
-            this.contacts = contacts;
-            this.message = message;
-            this.draftId = draftId;
-            this.plaintextSubject = plaintextSubject;
-            this.messageReference = messageReference;
-            this.flag = flag;
+    private static Map<KeyAttachment, BinaryMemoryBody> getKeyAttachments(Context context, Account account)
+        throws Exception {
+        String accountId = account.getUuid();
+        SimpleKeyStore pgpStore = SimpleKeyStoreFactory.getKeyStore(KeyType.PGP);
+        SimpleKeyStore sigStore = SimpleKeyStoreFactory.getKeyStore(KeyType.PQC_SIG);
+        SimpleKeyStore kemStore = SimpleKeyStoreFactory.getKeyStore(KeyType.PQC_KEM);
+
+        String pgpKey = pgpStore.exportPublicKey(context, accountId);
+        if (pgpKey == null || pgpKey.trim().isEmpty()) {
+            throw new MessagingException("No PGP public key to distribute");
         }
-
-        @Override
-        protected Void doInBackground(Void... params) {
-            try {
-                contacts.markAsContacted(message.getRecipients(RecipientType.TO));
-                contacts.markAsContacted(message.getRecipients(RecipientType.CC));
-                contacts.markAsContacted(message.getRecipients(RecipientType.BCC));
-                addFlagToReferencedMessage();
-            } catch (Exception e) {
-                Timber.e(e, "Failed to mark contact as contacted.");
+        String sigKey = sigStore.hasOwnKeyPair(context, accountId) ? sigStore.exportPublicKey(context, accountId) : null;
+        String kemKey = kemStore.hasOwnKeyPair(context, accountId) ? kemStore.exportPublicKey(context, accountId) : null;
+        String sigAlgorithm = account.getPqcSigningAlgorithm();
+        String kemAlgorithm = account.getPqcKemAlgorithm();
+
+        String keyVersion = PqcKeyDatabase.fingerprintOf(KeyType.PGP, pgpKey) + ':' +
+            PqcKeyDatabase.fingerprintOf(KeyType.PQC_SIG, sigKey) + ':' + sigAlgorithm + ':' +
+            PqcKeyDatabase.fingerprintOf(KeyType.PQC_KEM, kemKey) + ':' + kemAlgorithm;
+        synchronized (attachmentCache) {
+            CachedAttachments cached = attachmentCache.get(accountId);
+            if (cached != null && cached.keyVersion.equals(keyVersion)) {
+                return cached.bodies;
             }
+        }
 
-            messagingController.sendMessage(account, message, plaintextSubject, null);
-            if (draftId != null) {
-                messagingController.deleteDraftSkippingTrashFolder(account, draftId);
-            }
+        Map<KeyAttachment, BinaryMemoryBody> bodies = new LinkedHashMap<>();
+        if (isPresent(sigKey) && sigAlgorithm != null) {
+            bodies.put(KeyAttachment.PQC_SIG,
+                createBody(PqcMessageHelper.armor(sigKey, "PQC SIGNATURE PUBLIC KEY", sigAlgorithm)));
+        }
+        if (isPresent(kemKey) && kemAlgorithm != null) {
+            bodies.put(KeyAttachment.PQC_KEM,
+                createBody(PqcMessageHelper.armor(kemKey, "PQC KEM PUBLIC KEY", kemAlgorithm)));
+        }
+        // The PGP key is already armored
+        bodies.put(KeyAttachment.PGP, createBody(pgpKey));
+        bodies = Collections.unmodifiableMap(bodies);
 
-            return null;
+        synchronized (attachmentCache) {
+            attachmentCache.put(accountId, new CachedAttachments(keyVersion, bodies));
         }
+        return bodies;
+    }
 
-        /**
-         * Set the flag on the referenced message(indicated we replied / forwarded the message)
-         **/
-        private void addFlagToReferencedMessage() {
-            if (messageReference != null && flag != null) {
-                String accountUuid = messageReference.getAccountUuid();
-                Account account = preferences.getAccount(accountUuid);
-                long folderId = messageReference.getFolderId();
-                String sourceMessageUid = messageReference.getUid();
-
-                Timber.d("Setting referenced message (%d, %s) flag to %s", folderId, sourceMessageUid, flag);
-
-                messagingController.setFlag(account, folderId, sourceMessageUid, flag, true);
-            }
+    private static MimeMessage buildMessage(Identity identity, Address[] recipients,
+        Map<KeyAttachment, BinaryMemoryBody> attachments) throws MessagingException {
+        MimeMessage message = new MimeMessage();
+        message.addSentDate(new Date(), false);
+        Address from = new Address(identity.getEmail(), identity.getName());
+        message.setFrom(from);
+        if (recipients.length == 1) {
+            message.setHeader("To", AddressHeaderBuilder.createHeaderValue(recipients));
+        } else {
+            // Recipients of a batch don't see each other
+            message.setHeader("To", AddressHeaderBuilder.createHeaderValue(new Address[] { from }));
+            message.setHeader("BCC", AddressHeaderBuilder.createHeaderValue(recipients));
+        }
+        message.setSubject(SUBJECT);
+        message.setMessageId(MessageIdGenerator.getInstance().generateMessageId(message));
+        message.setHeader(KEY_DISTRIBUTION_HEADER, "true");
+
+        MimeMultipart multipart = new MimeMultipart(BoundaryGenerator.getInstance().generateBoundary());
+        multipart.addBodyPart(MimeBodyPart.create(new TextBody(TEXT), "text/plain"));
+        for (Map.Entry<KeyAttachment, BinaryMemoryBody> entry : attachments.entrySet()) {
+            KeyAttachment keyAttachment = entry.getKey();
+            BinaryMemoryBody body = entry.getValue();
+            // Bodies are immutable and shared between messages; only the parts are created per message
+            MimeBodyPart bodyPart = MimeBodyPart.create(body,
+                Headers.contentType(keyAttachment.mimeType, keyAttachment.filename));
+            bodyPart.addHeader(MimeHeader.HEADER_CONTENT_DISPOSITION,
+                Headers.contentDisposition("attachment", keyAttachment.filename, body.getSize()));
+            multipart.addBodyPart(bodyPart);
         }
+        MimeMessageHelper.setBody(message, multipart);
+        return message;
     }
 
+    private static BinaryMemoryBody createBody(String armoredKey) {
+        return new BinaryMemoryBody(armoredKey.getBytes(StandardCharsets.US_ASCII), MimeUtil.ENC_7BIT);
+    }
+
+    private static Address[] toAddresses(List<String> emails) {
+        Address[] addresses = new Address[emails.size()];
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = new Address(emails.get(i));
+        }
+        return addresses;
+    }
+
+    private static boolean isPresent(@Nullable String key) {
+        return key != null && !key.trim().isEmpty();
+    }
+
+    private static String normalizeEmail(String email) {
+        return email.trim().toLowerCase(Locale.ROOT);
+    }
 }
@@ -3,15 +3,23 @@ package com.fsck.k9.pqcExtension.KeyDistribution;
 import android.content.Context;
 import android.util.Log;
 
+import androidx.annotation.Nullable;
+
+import com.fsck.k9.autocrypt.AutocryptHybridKeys;
+import com.fsck.k9.autocrypt.AutocryptOperations;
+import com.fsck.k9.mail.Address;
 import com.fsck.k9.mail.BodyPart;
 import com.fsck.k9.mail.Message;
 import com.fsck.k9.mail.Multipart;
 import com.fsck.k9.mail.Part;
 import com.fsck.k9.mail.internet.MimeUtility;
+import com.fsck.k9.pqcExtension.calibration.PqcAlgorithmSelector;
 import com.fsck.k9.pqcExtension.helper.PqcMessageHelper;
-import com.fsck.k9.pqcExtension.keyManagement.SimpleKeyStore;
-import com.fsck.k9.pqcExtension.keyManagement.SimpleKeyStoreFactory;
+import com.fsck.k9.pqcExtension.keyManagement.RemotePublicKey;
 import com.fsck.k9.pqcExtension.keyManagement.SimpleKeyStoreFactory.KeyType;
+import com.fsck.k9.pqcExtension.keyManagement.manager.PgpSimpleKeyManager;
+import org.openquantumsafe.KEMs;
+import org.openquantumsafe.KeyEncapsulation;
 
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
@@ -23,22 +31,88 @@ public class KeyReciever {
 
     private static final String TAG = "KeyReciever";
 
+    // Enough for PGP keys and the public keys of all offered signature algorithms
+    private static final int MIN_KEY_ATTACHMENT_SIZE = 256 * 1024;
+
+    private static int maxKeyAttachmentSize = 0;
+
+    /**
+     * Public keys found in a key distribution message. Keys that weren't attached are null.
+     */
+    public static class ReceivedKeys {
+        public final String senderEmail;
+        @Nullable
+        public final RemotePublicKey pgpKey;
+        @Nullable
+        public final RemotePublicKey pqcKemKey;
+        @Nullable
+        public final RemotePublicKey pqcSigKey;
+
+        ReceivedKeys(String senderEmail, @Nullable RemotePublicKey pgpKey, @Nullable RemotePublicKey pqcKemKey,
+            @Nullable RemotePublicKey pqcSigKey) {
+            this.senderEmail = senderEmail;
+            this.pgpKey = pgpKey;
+            this.pqcKemKey = pqcKemKey;
+            this.pqcSigKey = pqcSigKey;
+        }
+
+        @Nullable
+        public RemotePublicKey getKey(KeyType keyType) {
+            switch (keyType) {
+                case PGP:
+                    return pgpKey;
+                case PQC_KEM:
+                    return pqcKemKey;
+                case PQC_SIG:
+                    return pqcSigKey;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    /**
+     * Returns true if the message was sent by {@link KeyDistributor}, i.e. it has the {@code X-Key-Distribution}
+     * header set to true.
+     */
+    public static boolean isKeyDistributionMessage(Message message) {
+        String[] header = message.getHeader(KeyDistributor.KEY_DISTRIBUTION_HEADER);
+        return header.length > 0 && "true".equalsIgnoreCase(header[0].trim());
+    }
+
     /**
-     * Scans a received message for public key attachments (PGP, PQC-KEM, PQC-SIG) and imports them
-     * into the local key stores.
+     * Scans a received message for public key attachments (PGP, PQC-KEM, PQC-SIG) and queues them for import
+     * into the local key stores, see {@link KeyDistributionImporter}.
      */
     public static void importPublicKeysFromMessage(Context context, Message message, String accountId) {
-        String senderEmail = message.getFrom()[0].getAddress();
+        ReceivedKeys keys = extractPublicKeys(message);
+        if (keys != null) {
+            KeyDistributionImporter.enqueue(context, accountId, keys);
+        }
+    }
 
-        String pqcSigKey = null;
-        String pqcKemKey = null;
-        String pqcSigAlgorithm = null;
-        String pqcKemAlgorithm = null;
+    /**
+     * Reads the public key attachments of a key distribution message.
+     *
+     * @return the keys, or null if the message has no sender, isn't multipart or can't be read
+     */
+    @Nullable
+    public static ReceivedKeys extractPublicKeys(Message message) {
+        Address[] from = message.getFrom();
+        if (from == null || from.length == 0) {
+            Log.d(TAG, "Message has no sender");
+            return null;
+        }
+        String senderEmail = from[0].getAddress();
+
+        RemotePublicKey pgpKey = null;
+        RemotePublicKey pqcKemKey = null;
+        RemotePublicKey pqcSigKey = null;
 
         try {
             if (!(message.getBody() instanceof Multipart)) {
                 Log.d(TAG, "Message body is not multipart");
-                return;
+                return null;
             }
 
             Multipart multipart = (Multipart) message.getBody();
@@ -59,59 +133,99 @@ public class KeyReciever {
                 String armoredText = extractAsciiContent(bodyPart);
                 if (armoredText == null || !armoredText.contains("-----BEGIN")) continue;
 
-                // Identify and store keys by filename
+                // Identify keys by filename
                 if (filename.equalsIgnoreCase(KeyDistributor.KeyAttachment.PQC_SIG.filename)) {
-                    pqcSigAlgorithm = PqcMessageHelper.extractAlgorithm(armoredText);
-                    pqcSigKey = armoredText;
+                    pqcSigKey = new RemotePublicKey(senderEmail, PqcMessageHelper.extractAlgorithm(armoredText),
+                        PqcMessageHelper.extractContent(armoredText, "PQC SIGNATURE PUBLIC KEY"));
 
                 } else if (filename.equalsIgnoreCase(KeyDistributor.KeyAttachment.PQC_KEM.filename)) {
-                    pqcKemAlgorithm = PqcMessageHelper.extractAlgorithm(armoredText);
-                    pqcKemKey = armoredText;
+                    pqcKemKey = new RemotePublicKey(senderEmail, PqcMessageHelper.extractAlgorithm(armoredText),
+                        PqcMessageHelper.extractContent(armoredText, "PQC KEM PUBLIC KEY"));
 
                 } else if (filename.equalsIgnoreCase(KeyDistributor.KeyAttachment.PGP.filename)) {
                     // PGP is assumed to be fully armored already
-                    SimpleKeyStore pgpStore = SimpleKeyStoreFactory.getKeyStore(KeyType.PGP);
-                    pgpStore.importRemotePublicKey(context, accountId, senderEmail, "PGP", armoredText);
-                    Log.i(TAG, "PGP-Key saved for: " + senderEmail);
+                    pgpKey = new RemotePublicKey(senderEmail, "PGP", armoredText);
                 }
             }
+        } catch (Exception e) {
+            Log.e(TAG, "Error while reading keys: ", e);
+            return null;
+        }
 
+        return new ReceivedKeys(senderEmail, pgpKey, pqcKemKey, pqcSigKey);
+    }
 
-            // Save PQC signature key if found
-            if (pqcSigKey != null && pqcSigAlgorithm != null) {
-                SimpleKeyStore sigStore = SimpleKeyStoreFactory.getKeyStore(KeyType.PQC_SIG);
-                sigStore.importRemotePublicKey(context, accountId, senderEmail, pqcSigAlgorithm,
-                    PqcMessageHelper.extractContent(pqcSigKey, "PQC SIGNATURE PUBLIC KEY"));
-                Log.i(TAG, "PQC-SIG-Key saved for: " + senderEmail);
-            }
-
-
-            // Save PQC KEM key if found
-            if (pqcKemKey != null && pqcKemAlgorithm != null) {
-                SimpleKeyStore kemStore = SimpleKeyStoreFactory.getKeyStore(KeyType.PQC_KEM);
-                kemStore.importRemotePublicKey(context, accountId, senderEmail, pqcKemAlgorithm,
-                    PqcMessageHelper.extractContent(pqcKemKey, "PQC KEM PUBLIC KEY"));
-                Log.i(TAG, "PQC-KEM-Key saved for: " + senderEmail);
-            }
+    /**
+     * Reads the keys of the sender's Autocrypt header, see {@link AutocryptHybridKeys}. Unlike key distribution
+     * messages this only needs the message header, so it works for partially downloaded messages too.
+     *
+     * PQC keys the sender only names by fingerprint, because it sent them to us before, are null in the result.
+     *
+     * @return the keys, or null if the message has no Autocrypt header with PQC keys for its sender
+     */
+    @Nullable
+    public static ReceivedKeys extractAutocryptKeys(Message message) {
+        AutocryptHybridKeys hybridKeys = AutocryptOperations.getInstance().getSenderHybridKeys(message);
+        if (hybridKeys == null) {
+            return null;
+        }
+        String senderEmail = message.getFrom()[0].getAddress();
 
+        RemotePublicKey pgpKey;
+        try {
+            pgpKey = new RemotePublicKey(senderEmail, "PGP", PgpSimpleKeyManager.armorPublicKeyRing(hybridKeys.keyData));
         } catch (Exception e) {
-            Log.e(TAG, "Error while importing keys: ", e);
+            Log.w(TAG, "Invalid OpenPGP key in Autocrypt header", e);
+            return null;
         }
+        RemotePublicKey pqcKemKey = hybridKeys.kemKey == null ? null : new RemotePublicKey(senderEmail,
+            hybridKeys.kemAlgorithm, Base64.getEncoder().encodeToString(hybridKeys.kemKey));
+        RemotePublicKey pqcSigKey = hybridKeys.sigKey == null ? null : new RemotePublicKey(senderEmail,
+            hybridKeys.sigAlgorithm, Base64.getEncoder().encodeToString(hybridKeys.sigKey));
+
+        return new ReceivedKeys(senderEmail, pgpKey, pqcKemKey, pqcSigKey);
     }
 
+    /**
+     * Returns the size above which an attachment can't be a key. It leaves room for the largest public key of the
+     * KEM algorithms offered in the account settings, Classic McEliece keys being several hundred kilobytes, after
+     * armoring and another Base64 encoding.
+     */
+    private static synchronized int getMaxKeyAttachmentSize() {
+        if (maxKeyAttachmentSize == 0) {
+            long largestKemPublicKey = 0;
+            for (String algorithm : PqcAlgorithmSelector.getKnownAlgorithms()) {
+                if (!KEMs.is_KEM_enabled(algorithm)) continue;
+
+                KeyEncapsulation kem = new KeyEncapsulation(algorithm);
+                try {
+                    largestKemPublicKey = Math.max(largestKemPublicKey, kem.get_length_public_key());
+                } finally {
+                    kem.dispose_KEM();
+                }
+            }
+            // Each Base64 encoding grows the data by a third; line breaks and armor headers fit into the extra space
+            long encodedSize = largestKemPublicKey * 16 / 9 + 64 * 1024;
+            maxKeyAttachmentSize = (int) Math.max(MIN_KEY_ATTACHMENT_SIZE, encodedSize);
+        }
+        return maxKeyAttachmentSize;
+    }
 
     /**
      * Extracts ASCII content from a body part. If content appears to be Base64-encoded,
      * decodes it first before interpreting it as ASCII-armored text.
      */
     private static String extractAsciiContent(BodyPart part) {
-        try {
+        try (InputStream inputStream = part.getBody().getInputStream()) {
             ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            InputStream inputStream = part.getBody().getInputStream();
             byte[] buffer = new byte[4096];
             int n;
             while ((n = inputStream.read(buffer)) != -1) {
                 outputStream.write(buffer, 0, n);
+                if (outputStream.size() > getMaxKeyAttachmentSize()) {
+                    Log.w(TAG, "Skipping oversized key attachment");
+                    return null;
+                }
             }
 
             String result = outputStream.toString(StandardCharsets.US_ASCII.name());
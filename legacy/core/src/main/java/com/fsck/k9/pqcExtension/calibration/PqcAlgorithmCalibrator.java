@@ -0,0 +1,340 @@
+package com.fsck.k9.pqcExtension.calibration;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.os.CancellationSignal;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import app.k9mail.legacy.account.Account;
+import com.fsck.k9.Preferences;
+import com.fsck.k9.pqcExtension.calibration.PqcAlgorithmProfile.Type;
+import com.fsck.k9.pqcExtension.calibration.PqcMicroBenchmark.KemSample;
+import com.fsck.k9.pqcExtension.calibration.PqcMicroBenchmark.SignatureSample;
+import com.fsck.k9.pqcExtension.keyManagement.SimpleKeyStoreFactory;
+import com.fsck.k9.pqcExtension.keyManagement.SimpleKeyStoreFactory.KeyType;
+import com.fsck.k9.pqcExtension.keyManagement.database.PqcKeyDatabase;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.openquantumsafe.KEMs;
+import org.openquantumsafe.KeyEncapsulation;
+import org.openquantumsafe.Signature;
+import org.openquantumsafe.Sigs;
+import timber.log.Timber;
+
+/**
+ * Measures the PQC algorithms on this device and picks the algorithms of accounts that have automatic selection
+ * enabled.
+ *
+ * Calibration runs as a background job while the device is charging, after the first launch and again after every
+ * app update, since a new liboqs build can change the numbers. Every algorithm offered in the account settings, see
+ * {@link PqcAlgorithmSelector#getKnownAlgorithms()}, that the liboqs build enables is measured with
+ * {@link PqcMicroBenchmark}: one warm-up round, then up to {@link #MEASURED_ROUNDS} rounds within a short time budget.
+ * The medians are stored as {@link PqcAlgorithmProfile}s. A run stops after {@link #CALIBRATION_BUDGET_NANOS}; the
+ * next run continues with the algorithms that weren't measured yet.
+ *
+ * Automatic selection only sets the algorithm of accounts without a key pair of that type, since switching the
+ * algorithm replaces the key pair. Accounts with keys are changed from the account settings, which ask first.
+ */
+public class PqcAlgorithmCalibrator {
+
+    private static final String PREFS_NAME = "pqc_algorithm_calibration";
+    private static final String KEY_CALIBRATED_FOR = "calibratedFor";
+    private static final String KEY_PROFILES = "profiles";
+    private static final String KEY_PENDING_FOR = "pendingFor";
+    private static final String KEY_PENDING_PROFILES = "pendingProfiles";
+    private static final String KEY_PENDING_UNAVAILABLE = "pendingUnavailable";
+
+    private static final int MEASURED_ROUNDS = 5;
+    private static final long TIME_BUDGET_NANOS = 500_000_000L;
+    private static final long CALIBRATION_BUDGET_NANOS = 60_000_000_000L;
+    // Signatures are made over the pre-hashed content, so the signed message is short whatever the message size
+    private static final int SIGNED_MESSAGE_SIZE = 128;
+
+    /**
+     * Calibrates unless the profiles were measured with the installed version of the app, then updates the
+     * algorithms of accounts with automatic selection. Runs on the calling thread.
+     *
+     * @param cancellationSignal    Stops the calibration before the next algorithm; the measured ones are kept
+     * @return false if the calibration stopped before all algorithms were measured and should be continued later
+     */
+    @WorkerThread
+    public static boolean calibrateIfNeeded(Context context, CancellationSignal cancellationSignal) {
+        Context appContext = context.getApplicationContext();
+        try {
+            long installTime = getInstallTime(appContext);
+            if (getPrefs(appContext).getLong(KEY_CALIBRATED_FOR, -1) != installTime
+                && !calibrate(appContext, installTime, cancellationSignal)) {
+                return false;
+            }
+            applyAutoSelection(appContext);
+        } catch (Exception | LinkageError e) {
+            // LinkageError: the liboqs native library isn't available, e.g. in unit tests
+            Timber.w(e, "PQC algorithm calibration failed");
+        }
+        return true;
+    }
+
+    /**
+     * Returns the stored profiles, or an empty list if calibration hasn't completed yet.
+     */
+    public static List<PqcAlgorithmProfile> getProfiles(Context context) {
+        return readProfiles(getPrefs(context).getString(KEY_PROFILES, null));
+    }
+
+    private static List<PqcAlgorithmProfile> readProfiles(@Nullable String json) {
+        if (json == null) {
+            return Collections.emptyList();
+        }
+
+        try {
+            JSONArray array = new JSONArray(json);
+            List<PqcAlgorithmProfile> profiles = new ArrayList<>(array.length());
+            for (int i = 0; i < array.length(); i++) {
+                profiles.add(PqcAlgorithmProfile.fromJson(array.getJSONObject(i)));
+            }
+            return profiles;
+        } catch (JSONException e) {
+            Timber.w(e, "Discarding unreadable PQC algorithm profiles");
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Returns the fastest measured algorithm of the given type that meets the NIST level, preferring algorithms that
+     * contacts use. Reads the key database, so it must not be called on the main thread.
+     *
+     * @return the algorithm, or null if calibration hasn't completed or no algorithm meets the level
+     */
+    @Nullable
+    public static String recommendAlgorithm(Context context, Type type, int minimumNistLevel) {
+        List<PqcAlgorithmProfile> profiles = getProfiles(context);
+        if (profiles.isEmpty()) {
+            return null;
+        }
+        return PqcAlgorithmSelector.select(profiles, type, minimumNistLevel, loadPeerAlgorithmCounts(context, type));
+    }
+
+    private static void applyAutoSelection(Context context) {
+        Preferences preferences = Preferences.getPreferences();
+        for (Account account : preferences.getAccounts()) {
+            if (!account.isPqcAutoSelectAlgorithm()) continue;
+
+            int minimumNistLevel = account.getPqcMinimumNistLevel();
+            boolean changed = false;
+
+            if (account.isPqcSigningEnabled() && !hasOwnKeyPair(context, KeyType.PQC_SIG, account)) {
+                String algorithm = recommendAlgorithm(context, Type.SIGNATURE, minimumNistLevel);
+                if (algorithm != null && !algorithm.equals(account.getPqcSigningAlgorithm())) {
+                    account.setPqcSigningAlgorithm(algorithm);
+                    changed = true;
+                }
+            }
+            if (account.isPqcKemEnabled() && !hasOwnKeyPair(context, KeyType.PQC_KEM, account)) {
+                String algorithm = recommendAlgorithm(context, Type.KEM, minimumNistLevel);
+                if (algorithm != null && !algorithm.equals(account.getPqcKemAlgorithm())) {
+                    account.setPqcKemAlgorithm(algorithm);
+                    changed = true;
+                }
+            }
+
+            if (changed) {
+                Timber.i("Selected PQC algorithms %s / %s for account %s", account.getPqcSigningAlgorithm(),
+                    account.getPqcKemAlgorithm(), account.getUuid());
+                preferences.saveAccount(account);
+            }
+        }
+    }
+
+    /**
+     * Measures the algorithms that weren't measured by an earlier, interrupted run for the same install yet. The
+     * profiles only replace the stored ones once all algorithms are measured.
+     *
+     * @return true if all algorithms are measured
+     */
+    private static boolean calibrate(Context context, long installTime, CancellationSignal cancellationSignal)
+        throws JSONException {
+        long start = System.nanoTime();
+        long deadline = start + CALIBRATION_BUDGET_NANOS;
+        byte[] message = new byte[SIGNED_MESSAGE_SIZE];
+        new SecureRandom().nextBytes(message);
+
+        SharedPreferences prefs = getPrefs(context);
+        List<PqcAlgorithmProfile> profiles = new ArrayList<>();
+        Set<String> unavailable = new HashSet<>();
+        if (prefs.getLong(KEY_PENDING_FOR, -1) == installTime) {
+            profiles.addAll(readProfiles(prefs.getString(KEY_PENDING_PROFILES, null)));
+            unavailable.addAll(prefs.getStringSet(KEY_PENDING_UNAVAILABLE, Collections.emptySet()));
+        }
+        Set<String> done = new HashSet<>(unavailable);
+        for (PqcAlgorithmProfile profile : profiles) {
+            done.add(profile.algorithm);
+        }
+
+        boolean complete = true;
+        int measured = 0;
+        for (String algorithm : new TreeSet<>(PqcAlgorithmSelector.getKnownAlgorithms())) {
+            if (done.contains(algorithm)) continue;
+            if (cancellationSignal.isCanceled() || System.nanoTime() > deadline) {
+                complete = false;
+                break;
+            }
+
+            PqcAlgorithmProfile profile = null;
+            if (Sigs.is_sig_enabled(algorithm)) {
+                if (!PqcMicroBenchmark.SIGNATURE_BLACKLIST.contains(algorithm)) {
+                    profile = calibrateSignature(algorithm, message);
+                }
+            } else if (KEMs.is_KEM_enabled(algorithm)) {
+                if (!PqcMicroBenchmark.KEM_BLACKLIST.contains(algorithm)) {
+                    profile = calibrateKem(algorithm);
+                }
+            }
+            if (profile != null) {
+                profiles.add(profile);
+                measured++;
+            } else {
+                unavailable.add(algorithm);
+            }
+        }
+
+        JSONArray profilesJson = new JSONArray();
+        for (PqcAlgorithmProfile profile : profiles) {
+            profilesJson.put(profile.toJson());
+        }
+        SharedPreferences.Editor editor = prefs.edit();
+        if (complete) {
+            editor.putString(KEY_PROFILES, profilesJson.toString())
+                .putLong(KEY_CALIBRATED_FOR, installTime)
+                .remove(KEY_PENDING_FOR)
+                .remove(KEY_PENDING_PROFILES)
+                .remove(KEY_PENDING_UNAVAILABLE);
+        } else {
+            editor.putLong(KEY_PENDING_FOR, installTime)
+                .putString(KEY_PENDING_PROFILES, profilesJson.toString())
+                .putStringSet(KEY_PENDING_UNAVAILABLE, unavailable);
+        }
+        editor.apply();
+        Timber.i("Calibrated %d PQC algorithms in %d ms%s", measured, (System.nanoTime() - start) / 1_000_000,
+            complete ? "" : ", continuing later");
+        return complete;
+    }
+
+    @Nullable
+    private static PqcAlgorithmProfile calibrateSignature(String algorithm, byte[] message) {
+        Signature signer = new Signature(algorithm);
+        try {
+            PqcMicroBenchmark.measureSignature(signer, message);
+
+            List<SignatureSample> samples = new ArrayList<>();
+            long deadline = System.nanoTime() + TIME_BUDGET_NANOS;
+            do {
+                SignatureSample sample = PqcMicroBenchmark.measureSignature(signer, message);
+                if (!sample.valid) {
+                    Timber.w("Signature of %s didn't verify during calibration", algorithm);
+                    return null;
+                }
+                samples.add(sample);
+            } while (samples.size() < MEASURED_ROUNDS && System.nanoTime() < deadline);
+
+            long[] keyGen = new long[samples.size()];
+            long[] sign = new long[samples.size()];
+            long[] verify = new long[samples.size()];
+            for (int i = 0; i < samples.size(); i++) {
+                keyGen[i] = samples.get(i).keyGenNanos;
+                sign[i] = samples.get(i).signNanos;
+                verify[i] = samples.get(i).verifyNanos;
+            }
+            SignatureSample last = samples.get(samples.size() - 1);
+            return new PqcAlgorithmProfile(Type.SIGNATURE, algorithm, PqcAlgorithmSelector.getNistLevel(algorithm),
+                median(keyGen), median(sign), median(verify), last.publicKeyBytes, last.secretKeyBytes,
+                last.signatureBytes);
+        } catch (Exception e) {
+            Timber.w(e, "Failed to calibrate %s", algorithm);
+            return null;
+        } finally {
+            signer.dispose_sig();
+        }
+    }
+
+    @Nullable
+    private static PqcAlgorithmProfile calibrateKem(String algorithm) {
+        KeyEncapsulation kem = new KeyEncapsulation(algorithm);
+        try {
+            PqcMicroBenchmark.measureKem(kem);
+
+            List<KemSample> samples = new ArrayList<>();
+            long deadline = System.nanoTime() + TIME_BUDGET_NANOS;
+            do {
+                KemSample sample = PqcMicroBenchmark.measureKem(kem);
+                if (!sample.match) {
+                    Timber.w("Shared secrets of %s didn't match during calibration", algorithm);
+                    return null;
+                }
+                samples.add(sample);
+            } while (samples.size() < MEASURED_ROUNDS && System.nanoTime() < deadline);
+
+            long[] keyGen = new long[samples.size()];
+            long[] encapsulate = new long[samples.size()];
+            long[] decapsulate = new long[samples.size()];
+            for (int i = 0; i < samples.size(); i++) {
+                keyGen[i] = samples.get(i).keyGenNanos;
+                encapsulate[i] = samples.get(i).encapsulateNanos;
+                decapsulate[i] = samples.get(i).decapsulateNanos;
+            }
+            KemSample last = samples.get(samples.size() - 1);
+            return new PqcAlgorithmProfile(Type.KEM, algorithm, PqcAlgorithmSelector.getNistLevel(algorithm),
+                median(keyGen), median(encapsulate), median(decapsulate), last.publicKeyBytes, last.secretKeyBytes,
+                last.ciphertextBytes);
+        } catch (Exception e) {
+            Timber.w(e, "Failed to calibrate %s", algorithm);
+            return null;
+        } finally {
+            kem.dispose_KEM();
+        }
+    }
+
+    private static long median(long[] values) {
+        Arrays.sort(values);
+        return values[values.length / 2];
+    }
+
+    private static Map<String, Integer> loadPeerAlgorithmCounts(Context context, Type type) {
+        try {
+            KeyType keyType = type == Type.KEM ? KeyType.PQC_KEM : KeyType.PQC_SIG;
+            return PqcKeyDatabase.getInstance(context).getRemoteAlgorithmCounts(keyType);
+        } catch (Exception e) {
+            Timber.w(e, "Failed to load algorithms of contacts");
+            return Collections.emptyMap();
+        }
+    }
+
+    private static boolean hasOwnKeyPair(Context context, KeyType keyType, Account account) {
+        return SimpleKeyStoreFactory.getKeyStore(keyType).hasOwnKeyPair(context, account.getUuid());
+    }
+
+    // Changes with every install and update, unlike the version code, which stays the same for debug builds
+    private static long getInstallTime(Context context) {
+        try {
+            return context.getPackageManager().getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            return 0;
+        }
+    }
+
+    private static SharedPreferences getPrefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
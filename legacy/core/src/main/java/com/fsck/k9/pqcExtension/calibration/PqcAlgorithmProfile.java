@@ -0,0 +1,76 @@
+package com.fsck.k9.pqcExtension.calibration;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Measured cost of a PQC algorithm on this device: median latencies and the sizes of keys and of what is sent per
+ * message (the signature, or the KEM ciphertext).
+ *
+ * For signatures the operations are signing and verifying, for KEMs encapsulation and decapsulation.
+ */
+public class PqcAlgorithmProfile {
+
+    public enum Type {
+        KEM,
+        SIGNATURE
+    }
+
+    public final Type type;
+    public final String algorithm;
+    /** NIST security category claimed for the algorithm, 0 if unknown. */
+    public final int nistLevel;
+    public final long keyGenNanos;
+    public final long operationNanos;
+    public final long inverseOperationNanos;
+    public final int publicKeyBytes;
+    public final int secretKeyBytes;
+    public final int messageOverheadBytes;
+
+    public PqcAlgorithmProfile(Type type, String algorithm, int nistLevel, long keyGenNanos, long operationNanos,
+        long inverseOperationNanos, int publicKeyBytes, int secretKeyBytes, int messageOverheadBytes) {
+        this.type = type;
+        this.algorithm = algorithm;
+        this.nistLevel = nistLevel;
+        this.keyGenNanos = keyGenNanos;
+        this.operationNanos = operationNanos;
+        this.inverseOperationNanos = inverseOperationNanos;
+        this.publicKeyBytes = publicKeyBytes;
+        this.secretKeyBytes = secretKeyBytes;
+        this.messageOverheadBytes = messageOverheadBytes;
+    }
+
+    /**
+     * Time spent on one message, by sender and recipient together. Key generation is left out, since it only happens
+     * when keys are created or rotated.
+     */
+    public long getMessageCostNanos() {
+        return operationNanos + inverseOperationNanos;
+    }
+
+    JSONObject toJson() throws JSONException {
+        return new JSONObject()
+            .put("type", type.name())
+            .put("algorithm", algorithm)
+            .put("nistLevel", nistLevel)
+            .put("keyGenNanos", keyGenNanos)
+            .put("operationNanos", operationNanos)
+            .put("inverseOperationNanos", inverseOperationNanos)
+            .put("publicKeyBytes", publicKeyBytes)
+            .put("secretKeyBytes", secretKeyBytes)
+            .put("messageOverheadBytes", messageOverheadBytes);
+    }
+
+    static PqcAlgorithmProfile fromJson(JSONObject json) throws JSONException {
+        return new PqcAlgorithmProfile(
+            Type.valueOf(json.getString("type")),
+            json.getString("algorithm"),
+            json.getInt("nistLevel"),
+            json.getLong("keyGenNanos"),
+            json.getLong("operationNanos"),
+            json.getLong("inverseOperationNanos"),
+            json.getInt("publicKeyBytes"),
+            json.getInt("secretKeyBytes"),
+            json.getInt("messageOverheadBytes"));
+    }
+}
@@ -0,0 +1,128 @@
+package com.fsck.k9.pqcExtension.calibration;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import androidx.annotation.Nullable;
+
+import com.fsck.k9.pqcExtension.calibration.PqcAlgorithmProfile.Type;
+
+/**
+ * Picks the algorithm an account should use from the measured {@link PqcAlgorithmProfile}s.
+ *
+ * Only algorithms with a NIST security category of at least the configured level are considered. Among those, the one
+ * with the lowest per-message cost wins. The cost adds the transfer time of what is sent to the measured computing
+ * time, so algorithms with very large keys or ciphertexts, like Classic McEliece or FrodoKEM, lose against slightly
+ * slower algorithms with compact ones. The smaller keys and signatures or ciphertexts break ties. When contacts
+ * advertise algorithms (in Autocrypt headers or sent keys), the choice is restricted to algorithms at least one of them
+ * uses, since those are known to be supported on the other end; if none of them qualifies, the fastest algorithm is
+ * chosen regardless.
+ */
+public class PqcAlgorithmSelector {
+
+    public static final int DEFAULT_MINIMUM_NIST_LEVEL = 3;
+
+    /**
+     * Cost of sending one byte, about the transfer time on a slow mobile connection of 1 MB/s.
+     */
+    private static final long NANOS_PER_BYTE = 1_000;
+    /**
+     * Public keys are only sent again once they changed, see key announcements, so they are counted as if they were
+     * sent with every tenth message.
+     */
+    private static final int MESSAGES_PER_PUBLIC_KEY = 10;
+
+    private static final Map<String, Integer> NIST_LEVELS = new HashMap<>();
+
+    static {
+        putLevel(1, "ML-KEM-512", "Kyber512", "BIKE-L1", "HQC-128", "FrodoKEM-640-AES", "FrodoKEM-640-SHAKE",
+            "Classic-McEliece-348864", "Classic-McEliece-348864f");
+        putLevel(3, "ML-KEM-768", "Kyber768", "BIKE-L3", "HQC-192", "FrodoKEM-976-AES", "FrodoKEM-976-SHAKE",
+            "Classic-McEliece-460896", "Classic-McEliece-460896f");
+        putLevel(5, "ML-KEM-1024", "Kyber1024", "BIKE-L5", "HQC-256", "FrodoKEM-1344-AES", "FrodoKEM-1344-SHAKE");
+
+        putLevel(1, "Falcon-512", "Falcon-padded-512", "MAYO-1", "MAYO-2",
+            "SPHINCS+-SHA2-128f-simple", "SPHINCS+-SHA2-128s-simple",
+            "SPHINCS+-SHAKE-128f-simple", "SPHINCS+-SHAKE-128s-simple",
+            "cross-rsdp-128-balanced", "cross-rsdp-128-fast", "cross-rsdp-128-small",
+            "cross-rsdpg-128-balanced", "cross-rsdpg-128-fast", "cross-rsdpg-128-small");
+        putLevel(2, "ML-DSA-44", "Dilithium2");
+        putLevel(3, "ML-DSA-65", "Dilithium3", "MAYO-3",
+            "SPHINCS+-SHA2-192f-simple", "SPHINCS+-SHA2-192s-simple",
+            "SPHINCS+-SHAKE-192f-simple", "SPHINCS+-SHAKE-192s-simple",
+            "cross-rsdp-192-balanced", "cross-rsdp-192-fast", "cross-rsdp-192-small",
+            "cross-rsdpg-192-balanced", "cross-rsdpg-192-fast", "cross-rsdpg-192-small");
+        putLevel(5, "ML-DSA-87", "Dilithium5", "MAYO-5", "Falcon-1024", "Falcon-padded-1024",
+            "SPHINCS+-SHA2-256f-simple", "SPHINCS+-SHA2-256s-simple",
+            "SPHINCS+-SHAKE-256f-simple", "SPHINCS+-SHAKE-256s-simple",
+            "cross-rsdp-256-balanced", "cross-rsdp-256-fast", "cross-rsdp-256-small",
+            "cross-rsdpg-256-balanced", "cross-rsdpg-256-fast", "cross-rsdpg-256-small");
+    }
+
+    private static void putLevel(int level, String... algorithms) {
+        for (String algorithm : algorithms) {
+            NIST_LEVELS.put(algorithm, level);
+        }
+    }
+
+    /**
+     * Returns the algorithms of known NIST security category. These are the algorithms offered in the account
+     * settings.
+     */
+    public static Set<String> getKnownAlgorithms() {
+        return Collections.unmodifiableSet(NIST_LEVELS.keySet());
+    }
+
+    /**
+     * Returns the NIST security category of the algorithm, or 0 if it is not known. Algorithms of unknown category
+     * are never selected automatically.
+     */
+    public static int getNistLevel(String algorithm) {
+        Integer level = NIST_LEVELS.get(algorithm);
+        return level != null ? level : 0;
+    }
+
+    /**
+     * @param peerAlgorithmCounts  Number of contacts using each algorithm of this type
+     * @return the selected algorithm, or null if no profile meets the minimum level
+     */
+    @Nullable
+    public static String select(Collection<PqcAlgorithmProfile> profiles, Type type, int minimumNistLevel,
+        Map<String, Integer> peerAlgorithmCounts) {
+        PqcAlgorithmProfile fastest = null;
+        PqcAlgorithmProfile fastestSupportedByPeers = null;
+
+        for (PqcAlgorithmProfile profile : profiles) {
+            if (profile.type != type || profile.nistLevel == 0 || profile.nistLevel < minimumNistLevel) continue;
+
+            if (isBetter(profile, fastest)) {
+                fastest = profile;
+            }
+            Integer peerCount = peerAlgorithmCounts.get(profile.algorithm);
+            if (peerCount != null && peerCount > 0 && isBetter(profile, fastestSupportedByPeers)) {
+                fastestSupportedByPeers = profile;
+            }
+        }
+
+        PqcAlgorithmProfile selected = fastestSupportedByPeers != null ? fastestSupportedByPeers : fastest;
+        return selected != null ? selected.algorithm : null;
+    }
+
+    private static boolean isBetter(PqcAlgorithmProfile candidate, @Nullable PqcAlgorithmProfile current) {
+        if (current == null) return true;
+
+        long costDifference = getSelectionCostNanos(candidate) - getSelectionCostNanos(current);
+        if (costDifference != 0) return costDifference < 0;
+
+        return candidate.publicKeyBytes + candidate.messageOverheadBytes <
+            current.publicKeyBytes + current.messageOverheadBytes;
+    }
+
+    private static long getSelectionCostNanos(PqcAlgorithmProfile profile) {
+        long transferredBytes = profile.messageOverheadBytes + profile.publicKeyBytes / MESSAGES_PER_PUBLIC_KEY;
+        return profile.getMessageCostNanos() + transferredBytes * NANOS_PER_BYTE;
+    }
+}
@@ -0,0 +1,127 @@
+package com.fsck.k9.pqcExtension.calibration;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.openquantumsafe.KeyEncapsulation;
+import org.openquantumsafe.Pair;
+import org.openquantumsafe.Signature;
+
+/**
+ * Single measurements of liboqs signature and KEM algorithms: key generation, the two operations and the sizes of
+ * keys, signatures and ciphertexts.
+ *
+ * Used by the full benchmark in the account settings, which writes every measurement to a CSV file, and by
+ * {@link PqcAlgorithmCalibrator}, which keeps the median of a few measurements per algorithm.
+ */
+public class PqcMicroBenchmark {
+
+    /** Signature algorithms that are not measured. */
+    public static final Set<String> SIGNATURE_BLACKLIST = Collections.unmodifiableSet(
+        new HashSet<>(Collections.singletonList("cross-rsdp-256-small")));
+
+    /** KEM algorithms that are not measured, because their public keys are around a megabyte. */
+    public static final Set<String> KEM_BLACKLIST = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+        "Classic-McEliece-6688128", "Classic-McEliece-6688128f",
+        "Classic-McEliece-6960119", "Classic-McEliece-6960119f",
+        "Classic-McEliece-8192128", "Classic-McEliece-8192128f"
+    )));
+
+    public static class SignatureSample {
+        public final long keyGenNanos;
+        public final long signNanos;
+        public final long verifyNanos;
+        public final int signatureBytes;
+        public final int publicKeyBytes;
+        public final int secretKeyBytes;
+        public final boolean valid;
+
+        SignatureSample(long keyGenNanos, long signNanos, long verifyNanos, int signatureBytes, int publicKeyBytes,
+            int secretKeyBytes, boolean valid) {
+            this.keyGenNanos = keyGenNanos;
+            this.signNanos = signNanos;
+            this.verifyNanos = verifyNanos;
+            this.signatureBytes = signatureBytes;
+            this.publicKeyBytes = publicKeyBytes;
+            this.secretKeyBytes = secretKeyBytes;
+            this.valid = valid;
+        }
+    }
+
+    public static class KemSample {
+        public final long keyGenNanos;
+        public final long encapsulateNanos;
+        public final long decapsulateNanos;
+        public final int ciphertextBytes;
+        public final int sharedSecretBytes;
+        public final int publicKeyBytes;
+        public final int secretKeyBytes;
+        public final boolean match;
+
+        KemSample(long keyGenNanos, long encapsulateNanos, long decapsulateNanos, int ciphertextBytes,
+            int sharedSecretBytes, int publicKeyBytes, int secretKeyBytes, boolean match) {
+            this.keyGenNanos = keyGenNanos;
+            this.encapsulateNanos = encapsulateNanos;
+            this.decapsulateNanos = decapsulateNanos;
+            this.ciphertextBytes = ciphertextBytes;
+            this.sharedSecretBytes = sharedSecretBytes;
+            this.publicKeyBytes = publicKeyBytes;
+            this.secretKeyBytes = secretKeyBytes;
+            this.match = match;
+        }
+    }
+
+    /**
+     * Generates a key pair with the given signer, then signs and verifies the message.
+     */
+    public static SignatureSample measureSignature(Signature signer, byte[] message) {
+        long t0 = System.nanoTime();
+        signer.generate_keypair();
+        long t1 = System.nanoTime();
+
+        byte[] publicKey = signer.export_public_key();
+        byte[] secretKey = signer.export_secret_key();
+
+        long t2 = System.nanoTime();
+        byte[] signature = signer.sign(message);
+        long t3 = System.nanoTime();
+
+        long t4 = System.nanoTime();
+        boolean valid = signer.verify(message, signature, publicKey);
+        long t5 = System.nanoTime();
+
+        Arrays.fill(secretKey, (byte) 0);
+        return new SignatureSample(t1 - t0, t3 - t2, t5 - t4, signature.length, publicKey.length, secretKey.length,
+            valid);
+    }
+
+    /**
+     * Generates a key pair with the given KEM, then encapsulates a secret to it and decapsulates it again.
+     */
+    public static KemSample measureKem(KeyEncapsulation kem) {
+        long t0 = System.nanoTime();
+        kem.generate_keypair();
+        long t1 = System.nanoTime();
+
+        byte[] publicKey = kem.export_public_key();
+        byte[] secretKey = kem.export_secret_key();
+
+        long t2 = System.nanoTime();
+        Pair<byte[], byte[]> encapsulation = kem.encap_secret(publicKey);
+        long t3 = System.nanoTime();
+
+        byte[] ciphertext = encapsulation.getLeft();
+        byte[] sharedSecret = encapsulation.getRight();
+
+        long t4 = System.nanoTime();
+        byte[] decapsulated = kem.decap_secret(ciphertext);
+        long t5 = System.nanoTime();
+
+        boolean match = Arrays.equals(sharedSecret, decapsulated);
+        Arrays.fill(secretKey, (byte) 0);
+        return new KemSample(t1 - t0, t3 - t2, t5 - t4, ciphertext.length, sharedSecret.length, publicKey.length,
+            secretKey.length, match);
+    }
+}
@@ -0,0 +1,211 @@
+package com.fsck.k9.pqcExtension.helper;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import androidx.annotation.NonNull;
+
+import com.fsck.k9.mail.Body;
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.Part;
+import com.fsck.k9.mail.filter.EOLConvertingOutputStream;
+import com.fsck.k9.mail.internet.BinaryTempFileBody;
+import com.fsck.k9.mail.internet.MimeBodyPart;
+import com.fsck.k9.mailstore.util.DeferredFileOutputStream;
+import org.apache.commons.io.IOUtils;
+import timber.log.Timber;
+
+/**
+ * The canonical (CRLF line endings) serialization of a MIME part, written in a single pass.
+ *
+ * Small parts stay in memory, larger ones are spilled to a temporary file. The same bytes are then used for
+ * signing and, via {@link #asBodyPart(MimeBodyPart)}, for encryption, so the MIME tree is only serialized once.
+ * {@link #close()} deletes the temporary file.
+ */
+public class PqcCanonicalContent implements Closeable {
+
+    static final int MEMORY_BACKED_THRESHOLD = 64 * 1024;
+
+    private byte[] data;
+    private File file;
+
+    private PqcCanonicalContent() {
+    }
+
+    /**
+     * Serializes the part with canonical line endings.
+     */
+    public static PqcCanonicalContent of(Part part) throws IOException, MessagingException {
+        PqcCanonicalContent content = new PqcCanonicalContent();
+        DeferredFileOutputStream buffer = new DeferredFileOutputStream(MEMORY_BACKED_THRESHOLD,
+            () -> File.createTempFile("canonical", null, BinaryTempFileBody.getTempDirectory()));
+        boolean success = false;
+        try {
+            EOLConvertingOutputStream out = new EOLConvertingOutputStream(buffer);
+            part.writeTo(out);
+            out.flush();
+            success = true;
+        } finally {
+            buffer.close();
+            if (buffer.isThresholdExceeded()) {
+                content.file = buffer.getFile();
+            } else {
+                content.data = buffer.getData();
+            }
+            if (!success) {
+                // Nobody else gets to close the content
+                content.close();
+            }
+        }
+        return content;
+    }
+
+    public long getSize() {
+        return file != null ? file.length() : data.length;
+    }
+
+    public InputStream getInputStream() throws IOException {
+        if (file != null) {
+            return new BufferedInputStream(new FileInputStream(file));
+        }
+        if (data != null) {
+            return new ByteArrayInputStream(data);
+        }
+        throw new IllegalStateException("Content has already been released");
+    }
+
+    /**
+     * Returns the content as a byte array. For file-backed content this reads the whole file into memory.
+     */
+    public byte[] toByteArray() throws IOException {
+        if (data != null) {
+            return data;
+        }
+        try (InputStream in = getInputStream()) {
+            return IOUtils.toByteArray(in);
+        }
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        try (InputStream in = getInputStream()) {
+            IOUtils.copy(in, out);
+        }
+    }
+
+    /**
+     * Returns a body part that behaves like {@code original}, but writes these canonical bytes instead of
+     * serializing {@code original} again. The returned part must not be written after {@link #close()}.
+     */
+    public MimeBodyPart asBodyPart(MimeBodyPart original) throws MessagingException {
+        return new CanonicalBodyPart(original, this);
+    }
+
+    @Override
+    public void close() {
+        data = null;
+        if (file != null) {
+            if (!file.delete()) {
+                Timber.i("Failed to delete canonical content file: %s", file.getName());
+            }
+            file = null;
+        }
+    }
+
+    /**
+     * Delegates everything but serialization to the original part.
+     */
+    private static class CanonicalBodyPart extends MimeBodyPart {
+        private final MimeBodyPart original;
+        private final PqcCanonicalContent content;
+
+        CanonicalBodyPart(MimeBodyPart original, PqcCanonicalContent content) throws MessagingException {
+            this.original = original;
+            this.content = content;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            content.writeTo(out);
+        }
+
+        @Override
+        public void writeHeaderTo(OutputStream out) throws IOException, MessagingException {
+            original.writeHeaderTo(out);
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            original.addHeader(name, value);
+        }
+
+        @Override
+        public void addRawHeader(String name, String raw) {
+            original.addRawHeader(name, raw);
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            original.setHeader(name, value);
+        }
+
+        @NonNull
+        @Override
+        public String[] getHeader(String name) {
+            return original.getHeader(name);
+        }
+
+        @Override
+        public void removeHeader(String name) {
+            original.removeHeader(name);
+        }
+
+        @Override
+        public Body getBody() {
+            return original.getBody();
+        }
+
+        @Override
+        public void setBody(Body body) {
+            // Called by the MimeBodyPart constructor before 'original' is assigned
+            if (original != null) {
+                original.setBody(body);
+            }
+        }
+
+        @Override
+        public void setEncoding(String encoding) throws MessagingException {
+            original.setEncoding(encoding);
+        }
+
+        @Override
+        public String getContentType() {
+            return original.getContentType();
+        }
+
+        @Override
+        public String getDisposition() {
+            return original.getDisposition();
+        }
+
+        @Override
+        public String getContentId() {
+            return original.getContentId();
+        }
+
+        @Override
+        public String getMimeType() {
+            return original.getMimeType();
+        }
+
+        @Override
+        public boolean isMimeType(String mimeType) {
+            return original.isMimeType(mimeType);
+        }
+    }
+}
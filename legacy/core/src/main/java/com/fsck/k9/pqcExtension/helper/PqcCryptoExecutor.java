@@ -0,0 +1,216 @@
+package com.fsck.k9.pqcExtension.helper;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import timber.log.Timber;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs PQC decryption and signature verification off the UI thread.
+ *
+ * Tasks of the visible message run before prefetch tasks; within a priority the most recently submitted task runs
+ * first, so when the user swipes quickly through a thread the message on screen doesn't wait for the decapsulations
+ * of messages that were only shown briefly. At most {@link #MAX_QUEUED_TASKS} tasks wait in the queue: when it is
+ * full, the oldest prefetch task is dropped, or the new task is rejected if it is a prefetch task itself. Without
+ * prefetch tasks to drop, a new visible task replaces the oldest visible one. At most {@link #MAX_RUNNING_TASKS}
+ * tasks run at the same time, on the shared threads of {@link PqcExecutors}.
+ *
+ * Results are delivered on the main thread, and every task reports back exactly once unless the caller cancels it:
+ * dropped and rejected tasks fail with a {@link CancellationException}. A task that doesn't finish within
+ * {@link #TASK_TIMEOUT_MILLIS} fails with a {@link TimeoutException} and is interrupted. Native operations don't
+ * react to interrupts though, so the task keeps counting against {@link #MAX_RUNNING_TASKS} until it returns.
+ */
+public class PqcCryptoExecutor {
+
+    private static final int MAX_QUEUED_TASKS = 16;
+    private static final long TASK_TIMEOUT_MILLIS = 60_000;
+    private static final int MAX_RUNNING_TASKS = 2;
+
+    private static final AtomicLong sequenceNumbers = new AtomicLong();
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private static final PriorityQueue<Task<?>> queue = new PriorityQueue<>();
+    private static int runningTasks = 0;
+
+    public enum Priority {
+        VISIBLE,
+        PREFETCH
+    }
+
+    /**
+     * Receives the result of a task on the main thread.
+     */
+    public interface Callback<T> {
+        void onResult(T result);
+
+        void onError(Exception e);
+    }
+
+    /**
+     * A queued or running crypto operation.
+     */
+    public static class Task<T> extends FutureTask<T> implements Comparable<Task<?>> {
+        private final Priority priority;
+        private final long sequenceNumber;
+        private final Callback<T> callback;
+        private final AtomicBoolean delivered = new AtomicBoolean(false);
+        private final Runnable timeout = this::timeOut;
+
+        Task(Priority priority, Callable<T> callable, Callback<T> callback) {
+            super(callable);
+            this.priority = priority;
+            this.sequenceNumber = sequenceNumbers.incrementAndGet();
+            this.callback = callback;
+        }
+
+        public Priority getPriority() {
+            return priority;
+        }
+
+        @Override
+        public void run() {
+            if (isDone()) {
+                return;
+            }
+            mainHandler.postDelayed(timeout, TASK_TIMEOUT_MILLIS);
+            super.run();
+        }
+
+        /**
+         * Cancels the task on behalf of the caller. A task cancelled this way never reports back, even if it was
+         * already done.
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            delivered.set(true);
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            removeFromQueue(this);
+            return cancelled;
+        }
+
+        /**
+         * Removes a task that didn't run yet from the queue and reports it as failed.
+         */
+        private void drop(String reason) {
+            deliverError(new CancellationException(reason));
+            super.cancel(false);
+            removeFromQueue(this);
+        }
+
+        private void timeOut() {
+            deliverError(new TimeoutException("PQC crypto operation timed out"));
+            super.cancel(true);
+        }
+
+        @Override
+        protected void done() {
+            mainHandler.removeCallbacks(timeout);
+            if (isCancelled()) {
+                return;
+            }
+            try {
+                T result = get();
+                mainHandler.post(() -> deliverResult(result));
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                deliverError(cause instanceof Exception ? (Exception) cause : e);
+            } catch (InterruptedException | CancellationException e) {
+                // Can't happen once the task is done and wasn't cancelled
+            }
+        }
+
+        private void deliverResult(T result) {
+            if (delivered.compareAndSet(false, true)) {
+                callback.onResult(result);
+            }
+        }
+
+        private void deliverError(Exception e) {
+            mainHandler.post(() -> {
+                if (delivered.compareAndSet(false, true)) {
+                    callback.onError(e);
+                }
+            });
+        }
+
+        @Override
+        public int compareTo(Task<?> other) {
+            int priorityOrder = priority.compareTo(other.priority);
+            if (priorityOrder != 0) {
+                return priorityOrder;
+            }
+            // Newest first
+            return Long.compare(other.sequenceNumber, sequenceNumber);
+        }
+    }
+
+    /**
+     * Queues a crypto operation. A prefetch task that doesn't fit into the queue fails right away.
+     *
+     * @return the task, to cancel it once its result isn't needed anymore
+     */
+    public static <T> Task<T> submit(Priority priority, Callable<T> callable, Callback<T> callback) {
+        Task<T> task = new Task<>(priority, callable, callback);
+
+        synchronized (PqcCryptoExecutor.class) {
+            if (queue.size() >= MAX_QUEUED_TASKS && !dropOldestTask(Priority.PREFETCH)) {
+                if (priority == Priority.PREFETCH) {
+                    Timber.d("PQC crypto queue is full, rejecting prefetch task");
+                    task.drop("PQC crypto queue is full");
+                    return task;
+                }
+                Timber.w("PQC crypto queue is full of visible tasks, dropping the oldest one");
+                dropOldestTask(Priority.VISIBLE);
+            }
+            queue.add(task);
+            dispatchTasks();
+        }
+        return task;
+    }
+
+    private static synchronized void dispatchTasks() {
+        while (runningTasks < MAX_RUNNING_TASKS && !queue.isEmpty()) {
+            Task<?> task = queue.poll();
+            runningTasks++;
+            PqcExecutors.getPool().execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    taskFinished();
+                }
+            });
+        }
+    }
+
+    private static synchronized void taskFinished() {
+        runningTasks--;
+        dispatchTasks();
+    }
+
+    private static boolean dropOldestTask(Priority priority) {
+        Task<?> oldest = null;
+        for (Task<?> task : queue) {
+            if (task.priority == priority && (oldest == null || task.sequenceNumber < oldest.sequenceNumber)) {
+                oldest = task;
+            }
+        }
+        if (oldest == null) {
+            return false;
+        }
+        oldest.drop("Dropped from the full PQC crypto queue");
+        return true;
+    }
+
+    private static synchronized void removeFromQueue(Task<?> task) {
+        queue.remove(task);
+    }
+}
@@ -0,0 +1,293 @@
+package com.fsck.k9.pqcExtension.helper;
+
+import android.content.Context;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+
+import androidx.annotation.Nullable;
+
+import com.fsck.k9.mail.Multipart;
+import com.fsck.k9.mail.Part;
+import com.fsck.k9.mail.internet.MimeBodyPart;
+import com.fsck.k9.mailstore.CryptoResultAnnotation;
+import com.fsck.k9.mailstore.CryptoResultAnnotation.CryptoError;
+import com.fsck.k9.mailstore.MimePartStreamParser;
+import com.fsck.k9.mailstore.PqcCryptoResult;
+import com.fsck.k9.mailstore.PqcCryptoResultRepository;
+import com.fsck.k9.pqcExtension.helper.encryption.PqcStreamingAead;
+import com.fsck.k9.pqcExtension.keyManagement.RemoteKeyCache;
+import com.fsck.k9.pqcExtension.keyManagement.RemoteKeyCache.CachedRemoteKey;
+import com.fsck.k9.pqcExtension.keyManagement.SimpleKeyStoreFactory.KeyType;
+import com.fsck.k9.pqcExtension.message.results.PqcDecryptionResult;
+import com.fsck.k9.pqcExtension.message.results.PqcSignatureResult;
+import com.fsck.k9.pqcExtension.message.results.PqcSignatureResult.SenderStatusResult;
+import com.fsck.k9.provider.DecryptedFileProvider;
+import timber.log.Timber;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+import org.apache.commons.io.output.NullOutputStream;
+
+/**
+ * Persists successful PQC decryption and verification results, so reopening a message doesn't repeat the
+ * RSA, KEM, HKDF, AES-GCM and signature operations.
+ *
+ * Entries are keyed by the message id, a SHA-256 digest of the protected part and a fingerprint of the sender's
+ * current public keys. A changed part or changed sender keys lead to a cache miss. Decrypted content is stored
+ * encrypted with a random per-entry key, which in turn is wrapped by an AES key in the Android key store.
+ *
+ * All methods swallow their errors; a broken cache entry must never prevent the regular crypto path.
+ */
+public class PqcCryptoResultCache {
+
+    private static final String KEY_STORE_PROVIDER = "AndroidKeyStore";
+    private static final String WRAPPING_KEY_ALIAS = "pqc_crypto_result_cache";
+    private static final int GCM_TAG_LENGTH_BITS = 128;
+    private static final int DATA_KEY_LENGTH = 32;
+
+    /**
+     * Decrypted parts larger than this aren't cached, they would not fit into a cursor window.
+     */
+    static final int MAX_CACHED_DATA_SIZE = 1024 * 1024;
+
+    /**
+     * Identifies a cache entry. Computing it reads the whole part once, which is cheap compared to the
+     * cryptographic operations it saves.
+     */
+    public static class CacheKey {
+        final long messageId;
+        final String senderEmail;
+        final String partDigest;
+        final String signerFingerprint;
+
+        CacheKey(long messageId, String senderEmail, String partDigest, String signerFingerprint) {
+            this.messageId = messageId;
+            this.senderEmail = senderEmail;
+            this.partDigest = partDigest;
+            this.signerFingerprint = signerFingerprint;
+        }
+    }
+
+    /**
+     * @return the cache key for the given protected part, or {@code null} if it can't be computed
+     */
+    @Nullable
+    public static CacheKey createKey(Context context, long messageId, Part part, String senderEmail) {
+        try {
+            return new CacheKey(messageId, senderEmail, computePartDigest(part),
+                computeSignerFingerprint(context, senderEmail));
+        } catch (Exception e) {
+            Timber.w(e, "Unable to compute PQC result cache key for message %d", messageId);
+            return null;
+        }
+    }
+
+    /**
+     * Rebuilds the crypto annotation of a previously processed part.
+     *
+     * @param part the same part the key was created for
+     * @return the cached annotation, or {@code null} on a cache miss
+     */
+    @Nullable
+    public static CryptoResultAnnotation load(Context context, PqcCryptoResultRepository repository, CacheKey key,
+        Part part) {
+        try {
+            PqcCryptoResult cached = repository.getResult(key.messageId, key.partDigest, key.signerFingerprint);
+            if (cached == null) {
+                return null;
+            }
+
+            PqcSignatureResult signatureResult = null;
+            if (cached.getSignatureResult() != null) {
+                signatureResult = PqcSignatureResult.createWithValidSignature(cached.getSignatureResult(),
+                    key.senderEmail, 0L, new ArrayList<>(), new ArrayList<>(), SenderStatusResult.USER_ID_CONFIRMED);
+            }
+
+            if (cached.getDecryptionResult() == null) {
+                if (signatureResult == null) {
+                    return null;
+                }
+                MimeBodyPart signedContent = (MimeBodyPart) ((Multipart) part.getBody()).getBodyPart(0);
+                return CryptoResultAnnotation.createPqcSignatureSuccessAnnotation(null, signatureResult, signedContent);
+            }
+
+            if (cached.getWrappedKey() == null || cached.getEncryptedData() == null) {
+                return null;
+            }
+            MimeBodyPart replacementData = decryptReplacementData(context, cached);
+            PqcDecryptionResult decryptionResult = new PqcDecryptionResult(cached.getDecryptionResult());
+            if (signatureResult != null) {
+                return CryptoResultAnnotation.createPqcEncryptionSignatureSuccessAnnotation(
+                    decryptionResult, signatureResult, replacementData);
+            }
+            return CryptoResultAnnotation.createPqcEncryptionSuccessAnnotation(decryptionResult, replacementData);
+        } catch (Exception e) {
+            Timber.w(e, "Unable to read PQC result cache entry for message %d", key.messageId);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the annotation if it describes a successful decryption and/or verification. Errors aren't cached, they
+     * may go away once missing keys have been imported.
+     */
+    public static void store(PqcCryptoResultRepository repository, CacheKey key, CryptoResultAnnotation annotation) {
+        CryptoError errorType = annotation.getErrorType();
+        if (errorType != CryptoError.PQC_SIGNED_OK && errorType != CryptoError.PQC_ENCRYPTED_OK &&
+            errorType != CryptoError.PQC_SIGNED_AND_ENCRYPT_OK) {
+            return;
+        }
+
+        try {
+            Integer signatureResult = annotation.getPqcSignatureResult() != null ?
+                annotation.getPqcSignatureResult().getResult() : null;
+            Integer decryptionResult = null;
+            byte[] wrappedKey = null;
+            byte[] encryptedData = null;
+
+            if (errorType != CryptoError.PQC_SIGNED_OK) {
+                decryptionResult = annotation.getPqcDecryptionResult().getResult();
+
+                byte[] dataKey = new byte[DATA_KEY_LENGTH];
+                new SecureRandom().nextBytes(dataKey);
+                try {
+                    encryptedData = encryptReplacementData(annotation.getReplacementData(), dataKey);
+                    if (encryptedData == null) {
+                        return;
+                    }
+                    wrappedKey = wrapDataKey(dataKey);
+                } finally {
+                    Arrays.fill(dataKey, (byte) 0);
+                }
+            }
+
+            repository.saveResult(new PqcCryptoResult(key.messageId, key.partDigest, key.signerFingerprint,
+                decryptionResult, signatureResult, wrappedKey, encryptedData, System.currentTimeMillis()));
+        } catch (Exception e) {
+            Timber.w(e, "Unable to store PQC result cache entry for message %d", key.messageId);
+        }
+    }
+
+    static String computePartDigest(Part part) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        try (OutputStream out = new DigestOutputStream(NullOutputStream.INSTANCE, digest)) {
+            part.writeTo(out);
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Hashes the sender's stored PQC signature key and PGP key, so any key change invalidates cached results.
+     */
+    static String computeSignerFingerprint(Context context, String senderEmail) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+        CachedRemoteKey pqcKey = RemoteKeyCache.get(context, KeyType.PQC_SIG, senderEmail);
+        if (pqcKey != null) {
+            String algorithm = pqcKey.algorithm != null ? pqcKey.algorithm : "";
+            digest.update(algorithm.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(pqcKey.publicKey.getBytes(StandardCharsets.UTF_8));
+        }
+        digest.update((byte) 0);
+
+        CachedRemoteKey pgpKey = RemoteKeyCache.get(context, KeyType.PGP, senderEmail);
+        if (pgpKey != null) {
+            digest.update(pgpKey.publicKey.getBytes(StandardCharsets.UTF_8));
+        }
+
+        return toHex(digest.digest());
+    }
+
+    @Nullable
+    private static byte[] encryptReplacementData(MimeBodyPart replacementData, byte[] dataKey) throws Exception {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (OutputStream out = PqcStreamingAead.newEncryptingStream(buffer, dataKey)) {
+            replacementData.writeTo(out);
+        }
+        return buffer.size() <= MAX_CACHED_DATA_SIZE ? buffer.toByteArray() : null;
+    }
+
+    private static MimeBodyPart decryptReplacementData(Context context, PqcCryptoResult cached) throws Exception {
+        byte[] dataKey = unwrapDataKey(cached.getWrappedKey());
+        try (InputStream in = PqcStreamingAead.newDecryptingStream(
+            new ByteArrayInputStream(cached.getEncryptedData()), dataKey)) {
+            return MimePartStreamParser.parse(DecryptedFileProvider.getFileFactory(context), in);
+        } finally {
+            Arrays.fill(dataKey, (byte) 0);
+        }
+    }
+
+    // Wrapped key format: [IV length (int)][IV][ciphertext + tag]
+    private static byte[] wrapDataKey(byte[] dataKey) throws Exception {
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, getOrCreateWrappingKey());
+        byte[] iv = cipher.getIV();
+        byte[] ciphertext = cipher.doFinal(dataKey);
+        return ByteBuffer.allocate(4 + iv.length + ciphertext.length)
+            .putInt(iv.length)
+            .put(iv)
+            .put(ciphertext)
+            .array();
+    }
+
+    private static byte[] unwrapDataKey(byte[] wrappedKey) throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap(wrappedKey);
+        int ivLength = buffer.getInt();
+        if (ivLength <= 0 || ivLength > 32 || buffer.remaining() < ivLength) {
+            throw new IllegalArgumentException("Invalid IV length: " + ivLength);
+        }
+        byte[] iv = new byte[ivLength];
+        buffer.get(iv);
+        byte[] ciphertext = new byte[buffer.remaining()];
+        buffer.get(ciphertext);
+
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, getOrCreateWrappingKey(), new GCMParameterSpec(GCM_TAG_LENGTH_BITS, iv));
+        return cipher.doFinal(ciphertext);
+    }
+
+    private static synchronized SecretKey getOrCreateWrappingKey() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance(KEY_STORE_PROVIDER);
+        keyStore.load(null);
+        Key key = keyStore.getKey(WRAPPING_KEY_ALIAS, null);
+        if (key instanceof SecretKey) {
+            return (SecretKey) key;
+        }
+
+        KeyGenerator generator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, KEY_STORE_PROVIDER);
+        generator.init(new KeyGenParameterSpec.Builder(WRAPPING_KEY_ALIAS,
+            KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+            .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+            .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+            .setKeySize(256)
+            .build());
+        return generator.generateKey();
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
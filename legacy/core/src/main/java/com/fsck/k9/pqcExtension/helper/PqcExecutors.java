@@ -0,0 +1,174 @@
+package com.fsck.k9.pqcExtension.helper;
+
+import android.os.Process;
+
+import timber.log.Timber;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The background threads of the PQC extension.
+ *
+ * All PQC background work shares one pool of background priority threads, one per core. Its threads are only
+ * created when work is queued and end after {@link #IDLE_THREAD_TIMEOUT_SECONDS} without work, so an idle app keeps
+ * no PQC threads around. Work that has to run in order, like key generation or the verification of folders, runs on
+ * a {@link #newSerialExecutor() serial executor} on top of the pool instead of a thread of its own.
+ *
+ * A task on the pool that waits for other tasks of the pool has to use {@link #invokeAll(List)}, which runs tasks
+ * no pool thread has picked up yet on the waiting thread. Otherwise waiting tasks could occupy every thread of the
+ * pool.
+ */
+public class PqcExecutors {
+
+    private static final long IDLE_THREAD_TIMEOUT_SECONDS = 30;
+
+    private static ScheduledThreadPoolExecutor pool = null;
+
+    /**
+     * Returns the shared pool. Tasks on it must not wait for other tasks of the pool, see {@link #invokeAll(List)}.
+     */
+    public static synchronized ScheduledExecutorService getPool() {
+        if (pool == null) {
+            int threadCount = Math.max(2, Runtime.getRuntime().availableProcessors());
+            AtomicInteger threadNumber = new AtomicInteger();
+            pool = new ScheduledThreadPoolExecutor(threadCount, runnable -> {
+                Thread thread = new Thread(() -> {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }, "PqcBackground-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            pool.setKeepAliveTime(IDLE_THREAD_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            pool.allowCoreThreadTimeOut(true);
+            pool.setRemoveOnCancelPolicy(true);
+        }
+        return pool;
+    }
+
+    /**
+     * Returns an executor that runs its tasks one after the other, in the order they were queued, on the shared
+     * pool. It occupies a pool thread only while it has tasks.
+     */
+    public static ExecutorService newSerialExecutor() {
+        return new SerialExecutor();
+    }
+
+    /**
+     * Runs the tasks on the shared pool and waits until all of them are done. The calling thread takes part: it
+     * runs the tasks no pool thread has started yet, beginning with the last one. This makes it safe to call from a
+     * pool thread as well.
+     *
+     * @return the futures of the tasks, all done, in the order of the tasks
+     * @throws InterruptedException if the calling thread was interrupted; the tasks are cancelled then
+     */
+    public static <T> List<Future<T>> invokeAll(List<? extends Callable<T>> tasks) throws InterruptedException {
+        if (tasks.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<FutureTask<T>> futures = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) {
+            futures.add(new FutureTask<>(task));
+        }
+        // The last task is run by the caller anyway
+        ScheduledExecutorService pool = getPool();
+        for (int i = 0; i < futures.size() - 1; i++) {
+            pool.execute(futures.get(i));
+        }
+
+        try {
+            for (int i = futures.size() - 1; i >= 0; i--) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+                // Does nothing if a pool thread started the task already
+                futures.get(i).run();
+            }
+            for (FutureTask<T> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    // Returned to the caller through the future
+                }
+            }
+        } catch (InterruptedException e) {
+            for (FutureTask<T> future : futures) {
+                future.cancel(true);
+            }
+            throw e;
+        }
+        return new ArrayList<>(futures);
+    }
+
+    private static class SerialExecutor extends AbstractExecutorService {
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        private boolean running = false;
+
+        @Override
+        public synchronized void execute(Runnable command) {
+            tasks.add(command);
+            if (!running) {
+                running = true;
+                getPool().execute(this::runTasks);
+            }
+        }
+
+        private void runTasks() {
+            while (true) {
+                Runnable task;
+                synchronized (this) {
+                    task = tasks.poll();
+                    if (task == null) {
+                        running = false;
+                        return;
+                    }
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    // Must not stop the tasks queued after this one
+                    Timber.e(e, "PQC background task failed");
+                }
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            throw new UnsupportedOperationException("The shared PQC executors can't be shut down");
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            throw new UnsupportedOperationException("The shared PQC executors can't be shut down");
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return false;
+        }
+    }
+}
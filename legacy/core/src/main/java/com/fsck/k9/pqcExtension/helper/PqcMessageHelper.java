@@ -1,18 +1,16 @@
 package com.fsck.k9.pqcExtension.helper;
 
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.Base64;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import android.os.Build.VERSION_CODES;
-
-import androidx.annotation.RequiresApi;
 import com.fsck.k9.mail.Body;
 import com.fsck.k9.mail.BodyPart;
 import com.fsck.k9.mail.Multipart;
 import com.fsck.k9.mail.Part;
-import com.fsck.k9.mailstore.BinaryMemoryBody;
 
 
 public class PqcMessageHelper {
@@ -31,6 +29,21 @@ public class PqcMessageHelper {
             "-----END " + header + "-----";
     }
 
+    /**
+     * Creates an ASCII-armored string with armor headers. The headers are separated from the content by an empty
+     * line, so {@link #extractContent(String, String)} skips them.
+     */
+    public static String armor(String content, String header, Map<String, String> armorHeaders) {
+        StringBuilder armored = new StringBuilder("-----BEGIN ").append(header).append("-----\n");
+        for (Map.Entry<String, String> armorHeader : armorHeaders.entrySet()) {
+            armored.append(armorHeader.getKey()).append(": ").append(armorHeader.getValue()).append('\n');
+        }
+        return armored.append('\n')
+            .append(content).append('\n')
+            .append("-----END ").append(header).append("-----")
+            .toString();
+    }
+
     /**
      * Extracts the content section from an armored message block.
      * It searches for the block matching the given header and parses the content within.
@@ -104,6 +117,18 @@ public class PqcMessageHelper {
         throw new Exception("Algorithm not found");
     }
 
+    /**
+     * Returns the value of the given armor header, or null if the armored text doesn't have it.
+     */
+    public static String extractArmorHeader(String armoredText, String name) {
+        Pattern pattern = Pattern.compile("^" + Pattern.quote(name) + ":[ \\t]*(.+)$", Pattern.MULTILINE);
+        Matcher matcher = pattern.matcher(armoredText);
+        if (matcher.find()) {
+            return matcher.group(1).trim();
+        }
+        return null;
+    }
+
     /**
      * Canonicalizes a MIME part to a normalized byte representation with \r\n newlines.
      * This is necessary for correct signature verification.
@@ -118,11 +143,10 @@ public class PqcMessageHelper {
 
 
     /**
-     * Extracts the encrypted payload (Base64 + Binary) from a multipart message.
-     * Verifies content type and structure before decoding.
+     * Opens the encrypted payload part of a multipart message as a stream of decoded bytes.
+     * The Base64 content is decoded on the fly, so the payload is never fully loaded into memory.
      */
-    @RequiresApi(api = VERSION_CODES.TIRAMISU)
-    public static byte[] extractEncryptedPayload(Part part) throws Exception {
+    public static InputStream openEncryptedPayloadStream(Part part) throws Exception {
         if (!(part.getBody() instanceof Multipart)) {
             throw new IllegalArgumentException("Expected Multipart body");
         }
@@ -132,23 +156,10 @@ public class PqcMessageHelper {
         for (BodyPart bodyPart : multipart.getBodyParts()) {
             if (bodyPart.isMimeType("application/octet-stream")) {
                 Body innerBody = bodyPart.getBody();
-
-                if (!(innerBody instanceof BinaryMemoryBody)) {
-                    throw new IllegalArgumentException("Unexpected body type: " + innerBody.getClass().getSimpleName());
+                if (innerBody == null) {
+                    throw new IllegalArgumentException("Encrypted payload part has no body");
                 }
-
-                BinaryMemoryBody binaryBody = (BinaryMemoryBody) innerBody;
-                byte[] rawBytes = binaryBody.getInputStream().readAllBytes();
-
-                String rawText = new String(rawBytes, StandardCharsets.US_ASCII);
-
-                // Validate Base64 characters
-                if (!rawText.matches("[A-Za-z0-9+/=\\r\\n]+")) {
-                    throw new IllegalArgumentException("Invalid characters found in Base64 data");
-                }
-
-                // Decode using MIME-compatible Base64 decoder
-                return Base64.getMimeDecoder().decode(rawText);
+                return Base64.getMimeDecoder().wrap(innerBody.getInputStream());
             }
         }
 
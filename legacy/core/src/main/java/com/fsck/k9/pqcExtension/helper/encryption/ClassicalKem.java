@@ -0,0 +1,39 @@
+package com.fsck.k9.pqcExtension.helper.encryption;
+
+import java.security.PrivateKey;
+
+import org.bouncycastle.openpgp.PGPPublicKey;
+
+/**
+ * The classical half of the hybrid KEM. It works on the recipient's OpenPGP encryption key, whose algorithm decides
+ * which implementation is used, see {@link ClassicalKemFactory}.
+ */
+public interface ClassicalKem {
+
+    /**
+     * Returns the name of this KEM as written to the recipient blocks of the {@link PqcHybridEnvelope}.
+     */
+    String getAlgorithm();
+
+    /**
+     * Creates a fresh shared secret and the ciphertext that transports it to the owner of {@code publicKey}.
+     */
+    Encapsulation encapsulate(PGPPublicKey publicKey) throws Exception;
+
+    /**
+     * Recovers the shared secret from a ciphertext created by {@link #encapsulate(PGPPublicKey)}.
+     *
+     * @param privateKey    The private key of the OpenPGP encryption key, as returned by the JCA key converter
+     */
+    byte[] decapsulate(PrivateKey privateKey, byte[] ciphertext) throws Exception;
+
+    class Encapsulation {
+        public final byte[] ciphertext;
+        public final byte[] sharedSecret;
+
+        public Encapsulation(byte[] ciphertext, byte[] sharedSecret) {
+            this.ciphertext = ciphertext;
+            this.sharedSecret = sharedSecret;
+        }
+    }
+}
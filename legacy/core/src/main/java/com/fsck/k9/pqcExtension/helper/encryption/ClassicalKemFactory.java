@@ -0,0 +1,44 @@
+package com.fsck.k9.pqcExtension.helper.encryption;
+
+import org.bouncycastle.asn1.cryptlib.CryptlibObjectIdentifiers;
+import org.bouncycastle.bcpg.ECDHPublicBCPGKey;
+import org.bouncycastle.bcpg.PublicKeyAlgorithmTags;
+import org.bouncycastle.openpgp.PGPPublicKey;
+
+/**
+ * Selects the classical KEM for an OpenPGP encryption key or a KEM name read from a recipient block.
+ */
+public class ClassicalKemFactory {
+    private static final ClassicalKem rsaOaepKem = new RsaOaepKem();
+    private static final ClassicalKem x25519Kem = new X25519Kem();
+
+    public static ClassicalKem getKem(String algorithm) {
+        switch (algorithm) {
+            case RsaOaepKem.ALGORITHM:
+                return rsaOaepKem;
+            case X25519Kem.ALGORITHM:
+                return x25519Kem;
+            default:
+                throw new IllegalArgumentException("Unsupported classical KEM: " + algorithm);
+        }
+    }
+
+    public static ClassicalKem getKemForKey(PGPPublicKey publicKey) {
+        switch (publicKey.getAlgorithm()) {
+            case PublicKeyAlgorithmTags.RSA_GENERAL:
+            case PublicKeyAlgorithmTags.RSA_ENCRYPT:
+                return rsaOaepKem;
+            case PublicKeyAlgorithmTags.ECDH:
+                if (isCurve25519Key(publicKey)) {
+                    return x25519Kem;
+                }
+                break;
+        }
+        throw new IllegalArgumentException("No classical KEM for OpenPGP key algorithm " + publicKey.getAlgorithm());
+    }
+
+    private static boolean isCurve25519Key(PGPPublicKey publicKey) {
+        ECDHPublicBCPGKey key = (ECDHPublicBCPGKey) publicKey.getPublicKeyPacket().getKey();
+        return CryptlibObjectIdentifiers.curvey25519.equals(key.getCurveOID());
+    }
+}
@@ -3,6 +3,7 @@ package com.fsck.k9.pqcExtension.helper.encryption;
 import android.content.Context;
 import android.os.Build.VERSION_CODES;
 
+import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 
 import com.fsck.k9.crypto.MessageCryptoStructureDetector;
@@ -12,40 +13,28 @@ import com.fsck.k9.mailstore.CryptoResultAnnotation;
 import com.fsck.k9.mailstore.MimePartStreamParser;
 import com.fsck.k9.mailstore.util.FileFactory;
 import com.fsck.k9.pqcExtension.helper.PqcMessageHelper;
+import com.fsck.k9.pqcExtension.helper.encryption.PqcHybridEnvelope.RecipientBlock;
 import com.fsck.k9.pqcExtension.helper.signature.PqcVerifierHelper;
-import com.fsck.k9.pqcExtension.keyManagement.SimpleKeyStoreFactory;
-import com.fsck.k9.pqcExtension.keyManagement.manager.PgpSimpleKeyManager;
+import com.fsck.k9.pqcExtension.keyManagement.LocalPrivateKeyCache;
+import com.fsck.k9.pqcExtension.keyManagement.LocalPrivateKeyCache.HybridPrivateKeys;
+import com.fsck.k9.pqcExtension.keyManagement.LocalPrivateKeyCache.KemPrivateKey;
 import com.fsck.k9.pqcExtension.message.results.PqcDecryptionResult;
 
 import com.fsck.k9.pqcExtension.message.results.PqcError;
 import com.fsck.k9.provider.DecryptedFileProvider;
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
-import org.bouncycastle.openpgp.PGPPrivateKey;
-import org.bouncycastle.openpgp.PGPSecretKey;
-import org.bouncycastle.openpgp.PGPSecretKeyRing;
-import org.bouncycastle.openpgp.operator.PBESecretKeyDecryptor;
-import org.bouncycastle.openpgp.operator.jcajce.JcaPGPKeyConverter;
-import org.bouncycastle.openpgp.operator.jcajce.JcePBESecretKeyDecryptorBuilder;
-import org.bouncycastle.crypto.generators.HKDFBytesGenerator;
-import org.bouncycastle.crypto.params.HKDFParameters;
-import org.bouncycastle.crypto.digests.SHA256Digest;
-
-import org.json.JSONObject;
-import org.openquantumsafe.KeyEncapsulation;
-
-import javax.crypto.Cipher;
-import javax.crypto.Mac;
-import javax.crypto.SecretKey;
-import javax.crypto.spec.GCMParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
 
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
-import java.security.PrivateKey;
-import java.security.SecureRandom;
-import java.security.Security;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.List;
+import java.util.Map;
 
 public class PqcDecryptionHelper {
 
@@ -56,41 +45,31 @@ public class PqcDecryptionHelper {
     @RequiresApi(api = VERSION_CODES.TIRAMISU)
     public static CryptoResultAnnotation decrypt(Context context, Part part, String senderEmail, String userId) throws Exception {
         try {
-            // Retrieve and decode Base64-encoded ciphertexts from headers
-            String rsaCiphertextBase64 = part.getHeader("X-Hybrid-RSA")[0];
-            String pqcCiphertextBase64 = part.getHeader("X-Hybrid-PQC")[0];
-
-            byte[] rsaCiphertext = Base64.getDecoder().decode(rsaCiphertextBase64.replaceAll("\\s", ""));
-            byte[] pqcCiphertext = Base64.getDecoder().decode(pqcCiphertextBase64.replaceAll("\\s", ""));
-
-            // Load PQC private key for this user from secure local keystore
-            JSONObject keyData = SimpleKeyStoreFactory.getKeyStore(SimpleKeyStoreFactory.KeyType.PQC_KEM)
-                .loadLocalPrivateKey(context, userId);
-
-            String pqcAlgorithm = keyData.getString("algorithm");
-            byte[] pqcPrivateKey = Base64.getDecoder().decode(keyData.getString("privateKey"));
-
-            // Extract the actual encrypted payload
-            byte[] encryptedPayload = PqcMessageHelper.extractEncryptedPayload(part);
-
-            // Fully decrypt the payload using both RSA and PQC shared secrets
-            byte[] plaintext = decryptHybridMessage(
-                context, userId,
-                encryptedPayload, rsaCiphertext, pqcCiphertext,
-                pqcPrivateKey, pqcAlgorithm
-            );
+            // Use the already decoded private keys of this user's unlock session. They are only needed to unwrap
+            // the content key, so they are released before the payload is decrypted.
+            HybridPrivateKeys privateKeys = LocalPrivateKeyCache.acquire(context, userId);
+            InputStream plaintextStream;
+            try {
+                plaintextStream = openPlaintextStream(part, privateKeys);
+            } finally {
+                LocalPrivateKeyCache.release(privateKeys);
+            }
 
-            // Parse decrypted content back into a MIME structure
-            InputStream plaintextStream = new ByteArrayInputStream(plaintext);
+            // Stream the payload through Base64 decoding and AES-GCM straight into the MIME parser
             FileFactory fileFactory = DecryptedFileProvider.getFileFactory(context);
-            MimeBodyPart replacementData = MimePartStreamParser.parse(fileFactory, plaintextStream);
+            MimeBodyPart replacementData;
+            try {
+                replacementData = MimePartStreamParser.parse(fileFactory, plaintextStream);
+            } finally {
+                plaintextStream.close();
+            }
 
             // Default result for encrypted message (no signature verification yet)
             PqcDecryptionResult pqcResult = new PqcDecryptionResult(PqcDecryptionResult.RESULT_DECRYPTED);
 
 
             // If the message is signed, attempt signature verification
-            if (MessageCryptoStructureDetector.isMultipartSignedWithMultipleSignatures(replacementData)) {
+            if (MessageCryptoStructureDetector.isPqcMultipartSigned(replacementData)) {
                 return PqcVerifierHelper.verifyAll(context, replacementData, senderEmail, userId,pqcResult);
             }
 
@@ -105,124 +84,196 @@ public class PqcDecryptionHelper {
     }
 
     /**
-     * Decrypts AES-GCM encrypted data using the session key.
-     * Extracts IV and performs authenticated decryption.
+     * Opens the decrypted payload of a hybrid encrypted message.
+     *
+     * Current messages start with a {@link PqcHybridEnvelope} that holds one key block per recipient; our block is
+     * selected by the fingerprint of our PGP encryption key and the content key is unwrapped from it with the
+     * classical and PQC KEM keys the block names. Older messages carry the RSA and PQC ciphertexts in the
+     * {@code X-Hybrid-RSA} and {@code X-Hybrid-PQC} headers.
      */
-    public static byte[] decryptWithAes(byte[] encrypted, byte[] sessionKey) throws Exception {
-        ByteBuffer buffer = ByteBuffer.wrap(encrypted);
-        if (buffer.remaining() < 4) {
-            throw new IllegalArgumentException("Encrypted data too short to contain IV length");
-        }
-
-        int ivLength = buffer.getInt();
+    private static InputStream openPlaintextStream(Part part, HybridPrivateKeys privateKeys) throws Exception {
+        BufferedInputStream payload = new BufferedInputStream(PqcMessageHelper.openEncryptedPayloadStream(part));
+        try {
+            byte[] key;
+            if (PqcHybridEnvelope.hasEnvelopeHeader(peek(payload, PqcHybridEnvelope.MAGIC.length))) {
+                key = unwrapContentKey(PqcHybridEnvelope.readHeader(payload), privateKeys);
+            } else {
+                byte[] rsaCiphertext = decodeHeaderValue(part.getHeader("X-Hybrid-RSA")[0]);
+                byte[] pqcCiphertext = decodeHeaderValue(part.getHeader("X-Hybrid-PQC")[0]);
+                key = deriveHybridSessionKey(privateKeys, rsaCiphertext, pqcCiphertext);
+            }
 
-        if (ivLength <= 0 || ivLength > 32 || buffer.remaining() < ivLength) {
-            throw new IllegalArgumentException("Invalid IV length: " + ivLength);
+            try {
+                return openDecryptingStream(payload, key);
+            } finally {
+                Arrays.fill(key, (byte) 0);
+            }
+        } catch (Exception e) {
+            payload.close();
+            throw e;
         }
-
-        byte[] iv = new byte[ivLength];
-        buffer.get(iv);
-
-        byte[] ciphertext = new byte[buffer.remaining()];
-        buffer.get(ciphertext);
-
-        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-        SecretKey key = new SecretKeySpec(sessionKey, 0, 32, "AES");
-        GCMParameterSpec spec = new GCMParameterSpec(128, iv);
-        cipher.init(Cipher.DECRYPT_MODE, key, spec);
-
-        return cipher.doFinal(ciphertext);
     }
+
     /**
-     * Leitet aus zwei Shared Secrets (z. B. RSA + PQC) einen 32-Byte AES-Session-Key ab,
-     * unter Verwendung von HKDF (RFC 5869) mit Salt und Info.
+     * Unwraps the content key from the recipient block created for our key.
      *
-     * @param s1    Erstes Shared Secret (z. B. aus RSA)
-     * @param s2    Zweites Shared Secret (z. B. aus PQC KEM)
-     * @return      Abgeleiteter Session Key (AES-256: 32 Byte)
+     * The KEM key is looked up in the account's key ring by the KEM key fingerprint of the block, so messages
+     * encrypted to a retired key still decrypt. If no block names our key, we may have received the message as a
+     * Bcc recipient; the hidden blocks are then tried with every KEM key of the key ring.
      */
-    public static byte[] deriveSessionKey(byte[] s1, byte[] s2) throws Exception {
-        // Kombiniere beide Shared Secrets (z. B. RSA + PQC)
-        byte[] inputKeyMaterial = ByteBuffer.allocate(s1.length + s2.length).put(s1).put(s2).array();
-
-        // Optional: Nutze ein Salt (hier null = kein Salt, aber du kannst auch random nehmen)
-        byte[] salt = generateRandomSalt();
+    public static byte[] unwrapContentKey(List<RecipientBlock> recipients, HybridPrivateKeys privateKeys)
+        throws Exception {
+        for (RecipientBlock block : recipients) {
+            if (block.matches(privateKeys.pgpKeyFingerprint)) {
+                byte[] kemKeyFingerprint = block.getKemKeyFingerprint();
+                KemPrivateKey kemKey = privateKeys.findKemKey(kemKeyFingerprint);
+                if (kemKey == null) {
+                    throw new Exception("Message was encrypted to a KEM key that isn't in this account's key ring");
+                }
+                if (!block.kemAlgorithm.equals(kemKey.algorithm)) {
+                    throw new Exception("Message was encrypted to a " + block.kemAlgorithm + " key, local key is "
+                        + kemKey.algorithm);
+                }
+                return unwrapContentKey(block, privateKeys, kemKey, kemKeyFingerprint);
+            }
+        }
 
-        // Info-Feld zur Kontextbindung (ähnlich wie dein "hybrid-key-ctx")
-        byte[] info = "hybrid-key-ctx".getBytes();
+        for (RecipientBlock block : recipients) {
+            if (block.isHidden() && block.classicalAlgorithm.equals(privateKeys.classicalAlgorithm)) {
+                byte[] key = tryUnwrapHiddenContentKey(block, privateKeys);
+                if (key != null) {
+                    return key;
+                }
+            }
+        }
+        throw new Exception("Message isn't encrypted for this account's key");
+    }
 
-        // Initialisiere den HKDF Generator
-        HKDFBytesGenerator hkdf = new HKDFBytesGenerator(new SHA256Digest());
-        hkdf.init(new HKDFParameters(inputKeyMaterial, salt, info));
+    /**
+     * Tries to unwrap the content key of a block that names no keys with each KEM key of the block's algorithm.
+     *
+     * @return the content key, or null if the block wasn't created for one of our keys
+     */
+    @Nullable
+    private static byte[] tryUnwrapHiddenContentKey(RecipientBlock block, HybridPrivateKeys privateKeys)
+        throws Exception {
+        for (Map.Entry<ByteBuffer, KemPrivateKey> entry : privateKeys.getKemKeysByFingerprint().entrySet()) {
+            KemPrivateKey kemKey = entry.getValue();
+            if (!block.kemAlgorithm.equals(kemKey.algorithm)) {
+                continue;
+            }
+            byte[] kemKeyFingerprint = new byte[entry.getKey().remaining()];
+            entry.getKey().duplicate().get(kemKeyFingerprint);
+            try {
+                return unwrapContentKey(block, privateKeys, kemKey, kemKeyFingerprint);
+            } catch (GeneralSecurityException e) {
+                // Wrapped for another recipient or another key, the authentication tag doesn't match
+            }
+        }
+        return null;
+    }
 
-        // Ziel: 32 Byte AES-256 Schlüssel
-        byte[] sessionKey = new byte[32];
-        hkdf.generateBytes(sessionKey, 0, sessionKey.length);
+    private static byte[] unwrapContentKey(RecipientBlock block, HybridPrivateKeys privateKeys, KemPrivateKey kemKey,
+        byte[] kemKeyFingerprint) throws Exception {
+        byte[] classicalCiphertext = block.getClassicalCiphertext();
+        byte[] classicalSharedSecret = ClassicalKemFactory.getKem(block.classicalAlgorithm)
+            .decapsulate(privateKeys.classicalPrivateKey, classicalCiphertext);
+        byte[] pqcCiphertext = block.getPqcCiphertext();
+        byte[] pqcSharedSecret = derivePqcSharedSecret(pqcCiphertext, kemKey.getSecretKey(), kemKey.algorithm);
+
+        byte[] wrappingKey = PqcHybridPrimitives.combineSharedSecrets(classicalSharedSecret, pqcSharedSecret,
+            block.classicalAlgorithm, classicalCiphertext, privateKeys.pgpKeyFingerprint,
+            kemKey.algorithm, pqcCiphertext, kemKeyFingerprint);
+        try {
+            return PqcHybridPrimitives.decryptWithAes(block.getWrappedKey(), wrappingKey);
+        } finally {
+            Arrays.fill(classicalSharedSecret, (byte) 0);
+            Arrays.fill(pqcSharedSecret, (byte) 0);
+            Arrays.fill(wrappingKey, (byte) 0);
+        }
+    }
 
-        return sessionKey;
+    private static byte[] decodeHeaderValue(String value) {
+        // The MIME decoder skips the whitespace of folded header lines
+        return Base64.getMimeDecoder().decode(value);
     }
+
     /**
-     * Erstellt ein zufälliges 32-Byte-Salt für die Session.
+     * Wraps a decoded payload stream with the matching AES-GCM decryption.
+     * Segmented payloads are decrypted on the fly; payloads in the older single-shot format
+     * ([IV length][IV][ciphertext]) are read completely and decrypted with {@link PqcHybridPrimitives#decryptWithAes}.
      */
-    private static byte[] generateRandomSalt() {
-        byte[] salt = new byte[32]; // 256-bit
-        new SecureRandom().nextBytes(salt);
-        return salt;
+    public static InputStream openDecryptingStream(InputStream payload, byte[] sessionKey) throws Exception {
+        BufferedInputStream in = payload instanceof BufferedInputStream ?
+            (BufferedInputStream) payload : new BufferedInputStream(payload);
+        if (PqcStreamingAead.hasStreamingHeader(peek(in, PqcStreamingAead.MAGIC.length))) {
+            return PqcStreamingAead.newDecryptingStream(in, sessionKey);
+        }
+
+        try {
+            return new ByteArrayInputStream(PqcHybridPrimitives.decryptWithAes(IOUtils.toByteArray(in), sessionKey));
+        } finally {
+            in.close();
+        }
     }
 
     /**
-     * Decrypts RSA-encrypted shared secret using private key from local keyring.
+     * Returns up to {@code length} bytes from the start of the stream without consuming them.
      */
-    public static byte[] deriveRsaSharedSecretFromPrivateKey(Context context, String userId, byte[] encryptedSessionKey) throws Exception {
-        if (Security.getProvider("BC") == null) {
-            Security.addProvider(new BouncyCastleProvider());
+    private static byte[] peek(BufferedInputStream in, int length) throws IOException {
+        in.mark(length);
+        byte[] prefix = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int n = in.read(prefix, read, length - read);
+            if (n == -1) break;
+            read += n;
         }
+        in.reset();
+        return read == length ? prefix : Arrays.copyOf(prefix, read);
+    }
 
-        JSONObject json = SimpleKeyStoreFactory.getKeyStore(SimpleKeyStoreFactory.KeyType.PGP)
-            .loadLocalPrivateKey(context, userId);
-
-        String armoredPriv = json.getString("privateKey");
-
-        PGPSecretKeyRing secretKeyRing = PgpSimpleKeyManager.parseSecretKeyRing(armoredPriv);
-        PGPSecretKey decryptKey = null;
-
-        for (PGPSecretKey key : secretKeyRing) {
-            if (key.getPublicKey().isEncryptionKey()) {
-                decryptKey = key;
-                break;
-            }
+    /**
+     * Decrypts the RSA-encrypted shared secret of a message in the older header format. Those messages were always
+     * encrypted with RSA-OAEP, so they can't be decrypted with an account whose encryption key is of another type.
+     */
+    public static byte[] deriveRsaSharedSecretFromPrivateKey(HybridPrivateKeys privateKeys, byte[] encryptedSessionKey)
+        throws Exception {
+        if (!RsaOaepKem.ALGORITHM.equals(privateKeys.classicalAlgorithm)) {
+            throw new Exception("Legacy RSA message, key type mismatch: local encryption key uses "
+                + privateKeys.classicalAlgorithm);
         }
-        if (decryptKey == null) throw new Exception("No encryption key found");
-
-        PBESecretKeyDecryptor decryptor = new JcePBESecretKeyDecryptorBuilder().setProvider(new BouncyCastleProvider()).build(new char[0]);
-        PGPPrivateKey privateKey = decryptKey.extractPrivateKey(decryptor);
-
-        PrivateKey jcePrivateKey = new JcaPGPKeyConverter().setProvider(new BouncyCastleProvider()).getPrivateKey(privateKey);
-
-        Cipher cipher = Cipher.getInstance("RSA/ECB/OAEPWithSHA-256AndMGF1Padding", new BouncyCastleProvider());
-        cipher.init(Cipher.DECRYPT_MODE, jcePrivateKey);
-        return cipher.doFinal(encryptedSessionKey);
+        return ClassicalKemFactory.getKem(privateKeys.classicalAlgorithm)
+            .decapsulate(privateKeys.classicalPrivateKey, encryptedSessionKey);
     }
 
 
     /**
      * Fully decrypts a hybrid-encrypted message (AES layer) using the RSA + PQC secrets.
      */
-    public static byte[] decryptHybridMessage(Context context, String userId, byte[] encryptedAesData, byte[] rsaKemCiphertext, byte[] pqcKemCiphertext, byte[] pqcPrivateKey, String pqcAlgorithm) throws Exception {
-        byte[] rsaSharedSecret = deriveRsaSharedSecretFromPrivateKey(context, userId, rsaKemCiphertext);
-        byte[] pqcSharedSecret = derivePqcSharedSecret(pqcKemCiphertext, pqcPrivateKey, pqcAlgorithm);
-        byte[] sessionKey = deriveSessionKey(rsaSharedSecret, pqcSharedSecret);
-        return decryptWithAes(encryptedAesData, sessionKey);
+    public static byte[] decryptHybridMessage(HybridPrivateKeys privateKeys, byte[] encryptedAesData,
+        byte[] rsaKemCiphertext, byte[] pqcKemCiphertext) throws Exception {
+        byte[] sessionKey = deriveHybridSessionKey(privateKeys, rsaKemCiphertext, pqcKemCiphertext);
+        return PqcHybridPrimitives.decryptWithAes(encryptedAesData, sessionKey);
+    }
+
+    /**
+     * Recovers the AES session key from the RSA and PQC KEM ciphertexts of a message in the older header format,
+     * using the account's current PQC KEM key.
+     */
+    public static byte[] deriveHybridSessionKey(HybridPrivateKeys privateKeys, byte[] rsaKemCiphertext,
+        byte[] pqcKemCiphertext) throws Exception {
+        byte[] rsaSharedSecret = deriveRsaSharedSecretFromPrivateKey(privateKeys, rsaKemCiphertext);
+        byte[] pqcSharedSecret = derivePqcSharedSecret(pqcKemCiphertext, privateKeys.getPqcSecretKey(),
+            privateKeys.pqcAlgorithm);
+        return PqcHybridPrimitives.deriveSessionKey(rsaSharedSecret, pqcSharedSecret);
     }
 
     /**
      * Uses PQC KEM private key to decapsulate and recover shared secret.
      */
     public static byte[] derivePqcSharedSecret(byte[] pqcCiphertext, byte[] pqcPrivateKey, String pqcAlgorithm) {
-        KeyEncapsulation kem = new KeyEncapsulation(pqcAlgorithm, pqcPrivateKey);
-        byte[] pqcSharedSecret = kem.decap_secret(pqcCiphertext);
-        kem.dispose_KEM();
-        return pqcSharedSecret;
+        return PqcKem.getInstance().decapsulate(pqcCiphertext, pqcPrivateKey, pqcAlgorithm);
     }
 
 }
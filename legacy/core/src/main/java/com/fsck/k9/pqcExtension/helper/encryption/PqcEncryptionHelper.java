@@ -1,108 +1,203 @@
 package com.fsck.k9.pqcExtension.helper.encryption;
 
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import com.fsck.k9.mail.Part;
+import com.fsck.k9.mail.filter.EOLConvertingOutputStream;
+import com.fsck.k9.mail.internet.BinaryTempFileBody;
+import com.fsck.k9.pqcExtension.helper.PqcExecutors;
+import com.fsck.k9.pqcExtension.helper.encryption.PqcHybridEnvelope.RecipientBlock;
+import org.apache.james.mime4j.util.MimeUtil;
 import org.bouncycastle.openpgp.PGPPublicKey;
-import org.bouncycastle.openpgp.operator.jcajce.JcaPGPKeyConverter;
-import org.openquantumsafe.KeyEncapsulation;
 import org.openquantumsafe.Pair;
-import javax.crypto.Cipher;
-import javax.crypto.SecretKey;
-import javax.crypto.spec.GCMParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
-import java.nio.ByteBuffer;
-import java.security.PublicKey;
+import java.io.OutputStream;
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 public class PqcEncryptionHelper {
 
     /**
      * Container class holding the result of hybrid key encapsulation:
-     * - RSA ciphertext
+     * - Classical KEM ciphertext
      * - PQC ciphertext
      * - Derived session key
      */
     public static class HybridKEMResult {
-        public final byte[] rsaCiphertext;
+        public final byte[] classicalCiphertext;
         public final byte[] pqcCiphertext;
         public final byte[] sessionKey;
 
-        public HybridKEMResult(byte[] rsaCt, byte[] pqcCt, byte[] sessionKey) {
-            this.rsaCiphertext = rsaCt;
+        public HybridKEMResult(byte[] classicalCt, byte[] pqcCt, byte[] sessionKey) {
+            this.classicalCiphertext = classicalCt;
             this.pqcCiphertext = pqcCt;
             this.sessionKey = sessionKey;
         }
     }
 
     /**
-     * Performs a hybrid key encapsulation using both classical RSA and post-quantum KEM.
+     * Public keys of one recipient of a hybrid encrypted message. The algorithm of the PGP encryption key selects
+     * the classical KEM.
      *
-     * @param rsaPubKey      The classical RSA public key (OpenPGP format)
+     * The key block of a hidden (Bcc) recipient names neither of its keys, so the other recipients can't tell who
+     * received a copy. Such a recipient finds its block by trial decryption.
+     */
+    public static class RecipientKeys {
+        public final String email;
+        public final PGPPublicKey pgpPublicKey;
+        public final String pqcAlgorithm;
+        public final byte[] pqcPublicKey;
+        public final boolean hidden;
+
+        public RecipientKeys(String email, PGPPublicKey pgpPublicKey, String pqcAlgorithm, byte[] pqcPublicKey) {
+            this(email, pgpPublicKey, pqcAlgorithm, pqcPublicKey, false);
+        }
+
+        public RecipientKeys(String email, PGPPublicKey pgpPublicKey, String pqcAlgorithm, byte[] pqcPublicKey,
+            boolean hidden) {
+            this.email = email;
+            this.pgpPublicKey = pgpPublicKey;
+            this.pqcAlgorithm = pqcAlgorithm;
+            this.pqcPublicKey = pqcPublicKey;
+            this.hidden = hidden;
+        }
+    }
+
+    /**
+     * Performs a hybrid key encapsulation using both a classical KEM and a post-quantum KEM.
+     *
+     * @param pgpPubKey      The classical public key (OpenPGP format); its algorithm selects the classical KEM
      * @param pqcPublicKey   The public key for the PQC KEM algorithm
      * @param pqcAlgorithm   The name of the PQC algorithm (e.g., "Kyber1024")
      * @return               A result object containing the encrypted secrets and session key
      * @throws Exception     If encryption fails at any stage
      */
-    public static HybridKEMResult encapsulateBoth(PGPPublicKey rsaPubKey, byte[] pqcPublicKey, String pqcAlgorithm) throws Exception {
+    public static HybridKEMResult encapsulateBoth(PGPPublicKey pgpPubKey, byte[] pqcPublicKey, String pqcAlgorithm) throws Exception {
         try {
-            // Step 1: Generate a 256-bit random shared secret for RSA
-            byte[] rsaSharedSecret = new byte[32];
-            new SecureRandom().nextBytes(rsaSharedSecret);
-
-            // Step 2: Encrypt the RSA shared secret using RSA-OAEP
-            Cipher rsaCipher = Cipher.getInstance("RSA/ECB/OAEPWithSHA-256AndMGF1Padding", new BouncyCastleProvider());
-            PublicKey jceRsaPublic = new JcaPGPKeyConverter().setProvider(new BouncyCastleProvider()).getPublicKey(rsaPubKey);
-            rsaCipher.init(Cipher.ENCRYPT_MODE, jceRsaPublic);
-            byte[] rsaCiphertext = rsaCipher.doFinal(rsaSharedSecret);
+            // Step 1: Encapsulate a shared secret with the classical KEM of the recipient's key
+            ClassicalKem.Encapsulation classical = ClassicalKemFactory.getKemForKey(pgpPubKey).encapsulate(pgpPubKey);
 
-            // Step 3: Perform PQC KEM encapsulation
-            KeyEncapsulation kem = new KeyEncapsulation(pqcAlgorithm);
-            Pair<byte[], byte[]> pqcPair = kem.encap_secret(pqcPublicKey);
-            kem.dispose_KEM();
+            // Step 2: Perform PQC KEM encapsulation
+            Pair<byte[], byte[]> pqcPair = encapsulatePqc(pqcPublicKey, pqcAlgorithm);
 
             byte[] pqcCiphertext = pqcPair.getLeft();
             byte[] pqcSharedSecret = pqcPair.getRight();
 
-            // Step 4: Derive the symmetric session key from both secrets
-            byte[] sessionKey = PqcDecryptionHelper.deriveSessionKey(rsaSharedSecret, pqcSharedSecret);
+            // Step 3: Derive the symmetric session key from both secrets
+            byte[] sessionKey = PqcHybridPrimitives.deriveSessionKey(classical.sharedSecret, pqcSharedSecret);
 
-            return new HybridKEMResult(rsaCiphertext, pqcCiphertext, sessionKey);
+            return new HybridKEMResult(classical.ciphertext, pqcCiphertext, sessionKey);
         } catch (Exception e) {
             throw new RuntimeException("Hybrid-KEM decryption failed", e);
         }
     }
 
     /**
-     * Encrypts the given plaintext using AES-GCM with the derived session key.
+     * Generates a random 256-bit content key. The payload of a multi-recipient message is encrypted once with
+     * this key, which is then wrapped for every recipient.
+     */
+    public static byte[] generateContentKey() {
+        byte[] contentKey = new byte[32];
+        new SecureRandom().nextBytes(contentKey);
+        return contentKey;
+    }
+
+    /**
+     * Wraps the content key for every recipient. The classical and PQC KEM encapsulations of different recipients
+     * are independent and run in parallel.
      *
-     * @param plaintext     The plaintext to encrypt
-     * @param sessionKey    The 256-bit AES key used for encryption
-     * @return              The IV and ciphertext packed together in a single byte array
-     * @throws Exception    If AES encryption fails
+     * @param contentKey    The key the payload is encrypted with
+     * @param recipients    The public keys of all recipients
+     * @return              One key block per recipient, in the order of {@code recipients}
+     * @throws Exception    If the key can't be wrapped for one of the recipients
      */
-    public static byte[] encryptWithAes(byte[] plaintext, byte[] sessionKey) throws Exception {
+    public static List<RecipientBlock> wrapContentKey(byte[] contentKey, List<RecipientKeys> recipients) throws Exception {
+        if (recipients.size() == 1) {
+            return Collections.singletonList(wrapContentKey(contentKey, recipients.get(0)));
+        }
+
+        List<Callable<RecipientBlock>> tasks = new ArrayList<>(recipients.size());
+        for (RecipientKeys recipient : recipients) {
+            tasks.add(() -> wrapContentKey(contentKey, recipient));
+        }
+
+        List<RecipientBlock> blocks = new ArrayList<>(recipients.size());
+        for (Future<RecipientBlock> future : PqcExecutors.invokeAll(tasks)) {
+            try {
+                blocks.add(future.get());
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof Exception ? (Exception) cause : e;
+            }
+        }
+        return blocks;
+    }
+
+    private static RecipientBlock wrapContentKey(byte[] contentKey, RecipientKeys recipient) throws Exception {
+        ClassicalKem classicalKem = ClassicalKemFactory.getKemForKey(recipient.pgpPublicKey);
+        ClassicalKem.Encapsulation classical = classicalKem.encapsulate(recipient.pgpPublicKey);
+
+        Pair<byte[], byte[]> pqcPair = encapsulatePqc(recipient.pqcPublicKey, recipient.pqcAlgorithm);
+        byte[] pqcCiphertext = pqcPair.getLeft();
+        byte[] pqcSharedSecret = pqcPair.getRight();
+
+        byte[] fingerprint = recipient.pgpPublicKey.getFingerprint();
+        byte[] kemKeyFingerprint = PqcHybridPrimitives.kemKeyFingerprint(recipient.pqcPublicKey);
+        byte[] wrappingKey = PqcHybridPrimitives.combineSharedSecrets(classical.sharedSecret, pqcSharedSecret,
+            classicalKem.getAlgorithm(), classical.ciphertext, fingerprint,
+            recipient.pqcAlgorithm, pqcCiphertext, kemKeyFingerprint);
         try {
-            // Generate a random 96-bit IV for GCM
-            byte[] iv = new byte[12];
-            new SecureRandom().nextBytes(iv);
-
-            // Set up AES/GCM cipher instance
-            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-            SecretKey key = new SecretKeySpec(sessionKey, 0, 32, "AES");
-            GCMParameterSpec spec = new GCMParameterSpec(128, iv);
-            cipher.init(Cipher.ENCRYPT_MODE, key, spec);
-
-            // Encrypt the plaintext
-            byte[] ciphertext = cipher.doFinal(plaintext);
-
-            // Combine IV length, IV, and ciphertext into a single array
-            ByteBuffer buffer = ByteBuffer.allocate(4 + iv.length + ciphertext.length);
-            buffer.putInt(iv.length);
-            buffer.put(iv);
-            buffer.put(ciphertext);
-            return buffer.array();
+            byte[] wrappedKey = PqcHybridPrimitives.encryptWithAes(contentKey, wrappingKey);
+            if (recipient.hidden) {
+                // Both fingerprints stay bound to the wrapping key, they are just not written
+                fingerprint = new byte[0];
+                kemKeyFingerprint = new byte[0];
+            }
+            return new RecipientBlock(recipient.pqcAlgorithm, classicalKem.getAlgorithm(), fingerprint,
+                kemKeyFingerprint, classical.ciphertext, pqcCiphertext, wrappedKey);
+        } finally {
+            Arrays.fill(classical.sharedSecret, (byte) 0);
+            Arrays.fill(pqcSharedSecret, (byte) 0);
+            Arrays.fill(wrappingKey, (byte) 0);
+        }
+    }
+
+    private static Pair<byte[], byte[]> encapsulatePqc(byte[] pqcPublicKey, String pqcAlgorithm) {
+        return PqcKem.getInstance().encapsulate(pqcPublicKey, pqcAlgorithm);
+    }
+
+    /**
+     * Encrypts a MIME part without holding it in memory. The part is written with CRLF line endings
+     * through segmented AES-GCM and a Base64 encoder straight into a temp file. The recipient key blocks
+     * are written in a {@link PqcHybridEnvelope} in front of the encrypted stream.
+     *
+     * @param part          The MIME part to encrypt
+     * @param contentKey    The 256-bit AES key used for encryption
+     * @param recipients    The key blocks that wrap {@code contentKey} for each recipient
+     * @return              A 7bit body holding the Base64-encoded envelope
+     * @throws Exception    If writing or encrypting the part fails
+     */
+    public static BinaryTempFileBody encryptPartToTempBody(Part part, byte[] contentKey, List<RecipientBlock> recipients)
+        throws Exception {
+        BinaryTempFileBody body = new BinaryTempFileBody(MimeUtil.ENC_7BIT);
+        OutputStream base64Out = Base64.getMimeEncoder(76, "\r\n".getBytes()).wrap(body.getOutputStream());
+        try {
+            PqcHybridEnvelope.writeHeader(base64Out, recipients);
         } catch (Exception e) {
-            throw new RuntimeException("AES-decryption failed", e);
+            base64Out.close();
+            throw e;
+        }
+        OutputStream out = new EOLConvertingOutputStream(PqcStreamingAead.newEncryptingStream(base64Out, contentKey));
+        try {
+            part.writeTo(out);
+        } finally {
+            out.close();
         }
+        return body;
     }
 
     /**
@@ -0,0 +1,279 @@
+package com.fsck.k9.pqcExtension.helper.encryption;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Binary container for the key material of a hybrid encrypted message. It is written in front of the
+ * {@link PqcStreamingAead} payload inside the encrypted MIME part, so no key material travels in message headers.
+ *
+ * Format:
+ * <pre>
+ * magic "PQHE" (4) | version (1) | header length (int, 4) | header | AEAD payload
+ * header:    recipient count (unsigned short) | recipient*
+ * recipient: KEM algorithm (length byte + US-ASCII) | classical KEM algorithm (length byte + US-ASCII) |
+ *            key fingerprint (length byte + bytes) | KEM key fingerprint (length byte + bytes) |
+ *            classical ciphertext | KEM ciphertext | wrapped content key (each unsigned short length + bytes)
+ * </pre>
+ *
+ * The content key is wrapped with the key {@link PqcHybridPrimitives#combineSharedSecrets} derives from both shared
+ * secrets. Blocks of hidden (Bcc) recipients leave both fingerprints empty; the fingerprints are still part of the
+ * wrapping key derivation, so only the intended recipient can unwrap the key, but nobody else can tell whose block
+ * it is.
+ *
+ * The header is read with a single read and the recipient fields are slices of that buffer. Only the block that
+ * matches the local key is ever copied.
+ */
+public class PqcHybridEnvelope {
+
+    static final byte[] MAGIC = { 'P', 'Q', 'H', 'E' };
+    static final int VERSION = 1;
+
+    private static final int PREAMBLE_LENGTH = MAGIC.length + 1 + 4;
+    private static final int MAX_HEADER_LENGTH = 4 * 1024 * 1024;
+    private static final int MAX_SHORT_FIELD_LENGTH = 255;
+    private static final int MAX_FIELD_LENGTH = 0xFFFF;
+
+    /**
+     * Key block of one recipient: the classical and PQC KEM ciphertexts and the content key, AES-GCM encrypted with
+     * the key derived from both shared secrets. The block is identified by the fingerprint of the recipient's PGP
+     * encryption key. The KEM key fingerprint (SHA-256 of the KEM public key) tells the recipient which key of its
+     * key ring to decapsulate with.
+     */
+    public static class RecipientBlock {
+        public final String kemAlgorithm;
+        public final String classicalAlgorithm;
+        private final ByteBuffer keyFingerprint;
+        private final ByteBuffer kemKeyFingerprint;
+        private final ByteBuffer classicalCiphertext;
+        private final ByteBuffer pqcCiphertext;
+        private final ByteBuffer wrappedKey;
+
+        public RecipientBlock(String kemAlgorithm, String classicalAlgorithm, byte[] keyFingerprint,
+            byte[] kemKeyFingerprint, byte[] classicalCiphertext, byte[] pqcCiphertext, byte[] wrappedKey) {
+            this(kemAlgorithm, classicalAlgorithm, ByteBuffer.wrap(keyFingerprint), ByteBuffer.wrap(kemKeyFingerprint),
+                ByteBuffer.wrap(classicalCiphertext), ByteBuffer.wrap(pqcCiphertext), ByteBuffer.wrap(wrappedKey));
+        }
+
+        private RecipientBlock(String kemAlgorithm, String classicalAlgorithm, ByteBuffer keyFingerprint,
+            ByteBuffer kemKeyFingerprint, ByteBuffer classicalCiphertext, ByteBuffer pqcCiphertext,
+            ByteBuffer wrappedKey) {
+            this.kemAlgorithm = kemAlgorithm;
+            this.classicalAlgorithm = classicalAlgorithm;
+            this.keyFingerprint = keyFingerprint.asReadOnlyBuffer();
+            this.kemKeyFingerprint = kemKeyFingerprint.asReadOnlyBuffer();
+            this.classicalCiphertext = classicalCiphertext.asReadOnlyBuffer();
+            this.pqcCiphertext = pqcCiphertext.asReadOnlyBuffer();
+            this.wrappedKey = wrappedKey.asReadOnlyBuffer();
+        }
+
+        /**
+         * Returns true if this block was created for the key with the given fingerprint.
+         */
+        public boolean matches(byte[] fingerprint) {
+            return keyFingerprint.equals(ByteBuffer.wrap(fingerprint));
+        }
+
+        /**
+         * Returns true if this block names no keys. Its recipient has to find it by trial decryption.
+         */
+        public boolean isHidden() {
+            return !keyFingerprint.hasRemaining();
+        }
+
+        public byte[] getKeyFingerprint() {
+            return toByteArray(keyFingerprint);
+        }
+
+        /**
+         * Returns the fingerprint of the KEM key this block was encapsulated to.
+         */
+        public byte[] getKemKeyFingerprint() {
+            return toByteArray(kemKeyFingerprint);
+        }
+
+        public byte[] getClassicalCiphertext() {
+            return toByteArray(classicalCiphertext);
+        }
+
+        public byte[] getPqcCiphertext() {
+            return toByteArray(pqcCiphertext);
+        }
+
+        public byte[] getWrappedKey() {
+            return toByteArray(wrappedKey);
+        }
+
+        private byte[] algorithmBytes() {
+            return kemAlgorithm.getBytes(StandardCharsets.US_ASCII);
+        }
+
+        private byte[] classicalAlgorithmBytes() {
+            return classicalAlgorithm.getBytes(StandardCharsets.US_ASCII);
+        }
+
+        private int encodedLength() {
+            return 1 + algorithmBytes().length + 1 + classicalAlgorithmBytes().length
+                + 1 + keyFingerprint.remaining() + 1 + kemKeyFingerprint.remaining()
+                + 2 + classicalCiphertext.remaining() + 2 + pqcCiphertext.remaining() + 2 + wrappedKey.remaining();
+        }
+
+        private void writeTo(ByteBuffer out) {
+            putShortField(out, algorithmBytes());
+            putShortField(out, classicalAlgorithmBytes());
+            putShortField(out, keyFingerprint.duplicate());
+            putShortField(out, kemKeyFingerprint.duplicate());
+            putField(out, classicalCiphertext.duplicate());
+            putField(out, pqcCiphertext.duplicate());
+            putField(out, wrappedKey.duplicate());
+        }
+    }
+
+    /**
+     * Returns true if the given bytes start with the envelope magic.
+     */
+    public static boolean hasEnvelopeHeader(byte[] prefix) {
+        if (prefix.length < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (prefix[i] != MAGIC[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Writes the envelope preamble and header. The AEAD payload has to be written to the same stream afterwards.
+     */
+    public static void writeHeader(OutputStream out, List<RecipientBlock> recipients) throws IOException {
+        if (recipients.isEmpty() || recipients.size() > MAX_FIELD_LENGTH) {
+            throw new IllegalArgumentException("Invalid number of recipients: " + recipients.size());
+        }
+
+        int headerLength = 2;
+        for (RecipientBlock recipient : recipients) {
+            headerLength += recipient.encodedLength();
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(PREAMBLE_LENGTH + headerLength)
+            .put(MAGIC)
+            .put((byte) VERSION)
+            .putInt(headerLength)
+            .putShort((short) recipients.size());
+        for (RecipientBlock recipient : recipients) {
+            recipient.writeTo(buffer);
+        }
+        out.write(buffer.array());
+    }
+
+    /**
+     * Reads the envelope preamble and header. Afterwards the stream is positioned at the start of the AEAD payload.
+     *
+     * @return the recipient blocks, in the order they were written
+     * @throws IOException if the envelope is truncated, malformed or of an unsupported version
+     */
+    public static List<RecipientBlock> readHeader(InputStream in) throws IOException {
+        ByteBuffer preamble = ByteBuffer.wrap(readFully(in, PREAMBLE_LENGTH));
+        byte[] magic = new byte[MAGIC.length];
+        preamble.get(magic);
+        if (!hasEnvelopeHeader(magic)) {
+            throw new IOException("Missing hybrid envelope header");
+        }
+        int version = preamble.get() & 0xFF;
+        if (version != VERSION) {
+            throw new IOException("Unsupported hybrid envelope version: " + version);
+        }
+        int headerLength = preamble.getInt();
+        if (headerLength < 2 || headerLength > MAX_HEADER_LENGTH) {
+            throw new IOException("Invalid hybrid envelope header length: " + headerLength);
+        }
+
+        ByteBuffer header = ByteBuffer.wrap(readFully(in, headerLength));
+        try {
+            int count = header.getShort() & 0xFFFF;
+            List<RecipientBlock> recipients = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String kemAlgorithm = StandardCharsets.US_ASCII.decode(sliceShortField(header)).toString();
+                String classicalAlgorithm = StandardCharsets.US_ASCII.decode(sliceShortField(header)).toString();
+                ByteBuffer keyFingerprint = sliceShortField(header);
+                ByteBuffer kemKeyFingerprint = sliceShortField(header);
+                ByteBuffer classicalCiphertext = sliceField(header);
+                ByteBuffer pqcCiphertext = sliceField(header);
+                ByteBuffer wrappedKey = sliceField(header);
+                recipients.add(new RecipientBlock(kemAlgorithm, classicalAlgorithm, keyFingerprint,
+                    kemKeyFingerprint, classicalCiphertext, pqcCiphertext, wrappedKey));
+            }
+            if (header.hasRemaining()) {
+                throw new IOException("Trailing data in hybrid envelope header");
+            }
+            return Collections.unmodifiableList(recipients);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated hybrid envelope header", e);
+        }
+    }
+
+    private static ByteBuffer sliceShortField(ByteBuffer buffer) throws IOException {
+        return slice(buffer, buffer.get() & 0xFF);
+    }
+
+    private static ByteBuffer sliceField(ByteBuffer buffer) throws IOException {
+        return slice(buffer, buffer.getShort() & 0xFFFF);
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int length) throws IOException {
+        if (length > buffer.remaining()) {
+            throw new IOException("Invalid field length in hybrid envelope: " + length);
+        }
+        ByteBuffer field = buffer.slice();
+        field.limit(length);
+        buffer.position(buffer.position() + length);
+        return field;
+    }
+
+    private static void putShortField(ByteBuffer out, byte[] field) {
+        putShortField(out, ByteBuffer.wrap(field));
+    }
+
+    private static void putShortField(ByteBuffer out, ByteBuffer field) {
+        if (field.remaining() > MAX_SHORT_FIELD_LENGTH) {
+            throw new IllegalArgumentException("Field too long: " + field.remaining());
+        }
+        out.put((byte) field.remaining());
+        out.put(field);
+    }
+
+    private static void putField(ByteBuffer out, ByteBuffer field) {
+        if (field.remaining() > MAX_FIELD_LENGTH) {
+            throw new IllegalArgumentException("Field too long: " + field.remaining());
+        }
+        out.putShort((short) field.remaining());
+        out.put(field);
+    }
+
+    private static byte[] toByteArray(ByteBuffer field) {
+        byte[] bytes = new byte[field.remaining()];
+        field.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private static byte[] readFully(InputStream in, int length) throws IOException {
+        byte[] buffer = new byte[length];
+        int total = 0;
+        while (total < length) {
+            int n = in.read(buffer, total, length - total);
+            if (n == -1) {
+                throw new EOFException("Truncated hybrid envelope");
+            }
+            total += n;
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,176 @@
+package com.fsck.k9.pqcExtension.helper.encryption;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.generators.HKDFBytesGenerator;
+import org.bouncycastle.crypto.params.HKDFParameters;
+
+/**
+ * Key derivation and single-shot AES-GCM used by hybrid encryption and decryption.
+ *
+ * This class has no Android dependencies, so it can also be benchmarked on a desktop JVM.
+ */
+public class PqcHybridPrimitives {
+
+    private static final String SESSION_KEY_INFO = "hybrid-key-ctx";
+    private static final String KEM_COMBINER_INFO = "hybrid-kem-combiner-v1";
+
+    /**
+     * Derives the AES-256 session key of messages in the legacy header format from the RSA and PQC shared secrets,
+     * using HKDF-SHA256 (RFC 5869).
+     *
+     * The derivation has to be deterministic, since the recipient repeats it: there is no salt, and the
+     * {@code hybrid-key-ctx} info binds the key to this use.
+     *
+     * @param s1    Shared secret transported with RSA-OAEP
+     * @param s2    Shared secret of the PQC KEM
+     * @return      AES-256 session key
+     */
+    public static byte[] deriveSessionKey(byte[] s1, byte[] s2) {
+        byte[] inputKeyMaterial = ByteBuffer.allocate(s1.length + s2.length).put(s1).put(s2).array();
+        byte[] info = SESSION_KEY_INFO.getBytes(StandardCharsets.US_ASCII);
+
+        HKDFBytesGenerator hkdf = new HKDFBytesGenerator(new SHA256Digest());
+        hkdf.init(new HKDFParameters(inputKeyMaterial, null, info));
+
+        byte[] sessionKey = new byte[32];
+        hkdf.generateBytes(sessionKey, 0, sessionKey.length);
+        Arrays.fill(inputKeyMaterial, (byte) 0);
+        return sessionKey;
+    }
+
+    /**
+     * KEM combiner for version 3 recipient blocks: derives the key that wraps the content key from the classical and
+     * PQC shared secrets with HKDF-SHA256.
+     *
+     * Besides both shared secrets, the derivation binds both ciphertexts, both KEM names and the fingerprints of both
+     * public keys, so the wrapping key stays secure as long as one of the two KEMs is, even for a classical KEM like
+     * X25519 whose shared secret is a raw Diffie-Hellman output.
+     *
+     * @param classicalSharedSecret     Shared secret of the classical KEM
+     * @param pqcSharedSecret           Shared secret of the PQC KEM
+     * @param classicalAlgorithm        Name of the classical KEM, see {@link ClassicalKem#getAlgorithm()}
+     * @param classicalCiphertext       Ciphertext of the classical KEM
+     * @param keyFingerprint            Fingerprint of the recipient's PGP encryption key
+     * @param pqcAlgorithm              Name of the PQC KEM
+     * @param pqcCiphertext             Ciphertext of the PQC KEM
+     * @param kemKeyFingerprint         Fingerprint of the recipient's PQC KEM key, see {@link #kemKeyFingerprint}
+     * @return                          AES-256 key wrapping key
+     */
+    public static byte[] combineSharedSecrets(byte[] classicalSharedSecret, byte[] pqcSharedSecret,
+        String classicalAlgorithm, byte[] classicalCiphertext, byte[] keyFingerprint,
+        String pqcAlgorithm, byte[] pqcCiphertext, byte[] kemKeyFingerprint) {
+        byte[] inputKeyMaterial = ByteBuffer.allocate(classicalSharedSecret.length + pqcSharedSecret.length)
+            .put(classicalSharedSecret).put(pqcSharedSecret).array();
+        byte[] info = lengthPrefixed(
+            KEM_COMBINER_INFO.getBytes(StandardCharsets.US_ASCII),
+            classicalAlgorithm.getBytes(StandardCharsets.US_ASCII), classicalCiphertext, keyFingerprint,
+            pqcAlgorithm.getBytes(StandardCharsets.US_ASCII), pqcCiphertext, kemKeyFingerprint);
+
+        HKDFBytesGenerator hkdf = new HKDFBytesGenerator(new SHA256Digest());
+        hkdf.init(new HKDFParameters(inputKeyMaterial, null, info));
+
+        byte[] wrappingKey = new byte[32];
+        hkdf.generateBytes(wrappingKey, 0, wrappingKey.length);
+        Arrays.fill(inputKeyMaterial, (byte) 0);
+        return wrappingKey;
+    }
+
+    // Each field is preceded by its length, so no two different field lists encode to the same bytes
+    private static byte[] lengthPrefixed(byte[]... fields) {
+        int length = 0;
+        for (byte[] field : fields) {
+            length += 4 + field.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        for (byte[] field : fields) {
+            buffer.putInt(field.length).put(field);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Computes the fingerprint of a PQC KEM public key: the SHA-256 hash of the raw key, as stored in the key
+     * database.
+     */
+    public static byte[] kemKeyFingerprint(byte[] publicKey) {
+        SHA256Digest digest = new SHA256Digest();
+        digest.update(publicKey, 0, publicKey.length);
+        byte[] fingerprint = new byte[digest.getDigestSize()];
+        digest.doFinal(fingerprint, 0);
+        return fingerprint;
+    }
+
+    /**
+     * Encrypts the given plaintext using AES-GCM with the derived session key.
+     *
+     * @param plaintext     The plaintext to encrypt
+     * @param sessionKey    The 256-bit AES key used for encryption
+     * @return              The IV and ciphertext packed together in a single byte array
+     * @throws Exception    If AES encryption fails
+     */
+    public static byte[] encryptWithAes(byte[] plaintext, byte[] sessionKey) throws Exception {
+        try {
+            // Generate a random 96-bit IV for GCM
+            byte[] iv = new byte[12];
+            new SecureRandom().nextBytes(iv);
+
+            // Set up AES/GCM cipher instance
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            SecretKey key = new SecretKeySpec(sessionKey, 0, 32, "AES");
+            GCMParameterSpec spec = new GCMParameterSpec(128, iv);
+            cipher.init(Cipher.ENCRYPT_MODE, key, spec);
+
+            // Encrypt the plaintext
+            byte[] ciphertext = cipher.doFinal(plaintext);
+
+            // Combine IV length, IV, and ciphertext into a single array
+            ByteBuffer buffer = ByteBuffer.allocate(4 + iv.length + ciphertext.length);
+            buffer.putInt(iv.length);
+            buffer.put(iv);
+            buffer.put(ciphertext);
+            return buffer.array();
+        } catch (Exception e) {
+            throw new RuntimeException("AES-decryption failed", e);
+        }
+    }
+
+    /**
+     * Decrypts AES-GCM encrypted data using the session key.
+     * Extracts IV and performs authenticated decryption.
+     */
+    public static byte[] decryptWithAes(byte[] encrypted, byte[] sessionKey) throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap(encrypted);
+        if (buffer.remaining() < 4) {
+            throw new IllegalArgumentException("Encrypted data too short to contain IV length");
+        }
+
+        int ivLength = buffer.getInt();
+
+        if (ivLength <= 0 || ivLength > 32 || buffer.remaining() < ivLength) {
+            throw new IllegalArgumentException("Invalid IV length: " + ivLength);
+        }
+
+        byte[] iv = new byte[ivLength];
+        buffer.get(iv);
+
+        byte[] ciphertext = new byte[buffer.remaining()];
+        buffer.get(ciphertext);
+
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        SecretKey key = new SecretKeySpec(sessionKey, 0, 32, "AES");
+        GCMParameterSpec spec = new GCMParameterSpec(128, iv);
+        cipher.init(Cipher.DECRYPT_MODE, key, spec);
+
+        return cipher.doFinal(ciphertext);
+    }
+}
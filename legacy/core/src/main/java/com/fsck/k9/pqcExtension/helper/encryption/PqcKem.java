@@ -0,0 +1,53 @@
+package com.fsck.k9.pqcExtension.helper.encryption;
+
+import androidx.annotation.VisibleForTesting;
+
+import org.openquantumsafe.HandlePool;
+import org.openquantumsafe.KeyEncapsulation;
+import org.openquantumsafe.Pair;
+
+/**
+ * The post-quantum KEM operations of the hybrid encryption, run on pooled liboqs handles.
+ *
+ * Unit tests can't load the native library and replace the instance with {@link #setInstance(PqcKem)}.
+ */
+public class PqcKem {
+    private static volatile PqcKem instance = new PqcKem();
+
+    public static PqcKem getInstance() {
+        return instance;
+    }
+
+    @VisibleForTesting
+    static void setInstance(PqcKem kem) {
+        instance = kem;
+    }
+
+    /**
+     * Encapsulates a fresh shared secret to the public key.
+     *
+     * @return the ciphertext on the left and the shared secret on the right
+     */
+    public Pair<byte[], byte[]> encapsulate(byte[] publicKey, String algorithm) {
+        HandlePool<KeyEncapsulation> kemPool = HandlePool.get_KEM_instance();
+        KeyEncapsulation kem = kemPool.acquire(algorithm);
+        try {
+            return kem.encap_secret(publicKey);
+        } finally {
+            kemPool.release(algorithm, kem);
+        }
+    }
+
+    /**
+     * Recovers the shared secret of the ciphertext with the secret key.
+     */
+    public byte[] decapsulate(byte[] ciphertext, byte[] secretKey, String algorithm) {
+        HandlePool<KeyEncapsulation> kemPool = HandlePool.get_KEM_instance();
+        KeyEncapsulation kem = kemPool.acquire(algorithm);
+        try {
+            return kem.decap_secret_with_key(ciphertext, secretKey);
+        } finally {
+            kemPool.release(algorithm, kem);
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package com.fsck.k9.pqcExtension.helper.encryption;
+
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Segmented AES-GCM encryption for hybrid message payloads that may not fit into memory.
+ *
+ * The plaintext is split into fixed-size segments that are encrypted independently. Each segment
+ * uses its own nonce, built from a random per-message prefix, the segment counter and a flag that
+ * marks the final segment. Every segment authenticates the stream header as associated data, so
+ * segments can't be reordered, dropped, truncated or moved between messages.
+ *
+ * Format:
+ * <pre>
+ * magic "PQS1" (4) | segment size (int, 4) | nonce prefix (7) | segment* (ciphertext + 16 byte tag)
+ * </pre>
+ */
+public class PqcStreamingAead {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+
+    static final byte[] MAGIC = { 'P', 'Q', 'S', '1' };
+    static final int HEADER_LENGTH = MAGIC.length + 4 + 7;
+
+    private static final int MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+    private static final int NONCE_PREFIX_LENGTH = 7;
+    private static final int NONCE_LENGTH = 12;
+    private static final int TAG_LENGTH = 16;
+
+    /**
+     * Returns true if the given bytes start with the stream header magic.
+     */
+    public static boolean hasStreamingHeader(byte[] prefix) {
+        if (prefix.length < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (prefix[i] != MAGIC[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Wraps an output stream so that everything written to it is encrypted with the session key.
+     * The final segment is only written on {@link OutputStream#close()}.
+     */
+    public static OutputStream newEncryptingStream(OutputStream out, byte[] sessionKey) throws IOException {
+        return new EncryptingOutputStream(out, sessionKey, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Wraps an input stream containing a complete encrypted stream, header included.
+     * Segments are only released after their tag was verified.
+     */
+    public static InputStream newDecryptingStream(InputStream in, byte[] sessionKey) throws IOException {
+        return new DecryptingInputStream(in, sessionKey);
+    }
+
+    private static SecretKey toAesKey(byte[] sessionKey) {
+        return new SecretKeySpec(sessionKey, 0, 32, "AES");
+    }
+
+    private static byte[] segmentNonce(byte[] noncePrefix, int segmentIndex, boolean lastSegment) {
+        return ByteBuffer.allocate(NONCE_LENGTH)
+            .put(noncePrefix)
+            .putInt(segmentIndex)
+            .put((byte) (lastSegment ? 1 : 0))
+            .array();
+    }
+
+    private static byte[] header(int segmentSize, byte[] noncePrefix) {
+        return ByteBuffer.allocate(HEADER_LENGTH)
+            .put(MAGIC)
+            .putInt(segmentSize)
+            .put(noncePrefix)
+            .array();
+    }
+
+    static class EncryptingOutputStream extends FilterOutputStream {
+        private final SecretKey key;
+        private final byte[] header;
+        private final byte[] noncePrefix;
+        private final Cipher cipher;
+        private final byte[] plaintextSegment;
+        private final byte[] ciphertextSegment;
+        private int buffered = 0;
+        private int segmentIndex = 0;
+        private boolean closed = false;
+
+        EncryptingOutputStream(OutputStream out, byte[] sessionKey, int segmentSize) throws IOException {
+            super(out);
+            if (segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE) {
+                throw new IllegalArgumentException("Invalid segment size: " + segmentSize);
+            }
+            this.key = toAesKey(sessionKey);
+            this.noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+            new SecureRandom().nextBytes(noncePrefix);
+            this.header = header(segmentSize, noncePrefix);
+            this.plaintextSegment = new byte[segmentSize];
+            this.ciphertextSegment = new byte[segmentSize + TAG_LENGTH];
+            try {
+                this.cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            } catch (GeneralSecurityException e) {
+                throw new IOException("AES-GCM not available", e);
+            }
+            out.write(header);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) throw new IOException("Stream closed");
+            while (len > 0) {
+                // Only emit a full segment once more data arrives; the last segment must be flagged as such.
+                if (buffered == plaintextSegment.length) {
+                    writeSegment(false);
+                }
+                int chunk = Math.min(len, plaintextSegment.length - buffered);
+                System.arraycopy(b, off, plaintextSegment, buffered, chunk);
+                buffered += chunk;
+                off += chunk;
+                len -= chunk;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            try {
+                writeSegment(true);
+                out.flush();
+            } finally {
+                Arrays.fill(plaintextSegment, (byte) 0);
+                out.close();
+            }
+        }
+
+        private void writeSegment(boolean lastSegment) throws IOException {
+            if (segmentIndex == Integer.MAX_VALUE) {
+                throw new IOException("Too many segments");
+            }
+            try {
+                cipher.init(Cipher.ENCRYPT_MODE, key,
+                    new GCMParameterSpec(TAG_LENGTH * 8, segmentNonce(noncePrefix, segmentIndex, lastSegment)));
+                cipher.updateAAD(header);
+                int length = cipher.doFinal(plaintextSegment, 0, buffered, ciphertextSegment, 0);
+                out.write(ciphertextSegment, 0, length);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Segment encryption failed", e);
+            }
+            segmentIndex++;
+            buffered = 0;
+        }
+    }
+
+    static class DecryptingInputStream extends InputStream {
+        private final InputStream in;
+        private final SecretKey key;
+        private final byte[] header;
+        private final byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+        private final Cipher cipher;
+        private final byte[] ciphertextSegment;
+        private final byte[] plaintextSegment;
+        private int lookahead = -1;
+        private boolean hasLookahead = false;
+        private int segmentIndex = 0;
+        private int position = 0;
+        private int limit = 0;
+        private boolean finished = false;
+
+        DecryptingInputStream(InputStream in, byte[] sessionKey) throws IOException {
+            this.in = in;
+            this.key = toAesKey(sessionKey);
+
+            this.header = new byte[HEADER_LENGTH];
+            readFully(header, 0, HEADER_LENGTH);
+            if (!hasStreamingHeader(header)) {
+                throw new IOException("Missing streaming payload header");
+            }
+            ByteBuffer headerBuffer = ByteBuffer.wrap(header, MAGIC.length, HEADER_LENGTH - MAGIC.length);
+            int segmentSize = headerBuffer.getInt();
+            if (segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE) {
+                throw new IOException("Invalid segment size: " + segmentSize);
+            }
+            headerBuffer.get(noncePrefix);
+
+            this.ciphertextSegment = new byte[segmentSize + TAG_LENGTH];
+            this.plaintextSegment = new byte[segmentSize];
+            try {
+                this.cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            } catch (GeneralSecurityException e) {
+                throw new IOException("AES-GCM not available", e);
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!ensureData()) return -1;
+            return plaintextSegment[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (!ensureData()) return -1;
+            int chunk = Math.min(len, limit - position);
+            System.arraycopy(plaintextSegment, position, b, off, chunk);
+            position += chunk;
+            return chunk;
+        }
+
+        @Override
+        public int available() {
+            return limit - position;
+        }
+
+        @Override
+        public void close() throws IOException {
+            Arrays.fill(plaintextSegment, (byte) 0);
+            in.close();
+        }
+
+        private boolean ensureData() throws IOException {
+            while (position == limit) {
+                if (finished) return false;
+                decryptNextSegment();
+            }
+            return true;
+        }
+
+        private void decryptNextSegment() throws IOException {
+            int length = 0;
+            if (hasLookahead) {
+                ciphertextSegment[length++] = (byte) lookahead;
+                hasLookahead = false;
+            }
+            length += readUpTo(ciphertextSegment, length, ciphertextSegment.length - length);
+
+            // A segment is the last one iff the stream ends right after it.
+            boolean lastSegment = true;
+            if (length == ciphertextSegment.length) {
+                lookahead = in.read();
+                if (lookahead != -1) {
+                    hasLookahead = true;
+                    lastSegment = false;
+                }
+            }
+            if (length < TAG_LENGTH) {
+                throw new EOFException("Truncated segment");
+            }
+
+            try {
+                cipher.init(Cipher.DECRYPT_MODE, key,
+                    new GCMParameterSpec(TAG_LENGTH * 8, segmentNonce(noncePrefix, segmentIndex, lastSegment)));
+                cipher.updateAAD(header);
+                limit = cipher.doFinal(ciphertextSegment, 0, length, plaintextSegment, 0);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Segment authentication failed", e);
+            }
+            position = 0;
+            segmentIndex++;
+            finished = lastSegment;
+        }
+
+        private int readUpTo(byte[] buffer, int offset, int length) throws IOException {
+            int total = 0;
+            while (total < length) {
+                int n = in.read(buffer, offset + total, length - total);
+                if (n == -1) break;
+                total += n;
+            }
+            return total;
+        }
+
+        private void readFully(byte[] buffer, int offset, int length) throws IOException {
+            if (readUpTo(buffer, offset, length) != length) {
+                throw new EOFException("Truncated streaming payload header");
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.fsck.k9.pqcExtension.helper.encryption;
+
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPKeyConverter;
+
+/**
+ * Transports a random 256-bit secret with RSA-OAEP (SHA-256). Used for RSA OpenPGP keys.
+ */
+public class RsaOaepKem implements ClassicalKem {
+    public static final String ALGORITHM = "RSA-OAEP-SHA256";
+
+    private static final String TRANSFORMATION = "RSA/ECB/OAEPWithSHA-256AndMGF1Padding";
+    private static final int SECRET_LENGTH = 32;
+
+    private final BouncyCastleProvider provider = new BouncyCastleProvider();
+    private final SecureRandom random = new SecureRandom();
+
+    @Override
+    public String getAlgorithm() {
+        return ALGORITHM;
+    }
+
+    @Override
+    public Encapsulation encapsulate(PGPPublicKey publicKey) throws Exception {
+        byte[] sharedSecret = new byte[SECRET_LENGTH];
+        random.nextBytes(sharedSecret);
+
+        PublicKey rsaPublicKey = new JcaPGPKeyConverter().setProvider(provider).getPublicKey(publicKey);
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION, provider);
+        cipher.init(Cipher.ENCRYPT_MODE, rsaPublicKey);
+        return new Encapsulation(cipher.doFinal(sharedSecret), sharedSecret);
+    }
+
+    @Override
+    public byte[] decapsulate(PrivateKey privateKey, byte[] ciphertext) throws Exception {
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION, provider);
+        cipher.init(Cipher.DECRYPT_MODE, privateKey);
+        return cipher.doFinal(ciphertext);
+    }
+}
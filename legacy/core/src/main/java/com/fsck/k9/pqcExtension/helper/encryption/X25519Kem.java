@@ -0,0 +1,67 @@
+package com.fsck.k9.pqcExtension.helper.encryption;
+
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.pkcs.PrivateKeyInfo;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.bouncycastle.crypto.agreement.X25519Agreement;
+import org.bouncycastle.crypto.params.X25519PrivateKeyParameters;
+import org.bouncycastle.crypto.params.X25519PublicKeyParameters;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPKeyConverter;
+
+/**
+ * Ephemeral-static X25519 Diffie-Hellman used as a KEM: the ciphertext is the ephemeral public key, the shared secret
+ * is the raw DH output. Used for OpenPGP ECDH keys on Curve25519.
+ *
+ * The raw DH output is only safe to use because {@link PqcHybridPrimitives#combineSharedSecrets} binds it to the
+ * ciphertext and the recipient's key.
+ */
+public class X25519Kem implements ClassicalKem {
+    public static final String ALGORITHM = "X25519";
+
+    private final BouncyCastleProvider provider = new BouncyCastleProvider();
+    private final SecureRandom random = new SecureRandom();
+
+    @Override
+    public String getAlgorithm() {
+        return ALGORITHM;
+    }
+
+    @Override
+    public Encapsulation encapsulate(PGPPublicKey publicKey) throws Exception {
+        PublicKey jcaPublicKey = new JcaPGPKeyConverter().setProvider(provider).getPublicKey(publicKey);
+        byte[] rawPublicKey = SubjectPublicKeyInfo.getInstance(jcaPublicKey.getEncoded()).getPublicKeyData()
+            .getOctets();
+        X25519PublicKeyParameters recipientKey = new X25519PublicKeyParameters(rawPublicKey, 0);
+
+        X25519PrivateKeyParameters ephemeralKey = new X25519PrivateKeyParameters(random);
+        byte[] ciphertext = ephemeralKey.generatePublicKey().getEncoded();
+        return new Encapsulation(ciphertext, agree(ephemeralKey, recipientKey));
+    }
+
+    @Override
+    public byte[] decapsulate(PrivateKey privateKey, byte[] ciphertext) throws Exception {
+        if (ciphertext.length != X25519PublicKeyParameters.KEY_SIZE) {
+            throw new IllegalArgumentException("Invalid X25519 ciphertext length: " + ciphertext.length);
+        }
+
+        byte[] rawPrivateKey = ASN1OctetString.getInstance(
+            PrivateKeyInfo.getInstance(privateKey.getEncoded()).parsePrivateKey()).getOctets();
+        X25519PrivateKeyParameters recipientKey = new X25519PrivateKeyParameters(rawPrivateKey, 0);
+        return agree(recipientKey, new X25519PublicKeyParameters(ciphertext, 0));
+    }
+
+    private static byte[] agree(X25519PrivateKeyParameters privateKey, X25519PublicKeyParameters publicKey) {
+        X25519Agreement agreement = new X25519Agreement();
+        agreement.init(privateKey);
+        byte[] sharedSecret = new byte[agreement.getAgreementSize()];
+        // Fails for small-order public keys, which would lead to an all-zero secret
+        agreement.calculateAgreement(publicKey, sharedSecret, 0);
+        return sharedSecret;
+    }
+}
@@ -0,0 +1,253 @@
+package com.fsck.k9.pqcExtension.helper.signature;
+
+import android.content.Context;
+
+import app.k9mail.legacy.account.Account;
+import app.k9mail.legacy.di.DI;
+import com.fsck.k9.Preferences;
+import com.fsck.k9.crypto.MessageCryptoStructureDetector;
+import com.fsck.k9.mail.Address;
+import com.fsck.k9.mail.FetchProfile;
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.Multipart;
+import com.fsck.k9.mailstore.LocalFolder;
+import com.fsck.k9.mailstore.LocalMessage;
+import com.fsck.k9.mailstore.LocalStore;
+import com.fsck.k9.mailstore.LocalStoreProvider;
+import com.fsck.k9.mailstore.MessageHelper;
+import com.fsck.k9.mailstore.PqcVerificationResult;
+import com.fsck.k9.mailstore.PqcVerificationResultRepository;
+import com.fsck.k9.pqcExtension.helper.PqcExecutors;
+import com.fsck.k9.pqcExtension.helper.signature.PqcVerifierHelper.KeyMissingException;
+import com.fsck.k9.pqcExtension.helper.signature.PqcVerifierHelper.SenderKeys;
+import com.fsck.k9.pqcExtension.keyManagement.SimpleKeyStoreFactory.KeyType;
+import com.fsck.k9.pqcExtension.keyManagement.database.PqcKeyDatabase;
+import com.fsck.k9.pqcExtension.message.results.PqcSignatureResult;
+import org.openquantumsafe.HandlePool;
+import org.openquantumsafe.Signature;
+import timber.log.Timber;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Verifies the hybrid PGP + PQC signatures of all not yet verified messages of a folder in the background.
+ *
+ * Messages are grouped by sender, so the sender's public keys are parsed once and a single native signature
+ * handle is used for all of their messages. Sender groups are verified in parallel, one task per group.
+ * Results are persisted through {@link PqcVerificationResultRepository}, so the verification status is known
+ * without opening the message.
+ *
+ * Folders are verified one after the other, and the sender groups of a folder in parallel, on the shared background
+ * priority threads of {@link PqcExecutors}, so verification neither holds up the commands of the
+ * {@code MessagingController} nor competes with the UI for CPU time.
+ */
+public class PqcBatchVerifier {
+
+    /**
+     * Number of messages whose bodies are loaded into memory at the same time by one task.
+     */
+    private static final int FETCH_BATCH_SIZE = 25;
+
+    private static final ExecutorService folderExecutor = PqcExecutors.newSerialExecutor();
+
+    /**
+     * Returns true if PQC signing keys of contacts are stored. Received signatures can't be verified without them,
+     * whether or not the account signs its own messages.
+     */
+    public static boolean hasRemoteSigningKeys(Context context) {
+        try {
+            return PqcKeyDatabase.getInstance(context).hasRemoteKeys(KeyType.PQC_SIG);
+        } catch (GeneralSecurityException e) {
+            Timber.e(e, "PQC key database not available");
+            return false;
+        }
+    }
+
+    /**
+     * Queues the verification of a folder. Returns right away; failures are only logged.
+     */
+    public static void verifyFolderInBackground(Context context, LocalStore localStore, long folderId) {
+        folderExecutor.execute(() -> {
+            try {
+                int verified = verifyFolder(context, localStore, folderId);
+                Timber.d("Stored PQC verification results for %d messages in folder %d", verified, folderId);
+            } catch (MessagingException e) {
+                Timber.e(e, "PQC batch verification failed for folder %d", folderId);
+            }
+        });
+    }
+
+    /**
+     * Drops the stored results of messages from the given senders in all accounts, after their public keys changed.
+     * The messages are verified again with the new keys on the next sync. Runs after folder verifications that are
+     * already queued, so results they store with the old keys are dropped as well.
+     */
+    public static void invalidateResults(Collection<String> senders) {
+        if (senders.isEmpty()) return;
+
+        List<String> pendingSenders = new ArrayList<>(senders);
+        folderExecutor.execute(() -> {
+            LocalStoreProvider localStoreProvider = DI.get(LocalStoreProvider.class);
+            for (Account account : Preferences.getPreferences().getAccounts()) {
+                try {
+                    LocalStore localStore = localStoreProvider.getInstance(account);
+                    PqcVerificationResultRepository repository = localStore.getPqcVerificationResultRepository();
+                    for (String sender : pendingSenders) {
+                        repository.removeResultsForSender(sender);
+                    }
+                    localStore.notifyChange();
+                } catch (MessagingException e) {
+                    Timber.e(e, "Unable to drop PQC verification results of %s", account);
+                }
+            }
+        });
+    }
+
+    /**
+     * Drops the stored results of messages sent from the account, after its own signing keys changed.
+     */
+    public static void invalidateOwnResults(String accountUuid) {
+        Account account = Preferences.getPreferences().getAccount(accountUuid);
+        if (account != null) {
+            invalidateResults(Collections.singletonList(account.getEmail()));
+        }
+    }
+
+    /**
+     * Verifies all multipart/signed messages of the folder that don't have a stored result yet.
+     *
+     * @return the number of messages for which a result was stored
+     */
+    public static int verifyFolder(Context context, LocalStore localStore, long folderId) throws MessagingException {
+        LocalFolder folder = localStore.getFolder(folderId);
+        folder.open();
+
+        PqcVerificationResultRepository repository = localStore.getPqcVerificationResultRepository();
+        List<LocalMessage> unverifiedMessages = folder.getMessagesWithoutPqcVerificationResult();
+        Map<String, List<LocalMessage>> messagesBySender = groupBySender(unverifiedMessages);
+        if (messagesBySender.isEmpty()) {
+            return 0;
+        }
+
+        List<Callable<List<PqcVerificationResult>>> tasks = new ArrayList<>();
+        for (Map.Entry<String, List<LocalMessage>> entry : messagesBySender.entrySet()) {
+            String sender = entry.getKey();
+            List<LocalMessage> messages = entry.getValue();
+            tasks.add(() -> verifySenderGroup(context, folder, sender, messages));
+        }
+
+        int stored = 0;
+        try {
+            for (Future<List<PqcVerificationResult>> future : PqcExecutors.invokeAll(tasks)) {
+                try {
+                    List<PqcVerificationResult> results = future.get();
+                    repository.saveResults(results);
+                    stored += results.size();
+                } catch (ExecutionException e) {
+                    Timber.e(e.getCause(), "PQC batch verification of a sender group failed");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (stored > 0) {
+            // Lets the message list show the new results
+            localStore.notifyChange();
+        }
+        return stored;
+    }
+
+    private static Map<String, List<LocalMessage>> groupBySender(List<LocalMessage> messages) {
+        Map<String, List<LocalMessage>> messagesBySender = new LinkedHashMap<>();
+        for (LocalMessage message : messages) {
+            Address[] from = message.getFrom();
+            if (from == null || from.length == 0 || from[0].getAddress() == null) {
+                continue;
+            }
+
+            String sender = from[0].getAddress().toLowerCase();
+            List<LocalMessage> group = messagesBySender.get(sender);
+            if (group == null) {
+                group = new ArrayList<>();
+                messagesBySender.put(sender, group);
+            }
+            group.add(message);
+        }
+        return messagesBySender;
+    }
+
+    private static List<PqcVerificationResult> verifySenderGroup(Context context, LocalFolder folder, String sender,
+        List<LocalMessage> messages) throws MessagingException {
+        SenderKeys senderKeys;
+        try {
+            senderKeys = PqcVerifierHelper.loadSenderKeys(context, sender);
+        } catch (KeyMissingException e) {
+            // Don't store anything; the messages will be verified once the sender's keys are known.
+            Timber.d("Skipping PQC batch verification for %s: %s", sender, e.getMessage());
+            return Collections.emptyList();
+        } catch (Exception e) {
+            Timber.w(e, "Unable to load public keys of %s", sender);
+            return Collections.emptyList();
+        }
+
+        List<PqcVerificationResult> results = new ArrayList<>(messages.size());
+        HandlePool<Signature> sigPool = HandlePool.get_sig_instance();
+        Signature pqcVerifier = sigPool.acquire(senderKeys.algorithm);
+        try {
+            for (int start = 0; start < messages.size(); start += FETCH_BATCH_SIZE) {
+                if (Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+
+                List<LocalMessage> batch = messages.subList(start, Math.min(start + FETCH_BATCH_SIZE, messages.size()));
+                FetchProfile fetchProfile = new FetchProfile();
+                fetchProfile.add(FetchProfile.Item.BODY);
+                folder.fetch(batch, fetchProfile, null);
+
+                for (LocalMessage message : batch) {
+                    Integer result = verifyMessage(message, senderKeys, pqcVerifier);
+                    if (result != null) {
+                        results.add(new PqcVerificationResult(message.getDatabaseId(), result, sender,
+                            senderKeys.algorithm, System.currentTimeMillis()));
+                    }
+                }
+            }
+        } finally {
+            sigPool.release(senderKeys.algorithm, pqcVerifier);
+        }
+        return results;
+    }
+
+    /**
+     * @return one of the {@code PqcSignatureResult.RESULT_*} codes, or {@code null} if the message can't be
+     * verified yet because its body hasn't been downloaded completely or the verification failed for another reason
+     * than an invalid signature. Nothing is stored for these, so they are verified again on the next sync.
+     */
+    private static Integer verifyMessage(LocalMessage message, SenderKeys senderKeys, Signature pqcVerifier) {
+        if (!MessageHelper.isCompletePartAvailable(message)) {
+            return null;
+        }
+        if (!MessageCryptoStructureDetector.isPqcMultipartSigned(message)) {
+            return PqcSignatureResult.RESULT_NO_SIGNATURE;
+        }
+
+        try {
+            boolean valid = PqcVerifierHelper.verifySignatures((Multipart) message.getBody(), senderKeys, pqcVerifier);
+            return valid ? PqcSignatureResult.RESULT_VALID_KEY_CONFIRMED : PqcSignatureResult.RESULT_INVALID_SIGNATURE;
+        } catch (Exception e) {
+            Timber.w(e, "PQC batch verification failed for message %d", message.getDatabaseId());
+            return null;
+        }
+    }
+}
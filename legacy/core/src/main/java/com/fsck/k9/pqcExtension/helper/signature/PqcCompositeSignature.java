@@ -0,0 +1,182 @@
+package com.fsck.k9.pqcExtension.helper.signature;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import androidx.annotation.Nullable;
+
+import org.bouncycastle.bcpg.PublicKeyAlgorithmTags;
+import org.bouncycastle.crypto.params.AsymmetricKeyParameter;
+import org.bouncycastle.crypto.params.Ed25519PrivateKeyParameters;
+import org.bouncycastle.crypto.params.Ed25519PublicKeyParameters;
+import org.bouncycastle.crypto.signers.Ed25519Signer;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPrivateKey;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.operator.bc.BcPGPKeyConverter;
+
+/**
+ * A composite signature: an Ed25519 signature and a PQC signature (ML-DSA) over the same message, sent as one binary
+ * signature part instead of an ASCII-armored OpenPGP signature plus an ASCII-armored PQC signature.
+ *
+ * Encoding:
+ * <pre>
+ * magic "PQCS" (4) | version (1) | pre-hash (length byte + US-ASCII) | PQC algorithm (length byte + US-ASCII) |
+ * Ed25519 signature (64) | PQC signature (rest)
+ * </pre>
+ *
+ * The content is digested once with the {@link PqcPreHash} mode and both legs sign
+ * {@code "PQC-COMPOSITE-v1" || 0x00 || PQC algorithm || 0x00 || pre-hashed content}. Since the PQC algorithm and
+ * the composite label are part of the signed bytes, neither leg can be stripped off and passed off as a signature of
+ * its own.
+ *
+ * The Ed25519 leg uses the EdDSA primary key of the OpenPGP key ring, so the recipient already knows the public key.
+ */
+public class PqcCompositeSignature {
+    public static final String CONTENT_TYPE = "application/pqc-composite-signature";
+    public static final String FILENAME = "signature-composite.sig";
+
+    static final byte[] MAGIC = { 'P', 'Q', 'C', 'S' };
+    static final int VERSION = 1;
+
+    private static final String DOMAIN_LABEL = "PQC-COMPOSITE-v1";
+    private static final int ED25519_SIGNATURE_LENGTH = Ed25519PrivateKeyParameters.SIGNATURE_SIZE;
+
+    public final PqcPreHash preHash;
+    public final String pqcAlgorithm;
+    private final byte[] ed25519Signature;
+    private final byte[] pqcSignature;
+
+    public PqcCompositeSignature(PqcPreHash preHash, String pqcAlgorithm, byte[] ed25519Signature,
+        byte[] pqcSignature) {
+        if (ed25519Signature.length != ED25519_SIGNATURE_LENGTH) {
+            throw new IllegalArgumentException("Invalid Ed25519 signature length: " + ed25519Signature.length);
+        }
+        this.preHash = preHash;
+        this.pqcAlgorithm = pqcAlgorithm;
+        this.ed25519Signature = ed25519Signature;
+        this.pqcSignature = pqcSignature;
+    }
+
+    public byte[] getEd25519Signature() {
+        return ed25519Signature;
+    }
+
+    public byte[] getPqcSignature() {
+        return pqcSignature;
+    }
+
+    public byte[] encode() {
+        byte[] preHashName = preHash.getHeaderValue().getBytes(StandardCharsets.US_ASCII);
+        byte[] algorithmName = pqcAlgorithm.getBytes(StandardCharsets.US_ASCII);
+        return ByteBuffer.allocate(MAGIC.length + 1 + 1 + preHashName.length + 1 + algorithmName.length +
+                ED25519_SIGNATURE_LENGTH + pqcSignature.length)
+            .put(MAGIC)
+            .put((byte) VERSION)
+            .put((byte) preHashName.length).put(preHashName)
+            .put((byte) algorithmName.length).put(algorithmName)
+            .put(ed25519Signature)
+            .put(pqcSignature)
+            .array();
+    }
+
+    /**
+     * @throws IOException if the signature is truncated, malformed, of an unsupported version or uses an unknown
+     *                     pre-hash mode
+     */
+    public static PqcCompositeSignature decode(byte[] encoded) throws IOException {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(encoded);
+            byte[] magic = new byte[MAGIC.length];
+            buffer.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a composite signature");
+            }
+            int version = buffer.get() & 0xFF;
+            if (version != VERSION) {
+                throw new IOException("Unsupported composite signature version: " + version);
+            }
+
+            String preHashName = readShortString(buffer);
+            PqcPreHash preHash = PqcPreHash.fromHeaderValue(preHashName);
+            if (preHash == null) {
+                throw new IOException("Unknown composite signature pre-hash: " + preHashName);
+            }
+            String pqcAlgorithm = readShortString(buffer);
+
+            byte[] ed25519Signature = new byte[ED25519_SIGNATURE_LENGTH];
+            buffer.get(ed25519Signature);
+            byte[] pqcSignature = new byte[buffer.remaining()];
+            buffer.get(pqcSignature);
+            if (pqcSignature.length == 0) {
+                throw new IOException("Composite signature without PQC signature");
+            }
+
+            return new PqcCompositeSignature(preHash, pqcAlgorithm, ed25519Signature, pqcSignature);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated composite signature", e);
+        }
+    }
+
+    private static String readShortString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.get() & 0xFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Returns the bytes both legs sign.
+     *
+     * @param preHashedContent  The content as returned by {@link PqcPreHash#toSignedMessage}
+     */
+    public static byte[] toSignedMessage(byte[] preHashedContent, String pqcAlgorithm) {
+        byte[] label = DOMAIN_LABEL.getBytes(StandardCharsets.US_ASCII);
+        byte[] algorithmName = pqcAlgorithm.getBytes(StandardCharsets.US_ASCII);
+        return ByteBuffer.allocate(label.length + 1 + algorithmName.length + 1 + preHashedContent.length)
+            .put(label).put((byte) 0)
+            .put(algorithmName).put((byte) 0)
+            .put(preHashedContent)
+            .array();
+    }
+
+    public static byte[] signEd25519(Ed25519PrivateKeyParameters privateKey, byte[] message) {
+        Ed25519Signer signer = new Ed25519Signer();
+        signer.init(true, privateKey);
+        signer.update(message, 0, message.length);
+        return signer.generateSignature();
+    }
+
+    public static boolean verifyEd25519(Ed25519PublicKeyParameters publicKey, byte[] message, byte[] signature) {
+        Ed25519Signer verifier = new Ed25519Signer();
+        verifier.init(false, publicKey);
+        verifier.update(message, 0, message.length);
+        return verifier.verifySignature(signature);
+    }
+
+    /**
+     * Returns the Ed25519 key of an OpenPGP EdDSA key, or null if the key is of a different type.
+     */
+    @Nullable
+    public static Ed25519PublicKeyParameters toEd25519PublicKey(PGPPublicKey publicKey) throws PGPException {
+        if (publicKey.getAlgorithm() != PublicKeyAlgorithmTags.EDDSA_LEGACY) {
+            return null;
+        }
+        AsymmetricKeyParameter key = new BcPGPKeyConverter().getPublicKey(publicKey);
+        return key instanceof Ed25519PublicKeyParameters ? (Ed25519PublicKeyParameters) key : null;
+    }
+
+    /**
+     * Returns the Ed25519 key of an OpenPGP EdDSA private key, or null if the key is of a different type.
+     */
+    @Nullable
+    public static Ed25519PrivateKeyParameters toEd25519PrivateKey(PGPPrivateKey privateKey) throws PGPException {
+        if (privateKey.getPublicKeyPacket().getAlgorithm() != PublicKeyAlgorithmTags.EDDSA_LEGACY) {
+            return null;
+        }
+        AsymmetricKeyParameter key = new BcPGPKeyConverter().getPrivateKey(privateKey);
+        return key instanceof Ed25519PrivateKeyParameters ? (Ed25519PrivateKeyParameters) key : null;
+    }
+}
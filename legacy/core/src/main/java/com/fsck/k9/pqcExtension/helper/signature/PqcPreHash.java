@@ -0,0 +1,84 @@
+package com.fsck.k9.pqcExtension.helper.signature;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import androidx.annotation.Nullable;
+
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.digests.SHA512Digest;
+import org.bouncycastle.crypto.digests.SHAKEDigest;
+
+/**
+ * Pre-hash mode for PQC signatures. The canonical content is digested incrementally and the PQC algorithm signs
+ * the digest instead of the whole message, so signing and verifying use constant memory regardless of message size.
+ *
+ * The mode is announced in the {@value #ARMOR_HEADER} armor header of the PQC signature part. Signatures without
+ * that header were made over the complete message.
+ *
+ * The signed bytes are {@code "PQC-PREHASH " || header value || 0x00 || digest}, so a pre-hash signature can't be
+ * mistaken for a signature over a message that happens to equal the digest.
+ */
+public enum PqcPreHash {
+    SHA512("SHA-512"),
+    SHAKE256("SHAKE256");
+
+    public static final String ARMOR_HEADER = "Hash";
+
+    private static final String DOMAIN_PREFIX = "PQC-PREHASH ";
+    private static final int BUFFER_SIZE = 8192;
+
+    private final String headerValue;
+
+    PqcPreHash(String headerValue) {
+        this.headerValue = headerValue;
+    }
+
+    public String getHeaderValue() {
+        return headerValue;
+    }
+
+    /**
+     * Returns the mode for the given armor header value, or null if it isn't known.
+     */
+    @Nullable
+    public static PqcPreHash fromHeaderValue(String headerValue) {
+        for (PqcPreHash preHash : values()) {
+            if (preHash.headerValue.equalsIgnoreCase(headerValue.trim())) {
+                return preHash;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Digests the stream until its end and returns the bytes the PQC algorithm signs.
+     */
+    public byte[] toSignedMessage(InputStream in) throws IOException {
+        Digest digest = createDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+
+        byte[] prefix = (DOMAIN_PREFIX + headerValue).getBytes(StandardCharsets.US_ASCII);
+        byte[] message = new byte[prefix.length + 1 + digest.getDigestSize()];
+        System.arraycopy(prefix, 0, message, 0, prefix.length);
+        digest.doFinal(message, prefix.length + 1);
+        return message;
+    }
+
+    private Digest createDigest() {
+        switch (this) {
+            case SHA512:
+                return new SHA512Digest();
+            case SHAKE256:
+                // 64 bytes of output, the same as SHA-512
+                return new SHAKEDigest(256);
+            default:
+                throw new AssertionError(this);
+        }
+    }
+}
@@ -2,34 +2,132 @@ package com.fsck.k9.pqcExtension.helper.signature;
 
 import android.content.Context;
 
+import com.fsck.k9.pqcExtension.helper.PqcCanonicalContent;
+import com.fsck.k9.pqcExtension.helper.PqcExecutors;
 import com.fsck.k9.pqcExtension.keyManagement.SimpleKeyStoreFactory;
 import com.fsck.k9.pqcExtension.keyManagement.SimpleKeyStoreFactory.KeyType;
 import com.fsck.k9.pqcExtension.keyManagement.manager.PgpSimpleKeyManager;
 import org.bouncycastle.bcpg.ArmoredOutputStream;
+import org.bouncycastle.crypto.params.Ed25519PrivateKeyParameters;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.openpgp.*;
 import org.bouncycastle.openpgp.operator.jcajce.*;
 import org.json.JSONObject;
+import org.openquantumsafe.HandlePool;
 import org.openquantumsafe.Signature;
+import timber.log.Timber;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
 import java.security.Security;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
 
 public class PqcSignatureHelper {
 
+    private static final PqcPreHash DEFAULT_PRE_HASH = PqcPreHash.SHA512;
+
     private final String userId;
     private final Context context;
+    private final ExecutorService executor;
+    private final PqcPreHash preHash;
+
+
+    /**
+     * Both signatures of a message together with the time each signing leg took.
+     */
+    public static class HybridSignatureResult {
+        private final Map<String, byte[]> signatures;
+        private final boolean composite;
+        private final PqcPreHash pqcPreHash;
+        private final long pgpSigningTimeNanos;
+        private final long pqcSigningTimeNanos;
+        private final long totalTimeNanos;
+
+        HybridSignatureResult(Map<String, byte[]> signatures, boolean composite, PqcPreHash pqcPreHash,
+            long pgpSigningTimeNanos, long pqcSigningTimeNanos, long totalTimeNanos) {
+            this.signatures = signatures;
+            this.composite = composite;
+            this.pqcPreHash = pqcPreHash;
+            this.pgpSigningTimeNanos = pgpSigningTimeNanos;
+            this.pqcSigningTimeNanos = pqcSigningTimeNanos;
+            this.totalTimeNanos = totalTimeNanos;
+        }
+
+        /**
+         * @return the signatures keyed by "pgp" and "pqc-sig", or the encoded {@link PqcCompositeSignature} keyed by
+         * "composite"
+         */
+        public Map<String, byte[]> getSignatures() {
+            return signatures;
+        }
+
+        public boolean isComposite() {
+            return composite;
+        }
+
+        /**
+         * @return the pre-hash mode of the PQC signature, to be announced in its armor header
+         */
+        public PqcPreHash getPqcPreHash() {
+            return pqcPreHash;
+        }
+
+        /**
+         * @return the time of the OpenPGP signature, or of the Ed25519 leg of a composite signature
+         */
+        public long getPgpSigningTimeNanos() {
+            return pgpSigningTimeNanos;
+        }
+
+        public long getPqcSigningTimeNanos() {
+            return pqcSigningTimeNanos;
+        }
 
+        /**
+         * Wall clock time of the whole operation. With both legs running concurrently this is close to the
+         * slower of the two legs instead of their sum.
+         */
+        public long getTotalTimeNanos() {
+            return totalTimeNanos;
+        }
+    }
 
     /**
-     * Constructs a signature helper for a specific user and Android context.
+     * Constructs a signature helper for a specific user and Android context that signs on the shared PQC background
+     * threads, see {@link PqcExecutors}.
      * Adds the BouncyCastle provider if not already registered.
      */
     public PqcSignatureHelper(String userId, Context context) {
+        this(userId, context, PqcExecutors.getPool());
+    }
+
+    /**
+     * Constructs a signature helper that runs the PQC signing leg on the given executor.
+     * The PGP leg runs on the calling thread in the meantime.
+     */
+    public PqcSignatureHelper(String userId, Context context, ExecutorService executor) {
+        this(userId, context, executor, DEFAULT_PRE_HASH);
+    }
+
+    /**
+     * Constructs a signature helper whose PQC signatures are made over a digest of the content, computed with the
+     * given pre-hash mode.
+     */
+    public PqcSignatureHelper(String userId, Context context, ExecutorService executor, PqcPreHash preHash) {
         this.userId = userId;
         this.context = context;
-        Security.addProvider(new BouncyCastleProvider());
+        this.executor = executor;
+        this.preHash = preHash;
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
     }
 
     /**
@@ -40,21 +138,186 @@ public class PqcSignatureHelper {
      * @throws Exception If signing fails
      */
     public Map<String, byte[]> signAll(byte[] data) throws Exception {
-        Map<String, byte[]> result = new HashMap<>();
-        result.put("pgp", signWithPgp(data));
-        result.put("pqc-sig", signWithPqcSig(data));
-        return result;
+        return signAllTimed(data).getSignatures();
+    }
+
+    /**
+     * Generates both signatures concurrently. Both legs read the same canonicalized buffer, which must not be
+     * modified until this method returns.
+     *
+     * @param data  The input data to sign
+     * @return      Both signatures and the time spent in each leg
+     * @throws Exception If either signature can't be created
+     */
+    public HybridSignatureResult signAllTimed(byte[] data) throws Exception {
+        return signConcurrently(
+            () -> signWithPgp(new ByteArrayInputStream(data)),
+            () -> signWithPqcSig(preHash.toSignedMessage(new ByteArrayInputStream(data))));
+    }
+
+    /**
+     * Generates both signatures concurrently over the canonicalized content. Each leg streams the content through
+     * its own digest, so memory use doesn't depend on the size of the content.
+     *
+     * @param content  The canonicalized content to sign
+     * @return         Both signatures and the time spent in each leg
+     * @throws Exception If either signature can't be created
+     */
+    public HybridSignatureResult signAllTimed(PqcCanonicalContent content) throws Exception {
+        return signConcurrently(
+            () -> {
+                try (InputStream in = content.getInputStream()) {
+                    return signWithPgp(in);
+                }
+            },
+            () -> {
+                try (InputStream in = content.getInputStream()) {
+                    return signWithPqcSig(preHash.toSignedMessage(in));
+                }
+            });
+    }
+
+    private HybridSignatureResult signConcurrently(Callable<byte[]> pgpSigner, Callable<byte[]> pqcSigner)
+        throws Exception {
+        long start = System.nanoTime();
+
+        Future<TimedSignature> pqcLeg = null;
+        try {
+            pqcLeg = executor.submit(() -> signTimed(pqcSigner));
+        } catch (RejectedExecutionException e) {
+            Timber.w(e, "PQC signing executor rejected task, signing sequentially");
+        }
+
+        TimedSignature pgp;
+        try {
+            pgp = signTimed(pgpSigner);
+        } catch (Exception e) {
+            if (pqcLeg != null) {
+                pqcLeg.cancel(true);
+            }
+            throw e;
+        }
+
+        TimedSignature pqc;
+        if (pqcLeg != null) {
+            if (pqcLeg instanceof RunnableFuture) {
+                // Signs on this thread if no thread of the executor picked the task up yet
+                ((RunnableFuture<?>) pqcLeg).run();
+            }
+            try {
+                pqc = pqcLeg.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof Exception ? (Exception) cause : e;
+            }
+        } else {
+            pqc = signTimed(pqcSigner);
+        }
+
+        Map<String, byte[]> result = new LinkedHashMap<>();
+        result.put("pgp", pgp.signature);
+        result.put("pqc-sig", pqc.signature);
+        return new HybridSignatureResult(result, false, preHash, pgp.nanos, pqc.nanos, System.nanoTime() - start);
+    }
+
+    /**
+     * Returns true if the user's PGP signing key is an Ed25519 key, which {@link #signCompositeTimed} requires.
+     */
+    public boolean canSignComposite() {
+        try {
+            return PqcCompositeSignature.toEd25519PrivateKey(loadPgpSigningKey()) != null;
+        } catch (Exception e) {
+            Timber.w(e, "Unable to load PGP signing key");
+            return false;
+        }
+    }
+
+    /**
+     * Creates a {@link PqcCompositeSignature} over the canonicalized content. The content is digested once for both
+     * legs; the Ed25519 leg takes microseconds, so both legs run on the calling thread.
+     *
+     * @param content  The canonicalized content to sign
+     * @return         The encoded composite signature and the time spent in each leg
+     * @throws Exception If the PGP signing key isn't an Ed25519 key or either signature can't be created
+     */
+    public HybridSignatureResult signCompositeTimed(PqcCanonicalContent content) throws Exception {
+        long start = System.nanoTime();
+
+        Ed25519PrivateKeyParameters ed25519Key = PqcCompositeSignature.toEd25519PrivateKey(loadPgpSigningKey());
+        if (ed25519Key == null) {
+            throw new Exception("Composite signatures require an Ed25519 PGP signing key");
+        }
+        JSONObject pqcKey = SimpleKeyStoreFactory.getKeyStore(KeyType.PQC_SIG).loadLocalPrivateKey(context, userId);
+        String pqcAlgorithm = pqcKey.getString("algorithm");
+
+        byte[] message;
+        try (InputStream in = content.getInputStream()) {
+            message = PqcCompositeSignature.toSignedMessage(preHash.toSignedMessage(in), pqcAlgorithm);
+        }
+
+        TimedSignature ed25519 = signTimed(() -> PqcCompositeSignature.signEd25519(ed25519Key, message));
+        TimedSignature pqc = signTimed(() -> signWithPqcKey(pqcKey, message));
+
+        byte[] encoded = new PqcCompositeSignature(preHash, pqcAlgorithm, ed25519.signature, pqc.signature).encode();
+        Map<String, byte[]> result = Collections.singletonMap("composite", encoded);
+        return new HybridSignatureResult(result, true, preHash, ed25519.nanos, pqc.nanos, System.nanoTime() - start);
+    }
+
+    private static TimedSignature signTimed(Callable<byte[]> leg) throws Exception {
+        long legStart = System.nanoTime();
+        byte[] signature = leg.call();
+        return new TimedSignature(signature, System.nanoTime() - legStart);
+    }
+
+    private static class TimedSignature {
+        final byte[] signature;
+        final long nanos;
+
+        TimedSignature(byte[] signature, long nanos) {
+            this.signature = signature;
+            this.nanos = nanos;
+        }
     }
 
 
     /**
      * Signs data using the user's PGP private key.
      *
-     * @param data  The data to sign
+     * @param data  The data to sign, read until the end of the stream
      * @return      The ASCII-armored PGP signature
      * @throws Exception If PGP signing fails or key is missing
      */
-    private byte[] signWithPgp(byte[] data) throws Exception {
+    private byte[] signWithPgp(InputStream data) throws Exception {
+        PGPPrivateKey privateKey = loadPgpSigningKey();
+
+        // Create signature generator
+        PGPSignatureGenerator sigGen = new PGPSignatureGenerator(
+            new JcaPGPContentSignerBuilder(
+                privateKey.getPublicKeyPacket().getAlgorithm(),
+                PGPUtil.SHA512
+            ).setProvider(new BouncyCastleProvider())
+        );
+
+        sigGen.init(PGPSignature.BINARY_DOCUMENT, privateKey);
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = data.read(buffer)) != -1) {
+            sigGen.update(buffer, 0, read);
+        }
+
+        // Encode signature in ASCII-armored format
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ArmoredOutputStream aos = new ArmoredOutputStream(baos)) {
+            sigGen.generate().encode(aos);
+        }
+
+        return baos.toByteArray();
+    }
+
+    /**
+     * Loads the signing key of the user's PGP key ring.
+     */
+    private PGPPrivateKey loadPgpSigningKey() throws Exception {
         JSONObject json = SimpleKeyStoreFactory.getKeyStore(KeyType.PGP).loadLocalPrivateKey(context,userId);
         String armoredPriv = "";
         if(json.has("privateKey")) {
@@ -76,57 +339,56 @@ public class PqcSignatureHelper {
         if (signingKey == null) throw new Exception("No signing key found in PGP key ring");
 
         // Extract private key
-        PGPPrivateKey privateKey = signingKey.extractPrivateKey(
+        return signingKey.extractPrivateKey(
             new JcePBESecretKeyDecryptorBuilder()
                 .setProvider(new BouncyCastleProvider())
                 .build(new char[0])
         );
-
-        // Create signature generator
-        PGPSignatureGenerator sigGen = new PGPSignatureGenerator(
-            new JcaPGPContentSignerBuilder(
-                signingKey.getPublicKey().getAlgorithm(),
-                PGPUtil.SHA512
-            ).setProvider(new BouncyCastleProvider())
-        );
-
-        sigGen.init(PGPSignature.BINARY_DOCUMENT, privateKey);
-        sigGen.update(data);
-
-        // Encode signature in ASCII-armored format
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        try (ArmoredOutputStream aos = new ArmoredOutputStream(baos)) {
-            sigGen.generate().encode(aos);
-        }
-
-        return baos.toByteArray();
     }
 
     /**
      * Signs data using a post-quantum signature algorithm from OpenQuantumSafe.
      *
-     * @param data  The data to sign
+     * @param data  The data to sign, i.e. the pre-hashed content
      * @return      The binary PQC signature
      * @throws RuntimeException if signing fails
      */
     private byte[] signWithPqcSig(byte[] data) {
+        JSONObject obj;
+        try {
+            obj = SimpleKeyStoreFactory.getKeyStore(KeyType.PQC_SIG).loadLocalPrivateKey(context, userId);
+        } catch (Exception e) {
+            throw new RuntimeException("Error during PQC signature generation", e);
+        }
+        return signWithPqcKey(obj, data);
+    }
+
+    /**
+     * Signs data with the PQC private key as returned by the key store.
+     */
+    private static byte[] signWithPqcKey(JSONObject obj, byte[] data) {
+        HandlePool<Signature> sigPool = HandlePool.get_sig_instance();
         Signature signer = null;
+        String algorithm = null;
+        byte[] privateKeyBytes = null;
         try {
-            JSONObject obj = SimpleKeyStoreFactory.getKeyStore(KeyType.PQC_SIG).loadLocalPrivateKey(context, userId);
-            String algorithm = obj.getString("algorithm");
+            algorithm = obj.getString("algorithm");
             String privB64 = obj.getString("privateKey");
 
-            byte[] privateKeyBytes = Base64.getDecoder().decode(privB64);
+            privateKeyBytes = Base64.getDecoder().decode(privB64);
 
-            signer = new Signature(algorithm, privateKeyBytes);
-            return signer.sign(data);
+            signer = sigPool.acquire(algorithm);
+            return signer.sign_with_key(data, privateKeyBytes);
 
         } catch (Exception e) {
             throw new RuntimeException("Error during PQC signature generation", e);
 
         } finally {
+            if (privateKeyBytes != null) {
+                Arrays.fill(privateKeyBytes, (byte) 0);
+            }
             if (signer != null) {
-                signer.dispose_sig();
+                sigPool.release(algorithm, signer);
             }
         }
     }
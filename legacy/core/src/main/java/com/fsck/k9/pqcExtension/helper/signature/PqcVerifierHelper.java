@@ -13,29 +13,31 @@ import com.fsck.k9.mail.Part;
 import com.fsck.k9.mail.internet.MimeBodyPart;
 import com.fsck.k9.mail.internet.MimeUtility;
 import com.fsck.k9.mailstore.CryptoResultAnnotation;
+import com.fsck.k9.pqcExtension.helper.PqcCanonicalContent;
 import com.fsck.k9.pqcExtension.helper.PqcMessageHelper;
-import com.fsck.k9.pqcExtension.keyManagement.SimpleKeyStoreFactory;
+import com.fsck.k9.pqcExtension.keyManagement.RemoteKeyCache;
+import com.fsck.k9.pqcExtension.keyManagement.RemoteKeyCache.CachedRemoteKey;
 import com.fsck.k9.pqcExtension.keyManagement.SimpleKeyStoreFactory.KeyType;
-import com.fsck.k9.pqcExtension.keyManagement.manager.PgpSimpleKeyManager;
 import com.fsck.k9.pqcExtension.message.results.PqcDecryptionResult;
 import com.fsck.k9.pqcExtension.message.results.PqcError;
 import com.fsck.k9.pqcExtension.message.results.PqcSignatureResult;
 import com.fsck.k9.pqcExtension.message.results.PqcSignatureResult.SenderStatusResult;
 
+import org.bouncycastle.crypto.params.Ed25519PublicKeyParameters;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.openpgp.*;
 import org.bouncycastle.openpgp.operator.jcajce.JcaKeyFingerprintCalculator;
 import org.bouncycastle.openpgp.operator.jcajce.JcaPGPContentVerifierBuilderProvider;
-import org.json.JSONObject;
+import org.bouncycastle.util.io.Streams;
+import org.openquantumsafe.HandlePool;
 import org.openquantumsafe.Signature;
 import timber.log.Timber;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
-import java.security.Security;
 import java.util.ArrayList;
-import java.util.Base64;
 
 public class PqcVerifierHelper {
 
@@ -51,124 +53,298 @@ public class PqcVerifierHelper {
                 throw new MessagingException("Expected at least 2 parts for signed PQC message");
             }
 
-            // Extract the content and prepare it for signature verification
             BodyPart signedContentPart = multipart.getBodyPart(0);
-            byte[] signedData = PqcMessageHelper.canonicalize(signedContentPart);
 
-
-            // Load PQC public key and algorithm from remote key store
-            JSONObject keyData = SimpleKeyStoreFactory.getKeyStore(KeyType.PQC_SIG).loadRemotePublicKey(context, senderEmail);
-            String declaredSigAlgorithm = keyData.optString("algorithm", "DEFAULT_ALGO");
-            String pqcSigPk = keyData.optString("publicKey", "");
-
-            if (pqcSigPk.isEmpty()) {
+            SenderKeys senderKeys;
+            try {
+                senderKeys = loadSenderKeys(context, senderEmail);
+            } catch (KeyMissingException e) {
                 return CryptoResultAnnotation.createPqcSignatureErrorAnnotation(
-                    new PqcError(PqcError.KEY_MISSING, "PQC public key is missing for sender " + senderEmail),
+                    new PqcError(PqcError.KEY_MISSING, e.getMessage()),
                     null
                 );
             }
 
-            byte[] pqcPubKey = Base64.getDecoder().decode(pqcSigPk);
+            boolean valid;
+            HandlePool<Signature> sigPool = HandlePool.get_sig_instance();
+            Signature pqcVerifier = sigPool.acquire(senderKeys.algorithm);
+            try {
+                valid = verifySignatures(multipart, senderKeys, pqcVerifier);
+            } finally {
+                sigPool.release(senderKeys.algorithm, pqcVerifier);
+            }
 
-            // Load PGP public key
-            String pgpPublicKeyArmored = SimpleKeyStoreFactory.getKeyStore(KeyType.PGP)
-                .loadRemotePublicKeyArmoredString(context, senderEmail);
+            return createSignatureAnnotation(valid, (MimeBodyPart) signedContentPart, senderEmail, decryptionResult);
 
-            if (Security.getProvider("BC") == null) {
-                Security.addProvider(new BouncyCastleProvider());
-            }
+        } catch (Exception e) {
+            return CryptoResultAnnotation.createPqcSignatureErrorAnnotation(
+                new PqcError(PqcError.CLIENT_SIDE_ERROR, e.getMessage()),
+                null
+            );
+        }
+    }
+
+    /**
+     * Creates the annotation for a result stored by the {@link PqcBatchVerifier}, so a message that was verified in
+     * the background isn't verified again when it is opened.
+     *
+     * @param storedResult one of the {@code PqcSignatureResult.RESULT_*} codes
+     * @return the annotation, or null if the stored result doesn't say whether the signatures are valid
+     */
+    @Nullable
+    public static CryptoResultAnnotation createAnnotationForStoredResult(Part part, String senderEmail,
+        int storedResult) throws MessagingException {
+        if (storedResult != PqcSignatureResult.RESULT_VALID_KEY_CONFIRMED &&
+            storedResult != PqcSignatureResult.RESULT_INVALID_SIGNATURE) {
+            return null;
+        }
 
-            PGPPublicKeyRing pgpRing = PgpSimpleKeyManager.parsePublicKeyRing(pgpPublicKeyArmored);
-            PGPPublicKey pgpPubKey = pgpRing.getPublicKey();
+        Multipart multipart = (Multipart) part.getBody();
+        if (multipart.getCount() < 2) {
+            return null;
+        }
+        MimeBodyPart signedContentPart = (MimeBodyPart) multipart.getBodyPart(0);
+        boolean valid = storedResult == PqcSignatureResult.RESULT_VALID_KEY_CONFIRMED;
+        return createSignatureAnnotation(valid, signedContentPart, senderEmail, null);
+    }
 
-            if (pgpPubKey == null) {
-                return CryptoResultAnnotation.createPqcSignatureErrorAnnotation(
-                    new PqcError(PqcError.KEY_MISSING, "PGP public key is missing or invalid for sender " + senderEmail),
-                    null
+    private static CryptoResultAnnotation createSignatureAnnotation(boolean valid, MimeBodyPart replacementData,
+        String senderEmail, @Nullable PqcDecryptionResult decryptionResult) {
+        // If both signatures are valid, return success result
+        if (valid) {
+            PqcSignatureResult signatureResult = PqcSignatureResult.createWithValidSignature(
+                PqcSignatureResult.RESULT_VALID_KEY_CONFIRMED,
+                senderEmail, 0L, new ArrayList<>(), new ArrayList<>(),
+                SenderStatusResult.USER_ID_CONFIRMED
+            );
+
+            if (decryptionResult != null && decryptionResult.getResult() == PqcDecryptionResult.RESULT_DECRYPTED) {
+                return CryptoResultAnnotation.createPqcEncryptionSignatureSuccessAnnotation(
+                    decryptionResult,
+                    signatureResult,
+                    replacementData
                 );
             }
 
-            boolean edValid = false;
-            boolean pqcValid = false;
+            return CryptoResultAnnotation.createPqcSignatureSuccessAnnotation(
+                null,
+                signatureResult,
+                replacementData
+            );
+        }
 
 
-            // Loop through signature parts to verify each one
-            for (int i = 1; i < multipart.getCount(); i++) {
-                BodyPart signaturePart = multipart.getBodyPart(i);
-                String asciiSig = new String(PqcMessageHelper.canonicalize(signaturePart), StandardCharsets.US_ASCII);
-                String contentType = signaturePart.getContentType();
-                String filename = MimeUtility.getHeaderParameter(contentType, "name");
+        // If signature verification failed
+        return CryptoResultAnnotation.createPqcEncryptionErrorAnnotation(
+            decryptionResult != null ? decryptionResult : new PqcDecryptionResult(PqcDecryptionResult.RESULT_DECRYPTED),
+            replacementData,
+            new PqcError(PqcError.INVALID_SIGNATURE, "Invalid signature(s) in PQC or PGP")
+        );
+    }
 
-                if (filename == null) {
-                    Timber.w("No filename in Content-Type of signature part");
-                    continue;
-                }
+    /**
+     * Parsed public keys of a sender, as needed to verify a hybrid signature.
+     * Parse once and reuse them for all messages of the same sender.
+     */
+    public static class SenderKeys {
+        public final String algorithm;
+        final byte[] pqcPublicKey;
+        final PGPPublicKey pgpPublicKey;
+        /**
+         * The key of the Ed25519 leg of composite signatures, or null if the sender's PGP key isn't an Ed25519 key.
+         */
+        @Nullable
+        final Ed25519PublicKeyParameters ed25519PublicKey;
+
+        SenderKeys(String algorithm, byte[] pqcPublicKey, PGPPublicKey pgpPublicKey,
+            @Nullable Ed25519PublicKeyParameters ed25519PublicKey) {
+            this.algorithm = algorithm;
+            this.pqcPublicKey = pqcPublicKey;
+            this.pgpPublicKey = pgpPublicKey;
+            this.ed25519PublicKey = ed25519PublicKey;
+        }
+    }
+
+    /**
+     * Thrown if the PQC or PGP public key of a sender is missing or unusable.
+     */
+    public static class KeyMissingException extends Exception {
+        KeyMissingException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Loads and parses the remote PQC signature key and PGP public key of a sender.
+     */
+    public static SenderKeys loadSenderKeys(Context context, String senderEmail) throws Exception {
+        // Both keys come from the remote key cache, already decoded and parsed
+        CachedRemoteKey pqcKey = RemoteKeyCache.get(context, KeyType.PQC_SIG, senderEmail);
+        if (pqcKey == null) {
+            throw new KeyMissingException("PQC public key is missing for sender " + senderEmail);
+        }
+        String declaredSigAlgorithm = pqcKey.algorithm != null ? pqcKey.algorithm : "DEFAULT_ALGO";
+
+        CachedRemoteKey pgpKey = RemoteKeyCache.get(context, KeyType.PGP, senderEmail);
+        PGPPublicKey pgpPubKey = pgpKey != null ? pgpKey.getPgpKeyRing().getPublicKey() : null;
+
+        if (pgpPubKey == null) {
+            throw new KeyMissingException("PGP public key is missing or invalid for sender " + senderEmail);
+        }
+
+        return new SenderKeys(declaredSigAlgorithm, pqcKey.getRawKey(), pgpPubKey,
+            PqcCompositeSignature.toEd25519PublicKey(pgpPubKey));
+    }
+
+    /**
+     * Verifies the PGP and PQC signature parts, or the composite signature part, of a multipart/signed body against
+     * the signed content part.
+     *
+     * @param pqcVerifier Signature handle for {@link SenderKeys#algorithm}, owned by the caller
+     * @return true only if both signatures are present and valid
+     * @throws Exception if the signatures couldn't be checked, e.g. because the content couldn't be read or the
+     * native library failed. This says nothing about the validity of the signatures.
+     */
+    public static boolean verifySignatures(Multipart multipart, SenderKeys senderKeys, Signature pqcVerifier)
+        throws Exception {
+        if (multipart.getCount() < 2) {
+            throw new MessagingException("Expected at least 2 parts for signed PQC message");
+        }
+
+        // The content is canonicalized once; both signatures stream it through their digest
+        try (PqcCanonicalContent signedContent = PqcCanonicalContent.of(multipart.getBodyPart(0))) {
+            return verifySignatures(multipart, signedContent, senderKeys, pqcVerifier);
+        }
+    }
+
+    private static boolean verifySignatures(Multipart multipart, PqcCanonicalContent signedContent,
+        SenderKeys senderKeys, Signature pqcVerifier) throws Exception {
+        BodyPart compositePart = findCompositeSignaturePart(multipart);
+        if (compositePart != null) {
+            return verifyCompositeSignature(signedContent, compositePart, senderKeys, pqcVerifier);
+        }
+
+        boolean edValid = false;
+        boolean pqcValid = false;
+
+        // Loop through signature parts to verify each one
+        for (int i = 1; i < multipart.getCount(); i++) {
+            BodyPart signaturePart = multipart.getBodyPart(i);
+            String asciiSig = new String(PqcMessageHelper.canonicalize(signaturePart), StandardCharsets.US_ASCII);
+            String contentType = signaturePart.getContentType();
+            String filename = MimeUtility.getHeaderParameter(contentType, "name");
+
+            if (filename == null) {
+                Timber.w("No filename in Content-Type of signature part");
+                continue;
+            }
 
-                boolean isPgp = filename.toLowerCase().contains("pgp");
+            boolean isPgp = filename.toLowerCase().contains("pgp");
 
-                if (isPgp) {
-                    byte[] sigBytes = asciiSig.getBytes(StandardCharsets.US_ASCII);
-                    edValid = verifyPgpSignature(signedData, sigBytes, pgpPubKey);
-                } else if (filename.toLowerCase().contains("pqc")) {
+            if (isPgp) {
+                byte[] sigBytes = asciiSig.getBytes(StandardCharsets.US_ASCII);
+                edValid = verifyPgpSignature(signedContent, sigBytes, senderKeys.pgpPublicKey);
+            } else if (filename.toLowerCase().contains("pqc")) {
+                byte[] sigBytes;
+                try {
                     String sigContent = PqcMessageHelper.extractContent(asciiSig, "PQC SIGNATURE");
-                    byte[] sigBytes = PqcMessageHelper.decodeCleanBase64(sigContent);
-                    pqcValid = verifyPqcSignature(signedData, sigBytes, pqcPubKey, declaredSigAlgorithm);
+                    sigBytes = PqcMessageHelper.decodeCleanBase64(sigContent);
+                } catch (Exception e) {
+                    Timber.w(e, "Malformed PQC signature part");
+                    return false;
                 }
+                byte[] pqcSignedMessage = getPqcSignedMessage(signedContent,
+                    PqcMessageHelper.extractArmorHeader(asciiSig, PqcPreHash.ARMOR_HEADER));
+                pqcValid = pqcSignedMessage != null &&
+                    verifyPqcSignature(pqcSignedMessage, sigBytes, senderKeys.pqcPublicKey, pqcVerifier);
             }
+        }
 
-            MimeBodyPart replacementData = (MimeBodyPart) signedContentPart;
+        return edValid && pqcValid;
+    }
 
+    @Nullable
+    private static BodyPart findCompositeSignaturePart(Multipart multipart) {
+        for (int i = 1; i < multipart.getCount(); i++) {
+            BodyPart bodyPart = multipart.getBodyPart(i);
+            if (bodyPart.isMimeType(PqcCompositeSignature.CONTENT_TYPE)) {
+                return bodyPart;
+            }
+        }
+        return null;
+    }
 
-            // If both signatures are valid, return success result
-            if (edValid && pqcValid) {
-                PqcSignatureResult signatureResult = PqcSignatureResult.createWithValidSignature(
-                    PqcSignatureResult.RESULT_VALID_KEY_CONFIRMED,
-                    senderEmail, 0L, new ArrayList<>(), new ArrayList<>(),
-                    SenderStatusResult.USER_ID_CONFIRMED
-                );
+    /**
+     * Verifies both legs of a composite signature. The content is digested once, and the binary signature part is
+     * decoded without any armor parsing.
+     */
+    private static boolean verifyCompositeSignature(PqcCanonicalContent signedContent, BodyPart signaturePart,
+        SenderKeys senderKeys, Signature pqcVerifier) throws Exception {
+        if (senderKeys.ed25519PublicKey == null) {
+            Timber.w("Composite signature, but the sender's PGP key isn't an Ed25519 key");
+            return false;
+        }
 
-                if (decryptionResult != null && decryptionResult.getResult() == PqcDecryptionResult.RESULT_DECRYPTED) {
-                    return CryptoResultAnnotation.createPqcEncryptionSignatureSuccessAnnotation(
-                        decryptionResult,
-                        signatureResult,
-                        replacementData
-                    );
-                }
+        PqcCompositeSignature signature;
+        try (InputStream in = MimeUtility.decodeBody(signaturePart.getBody())) {
+            signature = PqcCompositeSignature.decode(Streams.readAll(in));
+        } catch (IOException e) {
+            Timber.w(e, "Unable to decode composite signature");
+            return false;
+        }
+        if (!signature.pqcAlgorithm.equals(senderKeys.algorithm)) {
+            Timber.w("Composite signature uses %s, but the sender's key is a %s key", signature.pqcAlgorithm,
+                senderKeys.algorithm);
+            return false;
+        }
 
-                return CryptoResultAnnotation.createPqcSignatureSuccessAnnotation(
-                    null,
-                    signatureResult,
-                    replacementData
-                );
-            }
+        byte[] message;
+        try (InputStream in = signedContent.getInputStream()) {
+            message = PqcCompositeSignature.toSignedMessage(signature.preHash.toSignedMessage(in),
+                signature.pqcAlgorithm);
+        }
 
+        return PqcCompositeSignature.verifyEd25519(senderKeys.ed25519PublicKey, message,
+                signature.getEd25519Signature()) &&
+            verifyPqcSignature(message, signature.getPqcSignature(), senderKeys.pqcPublicKey, pqcVerifier);
+    }
 
-            // If signature verification failed
-            return CryptoResultAnnotation.createPqcEncryptionErrorAnnotation(
-                decryptionResult != null ? decryptionResult : new PqcDecryptionResult(PqcDecryptionResult.RESULT_DECRYPTED),
-                (MimeBodyPart) signedContentPart,
-                new PqcError(PqcError.INVALID_SIGNATURE, "Invalid signature(s) in PQC or PGP")
-            );
+    /**
+     * Returns the bytes the PQC signature was made over: the pre-hashed content if the signature part announces a
+     * pre-hash mode, otherwise the complete content. Returns null if the announced mode is unknown.
+     */
+    @Nullable
+    private static byte[] getPqcSignedMessage(PqcCanonicalContent signedContent, @Nullable String preHashHeader)
+        throws IOException {
+        if (preHashHeader == null) {
+            // Signatures made before the pre-hash mode was introduced
+            return signedContent.toByteArray();
+        }
 
-        } catch (Exception e) {
-            return CryptoResultAnnotation.createPqcSignatureErrorAnnotation(
-                new PqcError(PqcError.CLIENT_SIDE_ERROR, e.getMessage()),
-                null
-            );
+        PqcPreHash preHash = PqcPreHash.fromHeaderValue(preHashHeader);
+        if (preHash == null) {
+            Timber.w("Unknown PQC signature pre-hash: %s", preHashHeader);
+            return null;
+        }
+        try (InputStream in = signedContent.getInputStream()) {
+            return preHash.toSignedMessage(in);
         }
     }
 
     /**
      * Verifies a classic PGP signature using the given public key.
+     *
+     * A signature that can't be parsed or doesn't match the key counts as invalid. Errors reading the signed content
+     * are thrown, since they say nothing about the signature.
      */
-    private static boolean verifyPgpSignature(byte[] data, byte[] sigBytes, PGPPublicKey pubKey) {
+    private static boolean verifyPgpSignature(PqcCanonicalContent data, byte[] sigBytes, PGPPublicKey pubKey)
+        throws IOException {
+        PGPSignature sig;
         try {
             InputStream sigIn = PGPUtil.getDecoderStream(new ByteArrayInputStream(sigBytes));
             PGPObjectFactory pgpFactory = new PGPObjectFactory(sigIn, new JcaKeyFingerprintCalculator());
             Object obj = pgpFactory.nextObject();
 
-            PGPSignature sig;
-
             if (obj instanceof PGPSignatureList) {
                 sig = ((PGPSignatureList) obj).get(0);
             } else if (obj instanceof PGPSignature) {
@@ -178,25 +354,33 @@ public class PqcVerifierHelper {
             }
 
             sig.init(new JcaPGPContentVerifierBuilderProvider().setProvider(new BouncyCastleProvider()), pubKey);
-            sig.update(data);
+        } catch (IOException | PGPException e) {
+            Timber.w(e, "Unable to parse PGP signature");
+            return false;
+        }
+
+        try (InputStream in = data.getInputStream()) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                sig.update(buffer, 0, read);
+            }
+        }
+
+        try {
             return sig.verify();
-        } catch (Exception e) {
+        } catch (PGPException e) {
+            Timber.w(e, "Unable to verify PGP signature");
             return false;
         }
     }
 
 
     /**
-     * Verifies a post-quantum signature using OpenQuantumSafe API.
+     * Verifies a post-quantum signature using OpenQuantumSafe API. Failures of the native library are thrown rather
+     * than reported as an invalid signature.
      */
-    private static boolean verifyPqcSignature(byte[] data, byte[] signature, byte[] pubKeyBytes, String algorithm) {
-        try {
-            Signature pqcVerifier = new Signature(algorithm);
-            boolean valid = pqcVerifier.verify(data, signature, pubKeyBytes);
-            pqcVerifier.dispose_sig();
-            return valid;
-        } catch (Exception e) {
-            return false;
-        }
+    private static boolean verifyPqcSignature(byte[] data, byte[] signature, byte[] pubKeyBytes, Signature pqcVerifier) {
+        return pqcVerifier.verify(data, signature, pubKeyBytes);
     }
 }
@@ -0,0 +1,135 @@
+package com.fsck.k9.pqcExtension.keyManagement;
+
+import androidx.annotation.Nullable;
+
+import org.openquantumsafe.KEMs;
+import org.openquantumsafe.KeyEncapsulation;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * In-memory pool of pre-generated PQC KEM key pairs, one queue per algorithm.
+ *
+ * Taking a key pair from the pool makes generating or rotating a KEM key pair a matter of storing it. The pool is
+ * refilled in the background by {@link com.fsck.k9.pqcExtension.keyManagement.service.KeyGenerationService}. Pooled
+ * key pairs are never written to disk; secret keys are wiped when they are dropped from the pool.
+ */
+public class KemKeyPairPool {
+
+    public static final int DEFAULT_POOL_SIZE = 2;
+
+    private static int poolSize = DEFAULT_POOL_SIZE;
+
+    private static final Map<String, ArrayDeque<PooledKeyPair>> pools = new HashMap<>();
+
+    /**
+     * A generated KEM key pair. The secret key is owned by whoever took the key pair from the pool.
+     */
+    public static class PooledKeyPair {
+        public final String algorithm;
+        public final byte[] publicKey;
+        private final byte[] secretKey;
+
+        PooledKeyPair(String algorithm, byte[] publicKey, byte[] secretKey) {
+            this.algorithm = algorithm;
+            this.publicKey = publicKey;
+            this.secretKey = secretKey;
+        }
+
+        public byte[] getSecretKey() {
+            return secretKey;
+        }
+
+        public void wipe() {
+            Arrays.fill(secretKey, (byte) 0);
+        }
+    }
+
+    /**
+     * Generates a new key pair without touching the pool.
+     */
+    public static PooledKeyPair generate(String algorithm) {
+        if (!KEMs.is_KEM_enabled(algorithm)) {
+            throw new IllegalArgumentException("KEM algorithm not supported: " + algorithm);
+        }
+
+        KeyEncapsulation kem = new KeyEncapsulation(algorithm);
+        try {
+            kem.generate_keypair();
+            return new PooledKeyPair(algorithm, kem.export_public_key(), kem.export_secret_key());
+        } finally {
+            kem.dispose_KEM();
+        }
+    }
+
+    /**
+     * Removes a pre-generated key pair of the given algorithm from the pool.
+     *
+     * @return the key pair, or null if the pool for this algorithm is empty
+     */
+    @Nullable
+    public static synchronized PooledKeyPair take(String algorithm) {
+        ArrayDeque<PooledKeyPair> pool = pools.get(algorithm);
+        return pool != null ? pool.poll() : null;
+    }
+
+    /**
+     * Adds a key pair to the pool.
+     *
+     * @return false if the pool is already full; the key pair is wiped in that case
+     */
+    public static synchronized boolean offer(PooledKeyPair keyPair) {
+        ArrayDeque<PooledKeyPair> pool = pools.get(keyPair.algorithm);
+        if (pool == null) {
+            pool = new ArrayDeque<>();
+            pools.put(keyPair.algorithm, pool);
+        }
+        if (pool.size() >= poolSize) {
+            keyPair.wipe();
+            return false;
+        }
+        pool.add(keyPair);
+        return true;
+    }
+
+    /**
+     * Returns how many key pairs are missing from the pool of the given algorithm.
+     */
+    public static synchronized int getMissingCount(String algorithm) {
+        ArrayDeque<PooledKeyPair> pool = pools.get(algorithm);
+        return Math.max(0, poolSize - (pool != null ? pool.size() : 0));
+    }
+
+    public static synchronized int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * Sets how many key pairs are kept per algorithm. Surplus key pairs are dropped and wiped.
+     */
+    public static synchronized void setPoolSize(int size) {
+        if (size < 0) throw new IllegalArgumentException("Pool size must not be negative: " + size);
+
+        poolSize = size;
+        for (ArrayDeque<PooledKeyPair> pool : pools.values()) {
+            while (pool.size() > size) {
+                pool.removeLast().wipe();
+            }
+        }
+    }
+
+    /**
+     * Drops and wipes all pooled key pairs.
+     */
+    public static synchronized void clear() {
+        for (ArrayDeque<PooledKeyPair> pool : pools.values()) {
+            for (PooledKeyPair keyPair : pool) {
+                keyPair.wipe();
+            }
+        }
+        pools.clear();
+    }
+}
@@ -0,0 +1,451 @@
+package com.fsck.k9.pqcExtension.keyManagement;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.core.content.ContextCompat;
+
+import com.fsck.k9.pqcExtension.helper.PqcExecutors;
+import com.fsck.k9.pqcExtension.helper.encryption.ClassicalKemFactory;
+import com.fsck.k9.pqcExtension.keyManagement.SimpleKeyStoreFactory.KeyType;
+import com.fsck.k9.pqcExtension.keyManagement.database.PqcKeyDatabase;
+import com.fsck.k9.pqcExtension.keyManagement.database.PqcKeyDatabase.KeyRingEntry;
+import com.fsck.k9.pqcExtension.keyManagement.manager.PgpSimpleKeyManager;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openpgp.PGPPrivateKey;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.PGPSecretKey;
+import org.bouncycastle.openpgp.PGPSecretKeyRing;
+import org.bouncycastle.openpgp.operator.PBESecretKeyDecryptor;
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPKeyConverter;
+import org.bouncycastle.openpgp.operator.jcajce.JcePBESecretKeyDecryptorBuilder;
+import org.bouncycastle.util.encoders.Hex;
+import org.json.JSONObject;
+import timber.log.Timber;
+
+import java.nio.ByteBuffer;
+import java.security.PrivateKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import javax.security.auth.DestroyFailedException;
+
+/**
+ * Unlock sessions holding the already parsed private keys needed for hybrid decryption.
+ *
+ * Loading the keys means decrypting them from the key database, which costs an Android Keystore
+ * operation per key, parsing the armored PGP key ring, extracting and converting the private key
+ * and Base64-decoding the PQC secret keys. This cache does that once per account and session, so
+ * decrypting a batch of messages only pays for it once.
+ *
+ * A session ends, and its keys are wiped, when
+ * <ul>
+ * <li>the session timeout has passed since the keys were unlocked, see {@link #setSessionTimeout(long)},</li>
+ * <li>the screen is turned off,</li>
+ * <li>local keys of the account are generated, imported or deleted, or</li>
+ * <li>the account is evicted because more than {@link #MAX_CACHED_ACCOUNTS} accounts are unlocked.</li>
+ * </ul>
+ * Keys that are in use, see {@link #acquire(Context, String)}, are wiped once they are released.
+ *
+ * The whole KEM key ring of an account is cached, indexed by key fingerprint, so messages encrypted
+ * to a retired KEM key can still be decrypted after the key was rotated.
+ */
+public class LocalPrivateKeyCache {
+
+    private static final int MAX_CACHED_ACCOUNTS = 8;
+
+    public static final long DEFAULT_SESSION_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static long sessionTimeoutMillis = DEFAULT_SESSION_TIMEOUT_MILLIS;
+
+    private static BroadcastReceiver screenOffReceiver = null;
+
+    /**
+     * A decoded PQC KEM secret key of an account's key ring.
+     */
+    public static class KemPrivateKey {
+        public final int version;
+        public final String algorithm;
+        private final byte[] secretKey;
+
+        @VisibleForTesting
+        public KemPrivateKey(int version, String algorithm, byte[] secretKey) {
+            this.version = version;
+            this.algorithm = algorithm;
+            this.secretKey = secretKey;
+        }
+
+        /**
+         * Returns the secret key. The array is shared with the cache and must not be modified.
+         */
+        public byte[] getSecretKey() {
+            return secretKey;
+        }
+    }
+
+    /**
+     * Decoded private key material of one account. The classical private key belongs to the encryption key of the
+     * account's PGP key ring, either RSA or X25519.
+     */
+    public static class HybridPrivateKeys {
+        public final PrivateKey classicalPrivateKey;
+        /** The classical KEM of the PGP encryption key, see {@link ClassicalKemFactory#getKemForKey}. */
+        public final String classicalAlgorithm;
+        public final byte[] pgpKeyFingerprint;
+        public final String pqcAlgorithm;
+        private final KemPrivateKey currentKemKey;
+        private final Map<ByteBuffer, KemPrivateKey> kemKeysByFingerprint;
+
+        // Guarded by LocalPrivateKeyCache.class
+        private long unlockedAt;
+        private int users;
+        private boolean locked;
+
+        @VisibleForTesting
+        public HybridPrivateKeys(PrivateKey classicalPrivateKey, String classicalAlgorithm, byte[] pgpKeyFingerprint,
+            KemPrivateKey currentKemKey, Map<ByteBuffer, KemPrivateKey> kemKeysByFingerprint) {
+            this.classicalPrivateKey = classicalPrivateKey;
+            this.classicalAlgorithm = classicalAlgorithm;
+            this.pgpKeyFingerprint = pgpKeyFingerprint;
+            this.pqcAlgorithm = currentKemKey.algorithm;
+            this.currentKemKey = currentKemKey;
+            this.kemKeysByFingerprint = kemKeysByFingerprint;
+        }
+
+        /**
+         * Returns the current PQC KEM secret key. The array is shared with the cache and must not be modified.
+         */
+        public byte[] getPqcSecretKey() {
+            return currentKemKey.secretKey;
+        }
+
+        /**
+         * Returns the current or retired KEM key with the given fingerprint.
+         *
+         * @return the key, or null if the key ring doesn't contain a key with this fingerprint
+         */
+        @Nullable
+        public KemPrivateKey findKemKey(byte[] fingerprint) {
+            return kemKeysByFingerprint.get(ByteBuffer.wrap(fingerprint));
+        }
+
+        /**
+         * Returns the current and retired KEM keys, indexed by key fingerprint.
+         */
+        public Map<ByteBuffer, KemPrivateKey> getKemKeysByFingerprint() {
+            return Collections.unmodifiableMap(kemKeysByFingerprint);
+        }
+
+        void wipe() {
+            Arrays.fill(currentKemKey.secretKey, (byte) 0);
+            for (KemPrivateKey kemKey : kemKeysByFingerprint.values()) {
+                Arrays.fill(kemKey.secretKey, (byte) 0);
+            }
+            try {
+                classicalPrivateKey.destroy();
+            } catch (DestroyFailedException e) {
+                // Most JCA key implementations don't support destroy(); nothing else we can do here.
+            }
+        }
+    }
+
+    private static final LinkedHashMap<String, HybridPrivateKeys> cache =
+        new LinkedHashMap<String, HybridPrivateKeys>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, HybridPrivateKeys> eldest) {
+                if (size() > MAX_CACHED_ACCOUNTS) {
+                    lock(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+
+    /**
+     * An unlock of an account's keys that is in progress. Callers asking for the same account while the keys are
+     * loaded wait for this load instead of starting their own.
+     */
+    private static class PendingLoad {
+        final FutureTask<HybridPrivateKeys> task;
+
+        // Guarded by LocalPrivateKeyCache.class
+        int users;
+
+        PendingLoad(Context context, String userId) {
+            task = new FutureTask<>(() -> loadAndInstall(context, userId, this));
+        }
+    }
+
+    // Guarded by LocalPrivateKeyCache.class
+    private static final Map<String, PendingLoad> pendingLoads = new HashMap<>();
+
+    /**
+     * Returns the decoded private keys of the given account, unlocking them from the key database if the account
+     * has no running session. Every call has to be paired with {@link #release(HybridPrivateKeys)} once the keys
+     * are no longer needed.
+     *
+     * The keys are loaded without holding the cache lock, so invalidating sessions, e.g. when the screen is turned
+     * off, never waits for the key database or the Android Keystore.
+     *
+     * @throws Exception if either the PGP or the PQC-KEM private key is missing or cannot be parsed
+     */
+    public static HybridPrivateKeys acquire(Context context, String userId) throws Exception {
+        PendingLoad pendingLoad;
+        boolean loadHere = false;
+        synchronized (LocalPrivateKeyCache.class) {
+            HybridPrivateKeys keys = cache.get(userId);
+            if (keys != null && isExpired(keys)) {
+                cache.remove(userId);
+                lock(keys);
+                keys = null;
+            }
+            if (keys != null) {
+                keys.users++;
+                return keys;
+            }
+
+            pendingLoad = pendingLoads.get(userId);
+            if (pendingLoad == null) {
+                pendingLoad = new PendingLoad(context, userId);
+                pendingLoads.put(userId, pendingLoad);
+                loadHere = true;
+            }
+            // Counted before the keys exist, so they can't be wiped before every waiting caller got them
+            pendingLoad.users++;
+        }
+
+        if (loadHere) {
+            pendingLoad.task.run();
+        }
+        return awaitLoad(pendingLoad.task);
+    }
+
+    private static HybridPrivateKeys loadAndInstall(Context context, String userId, PendingLoad pendingLoad)
+        throws Exception {
+        HybridPrivateKeys keys;
+        try {
+            keys = load(context, userId);
+        } catch (Exception | Error e) {
+            synchronized (LocalPrivateKeyCache.class) {
+                pendingLoads.remove(userId, pendingLoad);
+            }
+            throw e;
+        }
+
+        synchronized (LocalPrivateKeyCache.class) {
+            keys.users = pendingLoad.users;
+            if (pendingLoads.remove(userId, pendingLoad)) {
+                keys.unlockedAt = SystemClock.elapsedRealtime();
+                cache.put(userId, keys);
+                scheduleExpiry(userId, keys);
+                registerScreenOffReceiver(context.getApplicationContext());
+            } else {
+                // The session was invalidated while the keys were loaded. The waiting callers still get the keys,
+                // but they are wiped once the last of them releases them.
+                keys.locked = true;
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Waits for the load, ignoring interrupts. Every waiting caller is already counted as a user of the keys and has
+     * to receive them, otherwise they would never be released.
+     */
+    private static HybridPrivateKeys awaitLoad(FutureTask<HybridPrivateKeys> task) throws Exception {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof Exception ? (Exception) cause : e;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Releases keys returned by {@link #acquire(Context, String)}. Keys of a session that ended in the meantime are
+     * wiped when the last user releases them.
+     */
+    public static synchronized void release(HybridPrivateKeys keys) {
+        if (keys.users <= 0) {
+            throw new IllegalStateException("Keys released more often than acquired");
+        }
+        keys.users--;
+        if (keys.users == 0 && keys.locked) {
+            keys.wipe();
+        }
+    }
+
+    /**
+     * Drops and wipes the cached keys of a single account.
+     */
+    public static synchronized void invalidate(String userId) {
+        pendingLoads.remove(userId);
+        HybridPrivateKeys keys = cache.remove(userId);
+        if (keys != null) {
+            lock(keys);
+        }
+    }
+
+    /**
+     * Drops and wipes the cached keys of all accounts.
+     */
+    public static synchronized void invalidateAll() {
+        pendingLoads.clear();
+        List<HybridPrivateKeys> all = new ArrayList<>(cache.values());
+        cache.clear();
+        for (HybridPrivateKeys keys : all) {
+            lock(keys);
+        }
+    }
+
+    public static synchronized long getSessionTimeout() {
+        return sessionTimeoutMillis;
+    }
+
+    /**
+     * Sets how long unlocked keys are kept after they were loaded. Sessions that are older than the new timeout end
+     * the next time they are used.
+     */
+    public static synchronized void setSessionTimeout(long timeoutMillis) {
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("Session timeout must be positive: " + timeoutMillis);
+        }
+        sessionTimeoutMillis = timeoutMillis;
+    }
+
+    private static void lock(HybridPrivateKeys keys) {
+        keys.locked = true;
+        if (keys.users == 0) {
+            keys.wipe();
+        }
+    }
+
+    private static boolean isExpired(HybridPrivateKeys keys) {
+        return SystemClock.elapsedRealtime() - keys.unlockedAt >= sessionTimeoutMillis;
+    }
+
+    private static void scheduleExpiry(String userId, HybridPrivateKeys keys) {
+        PqcExecutors.getPool().schedule(() -> expire(userId, keys), sessionTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static synchronized void expire(String userId, HybridPrivateKeys keys) {
+        if (keys.locked) return;
+
+        if (!isExpired(keys)) {
+            // The timeout was raised after the session started
+            long remaining = keys.unlockedAt + sessionTimeoutMillis - SystemClock.elapsedRealtime();
+            PqcExecutors.getPool().schedule(() -> expire(userId, keys), remaining, TimeUnit.MILLISECONDS);
+            return;
+        }
+
+        Timber.d("Unlock session of %s expired", userId);
+        cache.remove(userId, keys);
+        lock(keys);
+    }
+
+    private static void registerScreenOffReceiver(Context context) {
+        if (screenOffReceiver != null) return;
+
+        screenOffReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                if (!Intent.ACTION_SCREEN_OFF.equals(intent.getAction())) return;
+
+                Timber.d("Screen turned off, locking private keys");
+                invalidateAll();
+                unregisterScreenOffReceiver(context.getApplicationContext());
+            }
+        };
+        ContextCompat.registerReceiver(context, screenOffReceiver, new IntentFilter(Intent.ACTION_SCREEN_OFF),
+            ContextCompat.RECEIVER_NOT_EXPORTED);
+    }
+
+    private static synchronized void unregisterScreenOffReceiver(Context context) {
+        // A new session may have started since the broadcast was sent
+        if (screenOffReceiver == null || !cache.isEmpty()) return;
+
+        context.unregisterReceiver(screenOffReceiver);
+        screenOffReceiver = null;
+    }
+
+    private static HybridPrivateKeys load(Context context, String userId) throws Exception {
+        List<KeyRingEntry> kemKeyRing = PqcKeyDatabase.getInstance(context).loadKeyRing(KeyType.PQC_KEM, userId);
+        if (kemKeyRing.isEmpty() || !kemKeyRing.get(0).isCurrent()) {
+            throw new Exception("No PQC-KEM private key found");
+        }
+
+        KemPrivateKey currentKemKey = null;
+        Map<ByteBuffer, KemPrivateKey> kemKeysByFingerprint = new HashMap<>();
+        for (KeyRingEntry entry : kemKeyRing) {
+            KemPrivateKey kemKey = new KemPrivateKey(entry.version, entry.algorithm,
+                Base64.getDecoder().decode(entry.privateKey));
+            if (currentKemKey == null) {
+                currentKemKey = kemKey;
+            }
+            ByteBuffer fingerprint = entry.fingerprint != null ? ByteBuffer.wrap(Hex.decode(entry.fingerprint)) : null;
+            if (fingerprint != null && !kemKeysByFingerprint.containsKey(fingerprint)) {
+                kemKeysByFingerprint.put(fingerprint, kemKey);
+            } else if (kemKey != currentKemKey) {
+                // Not addressable, or a key that was stored again after it had been retired. The ring is ordered
+                // newest first, so the newer entry is kept.
+                Arrays.fill(kemKey.secretKey, (byte) 0);
+            }
+        }
+
+        JSONObject pgpData = SimpleKeyStoreFactory.getKeyStore(KeyType.PGP).loadLocalPrivateKey(context, userId);
+        PGPSecretKey decryptKey = findDecryptionKey(pgpData.getString("privateKey"));
+        PGPPublicKey decryptPublicKey = decryptKey.getPublicKey();
+        String classicalAlgorithm = ClassicalKemFactory.getKemForKey(decryptPublicKey).getAlgorithm();
+        PrivateKey classicalPrivateKey = extractPrivateKey(decryptKey);
+
+        return new HybridPrivateKeys(classicalPrivateKey, classicalAlgorithm, decryptPublicKey.getFingerprint(),
+            currentKemKey, kemKeysByFingerprint);
+    }
+
+    private static PGPSecretKey findDecryptionKey(String armoredPriv) throws Exception {
+        PGPSecretKeyRing secretKeyRing = PgpSimpleKeyManager.parseSecretKeyRing(armoredPriv);
+        PGPSecretKey decryptKey = null;
+
+        for (PGPSecretKey key : secretKeyRing) {
+            if (key.getPublicKey().isEncryptionKey()) {
+                decryptKey = key;
+                break;
+            }
+        }
+        if (decryptKey == null) throw new Exception("No encryption key found");
+        return decryptKey;
+    }
+
+    private static PrivateKey extractPrivateKey(PGPSecretKey decryptKey) throws Exception {
+        BouncyCastleProvider provider = new BouncyCastleProvider();
+        PBESecretKeyDecryptor decryptor = new JcePBESecretKeyDecryptorBuilder().setProvider(provider).build(new char[0]);
+        PGPPrivateKey privateKey = decryptKey.extractPrivateKey(decryptor);
+
+        return new JcaPGPKeyConverter().setProvider(provider).getPrivateKey(privateKey);
+    }
+}
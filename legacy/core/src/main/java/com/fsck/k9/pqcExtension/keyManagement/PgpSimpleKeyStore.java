@@ -8,13 +8,15 @@ import org.bouncycastle.openpgp.PGPException;
 import org.json.JSONObject;
 
 import java.io.IOException;
+import java.util.List;
 
 public class PgpSimpleKeyStore implements SimpleKeyStore {
 
     @Override
     public void generateKeyPair(Context context, String userId, String algorithm) throws Exception {
         try {
-            PgpSimpleKeyManager.generateAndStoreKeyPair(context, userId);
+            PgpSimpleKeyManager.generateAndStoreKeyPair(context, userId, algorithm);
+            LocalPrivateKeyCache.invalidate(userId);
         } catch (Exception e) {
             throw new Exception("Failed to generate PGP key pair", e);
         }
@@ -24,6 +26,7 @@ public class PgpSimpleKeyStore implements SimpleKeyStore {
     public void importOwnKeyPair(Context context, String userId, String algorithm, String publicKey, String privateKey) throws Exception {
         try {
             PgpSimpleKeyManager.importArmoredKeyPair(context, userId, publicKey, privateKey);
+            LocalPrivateKeyCache.invalidate(userId);
         } catch (Exception e) {
             throw new Exception("Failed to import own PGP key pair", e);
         }
@@ -38,12 +41,23 @@ public class PgpSimpleKeyStore implements SimpleKeyStore {
         }
     }
 
+    @Override
+    public void importRemotePublicKeys(Context context, String ownerUserId, List<RemotePublicKey> keys) throws Exception {
+        try {
+            PgpSimpleKeyManager.importRemotePublicKeys(context, ownerUserId, keys);
+        } catch (Exception e) {
+            throw new Exception("Failed to import remote PGP public keys", e);
+        }
+    }
+
     @Override
     public void clearAllKeys(Context context, String userId, Boolean deleteAll) {
         try {
             if (deleteAll) {
+                LocalPrivateKeyCache.invalidateAll();
                 PgpSimpleKeyManager.deleteAll(context);
             } else {
+                LocalPrivateKeyCache.invalidate(userId);
                 PgpSimpleKeyManager.deleteKeyPair(context, userId);
             }
         } catch (Exception e) {
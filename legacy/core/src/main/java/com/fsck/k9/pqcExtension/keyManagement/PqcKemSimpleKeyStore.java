@@ -4,12 +4,15 @@ import android.content.Context;
 import com.fsck.k9.pqcExtension.keyManagement.manager.PqcKemSimpleKeyManager;
 import org.json.JSONObject;
 
+import java.util.List;
+
 public class PqcKemSimpleKeyStore implements SimpleKeyStore {
 
     @Override
     public void generateKeyPair(Context context, String userId, String algorithm) throws Exception {
         try {
             PqcKemSimpleKeyManager.generateAndStoreKeyPair(context, userId, algorithm);
+            LocalPrivateKeyCache.invalidate(userId);
         } catch (Exception e) {
             throw new Exception("Failed to generate PQC-KEM key pair", e);
         }
@@ -19,6 +22,7 @@ public class PqcKemSimpleKeyStore implements SimpleKeyStore {
     public void importOwnKeyPair(Context context, String userId, String algorithm, String publicKey, String privateKey) throws Exception {
         try {
             PqcKemSimpleKeyManager.saveKeyPair(context, userId, algorithm, publicKey, privateKey);
+            LocalPrivateKeyCache.invalidate(userId);
         } catch (Exception e) {
             throw new Exception("Failed to import own PQC-KEM key pair", e);
         }
@@ -33,12 +37,23 @@ public class PqcKemSimpleKeyStore implements SimpleKeyStore {
         }
     }
 
+    @Override
+    public void importRemotePublicKeys(Context context, String ownerUserId, List<RemotePublicKey> keys) throws Exception {
+        try {
+            PqcKemSimpleKeyManager.importRemotePublicKeys(context, ownerUserId, keys);
+        } catch (Exception e) {
+            throw new Exception("Failed to import remote KEM public keys", e);
+        }
+    }
+
     @Override
     public void clearAllKeys(Context context, String userId, Boolean deleteAll) throws Exception {
         try {
             if (deleteAll) {
+                LocalPrivateKeyCache.invalidateAll();
                 PqcKemSimpleKeyManager.deleteAll(context);
             } else {
+                LocalPrivateKeyCache.invalidate(userId);
                 PqcKemSimpleKeyManager.deleteKeyPair(context, userId);
             }
         } catch (Exception e) {
@@ -4,6 +4,8 @@ import android.content.Context;
 import com.fsck.k9.pqcExtension.keyManagement.manager.PqcSigSimpleKeyManager;
 import org.json.JSONObject;
 
+import java.util.List;
+
 public class PqcSigSimpleKeyStore implements SimpleKeyStore {
 
     @Override
@@ -27,12 +29,21 @@ public class PqcSigSimpleKeyStore implements SimpleKeyStore {
     @Override
     public void importRemotePublicKey(Context context, String ownerUserId, String remoteEmail, String algorithm, String publicKey) throws Exception {
         try {
-            PqcSigSimpleKeyManager.importRemotePublicKey(context, remoteEmail, algorithm, publicKey);
+            PqcSigSimpleKeyManager.importRemotePublicKey(context, ownerUserId, remoteEmail, algorithm, publicKey);
         } catch (Exception e) {
             throw new Exception("Failed to import remote PQC signature public key", e);
         }
     }
 
+    @Override
+    public void importRemotePublicKeys(Context context, String ownerUserId, List<RemotePublicKey> keys) throws Exception {
+        try {
+            PqcSigSimpleKeyManager.importRemotePublicKeys(context, ownerUserId, keys);
+        } catch (Exception e) {
+            throw new Exception("Failed to import remote PQC signature public keys", e);
+        }
+    }
+
     @Override
     public void clearAllKeys(Context context, String userId, Boolean deleteAll) throws Exception {
         try {
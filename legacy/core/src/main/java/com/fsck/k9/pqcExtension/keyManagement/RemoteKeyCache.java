@@ -0,0 +1,255 @@
+package com.fsck.k9.pqcExtension.keyManagement;
+
+import android.content.Context;
+
+import androidx.annotation.Nullable;
+
+import com.fsck.k9.pqcExtension.helper.PqcExecutors;
+import com.fsck.k9.pqcExtension.keyManagement.SimpleKeyStoreFactory.KeyType;
+import com.fsck.k9.pqcExtension.keyManagement.database.PqcKeyDatabase;
+import com.fsck.k9.pqcExtension.keyManagement.manager.PgpSimpleKeyManager;
+import org.bouncycastle.openpgp.PGPPublicKeyRing;
+import timber.log.Timber;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * In-memory LRU cache of parsed remote public keys.
+ *
+ * Every lookup in the key database means a query plus Base64 decoding (PQC keys) or parsing the armored key ring
+ * (PGP keys). The compose screen and message verification look up the same few contacts over and over, so the parsed
+ * keys are kept here. Contacts without a key are cached as well, so repeated lookups for them don't hit the database
+ * either.
+ *
+ * Entries are dropped whenever remote keys are imported or deleted through the key managers. Registered
+ * {@link Listener}s are told about those changes and about keys loaded by {@link #preload(Context, Collection)}, which
+ * lets the UI show a contact's PQC capability from {@link #getHybridEncryptionCapability(String)} without doing I/O.
+ */
+public class RemoteKeyCache {
+
+    private static final int MAX_CACHED_KEYS = 256;
+
+    private static final CachedRemoteKey MISSING = new CachedRemoteKey(null, null, null, null, null);
+
+    private static final ExecutorService preloadExecutor = PqcExecutors.newSerialExecutor();
+
+    /**
+     * Whether a contact can receive hybrid encrypted messages, as far as the cache knows.
+     */
+    public enum Capability {
+        AVAILABLE,
+        UNAVAILABLE,
+        /** The keys of the contact have not been loaded yet. */
+        UNKNOWN
+    }
+
+    /**
+     * Notified when cached keys of contacts change, either because keys were imported or deleted, or because they
+     * were loaded in the background. Called on the thread that caused the change.
+     */
+    public interface Listener {
+        void onRemoteKeysChanged(Set<String> emails);
+    }
+
+    /**
+     * A parsed remote public key. For PQC keys {@link #getRawKey()} is set, for PGP keys {@link #getPgpKeyRing()}.
+     */
+    public static class CachedRemoteKey {
+        public final String algorithm;
+        public final String publicKey;
+        @Nullable
+        public final String fingerprint;
+        @Nullable
+        private final byte[] rawKey;
+        @Nullable
+        private final PGPPublicKeyRing pgpKeyRing;
+
+        CachedRemoteKey(String algorithm, String publicKey, @Nullable String fingerprint, @Nullable byte[] rawKey,
+            @Nullable PGPPublicKeyRing pgpKeyRing) {
+            this.algorithm = algorithm;
+            this.publicKey = publicKey;
+            this.fingerprint = fingerprint;
+            this.rawKey = rawKey;
+            this.pgpKeyRing = pgpKeyRing;
+        }
+
+        /**
+         * Returns the decoded PQC public key. The array is shared with the cache and must not be modified.
+         */
+        @Nullable
+        public byte[] getRawKey() {
+            return rawKey;
+        }
+
+        @Nullable
+        public PGPPublicKeyRing getPgpKeyRing() {
+            return pgpKeyRing;
+        }
+    }
+
+    private static final LinkedHashMap<String, CachedRemoteKey> cache =
+        new LinkedHashMap<String, CachedRemoteKey>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedRemoteKey> eldest) {
+                return size() > MAX_CACHED_KEYS;
+            }
+        };
+
+    private static final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // Incremented on every invalidation, so a key loaded concurrently with an import isn't cached stale
+    private static long generation = 0;
+
+    /**
+     * Returns the parsed remote key of the given type, loading it from the key database if needed.
+     *
+     * @return the key, or null if the contact has no usable key of this type
+     */
+    @Nullable
+    public static CachedRemoteKey get(Context context, KeyType keyType, String email) throws Exception {
+        String cacheKey = cacheKey(keyType, email);
+        CachedRemoteKey cached;
+        long loadGeneration;
+        synchronized (RemoteKeyCache.class) {
+            cached = cache.get(cacheKey);
+            loadGeneration = generation;
+        }
+        if (cached == null) {
+            // Loaded outside the lock so a slow database query doesn't block lookups of cached keys
+            cached = load(context, keyType, email);
+            synchronized (RemoteKeyCache.class) {
+                if (loadGeneration == generation) {
+                    cache.put(cacheKey, cached);
+                }
+            }
+        }
+        return cached != MISSING ? cached : null;
+    }
+
+    /**
+     * Returns whether the contact has both a PQC KEM key and a PGP key, using only what is already cached.
+     */
+    public static synchronized Capability getHybridEncryptionCapability(String email) {
+        CachedRemoteKey kemKey = cache.get(cacheKey(KeyType.PQC_KEM, email));
+        CachedRemoteKey pgpKey = cache.get(cacheKey(KeyType.PGP, email));
+        if (kemKey == MISSING || pgpKey == MISSING) {
+            return Capability.UNAVAILABLE;
+        } else if (kemKey == null || pgpKey == null) {
+            return Capability.UNKNOWN;
+        }
+        return Capability.AVAILABLE;
+    }
+
+    /**
+     * Loads the PQC KEM and PGP keys of the given contacts in the background. Listeners are notified once keys that
+     * weren't cached before are available.
+     */
+    public static void preload(Context context, Collection<String> emails) {
+        Context appContext = context.getApplicationContext();
+        List<String> pending = new ArrayList<>(emails);
+        preloadExecutor.execute(() -> {
+            Set<String> loaded = new LinkedHashSet<>();
+            for (String email : pending) {
+                if (getHybridEncryptionCapability(email) != Capability.UNKNOWN) continue;
+                try {
+                    get(appContext, KeyType.PQC_KEM, email);
+                    get(appContext, KeyType.PGP, email);
+                    loaded.add(normalizeEmail(email));
+                } catch (Exception e) {
+                    Timber.w(e, "Unable to preload remote keys");
+                }
+            }
+            if (!loaded.isEmpty()) {
+                notifyListeners(loaded);
+            }
+        });
+    }
+
+    /**
+     * Drops the cached keys of the given type for the given contacts and notifies listeners.
+     */
+    public static void invalidate(KeyType keyType, Collection<String> emails) {
+        Set<String> changed = new LinkedHashSet<>();
+        synchronized (RemoteKeyCache.class) {
+            generation++;
+            for (String email : emails) {
+                cache.remove(cacheKey(keyType, email));
+                changed.add(normalizeEmail(email));
+            }
+        }
+        if (!changed.isEmpty()) {
+            notifyListeners(changed);
+        }
+    }
+
+    public static void invalidate(KeyType keyType, String email) {
+        invalidate(keyType, Collections.singletonList(email));
+    }
+
+    /**
+     * Drops the cached keys of the contacts the given keys belong to, after they were stored.
+     */
+    public static void invalidateKeys(KeyType keyType, Collection<RemotePublicKey> keys) {
+        invalidate(keyType, RemotePublicKey.emailsOf(keys));
+    }
+
+    public static synchronized void invalidateAll() {
+        generation++;
+        cache.clear();
+    }
+
+    public static void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public static void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    private static void notifyListeners(Set<String> emails) {
+        Set<String> unmodifiableEmails = Collections.unmodifiableSet(emails);
+        for (Listener listener : listeners) {
+            listener.onRemoteKeysChanged(unmodifiableEmails);
+        }
+    }
+
+    private static CachedRemoteKey load(Context context, KeyType keyType, String email) throws Exception {
+        RemotePublicKey key = PqcKeyDatabase.getInstance(context).loadRemoteKey(keyType, email);
+        if (key == null || key.publicKey == null || key.publicKey.isEmpty()) {
+            return MISSING;
+        }
+
+        try {
+            if (keyType == KeyType.PGP) {
+                PGPPublicKeyRing keyRing = PgpSimpleKeyManager.parsePublicKeyRing(key.publicKey);
+                return new CachedRemoteKey(key.algorithm, key.publicKey, key.fingerprint, null, keyRing);
+            } else {
+                byte[] rawKey = Base64.getDecoder().decode(key.publicKey);
+                return new CachedRemoteKey(key.algorithm, key.publicKey, key.fingerprint, rawKey, null);
+            }
+        } catch (Exception e) {
+            // An unparsable key is as good as none; it stays cached until the contact's key is replaced
+            Timber.w(e, "Stored remote %s key can't be parsed", keyType);
+            return MISSING;
+        }
+    }
+
+    private static String cacheKey(KeyType keyType, String email) {
+        return keyType.name() + ':' + normalizeEmail(email);
+    }
+
+    private static String normalizeEmail(String email) {
+        return email.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,40 @@
+package com.fsck.k9.pqcExtension.keyManagement;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A public key received from a remote contact, as stored in the key database.
+ */
+public class RemotePublicKey {
+    public final String email;
+    public final String algorithm;
+    public final String publicKey;
+    @Nullable
+    public final String fingerprint;
+
+    public RemotePublicKey(String email, String algorithm, String publicKey) {
+        this(email, algorithm, publicKey, null);
+    }
+
+    public RemotePublicKey(String email, String algorithm, String publicKey, @Nullable String fingerprint) {
+        this.email = email;
+        this.algorithm = algorithm;
+        this.publicKey = publicKey;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Returns the addresses of the contacts the given keys belong to.
+     */
+    public static List<String> emailsOf(Collection<RemotePublicKey> keys) {
+        List<String> emails = new ArrayList<>(keys.size());
+        for (RemotePublicKey key : keys) {
+            emails.add(key.email);
+        }
+        return emails;
+    }
+}
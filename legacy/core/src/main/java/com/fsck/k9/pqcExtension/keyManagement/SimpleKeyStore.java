@@ -5,11 +5,21 @@ import android.content.Context;
 
 import org.json.JSONObject;
 
+import java.util.List;
+
 
 public interface SimpleKeyStore {
     void generateKeyPair(Context context, String userId, String algorithm) throws Exception;
     void importOwnKeyPair(Context context, String userId, String algorithm, String publicKey, String privateKey) throws Exception;
     void importRemotePublicKey(Context context, String ownerUserId, String remoteEmail, String algorithm, String publicKey) throws Exception;
+    /**
+     * Stores several remote public keys at once, replacing older keys of the same contacts.
+     */
+    default void importRemotePublicKeys(Context context, String ownerUserId, List<RemotePublicKey> keys) throws Exception {
+        for (RemotePublicKey key : keys) {
+            importRemotePublicKey(context, ownerUserId, key.email, key.algorithm, key.publicKey);
+        }
+    }
     void clearAllKeys(Context context, String userId,Boolean deleteAll) throws Exception;
 
     String exportPublicKey(Context context, String userId) throws Exception;
@@ -0,0 +1,527 @@
+package com.fsck.k9.pqcExtension.keyManagement.database;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import androidx.annotation.Nullable;
+
+import com.fsck.k9.pqcExtension.keyManagement.RemotePublicKey;
+import com.fsck.k9.pqcExtension.keyManagement.SimpleKeyStoreFactory.KeyType;
+import com.fsck.k9.pqcExtension.keyManagement.manager.PgpSimpleKeyManager;
+import org.bouncycastle.util.encoders.Hex;
+import timber.log.Timber;
+
+/**
+ * SQLite storage for own key pairs and remote public keys of all key types.
+ *
+ * Lookups by email, fingerprint and algorithm are served from indexes, and remote keys can be imported in batches
+ * within one transaction. Private keys are encrypted with a key held in the Android Keystore; public keys are
+ * stored in plain text, as they were in the shared preferences before.
+ *
+ * Replacing the PQC key pair of an account doesn't delete the previous one. It is moved to the retired keys together
+ * with the time it was replaced, so messages encrypted to it can still be decrypted. Current and retired key pairs of
+ * an account form its key ring, see {@link #loadKeyRing(KeyType, String)}. PGP key pairs are replaced in place.
+ *
+ * The fingerprints of own public keys sent to contacts are recorded as key announcements, so the full keys only need
+ * to be sent again once they changed, see {@link #wasKeyAnnounced}.
+ *
+ * On first use, keys from the former shared preferences files are moved into the database, see
+ * {@link PqcKeyPrefsMigration}.
+ */
+public class PqcKeyDatabase {
+
+    private static final int DB_VERSION = 1;
+    private static final String DB_NAME = "pqc_keys";
+
+    private static final String TABLE_OWN_KEYS = "own_keys";
+    private static final String TABLE_REMOTE_KEYS = "remote_keys";
+    private static final String TABLE_RETIRED_KEYS = "retired_keys";
+    private static final String TABLE_ANNOUNCED_KEYS = "announced_keys";
+
+    private static PqcKeyDatabase instance;
+
+    private final SQLiteDatabase db;
+    private final PqcKeyEncryption encryption;
+
+    /**
+     * A key pair of a local account. The private key is decrypted.
+     */
+    public static class OwnKeyPair {
+        public final String algorithm;
+        public final String publicKey;
+        public final String privateKey;
+
+        OwnKeyPair(String algorithm, String publicKey, String privateKey) {
+            this.algorithm = algorithm;
+            this.publicKey = publicKey;
+            this.privateKey = privateKey;
+        }
+    }
+
+    /**
+     * A current or retired key pair of a local account. The private key is decrypted.
+     */
+    public static class KeyRingEntry {
+        public final int version;
+        public final String algorithm;
+        public final String publicKey;
+        public final String privateKey;
+        @Nullable
+        public final String fingerprint;
+        /** When the key pair was stored. */
+        public final long validFrom;
+        /** When the key pair was replaced, or null for the current key pair. */
+        @Nullable
+        public final Long validUntil;
+
+        KeyRingEntry(int version, String algorithm, String publicKey, String privateKey, @Nullable String fingerprint,
+            long validFrom, @Nullable Long validUntil) {
+            this.version = version;
+            this.algorithm = algorithm;
+            this.publicKey = publicKey;
+            this.privateKey = privateKey;
+            this.fingerprint = fingerprint;
+            this.validFrom = validFrom;
+            this.validUntil = validUntil;
+        }
+
+        public boolean isCurrent() {
+            return validUntil == null;
+        }
+    }
+
+    private PqcKeyDatabase(SQLiteDatabase db, PqcKeyEncryption encryption) {
+        this.db = db;
+        this.encryption = encryption;
+    }
+
+    public static synchronized PqcKeyDatabase getInstance(Context context) throws GeneralSecurityException {
+        if (instance == null) {
+            Context appContext = context.getApplicationContext();
+            PqcKeyEncryption encryption;
+            try {
+                encryption = PqcKeyEncryption.create();
+            } catch (IOException e) {
+                throw new GeneralSecurityException("Android Keystore not available", e);
+            }
+            PqcKeyDatabase database = new PqcKeyDatabase(openDatabase(appContext), encryption);
+            PqcKeyPrefsMigration.migrate(appContext, database);
+            instance = database;
+        }
+        return instance;
+    }
+
+    private static SQLiteDatabase openDatabase(Context context) {
+        SQLiteDatabase db = context.openOrCreateDatabase(DB_NAME, Context.MODE_PRIVATE, null);
+
+        db.beginTransaction();
+        try {
+            if (db.getVersion() > DB_VERSION) {
+                throw new AssertionError("Database downgrades are not supported. " +
+                    "Please fix the database '" + DB_NAME + "' manually or clear app data.");
+            }
+
+            if (db.getVersion() < 1) {
+                createKeyDatabase(db);
+            }
+
+            db.setVersion(DB_VERSION);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        return db;
+    }
+
+    private static void createKeyDatabase(SQLiteDatabase db) {
+        Timber.i("Creating PQC key database");
+
+        db.execSQL("CREATE TABLE " + TABLE_OWN_KEYS + " (" +
+            "user_id TEXT NOT NULL, " +
+            "key_type TEXT NOT NULL, " +
+            "algorithm TEXT, " +
+            "public_key TEXT, " +
+            "private_key BLOB, " +
+            "fingerprint TEXT, " +
+            "version INTEGER NOT NULL, " +
+            "valid_from INTEGER NOT NULL, " +
+            "PRIMARY KEY (user_id, key_type))");
+        db.execSQL("CREATE INDEX own_keys_fingerprint ON " + TABLE_OWN_KEYS + " (fingerprint)");
+
+        db.execSQL("CREATE TABLE " + TABLE_RETIRED_KEYS + " (" +
+            "user_id TEXT NOT NULL, " +
+            "key_type TEXT NOT NULL, " +
+            "version INTEGER NOT NULL, " +
+            "algorithm TEXT, " +
+            "public_key TEXT, " +
+            "private_key BLOB NOT NULL, " +
+            "fingerprint TEXT, " +
+            "valid_from INTEGER NOT NULL, " +
+            "valid_until INTEGER NOT NULL, " +
+            "PRIMARY KEY (user_id, key_type, version))");
+
+        db.execSQL("CREATE TABLE " + TABLE_REMOTE_KEYS + " (" +
+            "email TEXT NOT NULL, " +
+            "key_type TEXT NOT NULL, " +
+            "algorithm TEXT, " +
+            "public_key TEXT NOT NULL, " +
+            "fingerprint TEXT, " +
+            "owner_user_id TEXT, " +
+            "updated_at INTEGER NOT NULL, " +
+            "PRIMARY KEY (email, key_type))");
+        db.execSQL("CREATE INDEX remote_keys_fingerprint ON " + TABLE_REMOTE_KEYS + " (fingerprint)");
+        db.execSQL("CREATE INDEX remote_keys_algorithm ON " + TABLE_REMOTE_KEYS + " (key_type, algorithm)");
+
+        db.execSQL("CREATE TABLE " + TABLE_ANNOUNCED_KEYS + " (" +
+            "user_id TEXT NOT NULL, " +
+            "email TEXT NOT NULL, " +
+            "key_type TEXT NOT NULL, " +
+            "fingerprint TEXT NOT NULL, " +
+            "announced_at INTEGER NOT NULL, " +
+            "PRIMARY KEY (user_id, email, key_type))");
+    }
+
+    /**
+     * Stores the key pair as the current key pair of the account. A different PQC key pair stored before is moved to
+     * the retired keys; storing the same key pair again keeps its version.
+     */
+    public void saveOwnKeyPair(KeyType keyType, String userId, String algorithm, String publicKey, String privateKey)
+        throws GeneralSecurityException {
+        byte[] encryptedPrivateKey = encryption.encrypt(privateKey, associatedData(keyType, userId));
+        String fingerprint = fingerprintOf(keyType, publicKey);
+        long now = System.currentTimeMillis();
+
+        db.beginTransaction();
+        SQLiteStatement statement = db.compileStatement("INSERT OR REPLACE INTO " + TABLE_OWN_KEYS +
+            " (user_id, key_type, algorithm, public_key, private_key, fingerprint, version, valid_from)" +
+            " VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+        try {
+            long version = 1;
+            long validFrom = now;
+            try (Cursor cursor = db.query(TABLE_OWN_KEYS, new String[] { "version", "fingerprint", "valid_from" },
+                "user_id = ? AND key_type = ?", new String[] { userId, keyType.name() }, null, null, null)) {
+                if (cursor.moveToFirst()) {
+                    if (fingerprint != null && fingerprint.equals(cursor.getString(1))) {
+                        version = cursor.getLong(0);
+                        validFrom = cursor.getLong(2);
+                    } else {
+                        version = cursor.getLong(0) + 1;
+                        if (keyType != KeyType.PGP) {
+                            retireOwnKeyPair(keyType, userId, now);
+                        }
+                    }
+                }
+            }
+
+            statement.bindString(1, userId);
+            statement.bindString(2, keyType.name());
+            bindStringOrNull(statement, 3, algorithm);
+            bindStringOrNull(statement, 4, publicKey);
+            statement.bindBlob(5, encryptedPrivateKey);
+            bindStringOrNull(statement, 6, fingerprint);
+            statement.bindLong(7, version);
+            statement.bindLong(8, validFrom);
+            statement.executeInsert();
+            db.setTransactionSuccessful();
+        } finally {
+            statement.close();
+            db.endTransaction();
+        }
+    }
+
+    private void retireOwnKeyPair(KeyType keyType, String userId, long validUntil) {
+        // The private key is copied as is, its associated data doesn't depend on the version
+        db.execSQL("INSERT OR REPLACE INTO " + TABLE_RETIRED_KEYS +
+            " (user_id, key_type, version, algorithm, public_key, private_key, fingerprint, valid_from, valid_until)" +
+            " SELECT user_id, key_type, version, algorithm, public_key, private_key, fingerprint, valid_from, ?" +
+            " FROM " + TABLE_OWN_KEYS + " WHERE user_id = ? AND key_type = ? AND private_key IS NOT NULL",
+            new Object[] { validUntil, userId, keyType.name() });
+    }
+
+    @Nullable
+    public OwnKeyPair loadOwnKeyPair(KeyType keyType, String userId) throws GeneralSecurityException {
+        try (Cursor cursor = db.query(TABLE_OWN_KEYS, new String[] { "algorithm", "public_key", "private_key" },
+            "user_id = ? AND key_type = ?", new String[] { userId, keyType.name() }, null, null, null)) {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            byte[] encryptedPrivateKey = cursor.getBlob(2);
+            String privateKey = encryptedPrivateKey != null ?
+                encryption.decrypt(encryptedPrivateKey, associatedData(keyType, userId)) : null;
+            return new OwnKeyPair(cursor.getString(0), cursor.getString(1), privateKey);
+        }
+    }
+
+    /**
+     * Returns the current and retired key pairs of the account, newest first. The current key pair, if any, is the
+     * first entry.
+     */
+    public List<KeyRingEntry> loadKeyRing(KeyType keyType, String userId) throws GeneralSecurityException {
+        String[] selectionArgs = { userId, keyType.name() };
+        String associatedData = associatedData(keyType, userId);
+        List<KeyRingEntry> keyRing = new ArrayList<>();
+
+        try (Cursor cursor = db.query(TABLE_OWN_KEYS, new String[] { "version", "algorithm", "public_key",
+            "private_key", "fingerprint", "valid_from" }, "user_id = ? AND key_type = ? AND private_key IS NOT NULL",
+            selectionArgs, null, null, null)) {
+            if (cursor.moveToFirst()) {
+                keyRing.add(new KeyRingEntry(cursor.getInt(0), cursor.getString(1), cursor.getString(2),
+                    encryption.decrypt(cursor.getBlob(3), associatedData), cursor.getString(4), cursor.getLong(5),
+                    null));
+            }
+        }
+
+        try (Cursor cursor = db.query(TABLE_RETIRED_KEYS, new String[] { "version", "algorithm", "public_key",
+            "private_key", "fingerprint", "valid_from", "valid_until" }, "user_id = ? AND key_type = ?",
+            selectionArgs, null, null, "version DESC")) {
+            while (cursor.moveToNext()) {
+                keyRing.add(new KeyRingEntry(cursor.getInt(0), cursor.getString(1), cursor.getString(2),
+                    encryption.decrypt(cursor.getBlob(3), associatedData), cursor.getString(4), cursor.getLong(5),
+                    cursor.getLong(6)));
+            }
+        }
+        return keyRing;
+    }
+
+    public boolean hasOwnKeyPair(KeyType keyType, String userId) {
+        return countRows(TABLE_OWN_KEYS, "user_id = ? AND key_type = ? AND private_key IS NOT NULL",
+            userId, keyType.name()) > 0;
+    }
+
+    /**
+     * Deletes the current and all retired key pairs of the account.
+     */
+    public void deleteOwnKeyPair(KeyType keyType, String userId) {
+        String[] selectionArgs = { userId, keyType.name() };
+        runInTransaction(() -> {
+            db.delete(TABLE_OWN_KEYS, "user_id = ? AND key_type = ?", selectionArgs);
+            db.delete(TABLE_RETIRED_KEYS, "user_id = ? AND key_type = ?", selectionArgs);
+        });
+    }
+
+    /**
+     * Deletes the current and retired key pairs of all local accounts for the given key type. Remote keys are kept.
+     */
+    public void deleteAllOwnKeyPairs(KeyType keyType) {
+        String[] selectionArgs = { keyType.name() };
+        runInTransaction(() -> {
+            db.delete(TABLE_OWN_KEYS, "key_type = ?", selectionArgs);
+            db.delete(TABLE_RETIRED_KEYS, "key_type = ?", selectionArgs);
+        });
+    }
+
+    public void saveRemoteKey(KeyType keyType, @Nullable String ownerUserId, RemotePublicKey key) {
+        saveRemoteKeys(keyType, ownerUserId, Collections.singletonList(key));
+    }
+
+    /**
+     * Stores the given remote keys in a single transaction, replacing older keys of the same contacts.
+     */
+    public void saveRemoteKeys(KeyType keyType, @Nullable String ownerUserId, Collection<RemotePublicKey> keys) {
+        if (keys.isEmpty()) return;
+
+        long now = System.currentTimeMillis();
+        db.beginTransaction();
+        SQLiteStatement statement = db.compileStatement("INSERT OR REPLACE INTO " + TABLE_REMOTE_KEYS +
+            " (email, key_type, algorithm, public_key, fingerprint, owner_user_id, updated_at)" +
+            " VALUES (?, ?, ?, ?, ?, ?, ?)");
+        try {
+            for (RemotePublicKey key : keys) {
+                String fingerprint = key.fingerprint != null ? key.fingerprint : fingerprintOf(keyType, key.publicKey);
+                statement.bindString(1, normalizeEmail(key.email));
+                statement.bindString(2, keyType.name());
+                bindStringOrNull(statement, 3, key.algorithm);
+                statement.bindString(4, key.publicKey);
+                bindStringOrNull(statement, 5, fingerprint);
+                bindStringOrNull(statement, 6, ownerUserId);
+                statement.bindLong(7, now);
+                statement.executeInsert();
+                statement.clearBindings();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            statement.close();
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Returns true if at least one remote key of the given type is stored.
+     */
+    public boolean hasRemoteKeys(KeyType keyType) {
+        return countRows(TABLE_REMOTE_KEYS, "key_type = ?", keyType.name()) > 0;
+    }
+
+    @Nullable
+    public RemotePublicKey loadRemoteKey(KeyType keyType, String email) {
+        return queryRemoteKey("email = ? AND key_type = ?", normalizeEmail(email), keyType.name());
+    }
+
+    /**
+     * Returns the remote key with the given fingerprint, as computed by {@link #fingerprintOf(KeyType, String)}.
+     */
+    @Nullable
+    public RemotePublicKey findRemoteKeyByFingerprint(KeyType keyType, String fingerprint) {
+        return queryRemoteKey("fingerprint = ? AND key_type = ?", fingerprint.toLowerCase(Locale.ROOT),
+            keyType.name());
+    }
+
+    /**
+     * Returns the addresses of all contacts with a remote key of the given algorithm.
+     */
+    public List<String> getRemoteEmailsForAlgorithm(KeyType keyType, String algorithm) {
+        List<String> emails = new ArrayList<>();
+        try (Cursor cursor = db.query(TABLE_REMOTE_KEYS, new String[] { "email" },
+            "key_type = ? AND algorithm = ?", new String[] { keyType.name(), algorithm }, null, null, "email")) {
+            while (cursor.moveToNext()) {
+                emails.add(cursor.getString(0));
+            }
+        }
+        return emails;
+    }
+
+    /**
+     * Returns the number of contacts with a remote key of the given type, per algorithm.
+     */
+    public Map<String, Integer> getRemoteAlgorithmCounts(KeyType keyType) {
+        Map<String, Integer> counts = new HashMap<>();
+        try (Cursor cursor = db.query(TABLE_REMOTE_KEYS, new String[] { "algorithm", "COUNT(*)" },
+            "key_type = ? AND algorithm IS NOT NULL", new String[] { keyType.name() }, "algorithm", null, null)) {
+            while (cursor.moveToNext()) {
+                counts.put(cursor.getString(0), cursor.getInt(1));
+            }
+        }
+        return counts;
+    }
+
+    public void deleteRemoteKey(KeyType keyType, String email) {
+        db.delete(TABLE_REMOTE_KEYS, "email = ? AND key_type = ?", new String[] { normalizeEmail(email),
+            keyType.name() });
+    }
+
+    /**
+     * Returns true if the own public key with the given fingerprint was sent to each of the contacts at or after
+     * {@code notBefore}.
+     */
+    public boolean wasKeyAnnounced(KeyType keyType, String userId, Collection<String> emails, String fingerprint,
+        long notBefore) {
+        if (emails.isEmpty()) return false;
+
+        for (String email : emails) {
+            long count = countRows(TABLE_ANNOUNCED_KEYS,
+                "user_id = ? AND email = ? AND key_type = ? AND fingerprint = ? AND announced_at >= ?",
+                userId, normalizeEmail(email), keyType.name(), fingerprint, String.valueOf(notBefore));
+            if (count == 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Records that the own public key with the given fingerprint was sent to the contacts.
+     */
+    public void saveKeyAnnouncements(KeyType keyType, String userId, Collection<String> emails, String fingerprint) {
+        if (emails.isEmpty()) return;
+
+        long now = System.currentTimeMillis();
+        db.beginTransaction();
+        SQLiteStatement statement = db.compileStatement("INSERT OR REPLACE INTO " + TABLE_ANNOUNCED_KEYS +
+            " (user_id, email, key_type, fingerprint, announced_at) VALUES (?, ?, ?, ?, ?)");
+        try {
+            for (String email : emails) {
+                statement.bindString(1, userId);
+                statement.bindString(2, normalizeEmail(email));
+                statement.bindString(3, keyType.name());
+                statement.bindString(4, fingerprint);
+                statement.bindLong(5, now);
+                statement.executeInsert();
+                statement.clearBindings();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            statement.close();
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Computes the fingerprint under which a public key is indexed: the OpenPGP fingerprint of the primary key for
+     * PGP keys, the SHA-256 hash of the raw public key for PQC keys. Returns null if the key can't be parsed.
+     */
+    @Nullable
+    public static String fingerprintOf(KeyType keyType, @Nullable String publicKey) {
+        if (publicKey == null || publicKey.isEmpty()) {
+            return null;
+        }
+        try {
+            if (keyType == KeyType.PGP) {
+                return Hex.toHexString(PgpSimpleKeyManager.parsePublicKeyRing(publicKey).getPublicKey()
+                    .getFingerprint());
+            }
+            byte[] rawKey = Base64.getDecoder().decode(publicKey);
+            return Hex.toHexString(MessageDigest.getInstance("SHA-256").digest(rawKey));
+        } catch (Exception e) {
+            Timber.w(e, "Can't compute fingerprint of %s key", keyType);
+            return null;
+        }
+    }
+
+    void runInTransaction(Runnable operation) {
+        db.beginTransaction();
+        try {
+            operation.run();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Nullable
+    private RemotePublicKey queryRemoteKey(String selection, String... selectionArgs) {
+        try (Cursor cursor = db.query(TABLE_REMOTE_KEYS, new String[] { "email", "algorithm", "public_key",
+            "fingerprint" }, selection, selectionArgs, null, null, null, "1")) {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return new RemotePublicKey(cursor.getString(0), cursor.getString(1), cursor.getString(2),
+                cursor.getString(3));
+        }
+    }
+
+    private long countRows(String table, String selection, String... selectionArgs) {
+        try (Cursor cursor = db.query(table, new String[] { "COUNT(*)" }, selection, selectionArgs, null, null,
+            null)) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+    }
+
+    private static String associatedData(KeyType keyType, String userId) {
+        return keyType.name() + "/" + userId;
+    }
+
+    private static String normalizeEmail(String email) {
+        return email.toLowerCase(Locale.ROOT);
+    }
+
+    private static void bindStringOrNull(SQLiteStatement statement, int index, @Nullable String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.fsck.k9.pqcExtension.keyManagement.database;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+
+/**
+ * Encrypts private key material for the key database with AES-256-GCM. The key never leaves the Android Keystore;
+ * it is looked up once and reused for all rows.
+ *
+ * Each value is bound to its row through the associated data, so an encrypted private key can't be moved to another
+ * user or key type.
+ */
+class PqcKeyEncryption {
+
+    private static final String ANDROID_KEYSTORE = "AndroidKeyStore";
+    private static final String KEY_ALIAS = "pqc_key_database";
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int TAG_LENGTH_BITS = 128;
+
+    private final SecretKey key;
+
+    private PqcKeyEncryption(SecretKey key) {
+        this.key = key;
+    }
+
+    static PqcKeyEncryption create() throws GeneralSecurityException, IOException {
+        KeyStore keyStore = KeyStore.getInstance(ANDROID_KEYSTORE);
+        keyStore.load(null);
+
+        SecretKey key = (SecretKey) keyStore.getKey(KEY_ALIAS, null);
+        if (key == null) {
+            KeyGenerator keyGenerator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, ANDROID_KEYSTORE);
+            keyGenerator.init(new KeyGenParameterSpec.Builder(KEY_ALIAS,
+                KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                .setKeySize(256)
+                .build());
+            key = keyGenerator.generateKey();
+        }
+        return new PqcKeyEncryption(key);
+    }
+
+    /**
+     * @return the IV length (1 byte), the IV and the ciphertext
+     */
+    byte[] encrypt(String plaintext, String associatedData) throws GeneralSecurityException {
+        // The keystore generates the IV
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, key);
+        cipher.updateAAD(associatedData.getBytes(StandardCharsets.UTF_8));
+        byte[] iv = cipher.getIV();
+        byte[] ciphertext = cipher.doFinal(plaintext.getBytes(StandardCharsets.UTF_8));
+
+        return ByteBuffer.allocate(1 + iv.length + ciphertext.length)
+            .put((byte) iv.length)
+            .put(iv)
+            .put(ciphertext)
+            .array();
+    }
+
+    String decrypt(byte[] encrypted, String associatedData) throws GeneralSecurityException {
+        int ivLength = encrypted[0] & 0xFF;
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, encrypted, 1, ivLength));
+        cipher.updateAAD(associatedData.getBytes(StandardCharsets.UTF_8));
+        byte[] plaintext = cipher.doFinal(encrypted, 1 + ivLength, encrypted.length - 1 - ivLength);
+        return new String(plaintext, StandardCharsets.UTF_8);
+    }
+}
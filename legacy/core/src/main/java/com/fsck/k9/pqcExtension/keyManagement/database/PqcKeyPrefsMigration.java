@@ -0,0 +1,147 @@
+package com.fsck.k9.pqcExtension.keyManagement.database;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.security.crypto.EncryptedSharedPreferences;
+import androidx.security.crypto.MasterKey;
+
+import com.fsck.k9.pqcExtension.keyManagement.RemotePublicKey;
+import com.fsck.k9.pqcExtension.keyManagement.SimpleKeyStoreFactory.KeyType;
+import org.json.JSONObject;
+import timber.log.Timber;
+
+/**
+ * Moves keys from the shared preferences files used by earlier versions into {@link PqcKeyDatabase}.
+ *
+ * Own key pairs were stored in EncryptedSharedPreferences, remote public keys in plain shared preferences keyed by
+ * the lowercased email address. A file is deleted once its keys are in the database. Files that fail to migrate are
+ * kept and retried the next time the database is opened.
+ */
+class PqcKeyPrefsMigration {
+
+    private static final String PGP_OWN_KEYS = "pgp_key_store_secure";
+    private static final String PGP_REMOTE_KEYS = "pgp_remote_keys";
+    private static final String PQC_KEM_OWN_KEYS = "pqc_kem_keys_secure";
+    private static final String PQC_KEM_REMOTE_KEYS = "pqc_kem_remote_keys";
+    private static final String PQC_SIG_OWN_KEYS = "pqc_sig_keys_secure";
+    private static final String PQC_SIG_REMOTE_KEYS = "pqc_sig_remote_keys";
+
+    private static final String PGP_PUBLIC_KEY_SUFFIX = "_pub";
+    private static final String PGP_PRIVATE_KEY_SUFFIX = "_priv";
+
+    static void migrate(Context context, PqcKeyDatabase database) {
+        migrateOwnKeys(context, database, KeyType.PGP, PGP_OWN_KEYS);
+        migrateOwnKeys(context, database, KeyType.PQC_KEM, PQC_KEM_OWN_KEYS);
+        migrateOwnKeys(context, database, KeyType.PQC_SIG, PQC_SIG_OWN_KEYS);
+
+        migrateRemoteKeys(context, database, KeyType.PGP, PGP_REMOTE_KEYS);
+        migrateRemoteKeys(context, database, KeyType.PQC_KEM, PQC_KEM_REMOTE_KEYS);
+        migrateRemoteKeys(context, database, KeyType.PQC_SIG, PQC_SIG_REMOTE_KEYS);
+    }
+
+    private static void migrateOwnKeys(Context context, PqcKeyDatabase database, KeyType keyType, String prefsName) {
+        // EncryptedSharedPreferences writes to a plain file of the same name. Checking that first avoids setting up
+        // the encryption when there is nothing to migrate.
+        if (isEmpty(context, prefsName)) return;
+
+        try {
+            SharedPreferences prefs = openEncryptedPrefs(context, prefsName);
+            Map<String, ?> entries = prefs.getAll();
+            database.runInTransaction(() -> {
+                for (Map.Entry<String, ?> entry : entries.entrySet()) {
+                    try {
+                        migrateOwnKeyEntry(database, keyType, prefs, entry.getKey(), entry.getValue());
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            context.deleteSharedPreferences(prefsName);
+            Timber.i("Migrated %s key pairs from %s", keyType, prefsName);
+        } catch (Exception e) {
+            Timber.e(e, "Failed to migrate %s key pairs from %s", keyType, prefsName);
+        }
+    }
+
+    private static void migrateOwnKeyEntry(PqcKeyDatabase database, KeyType keyType, SharedPreferences prefs,
+        String key, Object value) throws Exception {
+        if (!(value instanceof String)) return;
+
+        if (keyType == KeyType.PGP) {
+            // Stored as "<userId>_pub" and "<userId>_priv"; the pair is migrated when its public key is seen
+            if (!key.endsWith(PGP_PUBLIC_KEY_SUFFIX)) return;
+            String userId = key.substring(0, key.length() - PGP_PUBLIC_KEY_SUFFIX.length());
+            String privateKey = prefs.getString(userId + PGP_PRIVATE_KEY_SUFFIX, null);
+            if (privateKey != null) {
+                database.saveOwnKeyPair(keyType, userId, "RSA", (String) value, privateKey);
+            }
+        } else {
+            JSONObject json = new JSONObject((String) value);
+            if (json.has("privateKey")) {
+                database.saveOwnKeyPair(keyType, key, json.optString("algorithm", null),
+                    json.optString("publicKey", null), json.getString("privateKey"));
+            }
+        }
+    }
+
+    private static void migrateRemoteKeys(Context context, PqcKeyDatabase database, KeyType keyType,
+        String prefsName) {
+        SharedPreferences prefs = context.getSharedPreferences(prefsName, Context.MODE_PRIVATE);
+        Map<String, ?> entries = prefs.getAll();
+        if (entries.isEmpty()) return;
+
+        try {
+            List<RemotePublicKey> keys = new ArrayList<>(entries.size());
+            for (Map.Entry<String, ?> entry : entries.entrySet()) {
+                if (!(entry.getValue() instanceof String)) continue;
+                RemotePublicKey key = parseRemoteKey(keyType, entry.getKey(), (String) entry.getValue());
+                if (key != null) {
+                    keys.add(key);
+                }
+            }
+            database.saveRemoteKeys(keyType, null, keys);
+            context.deleteSharedPreferences(prefsName);
+            Timber.i("Migrated %d remote %s keys from %s", keys.size(), keyType, prefsName);
+        } catch (Exception e) {
+            Timber.e(e, "Failed to migrate remote %s keys from %s", keyType, prefsName);
+        }
+    }
+
+    private static RemotePublicKey parseRemoteKey(KeyType keyType, String email, String value) throws Exception {
+        if (keyType == KeyType.PGP && !value.trim().startsWith("{")) {
+            // Early versions stored the armored key ring directly
+            return new RemotePublicKey(email, "PGP", value);
+        }
+
+        JSONObject json = new JSONObject(value);
+        String publicKey = json.optString("publicKey", "");
+        if (publicKey.isEmpty()) {
+            Timber.w("Skipping remote %s key without public key", keyType);
+            return null;
+        }
+        return new RemotePublicKey(email, json.optString("algorithm", null), publicKey);
+    }
+
+    private static boolean isEmpty(Context context, String prefsName) {
+        return context.getSharedPreferences(prefsName, Context.MODE_PRIVATE).getAll().isEmpty();
+    }
+
+    private static SharedPreferences openEncryptedPrefs(Context context, String prefsName) throws Exception {
+        MasterKey masterKey = new MasterKey.Builder(context)
+            .setKeyScheme(MasterKey.KeyScheme.AES256_GCM)
+            .build();
+
+        return EncryptedSharedPreferences.create(
+            context,
+            prefsName,
+            masterKey,
+            EncryptedSharedPreferences.PrefKeyEncryptionScheme.AES256_SIV,
+            EncryptedSharedPreferences.PrefValueEncryptionScheme.AES256_GCM
+        );
+    }
+}
@@ -1,15 +1,22 @@
 package com.fsck.k9.pqcExtension.keyManagement.manager;
 
 import android.content.Context;
-import android.content.SharedPreferences;
-
-import androidx.security.crypto.EncryptedSharedPreferences;
-import androidx.security.crypto.MasterKey;
 
+import com.fsck.k9.pqcExtension.helper.encryption.ClassicalKem;
+import com.fsck.k9.pqcExtension.helper.encryption.ClassicalKemFactory;
+import com.fsck.k9.pqcExtension.helper.encryption.X25519Kem;
+import com.fsck.k9.pqcExtension.helper.signature.PqcBatchVerifier;
+import com.fsck.k9.pqcExtension.keyManagement.RemoteKeyCache;
+import com.fsck.k9.pqcExtension.keyManagement.RemoteKeyCache.CachedRemoteKey;
+import com.fsck.k9.pqcExtension.keyManagement.RemotePublicKey;
+import com.fsck.k9.pqcExtension.keyManagement.SimpleKeyStoreFactory.KeyType;
+import com.fsck.k9.pqcExtension.keyManagement.database.PqcKeyDatabase;
+import com.fsck.k9.pqcExtension.keyManagement.database.PqcKeyDatabase.OwnKeyPair;
 import org.bouncycastle.bcpg.ArmoredOutputStream;
 import org.bouncycastle.bcpg.HashAlgorithmTags;
 import org.bouncycastle.bcpg.PublicKeyAlgorithmTags;
 import org.bouncycastle.bcpg.SymmetricKeyAlgorithmTags;
+import org.bouncycastle.bcpg.sig.KeyFlags;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.openpgp.*;
 import org.bouncycastle.openpgp.operator.PBESecretKeyEncryptor;
@@ -22,12 +29,16 @@ import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.security.*;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.List;
 
 public class PgpSimpleKeyManager {
-    private static final String PREFS_NAME = "pgp_key_store_secure";
-    private static final String REMOTE_PREFS = "pgp_remote_keys";
+    private static final KeyType KEY_TYPE = KeyType.PGP;
+
+    public static final String ALGORITHM_RSA = "RSA";
+    public static final String ALGORITHM_X25519 = "X25519";
 
     static {
         // Ensure BouncyCastle is registered
@@ -37,28 +48,16 @@ public class PgpSimpleKeyManager {
     }
 
     /**
-     * Returns an instance of encrypted SharedPreferences using AndroidX Security.
-     */
-    private static SharedPreferences getEncryptedPrefs(Context context, String name) throws Exception {
-        MasterKey masterKey = new MasterKey.Builder(context)
-            .setKeyScheme(MasterKey.KeyScheme.AES256_GCM)
-            .build();
-
-        return EncryptedSharedPreferences.create(
-            context,
-            name,
-            masterKey,
-            EncryptedSharedPreferences.PrefKeyEncryptionScheme.AES256_SIV,
-            EncryptedSharedPreferences.PrefValueEncryptionScheme.AES256_GCM
-        );
-    }
-
-    /**
-     * Generates a new RSA PGP key pair and stores it securely.
+     * Generates a new PGP key pair and stores it securely.
+     *
+     * @param algorithm {@link #ALGORITHM_RSA} for a single RSA-4096 key, {@link #ALGORITHM_X25519} for an Ed25519
+     *                  primary key with an X25519 encryption subkey
      */
-    public static void generateAndStoreKeyPair(Context context, String userId) throws Exception {
+    public static void generateAndStoreKeyPair(Context context, String userId, String algorithm) throws Exception {
         char[] emptyPassphrase = new char[0];
-        PGPKeyRingGenerator keyRingGen = generateKeyRing(userId, emptyPassphrase);
+        PGPKeyRingGenerator keyRingGen = ALGORITHM_X25519.equals(algorithm)
+            ? generateCurve25519KeyRing(userId, emptyPassphrase)
+            : generateKeyRing(userId, emptyPassphrase);
 
         PGPPublicKeyRing pubRing = keyRingGen.generatePublicKeyRing();
         PGPSecretKeyRing secRing = keyRingGen.generateSecretKeyRing();
@@ -66,11 +65,9 @@ public class PgpSimpleKeyManager {
         String pubArmored = armorKeyRing(pubRing);
         String privArmored = armorKeyRing(secRing);
 
-        SharedPreferences prefs = getEncryptedPrefs(context, PREFS_NAME);
-        prefs.edit()
-            .putString(userId + "_pub", pubArmored)
-            .putString(userId + "_priv", privArmored)
-            .apply();
+        PqcKeyDatabase.getInstance(context).saveOwnKeyPair(KEY_TYPE, userId, algorithmOf(pubRing.getPublicKeys()),
+            pubArmored, privArmored);
+        PqcBatchVerifier.invalidateOwnResults(userId);
     }
 
     /**
@@ -106,6 +103,51 @@ public class PgpSimpleKeyManager {
         }
     }
 
+    /**
+     * Builds a new PGP key ring generator with an Ed25519 signing primary key and an X25519 encryption subkey.
+     */
+    private static PGPKeyRingGenerator generateCurve25519KeyRing(String identity, char[] passphrase) {
+        try {
+            BouncyCastleProvider provider = new BouncyCastleProvider();
+            Date creationTime = new Date();
+
+            KeyPair signingKeyPair = KeyPairGenerator.getInstance("Ed25519", provider).generateKeyPair();
+            PGPKeyPair primaryKeyPair = new JcaPGPKeyPair(PublicKeyAlgorithmTags.EDDSA_LEGACY, signingKeyPair,
+                creationTime);
+
+            KeyPair encryptionKeyPair = KeyPairGenerator.getInstance("X25519", provider).generateKeyPair();
+            PGPKeyPair subKeyPair = new JcaPGPKeyPair(PublicKeyAlgorithmTags.ECDH, encryptionKeyPair, creationTime);
+
+            PGPSignatureSubpacketGenerator primaryFlags = new PGPSignatureSubpacketGenerator();
+            primaryFlags.setKeyFlags(false, KeyFlags.CERTIFY_OTHER | KeyFlags.SIGN_DATA);
+
+            PGPSignatureSubpacketGenerator subKeyFlags = new PGPSignatureSubpacketGenerator();
+            subKeyFlags.setKeyFlags(false, KeyFlags.ENCRYPT_COMMS | KeyFlags.ENCRYPT_STORAGE);
+
+            PGPDigestCalculator sha1Cal = new JcaPGPDigestCalculatorProviderBuilder().build().get(HashAlgorithmTags.SHA1);
+            PBESecretKeyEncryptor encryptor = new JcePBESecretKeyEncryptorBuilder(
+                SymmetricKeyAlgorithmTags.AES_256, sha1Cal).setProvider(provider).build(passphrase);
+
+            PGPKeyRingGenerator keyRingGen = new PGPKeyRingGenerator(
+                PGPSignature.POSITIVE_CERTIFICATION,
+                primaryKeyPair,
+                identity,
+                sha1Cal,
+                primaryFlags.generate(),
+                null,
+                new JcaPGPContentSignerBuilder(
+                    primaryKeyPair.getPublicKey().getAlgorithm(),
+                    HashAlgorithmTags.SHA256
+                ).setProvider(provider),
+                encryptor
+            );
+            keyRingGen.addSubKey(subKeyPair, subKeyFlags.generate(), null);
+            return keyRingGen;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * Converts a public key ring into ASCII-armored string.
      */
@@ -132,43 +174,41 @@ public class PgpSimpleKeyManager {
      * Deletes the key pair for the specified user.
      */
     public static void deleteKeyPair(Context context, String userId) throws Exception {
-        getEncryptedPrefs(context, PREFS_NAME).edit().remove(userId).apply();
+        PqcKeyDatabase.getInstance(context).deleteOwnKeyPair(KEY_TYPE, userId);
     }
 
     /**
      * Deletes all stored PGP keys.
      */
     public static void deleteAll(Context context) throws Exception {
-        getEncryptedPrefs(context, PREFS_NAME).edit().clear().apply();
+        PqcKeyDatabase.getInstance(context).deleteAllOwnKeyPairs(KEY_TYPE);
     }
 
     /**
      * Checks if a key pair exists for the specified user.
      */
     public static boolean hasKeyPair(Context context, String userId) throws Exception {
-        SharedPreferences prefs = getEncryptedPrefs(context, PREFS_NAME);
-        return prefs.contains(userId + "_pub") && prefs.contains(userId + "_priv");
+        return PqcKeyDatabase.getInstance(context).hasOwnKeyPair(KEY_TYPE, userId);
     }
 
     /**
      * Imports a full PGP key pair (armored) and stores it securely.
+     *
+     * @throws IllegalArgumentException if the key ring has no RSA or X25519 encryption key
      */
     public static void importArmoredKeyPair(Context context, String userId, String armoredPublic, String armoredPrivate) throws Exception {
-        SharedPreferences prefs = getEncryptedPrefs(context, PREFS_NAME);
-        prefs.edit()
-            .putString(userId + "_pub", armoredPublic)
-            .putString(userId + "_priv", armoredPrivate)
-            .apply();
+        String algorithm = algorithmOf(parseSecretKeyRing(armoredPrivate).getPublicKeys());
+        PqcKeyDatabase.getInstance(context).saveOwnKeyPair(KEY_TYPE, userId, algorithm, armoredPublic, armoredPrivate);
+        PqcBatchVerifier.invalidateOwnResults(userId);
     }
 
     /**
      * Exports the user's public key in armored form.
      */
     public static String exportArmoredPublicKey(Context context, String userId) throws Exception {
-        SharedPreferences prefs = getEncryptedPrefs(context, PREFS_NAME);
-        String pub = prefs.getString(userId + "_pub", null);
-        if (pub == null) throw new Exception("No public key found");
-        return pub;
+        OwnKeyPair keyPair = PqcKeyDatabase.getInstance(context).loadOwnKeyPair(KEY_TYPE, userId);
+        if (keyPair == null || keyPair.publicKey == null) throw new Exception("No public key found");
+        return keyPair.publicKey;
     }
 
 
@@ -176,17 +216,32 @@ public class PgpSimpleKeyManager {
      * Returns the user's local private key as a JSON object.
      */
     public static JSONObject loadLocalPrivateKey(Context context, String userId) throws Exception {
-        SharedPreferences prefs = getEncryptedPrefs(context, PREFS_NAME);
-        String privArmored = prefs.getString(userId + "_priv", null);
-        if (privArmored == null) throw new Exception("No private key found");
+        OwnKeyPair keyPair = PqcKeyDatabase.getInstance(context).loadOwnKeyPair(KEY_TYPE, userId);
+        if (keyPair == null || keyPair.privateKey == null) throw new Exception("No private key found");
 
         JSONObject keyJson = new JSONObject();
-        keyJson.put("algorithm", "RSA");
-        keyJson.put("privateKey", privArmored);
+        keyJson.put("algorithm", algorithmOf(parseSecretKeyRing(keyPair.privateKey).getPublicKeys()));
+        keyJson.put("privateKey", keyPair.privateKey);
         return keyJson;
     }
 
 
+    /**
+     * Returns {@link #ALGORITHM_X25519} or {@link #ALGORITHM_RSA}, depending on the encryption key of a key ring.
+     *
+     * @throws IllegalArgumentException if the key ring has no encryption key of either type
+     */
+    private static String algorithmOf(Iterator<PGPPublicKey> keys) {
+        while (keys.hasNext()) {
+            PGPPublicKey key = keys.next();
+            if (key.isEncryptionKey()) {
+                ClassicalKem kem = ClassicalKemFactory.getKemForKey(key);
+                return X25519Kem.ALGORITHM.equals(kem.getAlgorithm()) ? ALGORITHM_X25519 : ALGORITHM_RSA;
+            }
+        }
+        throw new IllegalArgumentException("No encryption key in PGP key ring");
+    }
+
     /**
      * Parses an armored public key into a PGPPublicKeyRing instance.
      */
@@ -198,6 +253,13 @@ public class PgpSimpleKeyManager {
         else throw new IllegalArgumentException("No valid PGPPublicKeyRing");
     }
 
+    /**
+     * Converts a binary public key ring, e.g. the key data of an Autocrypt header, into ASCII-armored string.
+     */
+    public static String armorPublicKeyRing(byte[] keyData) throws Exception {
+        return armorKeyRing(new PGPPublicKeyRing(keyData, new JcaKeyFingerprintCalculator()));
+    }
+
     /**
      * Parses an armored secret key into a PGPSecretKeyRing instance.
      */
@@ -214,30 +276,30 @@ public class PgpSimpleKeyManager {
      */
     public static void saveRemotePublicKey(Context context, String userId, String remoteEmail, String algorithm, String publicKey) {
         try {
-            SharedPreferences prefs = context.getSharedPreferences(REMOTE_PREFS, Context.MODE_PRIVATE);
-            JSONObject json = new JSONObject();
-            json.put("algorithm", algorithm);
-            json.put("publicKey", publicKey);
-            prefs.edit().putString(remoteEmail.toLowerCase(), json.toString()).apply();
+            PqcKeyDatabase.getInstance(context).saveRemoteKey(KEY_TYPE, userId,
+                new RemotePublicKey(remoteEmail, algorithm, publicKey));
+            RemoteKeyCache.invalidate(KEY_TYPE, remoteEmail);
+            PqcBatchVerifier.invalidateResults(Collections.singletonList(remoteEmail));
         } catch (Exception e) {
             throw new RuntimeException("Error while saving Remote-Keys", e);
         }
     }
 
     /**
-     * Loads a public key received from a remote contact.
+     * Loads a public key received from a remote contact. Served from {@link RemoteKeyCache}.
      */
     public static String loadRemotePublicKey(Context context, String remoteEmail) throws Exception {
-        String key = context.getSharedPreferences(REMOTE_PREFS, Context.MODE_PRIVATE)
-            .getString(remoteEmail.toLowerCase(), null);
+        CachedRemoteKey key = RemoteKeyCache.get(context, KEY_TYPE, remoteEmail);
         if (key == null) throw new Exception("No Remote-Key found");
+        return key.publicKey;
+    }
 
-        if (key.trim().startsWith("{")) {
-            JSONObject json = new JSONObject(key);
-            if (!json.has("publicKey")) throw new Exception("JSON contains no 'publicKey'");
-            return json.getString("publicKey");
-        }
-
-        return key;
+    /**
+     * Stores several remote public keys in one transaction.
+     */
+    public static void importRemotePublicKeys(Context context, String userId, List<RemotePublicKey> keys) throws Exception {
+        PqcKeyDatabase.getInstance(context).saveRemoteKeys(KEY_TYPE, userId, keys);
+        RemoteKeyCache.invalidateKeys(KEY_TYPE, keys);
+        PqcBatchVerifier.invalidateResults(RemotePublicKey.emailsOf(keys));
     }
 }
@@ -1,56 +1,41 @@
 package com.fsck.k9.pqcExtension.keyManagement.manager;
 
 import android.content.Context;
-import android.content.SharedPreferences;
-
-import androidx.security.crypto.EncryptedSharedPreferences;
-import androidx.security.crypto.MasterKey;
 
+import com.fsck.k9.pqcExtension.keyManagement.KemKeyPairPool;
+import com.fsck.k9.pqcExtension.keyManagement.KemKeyPairPool.PooledKeyPair;
+import com.fsck.k9.pqcExtension.keyManagement.RemoteKeyCache;
+import com.fsck.k9.pqcExtension.keyManagement.RemoteKeyCache.CachedRemoteKey;
+import com.fsck.k9.pqcExtension.keyManagement.RemotePublicKey;
+import com.fsck.k9.pqcExtension.keyManagement.SimpleKeyStoreFactory.KeyType;
+import com.fsck.k9.pqcExtension.keyManagement.database.PqcKeyDatabase;
+import com.fsck.k9.pqcExtension.keyManagement.database.PqcKeyDatabase.OwnKeyPair;
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.openquantumsafe.KEMs;
-import org.openquantumsafe.KeyEncapsulation;
 
 import java.util.Base64;
+import java.util.List;
 
 public class PqcKemSimpleKeyManager {
-    private static final String PREFS_NAME = "pqc_kem_keys_secure";
-    private static final String REMOTE_PREFS = "pqc_kem_remote_keys";
+    private static final KeyType KEY_TYPE = KeyType.PQC_KEM;
 
     /**
-     * Returns encrypted SharedPreferences using AndroidX Security library.
-     */
-    private static SharedPreferences getEncryptedPrefs(Context context) throws Exception {
-        MasterKey masterKey = new MasterKey.Builder(context)
-            .setKeyScheme(MasterKey.KeyScheme.AES256_GCM)
-            .build();
-
-        return EncryptedSharedPreferences.create(
-            context,
-            PREFS_NAME,
-            masterKey,
-            EncryptedSharedPreferences.PrefKeyEncryptionScheme.AES256_SIV,
-            EncryptedSharedPreferences.PrefValueEncryptionScheme.AES256_GCM
-        );
-    }
-
-    /**
-     * Generates and stores a PQC KEM key pair securely for a given algorithm and user.
+     * Generates and stores a PQC KEM key pair securely for a given algorithm and user. A pre-generated key pair from
+     * {@link KemKeyPairPool} is used if one is available.
      */
     public static void generateAndStoreKeyPair(Context context, String userId, String algorithm) {
-        if (!KEMs.is_KEM_enabled(algorithm)) {
-            throw new IllegalArgumentException("KEM algorithm not supported: " + algorithm);
+        PooledKeyPair keyPair = KemKeyPairPool.take(algorithm);
+        if (keyPair == null) {
+            keyPair = KemKeyPairPool.generate(algorithm);
         }
 
-        KeyEncapsulation kem = new KeyEncapsulation(algorithm);
         try {
-            kem.generate_keypair();
-            String pub = Base64.getEncoder().encodeToString(kem.export_public_key());
-            String priv = Base64.getEncoder().encodeToString(kem.export_secret_key());
+            String pub = Base64.getEncoder().encodeToString(keyPair.publicKey);
+            String priv = Base64.getEncoder().encodeToString(keyPair.getSecretKey());
 
             saveKeyPair(context, userId, algorithm, pub, priv);
         } finally {
-            kem.dispose_KEM();
+            keyPair.wipe();
         }
     }
 
@@ -59,12 +44,7 @@ public class PqcKemSimpleKeyManager {
      */
     public static void saveKeyPair(Context context, String userId, String algorithm, String publicKey, String privateKey) {
         try {
-            JSONObject json = new JSONObject();
-            json.put("algorithm", algorithm);
-            json.put("publicKey", publicKey);
-            json.put("privateKey", privateKey);
-
-            getEncryptedPrefs(context).edit().putString(userId, json.toString()).apply();
+            PqcKeyDatabase.getInstance(context).saveOwnKeyPair(KEY_TYPE, userId, algorithm, publicKey, privateKey);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -74,35 +54,35 @@ public class PqcKemSimpleKeyManager {
      * Loads a locally stored KEM key pair for the user.
      */
     public static JSONObject loadKeyPair(Context context, String userId) throws Exception {
-        SharedPreferences prefs = getEncryptedPrefs(context);
-        if (prefs.contains(userId)) {
-            String json = prefs.getString(userId, null);
-            if (json == null || json.isEmpty()) return new JSONObject();
-            return new JSONObject(json);
-        } else {
-            return new JSONObject();
+        OwnKeyPair keyPair = PqcKeyDatabase.getInstance(context).loadOwnKeyPair(KEY_TYPE, userId);
+        JSONObject json = new JSONObject();
+        if (keyPair != null) {
+            json.put("algorithm", keyPair.algorithm);
+            json.put("publicKey", keyPair.publicKey);
+            json.put("privateKey", keyPair.privateKey);
         }
+        return json;
     }
 
     /**
      * Deletes the key pair for the specified user.
      */
     public static void deleteKeyPair(Context context, String userId) throws Exception {
-        getEncryptedPrefs(context).edit().remove(userId).apply();
+        PqcKeyDatabase.getInstance(context).deleteOwnKeyPair(KEY_TYPE, userId);
     }
 
     /**
      * Deletes all stored PQC KEM keys.
      */
     public static void deleteAll(Context context) throws Exception {
-        getEncryptedPrefs(context).edit().clear().apply();
+        PqcKeyDatabase.getInstance(context).deleteAllOwnKeyPairs(KEY_TYPE);
     }
 
     /**
      * Checks if a key pair exists for the specified user.
      */
     public static boolean hasKeyPair(Context context, String userId) throws Exception {
-        return getEncryptedPrefs(context).contains(userId);
+        return PqcKeyDatabase.getInstance(context).hasOwnKeyPair(KEY_TYPE, userId);
     }
 
     /**
@@ -123,13 +103,16 @@ public class PqcKemSimpleKeyManager {
     }
 
     /**
-     * Loads a public key previously imported from a remote contact.
+     * Loads a public key previously imported from a remote contact. Served from {@link RemoteKeyCache}.
      */
     public static JSONObject loadRemotePublicKey(Context context, String remoteEmail) throws Exception {
-        SharedPreferences prefs = context.getSharedPreferences(REMOTE_PREFS, Context.MODE_PRIVATE);
-        String json = prefs.getString(remoteEmail.toLowerCase(), null);
-        if (json == null) throw new Exception("Kein Remote-Key vorhanden");
-        return new JSONObject(json);
+        CachedRemoteKey key = RemoteKeyCache.get(context, KEY_TYPE, remoteEmail);
+        if (key == null) throw new Exception("Kein Remote-Key vorhanden");
+
+        JSONObject json = new JSONObject();
+        json.put("algorithm", key.algorithm);
+        json.put("publicKey", key.publicKey);
+        return json;
     }
 
     /**
@@ -147,10 +130,16 @@ public class PqcKemSimpleKeyManager {
      * Stores a public key received from a remote user.
      */
     public static void importRemotePublicKey(Context context, String ownerUserId, String remoteEmail, String algorithm, String publicKey) throws Exception {
-        SharedPreferences prefs = context.getSharedPreferences(REMOTE_PREFS, Context.MODE_PRIVATE);
-        JSONObject json = new JSONObject();
-        json.put("algorithm", algorithm);
-        json.put("publicKey", publicKey);
-        prefs.edit().putString(remoteEmail.toLowerCase(), json.toString()).apply();
+        PqcKeyDatabase.getInstance(context).saveRemoteKey(KEY_TYPE, ownerUserId,
+            new RemotePublicKey(remoteEmail, algorithm, publicKey));
+        RemoteKeyCache.invalidate(KEY_TYPE, remoteEmail);
+    }
+
+    /**
+     * Stores several remote public keys in one transaction.
+     */
+    public static void importRemotePublicKeys(Context context, String ownerUserId, List<RemotePublicKey> keys) throws Exception {
+        PqcKeyDatabase.getInstance(context).saveRemoteKeys(KEY_TYPE, ownerUserId, keys);
+        RemoteKeyCache.invalidateKeys(KEY_TYPE, keys);
     }
 }
@@ -1,38 +1,25 @@
 package com.fsck.k9.pqcExtension.keyManagement.manager;
 
 import android.content.Context;
-import android.content.SharedPreferences;
-
-import androidx.security.crypto.EncryptedSharedPreferences;
-import androidx.security.crypto.MasterKey;
 
+import com.fsck.k9.pqcExtension.helper.signature.PqcBatchVerifier;
+import com.fsck.k9.pqcExtension.keyManagement.RemoteKeyCache;
+import com.fsck.k9.pqcExtension.keyManagement.RemoteKeyCache.CachedRemoteKey;
+import com.fsck.k9.pqcExtension.keyManagement.RemotePublicKey;
+import com.fsck.k9.pqcExtension.keyManagement.SimpleKeyStoreFactory.KeyType;
+import com.fsck.k9.pqcExtension.keyManagement.database.PqcKeyDatabase;
+import com.fsck.k9.pqcExtension.keyManagement.database.PqcKeyDatabase.OwnKeyPair;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.openquantumsafe.Signature;
 import org.openquantumsafe.Sigs;
 
 import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
 
 public class PqcSigSimpleKeyManager {
-    private static final String PREFS_NAME = "pqc_sig_keys_secure";
-    private static final String REMOTE_PREFS = "pqc_sig_remote_keys";
-
-    /**
-     * Returns encrypted SharedPreferences to securely store local key data.
-     */
-    private static SharedPreferences getEncryptedPrefs(Context context) throws Exception {
-        MasterKey masterKey = new MasterKey.Builder(context)
-            .setKeyScheme(MasterKey.KeyScheme.AES256_GCM)
-            .build();
-
-        return EncryptedSharedPreferences.create(
-            context,
-            PREFS_NAME,
-            masterKey,
-            EncryptedSharedPreferences.PrefKeyEncryptionScheme.AES256_SIV,
-            EncryptedSharedPreferences.PrefValueEncryptionScheme.AES256_GCM
-        );
-    }
+    private static final KeyType KEY_TYPE = KeyType.PQC_SIG;
 
     /**
      * Generates a new post-quantum signature key pair and stores it securely.
@@ -59,35 +46,32 @@ public class PqcSigSimpleKeyManager {
      */
     public static void saveKeyPair(Context context, String userId, String algorithm, String publicKey, String privateKey) {
         try {
-            JSONObject json = new JSONObject();
-            json.put("algorithm", algorithm);
-            json.put("publicKey", publicKey);
-            json.put("privateKey", privateKey);
-            getEncryptedPrefs(context).edit().putString(userId, json.toString()).apply();
+            PqcKeyDatabase.getInstance(context).saveOwnKeyPair(KEY_TYPE, userId, algorithm, publicKey, privateKey);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
+        PqcBatchVerifier.invalidateOwnResults(userId);
     }
 
     /**
      * Loads a complete key pair (if available) as a JSONObject.
      */
     public static JSONObject loadKeyPair(Context context, String userId) throws Exception {
-        SharedPreferences prefs = getEncryptedPrefs(context);
-        if (prefs.contains(userId)) {
-            String json = prefs.getString(userId, null);
-            if (json == null || json.isEmpty()) return new JSONObject();
-            return new JSONObject(json);
-        } else {
-            return new JSONObject();
+        OwnKeyPair keyPair = PqcKeyDatabase.getInstance(context).loadOwnKeyPair(KEY_TYPE, userId);
+        JSONObject json = new JSONObject();
+        if (keyPair != null) {
+            json.put("algorithm", keyPair.algorithm);
+            json.put("publicKey", keyPair.publicKey);
+            json.put("privateKey", keyPair.privateKey);
         }
+        return json;
     }
 
     /**
      * Deletes a user's key pair from secure storage.
      */
     public static void deleteKeyPair(Context context, String userId) throws Exception {
-        getEncryptedPrefs(context).edit().remove(userId).apply();
+        PqcKeyDatabase.getInstance(context).deleteOwnKeyPair(KEY_TYPE, userId);
     }
 
 
@@ -95,14 +79,14 @@ public class PqcSigSimpleKeyManager {
      * Clears all locally stored signature keys.
      */
     public static void deleteAll(Context context) throws Exception {
-        getEncryptedPrefs(context).edit().clear().apply();
+        PqcKeyDatabase.getInstance(context).deleteAllOwnKeyPairs(KEY_TYPE);
     }
 
     /**
      * Checks if a key pair exists for a specific user.
      */
     public static boolean hasKeyPair(Context context, String userId) throws Exception {
-        return getEncryptedPrefs(context).contains(userId);
+        return PqcKeyDatabase.getInstance(context).hasOwnKeyPair(KEY_TYPE, userId);
     }
 
     /**
@@ -125,12 +109,11 @@ public class PqcSigSimpleKeyManager {
     /**
      * Stores a remote contact's public signature key.
      */
-    public static void importRemotePublicKey(Context context, String remoteEmail, String algorithm, String publicKey) throws Exception {
-        SharedPreferences prefs = context.getSharedPreferences(REMOTE_PREFS, Context.MODE_PRIVATE);
-        JSONObject json = new JSONObject();
-        json.put("algorithm", algorithm);
-        json.put("publicKey", publicKey);
-        prefs.edit().putString(remoteEmail.toLowerCase(), json.toString()).apply();
+    public static void importRemotePublicKey(Context context, String ownerUserId, String remoteEmail, String algorithm, String publicKey) throws Exception {
+        PqcKeyDatabase.getInstance(context).saveRemoteKey(KEY_TYPE, ownerUserId,
+            new RemotePublicKey(remoteEmail, algorithm, publicKey));
+        RemoteKeyCache.invalidate(KEY_TYPE, remoteEmail);
+        PqcBatchVerifier.invalidateResults(Collections.singletonList(remoteEmail));
     }
 
     /**
@@ -146,12 +129,24 @@ public class PqcSigSimpleKeyManager {
 
 
     /**
-     * Loads a public key for a given remote contact.
+     * Loads a public key for a given remote contact. Served from {@link RemoteKeyCache}.
      */
     public static JSONObject loadRemotePublicKey(Context context, String remoteEmail) throws Exception {
-        SharedPreferences prefs = context.getSharedPreferences(REMOTE_PREFS, Context.MODE_PRIVATE);
-        String json = prefs.getString(remoteEmail.toLowerCase(), null);
-        if (json == null) return null;
-        return new JSONObject(json);
+        CachedRemoteKey key = RemoteKeyCache.get(context, KEY_TYPE, remoteEmail);
+        if (key == null) return null;
+
+        JSONObject json = new JSONObject();
+        json.put("algorithm", key.algorithm);
+        json.put("publicKey", key.publicKey);
+        return json;
+    }
+
+    /**
+     * Stores several remote public keys in one transaction.
+     */
+    public static void importRemotePublicKeys(Context context, String ownerUserId, List<RemotePublicKey> keys) throws Exception {
+        PqcKeyDatabase.getInstance(context).saveRemoteKeys(KEY_TYPE, ownerUserId, keys);
+        RemoteKeyCache.invalidateKeys(KEY_TYPE, keys);
+        PqcBatchVerifier.invalidateResults(RemotePublicKey.emailsOf(keys));
     }
 }
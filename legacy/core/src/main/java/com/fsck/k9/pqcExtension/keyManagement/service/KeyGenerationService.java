@@ -0,0 +1,174 @@
+package com.fsck.k9.pqcExtension.keyManagement.service;
+
+
+import android.content.Context;
+
+import androidx.annotation.Nullable;
+
+import app.k9mail.legacy.account.Account;
+import com.fsck.k9.Preferences;
+import com.fsck.k9.logging.Timber;
+import com.fsck.k9.pqcExtension.helper.PqcExecutors;
+import com.fsck.k9.pqcExtension.keyManagement.KemKeyPairPool;
+import com.fsck.k9.pqcExtension.keyManagement.SimpleKeyStore;
+import com.fsck.k9.pqcExtension.keyManagement.SimpleKeyStoreFactory;
+import com.fsck.k9.pqcExtension.keyManagement.SimpleKeyStoreFactory.KeyType;
+import com.fsck.k9.pqcExtension.keyManagement.manager.PgpSimpleKeyManager;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+
+/**
+ * Generates key pairs off the calling thread.
+ *
+ * RSA-4096 generation for the PGP part of a hybrid key can take seconds, so all generation runs in the background on
+ * a serial executor, see {@link PqcExecutors}. Requests are processed in order, which also means a PQC key pair
+ * requested right after enabling PQC waits for the PGP key pair it depends on instead of generating a second one.
+ *
+ * After a KEM key pair is generated the {@link KemKeyPairPool} of its algorithm is topped up, so the next generation
+ * or rotation can take a pre-generated key pair. The pool holds as many key pairs per algorithm as the largest
+ * {@link Account#getPqcKemPoolSize() pool size} of the accounts with KEM enabled.
+ *
+ * The type of a newly generated PGP key pair follows the account's classical KEM setting.
+ */
+public class KeyGenerationService {
+
+    private static final ExecutorService executor = PqcExecutors.newSerialExecutor();
+
+    /**
+     * Receives progress of a generation request. Called on a background thread.
+     */
+    public interface Callback {
+        void onProgress(int completedSteps, int totalSteps);
+
+        void onComplete();
+
+        void onError(Exception e);
+    }
+
+
+    /**
+     * Generates a PQC key pair of the given type for the account, preceded by a PGP key pair if the account doesn't
+     * have one yet. An existing PQC key pair of the same type is retired to the account's key ring, so messages
+     * encrypted to it can still be decrypted.
+     *
+     * @return a Future that completes once the key pairs are stored, or fails with the generation error
+     */
+    public static Future<?> generateKeyPairs(Context context, String accountId, KeyType pqcKeyType,
+        String pqcAlgorithm, @Nullable Callback callback) {
+        Context appContext = context.getApplicationContext();
+        return executor.submit(() -> {
+            try {
+                SimpleKeyStore pgpStore = SimpleKeyStoreFactory.getKeyStore(KeyType.PGP);
+                boolean needsPgp = !pgpStore.hasOwnKeyPair(appContext, accountId);
+                int totalSteps = needsPgp ? 2 : 1;
+                int completedSteps = 0;
+                reportProgress(callback, completedSteps, totalSteps);
+
+                if (needsPgp) {
+                    pgpStore.generateKeyPair(appContext, accountId, getPgpAlgorithm(accountId));
+                    reportProgress(callback, ++completedSteps, totalSteps);
+                }
+
+                SimpleKeyStoreFactory.getKeyStore(pqcKeyType).generateKeyPair(appContext, accountId, pqcAlgorithm);
+                reportProgress(callback, ++completedSteps, totalSteps);
+
+                if (callback != null) callback.onComplete();
+            } catch (Exception e) {
+                Timber.e(e, "Failed to generate %s key pair for user: %s", pqcKeyType, accountId);
+                if (callback != null) callback.onError(e);
+                throw e;
+            } finally {
+                // Queued separately, so the returned Future doesn't wait for the pool
+                if (pqcKeyType == KeyType.PQC_KEM) {
+                    refillKemPool(pqcAlgorithm);
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Generates a PGP key pair for the account unless it already has one.
+     *
+     * @return a Future that completes once the key pair exists, or fails with the generation error
+     */
+    public static Future<?> ensurePgpKeyPair(Context context, String accountId, @Nullable Callback callback) {
+        Context appContext = context.getApplicationContext();
+        return executor.submit(() -> {
+            try {
+                SimpleKeyStore pgpStore = SimpleKeyStoreFactory.getKeyStore(KeyType.PGP);
+                reportProgress(callback, 0, 1);
+                if (!pgpStore.hasOwnKeyPair(appContext, accountId)) {
+                    pgpStore.generateKeyPair(appContext, accountId, getPgpAlgorithm(accountId));
+                }
+                reportProgress(callback, 1, 1);
+
+                if (callback != null) callback.onComplete();
+            } catch (Exception e) {
+                Timber.e(e, "Failed to ensure PgpKeys exist for user: %s", accountId);
+                if (callback != null) callback.onError(e);
+                throw e;
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Tops up the pool of pre-generated KEM key pairs for the given algorithm.
+     */
+    public static Future<?> refillKemPool(String algorithm) {
+        return executor.submit(() -> refillKemPoolNow(algorithm));
+    }
+
+    /**
+     * Applies the pool size of the accounts to the {@link KemKeyPairPool} and tops up the pools of their algorithms.
+     * Call after the KEM setting or the pool size of an account changed.
+     */
+    public static Future<?> updateKemPoolSize() {
+        return executor.submit(() -> {
+            applyKemPoolSize();
+            for (Account account : Preferences.getPreferences().getAccounts()) {
+                String algorithm = account.getPqcKemAlgorithm();
+                if (account.isPqcKemEnabled() && algorithm != null && !"None".equals(algorithm)) {
+                    refillKemPoolNow(algorithm);
+                }
+            }
+        });
+    }
+
+    private static void applyKemPoolSize() {
+        int poolSize = 0;
+        for (Account account : Preferences.getPreferences().getAccounts()) {
+            if (account.isPqcKemEnabled()) {
+                poolSize = Math.max(poolSize, account.getPqcKemPoolSize());
+            }
+        }
+        KemKeyPairPool.setPoolSize(poolSize);
+    }
+
+    private static void refillKemPoolNow(String algorithm) {
+        applyKemPoolSize();
+        try {
+            int missing = KemKeyPairPool.getMissingCount(algorithm);
+            for (int i = 0; i < missing; i++) {
+                if (!KemKeyPairPool.offer(KemKeyPairPool.generate(algorithm))) break;
+            }
+        } catch (Exception e) {
+            Timber.w(e, "Failed to pre-generate %s key pairs", algorithm);
+        }
+    }
+
+    private static String getPgpAlgorithm(String accountId) {
+        Account account = Preferences.getPreferences().getAccount(accountId);
+        String algorithm = account != null ? account.getPqcClassicalKemAlgorithm() : null;
+        return algorithm != null ? algorithm : PgpSimpleKeyManager.ALGORITHM_RSA;
+    }
+
+    private static void reportProgress(@Nullable Callback callback, int completedSteps, int totalSteps) {
+        if (callback != null) {
+            callback.onProgress(completedSteps, totalSteps);
+        }
+    }
+}
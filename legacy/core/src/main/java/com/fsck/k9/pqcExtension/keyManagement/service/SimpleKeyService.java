@@ -10,6 +10,8 @@ import com.fsck.k9.pqcExtension.keyManagement.PqcKemSimpleKeyStore;
 import com.fsck.k9.pqcExtension.keyManagement.PqcSigSimpleKeyStore;
 import com.fsck.k9.pqcExtension.keyManagement.SimpleKeyStore;
 
+import java.util.concurrent.Future;
+
 
 public class SimpleKeyService {
     // Static instances of each key store (PGP, PQC Signature, PQC KEM)
@@ -47,20 +49,16 @@ public class SimpleKeyService {
 
 
     /**
-     * Ensures a PGP key pair exists for the user. If missing, it generates one.
+     * Ensures a PGP key pair exists for the user. If missing, one is generated in the background by
+     * {@link KeyGenerationService}.
      *
      * @param context      Android application context
      * @param accountId    ID of the user/account
      * @param pgpAlgorithm Algorithm name (currently not used but accepted)
+     * @return a Future that completes once the key pair exists
      */
-    public static void ensurePgpKeypairExists(Context context, String accountId, String pgpAlgorithm) {
-        try {
-            if (!pgpStore.hasOwnKeyPair(context, accountId)) {
-                pgpStore.generateKeyPair(context, accountId, pgpAlgorithm);
-            }
-        } catch (Exception e) {
-            Timber.e(e, "Failed to ensure PgpKeys exist for user: %s", accountId);
-        }
+    public static Future<?> ensurePgpKeypairExists(Context context, String accountId, String pgpAlgorithm) {
+        return KeyGenerationService.ensurePgpKeyPair(context, accountId, null);
     }
 }
 
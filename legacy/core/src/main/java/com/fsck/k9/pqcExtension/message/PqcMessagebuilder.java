@@ -11,10 +11,15 @@ import app.k9mail.legacy.di.DI;
 import com.fsck.k9.CoreResourceProvider;
 import com.fsck.k9.K9;
 import com.fsck.k9.autocrypt.AutocryptDraftStateHeader;
+import com.fsck.k9.autocrypt.AutocryptHybridKeys;
 import com.fsck.k9.autocrypt.AutocryptOpenPgpApiInteractor;
 import com.fsck.k9.autocrypt.AutocryptOperations;
+import com.fsck.k9.mail.Address;
 import com.fsck.k9.mail.BoundaryGenerator;
+import com.fsck.k9.mail.Message;
+import com.fsck.k9.mail.Message.RecipientType;
 import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.internet.BinaryTempFileBody;
 import com.fsck.k9.mail.internet.MessageIdGenerator;
 import com.fsck.k9.mail.internet.MimeBodyPart;
 import com.fsck.k9.mail.internet.MimeHeader;
@@ -26,36 +31,60 @@ import com.fsck.k9.mailstore.BinaryMemoryBody;
 import com.fsck.k9.message.CryptoStatus;
 import com.fsck.k9.message.MessageBuilder;
 import com.fsck.k9.pqcExtension.helper.encryption.PqcEncryptionHelper;
+import com.fsck.k9.pqcExtension.helper.encryption.PqcHybridEnvelope;
+import com.fsck.k9.pqcExtension.helper.signature.PqcCompositeSignature;
+import com.fsck.k9.pqcExtension.helper.signature.PqcPreHash;
 import com.fsck.k9.pqcExtension.helper.signature.PqcSignatureHelper;
+import com.fsck.k9.pqcExtension.helper.PqcCanonicalContent;
 import com.fsck.k9.pqcExtension.helper.PqcMessageHelper;
-import com.fsck.k9.pqcExtension.keyManagement.manager.PgpSimpleKeyManager;
+import com.fsck.k9.pqcExtension.keyManagement.RemoteKeyCache;
+import com.fsck.k9.pqcExtension.keyManagement.RemoteKeyCache.CachedRemoteKey;
+import com.fsck.k9.pqcExtension.keyManagement.SimpleKeyStore;
 import com.fsck.k9.pqcExtension.keyManagement.SimpleKeyStoreFactory;
+import com.fsck.k9.pqcExtension.keyManagement.database.PqcKeyDatabase;
+import com.fsck.k9.pqcExtension.keyManagement.manager.PgpSimpleKeyManager;
 import org.apache.james.mime4j.util.MimeUtil;
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.openpgp.PGPPublicKey;
-import org.bouncycastle.openpgp.PGPPublicKeyRing;
-import org.json.JSONObject;
+import timber.log.Timber;
 
 import java.nio.charset.StandardCharsets;
-import java.security.Security;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Custom message builder that supports hybrid PQC/PGP encryption and signing.
  */
 public class PqcMessagebuilder extends MessageBuilder {
+    /**
+     * After this time PQC keys are sent in full again, for recipients that lost the keys they received.
+     */
+    private static final long KEY_ANNOUNCEMENT_REFRESH_MILLIS = TimeUnit.DAYS.toMillis(30);
+
     private MimeMessage currentProcessedMimeMessage;
     private MimeBodyPart messageContentBodyPart;
     private CryptoStatus cryptoStatus;
     private final Context context;
-    private final String recipientEmail;
+    private final AutocryptOperations autocryptOperations;
+    private final List<String> recipientEmails;
+    private final Set<String> hiddenRecipientEmails;
 
     /**
      * Creates a new instance of PqcMessagebuilder with required dependencies.
+     *
+     * @param recipientEmails       The To and Cc recipients
+     * @param bccRecipientEmails    The Bcc recipients; their key blocks don't name their keys
      */
-    public static PqcMessagebuilder newInstance(Context context, String recipientEmail) {
+    public static PqcMessagebuilder newInstance(Context context, List<String> recipientEmails,
+        List<String> bccRecipientEmails) {
         MessageIdGenerator messageIdGenerator = MessageIdGenerator.getInstance();
         BoundaryGenerator boundaryGenerator = BoundaryGenerator.getInstance();
         AutocryptOperations autocryptOperations = AutocryptOperations.getInstance();
@@ -63,16 +92,33 @@ public class PqcMessagebuilder extends MessageBuilder {
         CoreResourceProvider resourceProvider = DI.get(CoreResourceProvider.class);
 
         return new PqcMessagebuilder(messageIdGenerator, boundaryGenerator, autocryptOperations,
-            autocryptOpenPgpApiInteractor, resourceProvider, context, recipientEmail);
+            autocryptOpenPgpApiInteractor, resourceProvider, context, recipientEmails, bccRecipientEmails);
     }
 
     @VisibleForTesting
     PqcMessagebuilder(MessageIdGenerator messageIdGenerator, BoundaryGenerator boundaryGenerator,
         AutocryptOperations autocryptOperations, AutocryptOpenPgpApiInteractor autocryptOpenPgpApiInteractor,
-        CoreResourceProvider resourceProvider, Context context, String recipientEmail) {
+        CoreResourceProvider resourceProvider, Context context, List<String> recipientEmails,
+        List<String> bccRecipientEmails) {
         super(messageIdGenerator, boundaryGenerator, resourceProvider);
         this.context = context;
-        this.recipientEmail = recipientEmail;
+        this.autocryptOperations = autocryptOperations;
+
+        // Each key block only needs to be added once, no matter in how many recipient fields an address appears
+        Set<String> uniqueEmails = new LinkedHashSet<>();
+        for (String recipientEmail : recipientEmails) {
+            uniqueEmails.add(recipientEmail.toLowerCase(Locale.ROOT));
+        }
+        // An address that is visible in To or Cc anyway doesn't need to be hidden
+        Set<String> hiddenEmails = new LinkedHashSet<>();
+        for (String recipientEmail : bccRecipientEmails) {
+            String email = recipientEmail.toLowerCase(Locale.ROOT);
+            if (uniqueEmails.add(email)) {
+                hiddenEmails.add(email);
+            }
+        }
+        this.recipientEmails = new ArrayList<>(uniqueEmails);
+        this.hiddenRecipientEmails = hiddenEmails;
     }
 
     public void setCryptoStatus(CryptoStatus cryptoStatus) {
@@ -82,19 +128,27 @@ public class PqcMessagebuilder extends MessageBuilder {
     /**
      * Creates a multipart/signed MIME structure with attached PQC and PGP signatures.
      */
-    private MimeBodyPart mimeBuildSignedMessage(MimeBodyPart signedBodyPart, Map<String, byte[]> signatureMap) throws MessagingException {
+    private MimeBodyPart mimeBuildSignedMessage(MimeBodyPart signedBodyPart,
+        PqcSignatureHelper.HybridSignatureResult signatures) throws MessagingException {
+        if (signatures.isComposite()) {
+            return mimeBuildCompositeSignedMessage(signedBodyPart, signatures.getSignatures().get("composite"));
+        }
+
         MimeMultipart multipartSigned = createMimeMultipart();
         multipartSigned.setSubType("signed");
         multipartSigned.addBodyPart(signedBodyPart);
 
-        for (Map.Entry<String, byte[]> entry : signatureMap.entrySet()) {
+        // Tells the verifier that the PQC signature was made over a digest of the content
+        Map<String, String> pqcArmorHeaders =
+            Collections.singletonMap(PqcPreHash.ARMOR_HEADER, signatures.getPqcPreHash().getHeaderValue());
+
+        for (Map.Entry<String, byte[]> entry : signatures.getSignatures().entrySet()) {
             String algorithm = entry.getKey();
             byte[] sigData = entry.getValue();
 
-            String armorLabel = algorithm.equals("pgp") ? "PGP SIGNATURE" : "PQC SIGNATURE";
             String armored = algorithm.equals("pgp") ?
                 new String(sigData, StandardCharsets.US_ASCII) :
-                PqcMessageHelper.armor(Base64.getEncoder().encodeToString(sigData), armorLabel, getAccount().getPqcSigningAlgorithm());
+                PqcMessageHelper.armor(Base64.getEncoder().encodeToString(sigData), "PQC SIGNATURE", pqcArmorHeaders);
 
             String filename = "signature-" + algorithm + ".asc";
             MimeBodyPart sigPart = MimeBodyPart.create(
@@ -115,6 +169,34 @@ public class PqcMessagebuilder extends MessageBuilder {
         return currentProcessedMimeMessage.toBodyPart();
     }
 
+    /**
+     * Creates a multipart/signed MIME structure with a single binary composite signature part.
+     */
+    private MimeBodyPart mimeBuildCompositeSignedMessage(MimeBodyPart signedBodyPart, byte[] compositeSignature)
+        throws MessagingException {
+        MimeMultipart multipartSigned = createMimeMultipart();
+        multipartSigned.setSubType("signed");
+        multipartSigned.addBodyPart(signedBodyPart);
+
+        String filename = PqcCompositeSignature.FILENAME;
+        byte[] encoded = Base64.getMimeEncoder().encode(compositeSignature);
+        MimeBodyPart sigPart = MimeBodyPart.create(new BinaryMemoryBody(encoded, MimeUtil.ENC_BASE64),
+            PqcCompositeSignature.CONTENT_TYPE + "; name=\"" + filename + "\"");
+        sigPart.setHeader("Content-Disposition", "inline; filename=\"" + filename + "\"");
+        multipartSigned.addBodyPart(sigPart);
+
+        String signedContentType = String.format(
+            "multipart/signed; boundary=\"%s\";\r\n  protocol=\"%s\"; micalg=\"pqc-ed25519-%s\"",
+            multipartSigned.getBoundary(),
+            PqcCompositeSignature.CONTENT_TYPE,
+            getAccount().getPqcSigningAlgorithm()
+        );
+
+        MimeMessageHelper.setBody(currentProcessedMimeMessage, multipartSigned);
+        currentProcessedMimeMessage.setHeader(MimeHeader.HEADER_CONTENT_TYPE, signedContentType);
+        return currentProcessedMimeMessage.toBodyPart();
+    }
+
     /**
      * Extracts the message body part from the current MIME message.
      */
@@ -135,34 +217,37 @@ public class PqcMessagebuilder extends MessageBuilder {
     }
 
     /**
-     * Encrypts the message using Hybrid-KEM (RSA + PQC) and AES-GCM (RFC 4880-style structure).
+     * Encrypts the message for all recipients using Hybrid-KEM (RSA or X25519 + PQC) and AES-GCM (RFC 4880-style
+     * structure).
+     * The payload is encrypted once with a random content key; every recipient gets its own key block in the
+     * binary envelope in front of the payload. The sender's own keys are always added as a recipient, so the copy in
+     * the Sent folder can be decrypted as well. The key blocks of Bcc recipients are hidden, see
+     * {@link PqcEncryptionHelper.RecipientKeys#hidden}.
      */
     private void mimeBuildEncryptedMessageHybridRFC(MimeBodyPart signedBodyPart) throws MessagingException {
+        if (recipientEmails.isEmpty()) {
+            throw new MessagingException("No recipients to encrypt to");
+        }
         try {
-            byte[] canonicalData = PqcMessageHelper.canonicalize(signedBodyPart);
-            JSONObject keyData = SimpleKeyStoreFactory.getKeyStore(SimpleKeyStoreFactory.KeyType.PQC_KEM)
-                .loadRemotePublicKey(context, recipientEmail);
-
-            String pqcAlg = keyData.getString("algorithm");
-            byte[] pqcPubKey = Base64.getDecoder().decode(keyData.getString("publicKey"));
-
-            String pgpPublicKeyArmored = SimpleKeyStoreFactory.getKeyStore(SimpleKeyStoreFactory.KeyType.PGP)
-                .loadRemotePublicKeyArmoredString(context, recipientEmail);
-            if (Security.getProvider("BC") == null) {
-                Security.addProvider(new BouncyCastleProvider());
+            String senderEmail = currentProcessedMimeMessage.getFrom()[0].getAddress().toLowerCase(Locale.ROOT);
+            List<PqcEncryptionHelper.RecipientKeys> recipients = new ArrayList<>(recipientEmails.size() + 1);
+            recipients.add(loadOwnRecipientKeys(senderEmail));
+            for (String recipientEmail : recipientEmails) {
+                // Messages to oneself are covered by the sender's key block
+                if (recipientEmail.equals(senderEmail)) continue;
+
+                recipients.add(loadRecipientKeys(recipientEmail, hiddenRecipientEmails.contains(recipientEmail)));
             }
-            PGPPublicKeyRing pgpRing = PgpSimpleKeyManager.parsePublicKeyRing(pgpPublicKeyArmored);
-            PGPPublicKey rsaPubKey = null;
-            for (PGPPublicKey key : pgpRing) {
-                if (key.isEncryptionKey()) {
-                    rsaPubKey = key;
-                    break;
-                }
-            }
-            if (rsaPubKey == null) throw new MessagingException("No valid RSA key found");
 
-            PqcEncryptionHelper.HybridKEMResult kemResult = PqcEncryptionHelper.encapsulateBoth(rsaPubKey, pqcPubKey, pqcAlg);
-            byte[] encryptedPayload = PqcEncryptionHelper.encryptWithAes(canonicalData, kemResult.sessionKey);
+            byte[] contentKey = PqcEncryptionHelper.generateContentKey();
+            BinaryTempFileBody encryptedBody;
+            try {
+                List<PqcHybridEnvelope.RecipientBlock> recipientBlocks =
+                    PqcEncryptionHelper.wrapContentKey(contentKey, recipients);
+                encryptedBody = PqcEncryptionHelper.encryptPartToTempBody(signedBodyPart, contentKey, recipientBlocks);
+            } finally {
+                Arrays.fill(contentKey, (byte) 0);
+            }
 
             MimeMultipart multipartEncrypted = createMimeMultipart();
             multipartEncrypted.setSubType("encrypted");
@@ -170,10 +255,8 @@ public class PqcMessagebuilder extends MessageBuilder {
             MimeBodyPart versionPart = MimeBodyPart.create(new TextBody("Version: 1"), "application/pgp-encrypted");
             multipartEncrypted.addBodyPart(versionPart);
 
-            String base64Encoded = Base64.getMimeEncoder(76, "\r\n".getBytes()).encodeToString(encryptedPayload);
-            BinaryMemoryBody body = new BinaryMemoryBody(base64Encoded.getBytes(StandardCharsets.US_ASCII), MimeUtil.ENC_7BIT);
             MimeBodyPart encryptedPart = new MimeBodyPart();
-            encryptedPart.setBody(body);
+            encryptedPart.setBody(encryptedBody);
             encryptedPart.setHeader("Content-Type", "application/octet-stream; name=\"encrypted.asc\"");
             encryptedPart.setHeader("Content-Disposition", "inline; filename=\"encrypted.asc\"");
             encryptedPart.setHeader("Content-Transfer-Encoding", "base64");
@@ -186,17 +269,203 @@ public class PqcMessagebuilder extends MessageBuilder {
             );
             currentProcessedMimeMessage.setHeader(MimeHeader.HEADER_CONTENT_TYPE, contentType);
 
-            currentProcessedMimeMessage.setHeader("X-Hybrid-RSA", PqcEncryptionHelper.foldHeaderValue(Base64.getEncoder().encodeToString(kemResult.rsaCiphertext)));
-            currentProcessedMimeMessage.setHeader("X-Hybrid-PQC", PqcEncryptionHelper.foldHeaderValue(Base64.getEncoder().encodeToString(kemResult.pqcCiphertext)));
             currentProcessedMimeMessage.setHeader("X-Pgp-Hybrid-Pqc", "true");
             currentProcessedMimeMessage.setHeader("MIME-Version", "1.0");
             currentProcessedMimeMessage.setHeader("Content-Transfer-Encoding", "7bit");
 
+        } catch (MessagingException e) {
+            throw e;
         } catch (Exception e) {
             throw new MessagingException("Hybrid RFC encryption failed", e);
         }
     }
 
+    /**
+     * Loads the PGP encryption key and the PQC KEM public key of a recipient.
+     */
+    private PqcEncryptionHelper.RecipientKeys loadRecipientKeys(String recipientEmail, boolean hidden)
+        throws Exception {
+        CachedRemoteKey kemKey;
+        CachedRemoteKey pgpKey;
+        try {
+            kemKey = RemoteKeyCache.get(context, SimpleKeyStoreFactory.KeyType.PQC_KEM, recipientEmail);
+            pgpKey = RemoteKeyCache.get(context, SimpleKeyStoreFactory.KeyType.PGP, recipientEmail);
+        } catch (Exception e) {
+            throw new MessagingException("No hybrid public keys for " + recipientEmail, e);
+        }
+        if (kemKey == null || pgpKey == null) {
+            throw new MessagingException("No hybrid public keys for " + recipientEmail);
+        }
+
+        PGPPublicKey encryptionKey = null;
+        for (PGPPublicKey key : pgpKey.getPgpKeyRing()) {
+            if (key.isEncryptionKey()) {
+                encryptionKey = key;
+                break;
+            }
+        }
+        if (encryptionKey == null) throw new MessagingException("No PGP encryption key found for " + recipientEmail);
+
+        return new PqcEncryptionHelper.RecipientKeys(recipientEmail, encryptionKey, kemKey.algorithm,
+            kemKey.getRawKey(), hidden);
+    }
+
+    /**
+     * Loads the sender's own PGP encryption key and PQC KEM public key, like OpenPGP's encrypt-to-self.
+     */
+    private PqcEncryptionHelper.RecipientKeys loadOwnRecipientKeys(String senderEmail) throws Exception {
+        String accountId = getAccount().getUuid();
+        SimpleKeyStore pgpStore = SimpleKeyStoreFactory.getKeyStore(SimpleKeyStoreFactory.KeyType.PGP);
+        byte[] kemKey = loadOwnPqcPublicKey(SimpleKeyStoreFactory.KeyType.PQC_KEM, accountId);
+        if (!pgpStore.hasOwnKeyPair(context, accountId) || kemKey == null) {
+            throw new MessagingException("No own hybrid keys to encrypt the sent copy to");
+        }
+
+        PGPPublicKey encryptionKey = null;
+        for (PGPPublicKey key : PgpSimpleKeyManager.parsePublicKeyRing(pgpStore.exportPublicKey(context, accountId))) {
+            if (key.isEncryptionKey()) {
+                encryptionKey = key;
+                break;
+            }
+        }
+        if (encryptionKey == null) throw new MessagingException("No own PGP encryption key found");
+
+        return new PqcEncryptionHelper.RecipientKeys(senderEmail, encryptionKey, getAccount().getPqcKemAlgorithm(),
+            kemKey);
+    }
+
+    /**
+     * Signs the canonicalized content part with both the PGP and PQC key. Both signatures are computed concurrently.
+     * If the account uses composite signatures and has an Ed25519 PGP key, a single composite signature is created
+     * instead.
+     */
+    private PqcSignatureHelper.HybridSignatureResult createSignatures(PqcCanonicalContent canonicalContent)
+        throws Exception {
+        PqcSignatureHelper signatureHelper = new PqcSignatureHelper(getAccount().getUuid(), context);
+        boolean composite = getAccount().isPqcCompositeSignatureEnabled();
+        if (composite && !signatureHelper.canSignComposite()) {
+            Timber.w("Composite signatures need an Ed25519 PGP key, creating separate signatures");
+            composite = false;
+        }
+        PqcSignatureHelper.HybridSignatureResult signatures = composite ?
+            signatureHelper.signCompositeTimed(canonicalContent) :
+            signatureHelper.signAllTimed(canonicalContent);
+        Timber.d("Hybrid signing took %d ms (%s %d ms, PQC %d ms)",
+            TimeUnit.NANOSECONDS.toMillis(signatures.getTotalTimeNanos()),
+            signatures.isComposite() ? "Ed25519" : "PGP",
+            TimeUnit.NANOSECONDS.toMillis(signatures.getPgpSigningTimeNanos()),
+            TimeUnit.NANOSECONDS.toMillis(signatures.getPqcSigningTimeNanos()));
+        return signatures;
+    }
+
+    /**
+     * Adds an Autocrypt header with the sender's OpenPGP key and PQC public keys, so recipients learn the keys from
+     * any message and no separate key distribution message is needed. The header is optional; if the keys can't be
+     * loaded the message is sent without it.
+     *
+     * PQC keys are several kilobytes, so a key every recipient got within {@link #KEY_ANNOUNCEMENT_REFRESH_MILLIS}
+     * is only named by its fingerprint. A changed key, or a recipient that didn't get it yet, gets the full key.
+     */
+    private void addAutocryptHeaderIfAvailable() {
+        String accountId = getAccount().getUuid();
+        try {
+            SimpleKeyStore pgpStore = SimpleKeyStoreFactory.getKeyStore(SimpleKeyStoreFactory.KeyType.PGP);
+            if (!pgpStore.hasOwnKeyPair(context, accountId)) {
+                return;
+            }
+            byte[] keyData = PgpSimpleKeyManager.parsePublicKeyRing(pgpStore.exportPublicKey(context, accountId))
+                .getEncoded();
+
+            String kemKey = exportOwnPqcPublicKey(SimpleKeyStoreFactory.KeyType.PQC_KEM, accountId);
+            String sigKey = exportOwnPqcPublicKey(SimpleKeyStoreFactory.KeyType.PQC_SIG, accountId);
+            if (kemKey == null && sigKey == null) {
+                return;
+            }
+
+            PqcKeyDatabase database = PqcKeyDatabase.getInstance(context);
+            String kemFingerprint = PqcKeyDatabase.fingerprintOf(SimpleKeyStoreFactory.KeyType.PQC_KEM, kemKey);
+            String sigFingerprint = PqcKeyDatabase.fingerprintOf(SimpleKeyStoreFactory.KeyType.PQC_SIG, sigKey);
+            boolean sendKemKey = needsFullKey(database, SimpleKeyStoreFactory.KeyType.PQC_KEM, accountId,
+                kemFingerprint);
+            boolean sendSigKey = needsFullKey(database, SimpleKeyStoreFactory.KeyType.PQC_SIG, accountId,
+                sigFingerprint);
+
+            AutocryptHybridKeys hybridKeys = new AutocryptHybridKeys(keyData,
+                getAccount().getPqcKemAlgorithm(), sendKemKey ? decodeKey(kemKey) : null, kemFingerprint,
+                getAccount().getPqcSigningAlgorithm(), sendSigKey ? decodeKey(sigKey) : null, sigFingerprint);
+
+            Address sender = currentProcessedMimeMessage.getFrom()[0];
+            autocryptOperations.addAutocryptHeaderToMessage(currentProcessedMimeMessage, hybridKeys,
+                sender.getAddress(), cryptoStatus.isSenderPreferEncryptMutual());
+        } catch (Exception e) {
+            Timber.w(e, "Unable to add Autocrypt header with PQC keys");
+        }
+    }
+
+    /**
+     * Records that the recipients of a sent message got the PQC keys its Autocrypt header contains in full, so
+     * following messages to them only name the keys by fingerprint. Only called once the message was sent, since a
+     * message that is still in the Outbox didn't deliver any keys.
+     */
+    public static void recordKeyAnnouncements(Context context, String accountId, Message sentMessage) {
+        AutocryptHybridKeys hybridKeys = AutocryptOperations.getInstance().getSenderHybridKeys(sentMessage);
+        if (hybridKeys == null || !hybridKeys.hasPqcKeys()) {
+            return;
+        }
+
+        List<String> recipients = new ArrayList<>();
+        RecipientType[] recipientTypes = { RecipientType.TO, RecipientType.CC, RecipientType.BCC };
+        for (RecipientType recipientType : recipientTypes) {
+            for (Address address : sentMessage.getRecipients(recipientType)) {
+                recipients.add(address.getAddress());
+            }
+        }
+
+        try {
+            PqcKeyDatabase database = PqcKeyDatabase.getInstance(context);
+            if (hybridKeys.kemKey != null) {
+                database.saveKeyAnnouncements(SimpleKeyStoreFactory.KeyType.PQC_KEM, accountId, recipients,
+                    PqcKeyDatabase.fingerprintOf(SimpleKeyStoreFactory.KeyType.PQC_KEM,
+                        Base64.getEncoder().encodeToString(hybridKeys.kemKey)));
+            }
+            if (hybridKeys.sigKey != null) {
+                database.saveKeyAnnouncements(SimpleKeyStoreFactory.KeyType.PQC_SIG, accountId, recipients,
+                    PqcKeyDatabase.fingerprintOf(SimpleKeyStoreFactory.KeyType.PQC_SIG,
+                        Base64.getEncoder().encodeToString(hybridKeys.sigKey)));
+            }
+        } catch (Exception e) {
+            Timber.w(e, "Unable to record the PQC keys sent to the recipients");
+        }
+    }
+
+    private boolean needsFullKey(PqcKeyDatabase database, SimpleKeyStoreFactory.KeyType keyType, String accountId,
+        @Nullable String fingerprint) {
+        if (fingerprint == null) {
+            return true;
+        }
+        long notBefore = System.currentTimeMillis() - KEY_ANNOUNCEMENT_REFRESH_MILLIS;
+        return !database.wasKeyAnnounced(keyType, accountId, recipientEmails, fingerprint, notBefore);
+    }
+
+    @Nullable
+    private String exportOwnPqcPublicKey(SimpleKeyStoreFactory.KeyType keyType, String accountId) throws Exception {
+        SimpleKeyStore store = SimpleKeyStoreFactory.getKeyStore(keyType);
+        if (!store.hasOwnKeyPair(context, accountId)) {
+            return null;
+        }
+        return store.exportPublicKey(context, accountId);
+    }
+
+    @Nullable
+    private byte[] loadOwnPqcPublicKey(SimpleKeyStoreFactory.KeyType keyType, String accountId) throws Exception {
+        return decodeKey(exportOwnPqcPublicKey(keyType, accountId));
+    }
+
+    @Nullable
+    private static byte[] decodeKey(@Nullable String base64Key) {
+        return base64Key != null ? Base64.getDecoder().decode(base64Key) : null;
+    }
+
     /**
      * Builds the message and initiates processing.
      */
@@ -222,19 +491,28 @@ public class PqcMessagebuilder extends MessageBuilder {
         }
 
         try {
+            if (!isDraft() && !autocryptOperations.hasAutocryptHeader(currentProcessedMimeMessage)) {
+                addAutocryptHeaderIfAvailable();
+            }
+
             boolean shouldSign = cryptoStatus.isSignPqcHybridEnabled();
             boolean shouldEncrypt = cryptoStatus.isEncryptPqcHybridEnabled();
 
             if (shouldSign && shouldEncrypt) {
-                byte[] canonicalData = PqcMessageHelper.canonicalize(messageContentBodyPart);
-                PqcSignatureHelper signatureHelper = new PqcSignatureHelper(getAccount().getUuid(), context);
-                Map<String, byte[]> signatureMap = signatureHelper.signAll(canonicalData);
-                mimeBuildEncryptedMessageHybridRFC(mimeBuildSignedMessage(messageContentBodyPart, signatureMap));
+                // The content part is serialized once; encryption reuses the bytes that were signed.
+                try (PqcCanonicalContent canonicalContent = PqcCanonicalContent.of(messageContentBodyPart)) {
+                    PqcSignatureHelper.HybridSignatureResult signatures = createSignatures(canonicalContent);
+                    MimeBodyPart canonicalBodyPart = canonicalContent.asBodyPart(messageContentBodyPart);
+                    mimeBuildEncryptedMessageHybridRFC(mimeBuildSignedMessage(canonicalBodyPart, signatures));
+                }
             } else if (shouldSign) {
-                byte[] canonicalData = PqcMessageHelper.canonicalize(messageContentBodyPart);
-                PqcSignatureHelper signatureHelper = new PqcSignatureHelper(getAccount().getUuid(), context);
-                Map<String, byte[]> signatureMap = signatureHelper.signAll(canonicalData);
-                mimeBuildSignedMessage(messageContentBodyPart, signatureMap);
+                // The signed message is written after the build completes, so it can't refer to the temporary
+                // canonical content.
+                PqcSignatureHelper.HybridSignatureResult signatures;
+                try (PqcCanonicalContent canonicalContent = PqcCanonicalContent.of(messageContentBodyPart)) {
+                    signatures = createSignatures(canonicalContent);
+                }
+                mimeBuildSignedMessage(messageContentBodyPart, signatures);
             } else if (shouldEncrypt) {
                 mimeBuildEncryptedMessageHybridRFC(messageContentBodyPart);
             } else {
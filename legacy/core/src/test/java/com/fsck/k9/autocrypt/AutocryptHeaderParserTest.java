@@ -4,6 +4,7 @@ package com.fsck.k9.autocrypt;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 
 import app.k9mail.core.android.testing.RobolectricTest;
 import com.fsck.k9.mail.MessagingException;
@@ -13,7 +14,9 @@ import org.junit.Before;
 import org.junit.Test;
 import org.robolectric.RuntimeEnvironment;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 
@@ -111,6 +114,59 @@ public class AutocryptHeaderParserTest extends RobolectricTest {
         assertEquals(autocryptHeader, parsedAutocryptHeader);
     }
 
+    @Test
+    public void parseAutocryptHeader_withPqcKeys() throws Exception {
+        byte[] kemKey = new byte[1184];
+        Arrays.fill(kemKey, (byte) 1);
+        byte[] sigKey = new byte[1952];
+        Arrays.fill(sigKey, (byte) 2);
+        AutocryptHybridKeys hybridKeys = new AutocryptHybridKeys(
+                AutocryptHeaderTest.KEY_DATA, "ML-KEM-768", kemKey, "ML-DSA-65", sigKey);
+        AutocryptHeader autocryptHeader = new AutocryptHeader(
+                hybridKeys.toParameters(), "alice@example.org", hybridKeys.keyData, false);
+
+        String headerValue = autocryptHeader.toRawHeaderString().substring("Autocrypt: ".length());
+        AutocryptHybridKeys parsedKeys =
+                AutocryptHybridKeys.fromAutocryptHeader(autocryptHeaderParser.parseAutocryptHeader(headerValue));
+
+        assertArrayEquals(AutocryptHeaderTest.KEY_DATA, parsedKeys.keyData);
+        assertEquals("ML-KEM-768", parsedKeys.kemAlgorithm);
+        assertArrayEquals(kemKey, parsedKeys.kemKey);
+        assertEquals("ML-DSA-65", parsedKeys.sigAlgorithm);
+        assertArrayEquals(sigKey, parsedKeys.sigKey);
+    }
+
+    @Test
+    public void parseAutocryptHeader_withPqcKeyFingerprints() throws Exception {
+        byte[] sigKey = new byte[1952];
+        Arrays.fill(sigKey, (byte) 2);
+        String kemFingerprint = "5e0b3a8c6f1d2e4a7b9c0d1e2f3a4b5c6d7e8f901a2b3c4d5e6f708192a3b4c5";
+        AutocryptHybridKeys hybridKeys = new AutocryptHybridKeys(AutocryptHeaderTest.KEY_DATA,
+                "ML-KEM-768", null, kemFingerprint, "ML-DSA-65", sigKey, "ignored");
+        AutocryptHeader autocryptHeader = new AutocryptHeader(
+                hybridKeys.toParameters(), "alice@example.org", hybridKeys.keyData, false);
+
+        String headerValue = autocryptHeader.toRawHeaderString().substring("Autocrypt: ".length());
+        AutocryptHybridKeys parsedKeys =
+                AutocryptHybridKeys.fromAutocryptHeader(autocryptHeaderParser.parseAutocryptHeader(headerValue));
+
+        assertEquals("ML-KEM-768", parsedKeys.kemAlgorithm);
+        assertNull(parsedKeys.kemKey);
+        assertEquals(kemFingerprint, parsedKeys.kemFingerprint);
+        assertArrayEquals(sigKey, parsedKeys.sigKey);
+        assertNull(parsedKeys.sigFingerprint);
+    }
+
+    @Test
+    public void getValidAutocryptHeader__withoutPqcKeys__hasNoPqcKeys() throws Exception {
+        MimeMessage message = parseFromResource("autocrypt/rsa2048-simple.eml");
+        AutocryptHeader autocryptHeader = autocryptHeaderParser.getValidAutocryptHeader(message);
+
+        AutocryptHybridKeys hybridKeys = AutocryptHybridKeys.fromAutocryptHeader(autocryptHeader);
+
+        assertFalse(hybridKeys.hasPqcKeys());
+    }
+
     private MimeMessage parseFromResource(String resourceName) throws IOException, MessagingException {
         InputStream inputStream = readFromResourceFile(resourceName);
         return MimeMessage.parseMimeMessage(inputStream, false);
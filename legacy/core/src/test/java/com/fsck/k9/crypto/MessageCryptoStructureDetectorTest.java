@@ -548,6 +548,31 @@ public class MessageCryptoStructureDetectorTest {
         assertFalse(MessageCryptoStructureDetector.isPartPgpInlineEncrypted(message));
     }
 
+    @Test
+    public void isPqcMultipartSigned__withCompositeSignature__shouldReturnTrue() throws Exception {
+        Message message = messageFromBody(
+                multipart("signed", "protocol=\"application/pqc-composite-signature\"",
+                        bodypart("text/plain"),
+                        bodypart("application/pqc-composite-signature")
+                )
+        );
+
+        assertTrue(MessageCryptoStructureDetector.isMultipartSignedWithCompositeSignature(message));
+        assertTrue(MessageCryptoStructureDetector.isPqcMultipartSigned(message));
+    }
+
+    @Test
+    public void isPqcMultipartSigned__withPgpSignature__shouldReturnFalse() throws Exception {
+        Message message = messageFromBody(
+                multipart("signed", "protocol=\"application/pgp-signature\"",
+                        bodypart("text/plain"),
+                        bodypart("application/pgp-signature")
+                )
+        );
+
+        assertFalse(MessageCryptoStructureDetector.isPqcMultipartSigned(message));
+    }
+
     static Part getPart(Part searchRootPart, int... indexes) {
         Part part = searchRootPart;
         for (int index : indexes) {
@@ -0,0 +1,39 @@
+package com.fsck.k9.pqcExtension.KeyDistribution
+
+import assertk.assertThat
+import assertk.assertions.containsExactly
+import assertk.assertions.isEqualTo
+import assertk.assertions.isNull
+import com.fsck.k9.pqcExtension.KeyDistribution.KeyDistributor.DeliveryState
+import com.fsck.k9.pqcExtension.KeyDistribution.KeyDistributor.Distribution
+import org.junit.Test
+
+class KeyDistributorTest {
+    @Test
+    fun `recipients are deduplicated ignoring case`() {
+        val distribution = Distribution(listOf("Alice@example.org", "bob@example.org", "alice@example.org "), null)
+
+        assertThat(distribution.getRecipients(DeliveryState.PENDING))
+            .containsExactly("alice@example.org", "bob@example.org")
+    }
+
+    @Test
+    fun `delivery state is tracked per recipient`() {
+        val changes = mutableListOf<Pair<String, DeliveryState>>()
+        val distribution = Distribution(listOf("alice@example.org", "bob@example.org")) { email, state ->
+            changes.add(email to state)
+        }
+
+        distribution.setDeliveryState(listOf("alice@example.org"), DeliveryState.QUEUED, null)
+        distribution.setDeliveryState(listOf("bob@example.org"), DeliveryState.FAILED, "No PGP public key to distribute")
+
+        assertThat(distribution.getDeliveryState("ALICE@example.org")).isEqualTo(DeliveryState.QUEUED)
+        assertThat(distribution.getError("alice@example.org")).isNull()
+        assertThat(distribution.getDeliveryState("bob@example.org")).isEqualTo(DeliveryState.FAILED)
+        assertThat(distribution.getError("bob@example.org")).isEqualTo("No PGP public key to distribute")
+        assertThat(changes).containsExactly(
+            "alice@example.org" to DeliveryState.QUEUED,
+            "bob@example.org" to DeliveryState.FAILED,
+        )
+    }
+}
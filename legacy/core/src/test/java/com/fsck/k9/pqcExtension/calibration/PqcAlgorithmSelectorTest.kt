@@ -0,0 +1,105 @@
+package com.fsck.k9.pqcExtension.calibration
+
+import assertk.assertThat
+import assertk.assertions.isEqualTo
+import assertk.assertions.isNull
+import com.fsck.k9.pqcExtension.calibration.PqcAlgorithmProfile.Type
+import org.junit.Test
+
+class PqcAlgorithmSelectorTest {
+    private val profiles = listOf(
+        kem("ML-KEM-512", costMicros = 40),
+        kem("ML-KEM-768", costMicros = 60),
+        kem("ML-KEM-1024", costMicros = 90),
+        kem("HQC-192", costMicros = 900),
+        kem("sntrup761", costMicros = 10),
+        signature("Falcon-512", costMicros = 500),
+        signature("ML-DSA-44", costMicros = 150),
+        signature("ML-DSA-65", costMicros = 250),
+        signature("ML-DSA-87", costMicros = 350),
+    )
+
+    @Test
+    fun `fastest algorithm meeting the level is selected`() {
+        assertThat(select(Type.KEM, minimumNistLevel = 1)).isEqualTo("ML-KEM-512")
+        assertThat(select(Type.KEM, minimumNistLevel = 3)).isEqualTo("ML-KEM-768")
+        assertThat(select(Type.SIGNATURE, minimumNistLevel = 2)).isEqualTo("ML-DSA-44")
+        assertThat(select(Type.SIGNATURE, minimumNistLevel = 4)).isEqualTo("ML-DSA-87")
+    }
+
+    @Test
+    fun `algorithm of unknown level is never selected`() {
+        assertThat(PqcAlgorithmSelector.getNistLevel("sntrup761")).isEqualTo(0)
+
+        assertThat(select(Type.KEM, minimumNistLevel = 0)).isEqualTo("ML-KEM-512")
+    }
+
+    @Test
+    fun `algorithm used by contacts is preferred`() {
+        val peerAlgorithms = mapOf("ML-KEM-1024" to 2, "HQC-192" to 5, "ML-KEM-512" to 7)
+
+        assertThat(select(Type.KEM, minimumNistLevel = 3, peerAlgorithms)).isEqualTo("ML-KEM-1024")
+    }
+
+    @Test
+    fun `fastest algorithm is selected when no contact uses a qualifying one`() {
+        val peerAlgorithms = mapOf("ML-DSA-44" to 3, "Falcon-512" to 1)
+
+        assertThat(select(Type.SIGNATURE, minimumNistLevel = 3, peerAlgorithms)).isEqualTo("ML-DSA-65")
+    }
+
+    @Test
+    fun `smaller sizes break ties`() {
+        val tiedProfiles = listOf(
+            signature("ML-DSA-65", costMicros = 100, messageOverheadBytes = 3309),
+            signature("MAYO-3", costMicros = 100, messageOverheadBytes = 681),
+        )
+
+        assertThat(PqcAlgorithmSelector.select(tiedProfiles, Type.SIGNATURE, 3, emptyMap())).isEqualTo("MAYO-3")
+    }
+
+    @Test
+    fun `large keys and ciphertexts outweigh faster operations`() {
+        val sizedProfiles = listOf(
+            kem("ML-KEM-768", costMicros = 60, publicKeyBytes = 1184, ciphertextBytes = 1088),
+            kem("Classic-McEliece-460896", costMicros = 30, publicKeyBytes = 524160, ciphertextBytes = 156),
+            kem("FrodoKEM-976-AES", costMicros = 50, publicKeyBytes = 15632, ciphertextBytes = 15744),
+        )
+
+        assertThat(PqcAlgorithmSelector.select(sizedProfiles, Type.KEM, 3, emptyMap())).isEqualTo("ML-KEM-768")
+    }
+
+    @Test
+    fun `no algorithm meets the level`() {
+        assertThat(PqcAlgorithmSelector.select(profiles.take(2), Type.KEM, 5, emptyMap())).isNull()
+        assertThat(PqcAlgorithmSelector.select(emptyList(), Type.SIGNATURE, 1, emptyMap())).isNull()
+    }
+
+    private fun select(type: Type, minimumNistLevel: Int, peerAlgorithms: Map<String, Int> = emptyMap()): String? {
+        return PqcAlgorithmSelector.select(profiles, type, minimumNistLevel, peerAlgorithms)
+    }
+
+    private fun kem(algorithm: String, costMicros: Long, publicKeyBytes: Int = 1312, ciphertextBytes: Int = 1088) =
+        profile(Type.KEM, algorithm, costMicros, publicKeyBytes, ciphertextBytes)
+
+    private fun signature(algorithm: String, costMicros: Long, messageOverheadBytes: Int = 2420) =
+        profile(Type.SIGNATURE, algorithm, costMicros, 1312, messageOverheadBytes)
+
+    private fun profile(
+        type: Type,
+        algorithm: String,
+        costMicros: Long,
+        publicKeyBytes: Int,
+        messageOverheadBytes: Int,
+    ) = PqcAlgorithmProfile(
+        type,
+        algorithm,
+        PqcAlgorithmSelector.getNistLevel(algorithm),
+        costMicros * 3_000,
+        costMicros * 500,
+        costMicros * 500,
+        publicKeyBytes,
+        2560,
+        messageOverheadBytes,
+    )
+}
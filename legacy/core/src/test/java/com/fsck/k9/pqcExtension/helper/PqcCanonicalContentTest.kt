@@ -0,0 +1,115 @@
+package com.fsck.k9.pqcExtension.helper
+
+import assertk.assertFailure
+import assertk.assertThat
+import assertk.assertions.hasSize
+import assertk.assertions.isEmpty
+import assertk.assertions.isEqualTo
+import assertk.assertions.isFalse
+import assertk.assertions.isInstanceOf
+import assertk.assertions.isLessThan
+import com.fsck.k9.mail.Body
+import com.fsck.k9.mail.internet.BinaryTempFileBody
+import com.fsck.k9.mail.internet.MimeBodyPart
+import com.fsck.k9.mailstore.BinaryMemoryBody
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+class PqcCanonicalContentTest {
+    @get:Rule
+    val tempFolder = TemporaryFolder()
+
+    @Before
+    fun setUp() {
+        BinaryTempFileBody.setTempDirectory(tempFolder.root)
+    }
+
+    @Test
+    fun `line endings are converted to CRLF`() {
+        val part = createPart("one\ntwo\r\nthree\n")
+
+        PqcCanonicalContent.of(part).use { content ->
+            val text = content.toByteArray().decodeToString()
+
+            assertThat(text.substringAfter("\r\n\r\n")).isEqualTo("one\r\ntwo\r\nthree\r\n")
+            assertThat(text.replace("\r\n", "").contains('\n')).isFalse()
+        }
+    }
+
+    @Test
+    fun `small content stays in memory`() {
+        val part = createPart("line\n".repeat(100))
+
+        PqcCanonicalContent.of(part).use { content ->
+            assertThat(content.size).isLessThan(PqcCanonicalContent.MEMORY_BACKED_THRESHOLD.toLong())
+            assertThat(tempFiles()).isEmpty()
+        }
+    }
+
+    @Test
+    fun `large content is spilled to a file that close deletes`() {
+        val body = "line\n".repeat(PqcCanonicalContent.MEMORY_BACKED_THRESHOLD / 4)
+        val part = createPart(body)
+
+        val content = PqcCanonicalContent.of(part)
+
+        assertThat(tempFiles()).hasSize(1)
+        assertThat(content.size).isEqualTo(tempFiles().single().length())
+        assertThat(content.toByteArray().decodeToString().substringAfter("\r\n\r\n"))
+            .isEqualTo(body.replace("\n", "\r\n"))
+
+        content.close()
+
+        assertThat(tempFiles()).isEmpty()
+    }
+
+    @Test
+    fun `failed serialization deletes the spilled file`() {
+        val body = FailingBody(failAfterBytes = PqcCanonicalContent.MEMORY_BACKED_THRESHOLD * 2)
+        val part = MimeBodyPart(body, "application/octet-stream")
+
+        assertFailure { PqcCanonicalContent.of(part) }.isInstanceOf<IOException>()
+
+        assertThat(tempFiles()).isEmpty()
+    }
+
+    @Test
+    fun `body part writes the canonical bytes`() {
+        for (body in listOf("short\n", "line\n".repeat(PqcCanonicalContent.MEMORY_BACKED_THRESHOLD / 4))) {
+            val part = createPart(body)
+
+            PqcCanonicalContent.of(part).use { content ->
+                val bodyPart = content.asBodyPart(part)
+
+                val output = ByteArrayOutputStream()
+                bodyPart.writeTo(output)
+
+                assertThat(output.toByteArray().toList()).isEqualTo(content.toByteArray().toList())
+                assertThat(bodyPart.contentType).isEqualTo(part.contentType)
+            }
+        }
+    }
+
+    private fun createPart(text: String): MimeBodyPart {
+        return MimeBodyPart(BinaryMemoryBody(text.toByteArray(), "8bit"), "text/plain")
+    }
+
+    private fun tempFiles() = tempFolder.root.listFiles()!!.toList()
+
+    private class FailingBody(private val failAfterBytes: Int) : Body {
+        override fun getInputStream(): InputStream = throw UnsupportedOperationException()
+
+        override fun setEncoding(encoding: String) = throw UnsupportedOperationException()
+
+        override fun writeTo(out: OutputStream) {
+            out.write(ByteArray(failAfterBytes))
+            throw IOException("Read error")
+        }
+    }
+}
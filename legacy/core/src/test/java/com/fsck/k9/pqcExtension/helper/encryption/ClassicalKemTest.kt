@@ -0,0 +1,107 @@
+package com.fsck.k9.pqcExtension.helper.encryption
+
+import assertk.assertFailure
+import assertk.assertThat
+import assertk.assertions.isEqualTo
+import assertk.assertions.isInstanceOf
+import assertk.assertions.isNotEqualTo
+import assertk.assertions.isSameInstanceAs
+import java.security.KeyPairGenerator
+import java.util.Date
+import kotlin.random.Random
+import org.bouncycastle.bcpg.PublicKeyAlgorithmTags
+import org.bouncycastle.jce.provider.BouncyCastleProvider
+import org.bouncycastle.openpgp.PGPKeyPair
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPKeyConverter
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPKeyPair
+import org.junit.Test
+
+class ClassicalKemTest {
+    private val provider = BouncyCastleProvider()
+
+    @Test
+    fun `X25519 round trip`() {
+        assertRoundTrip(generateKeyPair("X25519", PublicKeyAlgorithmTags.ECDH), X25519Kem.ALGORITHM)
+    }
+
+    @Test
+    fun `RSA-OAEP round trip`() {
+        assertRoundTrip(generateKeyPair("RSA", PublicKeyAlgorithmTags.RSA_GENERAL), RsaOaepKem.ALGORITHM)
+    }
+
+    @Test
+    fun `X25519 ciphertext of wrong length is rejected`() {
+        val keyPair = generateKeyPair("X25519", PublicKeyAlgorithmTags.ECDH)
+        val privateKey = JcaPGPKeyConverter().setProvider(provider).getPrivateKey(keyPair.privateKey)
+
+        assertFailure {
+            ClassicalKemFactory.getKem(X25519Kem.ALGORITHM).decapsulate(privateKey, ByteArray(31))
+        }.isInstanceOf<IllegalArgumentException>()
+    }
+
+    @Test
+    fun `unknown KEM name is rejected`() {
+        assertFailure { ClassicalKemFactory.getKem("DH-512") }.isInstanceOf<IllegalArgumentException>()
+    }
+
+    @Test
+    fun `combined key depends on the ciphertexts`() {
+        val random = Random(3)
+        val classicalSecret = random.nextBytes(32)
+        val pqcSecret = random.nextBytes(32)
+        val classicalCiphertext = random.nextBytes(32)
+        val pqcCiphertext = random.nextBytes(1088)
+        val keyFingerprint = random.nextBytes(20)
+        val kemKeyFingerprint = random.nextBytes(32)
+
+        fun combine(classicalCiphertext: ByteArray, pqcCiphertext: ByteArray): List<Byte> {
+            return PqcHybridPrimitives.combineSharedSecrets(
+                classicalSecret.copyOf(),
+                pqcSecret.copyOf(),
+                X25519Kem.ALGORITHM,
+                classicalCiphertext,
+                keyFingerprint,
+                "ML-KEM-768",
+                pqcCiphertext,
+                kemKeyFingerprint,
+            ).toList()
+        }
+
+        val combined = combine(classicalCiphertext, pqcCiphertext)
+
+        assertThat(combine(classicalCiphertext, pqcCiphertext)).isEqualTo(combined)
+        assertThat(combine(random.nextBytes(32), pqcCiphertext)).isNotEqualTo(combined)
+        assertThat(combine(classicalCiphertext, random.nextBytes(1088))).isNotEqualTo(combined)
+    }
+
+    @Test
+    fun `session key derivation is deterministic`() {
+        val s1 = Random(5).nextBytes(32)
+        val s2 = Random(6).nextBytes(32)
+
+        val sessionKey = PqcHybridPrimitives.deriveSessionKey(s1.copyOf(), s2.copyOf())
+
+        assertThat(PqcHybridPrimitives.deriveSessionKey(s1.copyOf(), s2.copyOf()).toList())
+            .isEqualTo(sessionKey.toList())
+    }
+
+    private fun assertRoundTrip(keyPair: PGPKeyPair, expectedAlgorithm: String) {
+        val kem = ClassicalKemFactory.getKemForKey(keyPair.publicKey)
+        assertThat(kem).isSameInstanceAs(ClassicalKemFactory.getKem(expectedAlgorithm))
+
+        val encapsulation = kem.encapsulate(keyPair.publicKey)
+        val privateKey = JcaPGPKeyConverter().setProvider(provider).getPrivateKey(keyPair.privateKey)
+        val sharedSecret = kem.decapsulate(privateKey, encapsulation.ciphertext)
+
+        assertThat(sharedSecret.toList()).isEqualTo(encapsulation.sharedSecret.toList())
+    }
+
+    private fun generateKeyPair(jcaAlgorithm: String, pgpAlgorithm: Int): PGPKeyPair {
+        val generator = KeyPairGenerator.getInstance(jcaAlgorithm, provider)
+        if (jcaAlgorithm == "RSA") {
+            // Smaller than the generated keys of the app, to keep the test fast
+            generator.initialize(2048)
+        }
+        return JcaPGPKeyPair(pgpAlgorithm, generator.generateKeyPair(), Date())
+    }
+}
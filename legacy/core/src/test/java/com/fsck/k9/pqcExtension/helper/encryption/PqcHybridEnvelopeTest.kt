@@ -0,0 +1,79 @@
+package com.fsck.k9.pqcExtension.helper.encryption
+
+import assertk.assertFailure
+import assertk.assertThat
+import assertk.assertions.hasSize
+import assertk.assertions.isEqualTo
+import assertk.assertions.isFalse
+import assertk.assertions.isInstanceOf
+import assertk.assertions.isTrue
+import com.fsck.k9.pqcExtension.helper.encryption.PqcHybridEnvelope.RecipientBlock
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import kotlin.random.Random
+import org.junit.Test
+
+class PqcHybridEnvelopeTest {
+    private val random = Random(7)
+    private val fingerprintA = random.nextBytes(20)
+    private val fingerprintB = random.nextBytes(20)
+
+    @Test
+    fun `header round trip leaves stream at payload`() {
+        val blockA = createBlock("ML-KEM-768", fingerprintA)
+        val blockB = createBlock("ML-KEM-1024", fingerprintB)
+        val output = ByteArrayOutputStream()
+        PqcHybridEnvelope.writeHeader(output, listOf(blockA, blockB))
+        output.write(PAYLOAD)
+        val input = ByteArrayInputStream(output.toByteArray())
+
+        val recipients = PqcHybridEnvelope.readHeader(input)
+
+        assertThat(recipients).hasSize(2)
+        assertThat(recipients[1].kemAlgorithm).isEqualTo("ML-KEM-1024")
+        assertThat(recipients[1].classicalAlgorithm).isEqualTo("X25519")
+        assertThat(recipients[1].matches(fingerprintB)).isTrue()
+        assertThat(recipients[1].matches(fingerprintA)).isFalse()
+        assertThat(recipients[1].kemKeyFingerprint.toList()).isEqualTo(blockB.kemKeyFingerprint.toList())
+        assertThat(recipients[1].classicalCiphertext.toList()).isEqualTo(blockB.classicalCiphertext.toList())
+        assertThat(recipients[1].pqcCiphertext.toList()).isEqualTo(blockB.pqcCiphertext.toList())
+        assertThat(recipients[1].wrappedKey.toList()).isEqualTo(blockB.wrappedKey.toList())
+        assertThat(input.readBytes().toList()).isEqualTo(PAYLOAD.toList())
+    }
+
+    @Test
+    fun `truncated header is rejected`() {
+        val output = ByteArrayOutputStream()
+        PqcHybridEnvelope.writeHeader(output, listOf(createBlock("ML-KEM-768", fingerprintA)))
+        val truncated = output.toByteArray().copyOf(output.size() - 1)
+
+        assertFailure { PqcHybridEnvelope.readHeader(ByteArrayInputStream(truncated)) }.isInstanceOf<IOException>()
+    }
+
+    @Test
+    fun `unknown version is rejected`() {
+        val output = ByteArrayOutputStream()
+        PqcHybridEnvelope.writeHeader(output, listOf(createBlock("ML-KEM-768", fingerprintA)))
+        val envelope = output.toByteArray()
+        envelope[PqcHybridEnvelope.MAGIC.size] = (PqcHybridEnvelope.VERSION + 1).toByte()
+
+        assertFailure { PqcHybridEnvelope.readHeader(ByteArrayInputStream(envelope)) }.isInstanceOf<IOException>()
+    }
+
+    private fun createBlock(algorithm: String, fingerprint: ByteArray): RecipientBlock {
+        return RecipientBlock(
+            algorithm,
+            "X25519",
+            fingerprint,
+            random.nextBytes(32),
+            random.nextBytes(512),
+            random.nextBytes(1088),
+            random.nextBytes(64),
+        )
+    }
+
+    private companion object {
+        val PAYLOAD = "PQS1 payload".toByteArray()
+    }
+}
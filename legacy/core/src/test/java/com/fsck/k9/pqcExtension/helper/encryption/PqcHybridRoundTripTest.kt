@@ -0,0 +1,198 @@
+package com.fsck.k9.pqcExtension.helper.encryption
+
+import app.k9mail.core.android.testing.RobolectricTest
+import assertk.assertFailure
+import assertk.assertThat
+import assertk.assertions.hasMessage
+import assertk.assertions.isEmpty
+import assertk.assertions.isEqualTo
+import assertk.assertions.isFalse
+import assertk.assertions.isTrue
+import com.fsck.k9.pqcExtension.helper.encryption.PqcHybridEnvelope.RecipientBlock
+import com.fsck.k9.pqcExtension.keyManagement.LocalPrivateKeyCache.HybridPrivateKeys
+import com.fsck.k9.pqcExtension.keyManagement.LocalPrivateKeyCache.KemPrivateKey
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.nio.ByteBuffer
+import java.security.KeyPairGenerator
+import java.security.MessageDigest
+import java.util.Date
+import kotlin.random.Random
+import org.bouncycastle.bcpg.PublicKeyAlgorithmTags
+import org.bouncycastle.jce.provider.BouncyCastleProvider
+import org.bouncycastle.openpgp.PGPKeyPair
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPKeyConverter
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPKeyPair
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.openquantumsafe.Pair
+
+class PqcHybridRoundTripTest : RobolectricTest() {
+    private val provider = BouncyCastleProvider()
+    private val random = Random(11)
+
+    @Before
+    fun setUp() {
+        PqcKem.setInstance(FakePqcKem())
+    }
+
+    @After
+    fun tearDown() {
+        PqcKem.setInstance(PqcKem())
+    }
+
+    @Test
+    fun `sender and every recipient unwrap the content key`() {
+        val sender = createParty("X25519", PublicKeyAlgorithmTags.ECDH)
+        val to = createParty("RSA", PublicKeyAlgorithmTags.RSA_GENERAL)
+        val bcc = createParty("X25519", PublicKeyAlgorithmTags.ECDH)
+        val contentKey = PqcEncryptionHelper.generateContentKey()
+
+        val blocks = writeAndRead(
+            PqcEncryptionHelper.wrapContentKey(
+                contentKey,
+                listOf(sender.recipientKeys(), to.recipientKeys(), bcc.recipientKeys(hidden = true)),
+            ),
+        )
+
+        for (party in listOf(sender, to, bcc)) {
+            assertThat(PqcDecryptionHelper.unwrapContentKey(blocks, party.privateKeys).toList())
+                .isEqualTo(contentKey.toList())
+        }
+    }
+
+    @Test
+    fun `hidden block names no keys`() {
+        val sender = createParty("X25519", PublicKeyAlgorithmTags.ECDH)
+        val bcc = createParty("X25519", PublicKeyAlgorithmTags.ECDH)
+
+        val blocks = writeAndRead(
+            PqcEncryptionHelper.wrapContentKey(
+                PqcEncryptionHelper.generateContentKey(),
+                listOf(sender.recipientKeys(), bcc.recipientKeys(hidden = true)),
+            ),
+        )
+
+        assertThat(blocks[0].isHidden).isFalse()
+        assertThat(blocks[0].matches(sender.fingerprint)).isTrue()
+        assertThat(blocks[1].isHidden).isTrue()
+        assertThat(blocks[1].matches(bcc.fingerprint)).isFalse()
+        assertThat(blocks[1].keyFingerprint.toList()).isEmpty()
+        assertThat(blocks[1].kemKeyFingerprint.toList()).isEmpty()
+    }
+
+    @Test
+    fun `hidden recipient unwraps with a retired KEM key`() {
+        val sender = createParty("X25519", PublicKeyAlgorithmTags.ECDH)
+        val bcc = createParty("X25519", PublicKeyAlgorithmTags.ECDH)
+        val rotatedBcc = bcc.withNewKemKey()
+        val contentKey = PqcEncryptionHelper.generateContentKey()
+
+        val blocks = writeAndRead(
+            PqcEncryptionHelper.wrapContentKey(
+                contentKey,
+                listOf(sender.recipientKeys(), bcc.recipientKeys(hidden = true)),
+            ),
+        )
+
+        assertThat(PqcDecryptionHelper.unwrapContentKey(blocks, rotatedBcc.privateKeys).toList())
+            .isEqualTo(contentKey.toList())
+    }
+
+    @Test
+    fun `party without a block can't unwrap the content key`() {
+        val sender = createParty("X25519", PublicKeyAlgorithmTags.ECDH)
+        val bcc = createParty("X25519", PublicKeyAlgorithmTags.ECDH)
+        val outsider = createParty("X25519", PublicKeyAlgorithmTags.ECDH)
+
+        val blocks = writeAndRead(
+            PqcEncryptionHelper.wrapContentKey(
+                PqcEncryptionHelper.generateContentKey(),
+                listOf(sender.recipientKeys(), bcc.recipientKeys(hidden = true)),
+            ),
+        )
+
+        assertFailure { PqcDecryptionHelper.unwrapContentKey(blocks, outsider.privateKeys) }
+            .hasMessage("Message isn't encrypted for this account's key")
+    }
+
+    private fun writeAndRead(blocks: List<RecipientBlock>): List<RecipientBlock> {
+        val output = ByteArrayOutputStream()
+        PqcHybridEnvelope.writeHeader(output, blocks)
+        return PqcHybridEnvelope.readHeader(ByteArrayInputStream(output.toByteArray()))
+    }
+
+    private fun createParty(jcaAlgorithm: String, pgpAlgorithm: Int): Party {
+        val generator = KeyPairGenerator.getInstance(jcaAlgorithm, provider)
+        if (jcaAlgorithm == "RSA") {
+            // Smaller than the generated keys of the app, to keep the test fast
+            generator.initialize(2048)
+        }
+        val keyPair = JcaPGPKeyPair(pgpAlgorithm, generator.generateKeyPair(), Date())
+        return Party(keyPair, listOf(random.nextBytes(32)))
+    }
+
+    /**
+     * The keys of one account. The first KEM secret key is the current one, the others are retired.
+     */
+    private inner class Party(private val keyPair: PGPKeyPair, private val kemSecretKeys: List<ByteArray>) {
+        val fingerprint: ByteArray = keyPair.publicKey.fingerprint
+
+        val privateKeys: HybridPrivateKeys by lazy {
+            val kemKeys = kemSecretKeys.map { KemPrivateKey(1, KEM_ALGORITHM, it.copyOf()) }
+            val kemKeysByFingerprint = kemSecretKeys.zip(kemKeys).associate { (secretKey, kemKey) ->
+                ByteBuffer.wrap(PqcHybridPrimitives.kemKeyFingerprint(FakePqcKem.publicKeyOf(secretKey))) to kemKey
+            }
+            HybridPrivateKeys(
+                JcaPGPKeyConverter().setProvider(provider).getPrivateKey(keyPair.privateKey),
+                ClassicalKemFactory.getKemForKey(keyPair.publicKey).algorithm,
+                fingerprint,
+                kemKeys.first(),
+                kemKeysByFingerprint.toMutableMap(),
+            )
+        }
+
+        fun recipientKeys(hidden: Boolean = false): PqcEncryptionHelper.RecipientKeys {
+            val publicKey = FakePqcKem.publicKeyOf(kemSecretKeys.first())
+            return PqcEncryptionHelper.RecipientKeys(
+                "party@example.com",
+                keyPair.publicKey,
+                KEM_ALGORITHM,
+                publicKey,
+                hidden,
+            )
+        }
+
+        fun withNewKemKey() = Party(keyPair, listOf(random.nextBytes(32)) + kemSecretKeys)
+    }
+
+    /**
+     * Stands in for liboqs, which can't be loaded in unit tests. The public key is the hash of the secret key and the
+     * shared secret the hash of public key and ciphertext, so only the matching secret key recovers it.
+     */
+    private class FakePqcKem : PqcKem() {
+        override fun encapsulate(publicKey: ByteArray, algorithm: String): Pair<ByteArray, ByteArray> {
+            val ciphertext = Random.nextBytes(32)
+            return Pair(ciphertext, sha256(publicKey, ciphertext))
+        }
+
+        override fun decapsulate(ciphertext: ByteArray, secretKey: ByteArray, algorithm: String): ByteArray {
+            return sha256(publicKeyOf(secretKey), ciphertext)
+        }
+
+        companion object {
+            fun publicKeyOf(secretKey: ByteArray) = sha256(secretKey)
+
+            private fun sha256(vararg parts: ByteArray): ByteArray {
+                val digest = MessageDigest.getInstance("SHA-256")
+                parts.forEach { digest.update(it) }
+                return digest.digest()
+            }
+        }
+    }
+
+    private companion object {
+        const val KEM_ALGORITHM = "ML-KEM-768"
+    }
+}
@@ -0,0 +1,57 @@
+package com.fsck.k9.pqcExtension.helper.encryption
+
+import assertk.assertFailure
+import assertk.assertThat
+import assertk.assertions.isEqualTo
+import assertk.assertions.isInstanceOf
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import kotlin.random.Random
+import org.junit.Test
+
+class PqcStreamingAeadTest {
+    private val sessionKey = Random(42).nextBytes(32)
+
+    @Test
+    fun `round trip across segment boundaries`() {
+        for (size in listOf(0, 1, 100, SEGMENT, SEGMENT + 1, 3 * SEGMENT + 17)) {
+            val plaintext = Random(size).nextBytes(size)
+
+            val decrypted = decrypt(encrypt(plaintext))
+
+            assertThat(decrypted.toList()).isEqualTo(plaintext.toList())
+        }
+    }
+
+    @Test
+    fun `truncation at segment boundary is detected`() {
+        val ciphertext = encrypt(Random(1).nextBytes(2 * SEGMENT))
+        val truncated = ciphertext.copyOf(PqcStreamingAead.HEADER_LENGTH + SEGMENT + TAG)
+
+        assertFailure { decrypt(truncated) }.isInstanceOf<IOException>()
+    }
+
+    @Test
+    fun `modified ciphertext is rejected`() {
+        val ciphertext = encrypt(Random(2).nextBytes(1000))
+        ciphertext[ciphertext.size - 1] = (ciphertext[ciphertext.size - 1].toInt() xor 1).toByte()
+
+        assertFailure { decrypt(ciphertext) }.isInstanceOf<IOException>()
+    }
+
+    private fun encrypt(plaintext: ByteArray): ByteArray {
+        val output = ByteArrayOutputStream()
+        PqcStreamingAead.newEncryptingStream(output, sessionKey).use { it.write(plaintext) }
+        return output.toByteArray()
+    }
+
+    private fun decrypt(ciphertext: ByteArray): ByteArray {
+        return PqcStreamingAead.newDecryptingStream(ByteArrayInputStream(ciphertext), sessionKey).use { it.readBytes() }
+    }
+
+    private companion object {
+        const val SEGMENT = PqcStreamingAead.DEFAULT_SEGMENT_SIZE
+        const val TAG = 16
+    }
+}
@@ -0,0 +1,91 @@
+package com.fsck.k9.pqcExtension.helper.signature
+
+import assertk.assertFailure
+import assertk.assertThat
+import assertk.assertions.isEqualTo
+import assertk.assertions.isFalse
+import assertk.assertions.isInstanceOf
+import assertk.assertions.isNotNull
+import assertk.assertions.isNull
+import assertk.assertions.isTrue
+import java.io.ByteArrayInputStream
+import java.io.IOException
+import java.security.KeyPairGenerator
+import java.util.Date
+import kotlin.random.Random
+import org.bouncycastle.bcpg.PublicKeyAlgorithmTags
+import org.bouncycastle.jce.provider.BouncyCastleProvider
+import org.bouncycastle.openpgp.PGPKeyPair
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPKeyPair
+import org.junit.Test
+
+class PqcCompositeSignatureTest {
+    private val random = Random(11)
+
+    @Test
+    fun `encoding round trip`() {
+        val signature = PqcCompositeSignature(
+            PqcPreHash.SHAKE256,
+            "ML-DSA-65",
+            random.nextBytes(64),
+            random.nextBytes(3309),
+        )
+
+        val decoded = PqcCompositeSignature.decode(signature.encode())
+
+        assertThat(decoded.preHash).isEqualTo(PqcPreHash.SHAKE256)
+        assertThat(decoded.pqcAlgorithm).isEqualTo("ML-DSA-65")
+        assertThat(decoded.ed25519Signature.toList()).isEqualTo(signature.ed25519Signature.toList())
+        assertThat(decoded.pqcSignature.toList()).isEqualTo(signature.pqcSignature.toList())
+    }
+
+    @Test
+    fun `truncated signature is rejected`() {
+        val encoded = PqcCompositeSignature(PqcPreHash.SHA512, "ML-DSA-44", random.nextBytes(64), random.nextBytes(1))
+            .encode()
+
+        assertFailure { PqcCompositeSignature.decode(encoded.copyOf(encoded.size - 1)) }.isInstanceOf<IOException>()
+    }
+
+    @Test
+    fun `unknown version is rejected`() {
+        val encoded = PqcCompositeSignature(PqcPreHash.SHA512, "ML-DSA-44", random.nextBytes(64), random.nextBytes(8))
+            .encode()
+        encoded[PqcCompositeSignature.MAGIC.size] = (PqcCompositeSignature.VERSION + 1).toByte()
+
+        assertFailure { PqcCompositeSignature.decode(encoded) }.isInstanceOf<IOException>()
+    }
+
+    @Test
+    fun `Ed25519 leg verifies with the OpenPGP key`() {
+        val keyPair = generateKeyPair("Ed25519", PublicKeyAlgorithmTags.EDDSA_LEGACY)
+        val privateKey = PqcCompositeSignature.toEd25519PrivateKey(keyPair.privateKey)
+        val publicKey = PqcCompositeSignature.toEd25519PublicKey(keyPair.publicKey)
+        assertThat(privateKey).isNotNull()
+        assertThat(publicKey).isNotNull()
+
+        val preHashed = PqcPreHash.SHA512.toSignedMessage(ByteArrayInputStream(random.nextBytes(1000)))
+        val message = PqcCompositeSignature.toSignedMessage(preHashed, "ML-DSA-65")
+        val signature = PqcCompositeSignature.signEd25519(privateKey!!, message)
+
+        assertThat(PqcCompositeSignature.verifyEd25519(publicKey!!, message, signature)).isTrue()
+        val otherAlgorithmMessage = PqcCompositeSignature.toSignedMessage(preHashed, "ML-DSA-87")
+        assertThat(PqcCompositeSignature.verifyEd25519(publicKey, otherAlgorithmMessage, signature)).isFalse()
+    }
+
+    @Test
+    fun `RSA key has no Ed25519 key`() {
+        val keyPair = generateKeyPair("RSA", PublicKeyAlgorithmTags.RSA_GENERAL)
+
+        assertThat(PqcCompositeSignature.toEd25519PublicKey(keyPair.publicKey)).isNull()
+        assertThat(PqcCompositeSignature.toEd25519PrivateKey(keyPair.privateKey)).isNull()
+    }
+
+    private fun generateKeyPair(jcaAlgorithm: String, pgpAlgorithm: Int): PGPKeyPair {
+        val generator = KeyPairGenerator.getInstance(jcaAlgorithm, BouncyCastleProvider())
+        if (jcaAlgorithm == "RSA") {
+            generator.initialize(2048)
+        }
+        return JcaPGPKeyPair(pgpAlgorithm, generator.generateKeyPair(), Date())
+    }
+}
@@ -0,0 +1,46 @@
+package com.fsck.k9.pqcExtension.helper.signature
+
+import assertk.assertThat
+import assertk.assertions.isEqualTo
+import assertk.assertions.isNotEqualTo
+import assertk.assertions.isNull
+import java.io.ByteArrayInputStream
+import kotlin.random.Random
+import org.junit.Test
+
+class PqcPreHashTest {
+    private val content = Random(3).nextBytes(100_000)
+
+    @Test
+    fun `signed message is prefix and digest`() {
+        val signedMessage = PqcPreHash.SHA512.toSignedMessage(ByteArrayInputStream("abc".toByteArray()))
+
+        val prefix = "PQC-PREHASH SHA-512".toByteArray() + 0
+        assertThat(signedMessage.copyOf(prefix.size).toList()).isEqualTo(prefix.toList())
+        assertThat(signedMessage.copyOfRange(prefix.size, signedMessage.size).toHex()).isEqualTo(SHA512_ABC)
+    }
+
+    @Test
+    fun `modes produce different signed messages`() {
+        val sha512 = PqcPreHash.SHA512.toSignedMessage(ByteArrayInputStream(content))
+        val shake256 = PqcPreHash.SHAKE256.toSignedMessage(ByteArrayInputStream(content))
+
+        assertThat(shake256.toList()).isNotEqualTo(sha512.toList())
+    }
+
+    @Test
+    fun `header value round trip`() {
+        for (preHash in PqcPreHash.values()) {
+            assertThat(PqcPreHash.fromHeaderValue(preHash.headerValue)).isEqualTo(preHash)
+        }
+        assertThat(PqcPreHash.fromHeaderValue(" sha-512 ")).isEqualTo(PqcPreHash.SHA512)
+        assertThat(PqcPreHash.fromHeaderValue("MD5")).isNull()
+    }
+
+    private fun ByteArray.toHex() = joinToString(separator = "") { "%02x".format(it) }
+
+    private companion object {
+        const val SHA512_ABC = "ddaf35a193617abacc417349ae20413112e6fa4e89a97ea20a9eeee64b55d39a" +
+            "2192992a274fc1a836ba3c23a3feebbd454d4423643ce80e2a9ac94fa54ca49f"
+    }
+}
@@ -0,0 +1,59 @@
+package com.fsck.k9.pqcExtension.keyManagement
+
+import assertk.assertThat
+import assertk.assertions.isEqualTo
+import assertk.assertions.isFalse
+import assertk.assertions.isNull
+import assertk.assertions.isSameInstanceAs
+import assertk.assertions.isTrue
+import com.fsck.k9.pqcExtension.keyManagement.KemKeyPairPool.PooledKeyPair
+import org.junit.After
+import org.junit.Test
+
+class KemKeyPairPoolTest {
+    @After
+    fun tearDown() {
+        KemKeyPairPool.clear()
+        KemKeyPairPool.setPoolSize(KemKeyPairPool.DEFAULT_POOL_SIZE)
+    }
+
+    @Test
+    fun `key pairs are taken in insertion order per algorithm`() {
+        val first = createKeyPair("ML-KEM-768")
+        val second = createKeyPair("ML-KEM-768")
+        KemKeyPairPool.offer(first)
+        KemKeyPairPool.offer(second)
+
+        assertThat(KemKeyPairPool.take("ML-KEM-1024")).isNull()
+        assertThat(KemKeyPairPool.take("ML-KEM-768")).isSameInstanceAs(first)
+        assertThat(KemKeyPairPool.take("ML-KEM-768")).isSameInstanceAs(second)
+        assertThat(KemKeyPairPool.take("ML-KEM-768")).isNull()
+    }
+
+    @Test
+    fun `offer to full pool wipes key pair`() {
+        KemKeyPairPool.setPoolSize(1)
+        KemKeyPairPool.offer(createKeyPair("ML-KEM-768"))
+        val surplus = createKeyPair("ML-KEM-768")
+
+        assertThat(KemKeyPairPool.offer(surplus)).isFalse()
+        assertThat(surplus.secretKey.all { it == 0.toByte() }).isTrue()
+        assertThat(KemKeyPairPool.getMissingCount("ML-KEM-768")).isEqualTo(0)
+    }
+
+    @Test
+    fun `shrinking pool wipes surplus key pairs`() {
+        val first = createKeyPair("ML-KEM-768")
+        val second = createKeyPair("ML-KEM-768")
+        KemKeyPairPool.offer(first)
+        KemKeyPairPool.offer(second)
+
+        KemKeyPairPool.setPoolSize(1)
+
+        assertThat(second.secretKey.all { it == 0.toByte() }).isTrue()
+        assertThat(KemKeyPairPool.take("ML-KEM-768")).isSameInstanceAs(first)
+        assertThat(KemKeyPairPool.take("ML-KEM-768")).isNull()
+    }
+
+    private fun createKeyPair(algorithm: String) = PooledKeyPair(algorithm, ByteArray(32) { 1 }, ByteArray(32) { 2 })
+}
@@ -0,0 +1,155 @@
+import groovy.json.JsonSlurper
+
+plugins {
+    id(ThunderbirdPlugins.Library.jvm)
+    alias(libs.plugins.jmh)
+}
+
+// The benchmarked code lives in Android modules. Only the Android-free classes of the hybrid crypto path and the
+// liboqs Java wrappers are compiled into this JVM module; the JNI library is built for the host (see buildHostJni).
+sourceSets {
+    main {
+        java {
+            srcDir("../core/src/main/java")
+            srcDir("../../library/liboqs-module/src/main/java")
+            include(
+                "com/fsck/k9/pqcExtension/helper/PqcMessageHelper.java",
+                "com/fsck/k9/pqcExtension/helper/encryption/ClassicalKem.java",
+                "com/fsck/k9/pqcExtension/helper/encryption/ClassicalKemFactory.java",
+                "com/fsck/k9/pqcExtension/helper/encryption/PqcEncryptionHelper.java",
+                "com/fsck/k9/pqcExtension/helper/encryption/PqcHybridEnvelope.java",
+                "com/fsck/k9/pqcExtension/helper/encryption/PqcHybridPrimitives.java",
+                "com/fsck/k9/pqcExtension/helper/encryption/PqcStreamingAead.java",
+                "com/fsck/k9/pqcExtension/helper/encryption/RsaOaepKem.java",
+                "com/fsck/k9/pqcExtension/helper/encryption/X25519Kem.java",
+                "com/fsck/k9/pqcExtension/helper/signature/PqcCompositeSignature.java",
+                "com/fsck/k9/pqcExtension/helper/signature/PqcPreHash.java",
+                "org/openquantumsafe/**",
+            )
+        }
+    }
+}
+
+dependencies {
+    implementation(projects.mail.common)
+    implementation(libs.mime4j.core)
+    implementation(libs.bouncycastle.core)
+    implementation(libs.bouncycastle.pgp)
+}
+
+val nativeBuildDir = layout.buildDirectory.dir("native")
+val liboqsJniDir: Provider<String> = providers.gradleProperty("liboqsJniDir")
+    .orElse(nativeBuildDir.map { it.dir("lib").asFile.absolutePath })
+val jmhResults = layout.buildDirectory.file("results/jmh/results.json")
+val jmhBaseline = layout.projectDirectory.file("baseline/results.json")
+
+val configureHostJni by tasks.registering(Exec::class) {
+    description = "Configures the host build of the liboqs JNI library."
+    val liboqsRoot = providers.gradleProperty("liboqsRoot").orElse("/usr/local")
+    commandLine(
+        "cmake",
+        "-S", file("src/native").absolutePath,
+        "-B", nativeBuildDir.get().asFile.absolutePath,
+        "-DCMAKE_BUILD_TYPE=Release",
+        "-DLIBOQS_ROOT=${liboqsRoot.get()}",
+    )
+}
+
+val buildHostJni by tasks.registering(Exec::class) {
+    description = "Builds the liboqs JNI library for the host, so liboqs can be benchmarked on a desktop JVM."
+    dependsOn(configureHostJni)
+    commandLine("cmake", "--build", nativeBuildDir.get().asFile.absolutePath, "--config", "Release")
+}
+
+jmh {
+    jmhVersion.set(libs.versions.jmh)
+
+    fork.set(2)
+    warmupIterations.set(5)
+    warmup.set("1s")
+    iterations.set(10)
+    timeOnIteration.set("1s")
+    profilers.add("gc")
+
+    resultFormat.set("JSON")
+    resultsFile.set(jmhResults)
+
+    jvmArgsAppend.add(liboqsJniDir.map { "-Djava.library.path=$it" })
+    providers.gradleProperty("jmhIncludes").orNull?.let { includes.add(it) }
+}
+
+tasks.named("jmh") {
+    if (!providers.gradleProperty("liboqsJniDir").isPresent) {
+        dependsOn(buildHostJni)
+    }
+}
+
+tasks.register<Copy>("jmhUpdateBaseline") {
+    description = "Replaces the checked-in baseline with the results of the last JMH run."
+    from(jmhResults)
+    into(jmhBaseline.asFile.parentFile)
+}
+
+tasks.register("jmhCompareBaseline") {
+    description = "Fails if a benchmark got slower than the baseline by more than -PjmhRegressionThreshold " +
+        "(default 0.10)."
+    val threshold = providers.gradleProperty("jmhRegressionThreshold").map { it.toDouble() }.orElse(0.10)
+    inputs.file(jmhResults)
+    doLast {
+        val baselineFile = jmhBaseline.asFile
+        if (!baselineFile.exists()) {
+            throw GradleException("No baseline at $baselineFile. Create one with jmhUpdateBaseline.")
+        }
+
+        val baseline = readScores(baselineFile)
+        val current = readScores(jmhResults.get().asFile)
+        val maxChange = threshold.get()
+
+        val regressions = mutableListOf<String>()
+        for ((key, result) in current) {
+            val base = baseline[key] ?: continue
+            // Throughput: higher is better. All other modes report time per operation: lower is better.
+            val change = if (result.mode == "thrpt") {
+                (base.score - result.score) / base.score
+            } else {
+                (result.score - base.score) / base.score
+            }
+            val line = "%-100s %14.3f -> %14.3f %s (%+.1f%%)".format(
+                key,
+                base.score,
+                result.score,
+                result.unit,
+                change * 100,
+            )
+            logger.lifecycle(line)
+            if (change > maxChange) {
+                regressions.add(line)
+            }
+        }
+
+        if (regressions.isNotEmpty()) {
+            throw GradleException(
+                "Benchmarks regressed by more than ${maxChange * 100}%:\n" + regressions.joinToString("\n"),
+            )
+        }
+    }
+}
+
+data class BenchmarkScore(val mode: String, val score: Double, val unit: String)
+
+@Suppress("UNCHECKED_CAST")
+fun readScores(file: File): Map<String, BenchmarkScore> {
+    val results = JsonSlurper().parse(file) as List<Map<String, Any?>>
+    return results.associate { result ->
+        val params = (result["params"] as Map<String, Any?>?).orEmpty()
+            .entries.sortedBy { it.key }
+            .joinToString(separator = ",") { "${it.key}=${it.value}" }
+        val metric = result["primaryMetric"] as Map<String, Any?>
+        val key = "${result["benchmark"]}[$params]"
+        key to BenchmarkScore(
+            mode = result["mode"] as String,
+            score = (metric["score"] as Number).toDouble(),
+            unit = metric["scoreUnit"] as String,
+        )
+    }
+}
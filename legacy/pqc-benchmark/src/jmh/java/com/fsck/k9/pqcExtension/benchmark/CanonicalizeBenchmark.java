@@ -0,0 +1,43 @@
+package com.fsck.k9.pqcExtension.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import com.fsck.k9.mail.internet.MimeBodyPart;
+import com.fsck.k9.mail.internet.TextBody;
+import com.fsck.k9.pqcExtension.helper.PqcMessageHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Canonicalization of the signed content part, as done before signature verification.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class CanonicalizeBenchmark {
+
+    @Param({ "100", "10000" })
+    public int lineCount;
+
+    private MimeBodyPart part;
+
+    @Setup
+    public void setUp() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < lineCount; i++) {
+            text.append("Line ").append(i).append(" of a message body with LF line endings\n");
+        }
+        part = MimeBodyPart.create(new TextBody(text.toString()), "text/plain; charset=utf-8");
+    }
+
+    @Benchmark
+    public byte[] canonicalize() throws Exception {
+        return PqcMessageHelper.canonicalize(part);
+    }
+}
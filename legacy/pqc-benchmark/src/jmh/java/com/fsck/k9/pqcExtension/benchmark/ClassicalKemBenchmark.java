@@ -0,0 +1,85 @@
+package com.fsck.k9.pqcExtension.benchmark;
+
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.Security;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import com.fsck.k9.pqcExtension.helper.encryption.ClassicalKem;
+import com.fsck.k9.pqcExtension.helper.encryption.ClassicalKemFactory;
+import org.bouncycastle.bcpg.PublicKeyAlgorithmTags;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openpgp.PGPKeyPair;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPKeyConverter;
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPKeyPair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Classical half of the hybrid KEM: RSA-OAEP with RSA-4096 keys as generated by the app, compared to X25519.
+ * Decapsulation runs once per received message and recipient block.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class ClassicalKemBenchmark {
+
+    static final String RSA = "RSA";
+    static final String X25519 = "X25519";
+
+    private static final int RSA_KEY_SIZE = 4096;
+
+    @Param({ RSA, X25519 })
+    public String algorithm;
+
+    private ClassicalKem kem;
+    private PGPPublicKey publicKey;
+    private PrivateKey privateKey;
+    private byte[] ciphertext;
+
+    @Setup
+    public void setUp() throws Exception {
+        PGPKeyPair keyPair = generateKeyPair(algorithm);
+        publicKey = keyPair.getPublicKey();
+        privateKey = new JcaPGPKeyConverter().setProvider(BouncyCastleProvider.PROVIDER_NAME)
+            .getPrivateKey(keyPair.getPrivateKey());
+        kem = ClassicalKemFactory.getKemForKey(publicKey);
+        ciphertext = kem.encapsulate(publicKey).ciphertext;
+    }
+
+    @Benchmark
+    public ClassicalKem.Encapsulation encapsulate() throws Exception {
+        return kem.encapsulate(publicKey);
+    }
+
+    @Benchmark
+    public byte[] decapsulate() throws Exception {
+        return kem.decapsulate(privateKey, ciphertext);
+    }
+
+    /**
+     * Generates an OpenPGP encryption key pair of the given type, like the app does for an account.
+     */
+    static PGPKeyPair generateKeyPair(String algorithm) throws Exception {
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+
+        if (RSA.equals(algorithm)) {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA", BouncyCastleProvider.PROVIDER_NAME);
+            generator.initialize(RSA_KEY_SIZE);
+            return new JcaPGPKeyPair(PublicKeyAlgorithmTags.RSA_GENERAL, generator.generateKeyPair(), new Date());
+        }
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("X25519", BouncyCastleProvider.PROVIDER_NAME);
+        return new JcaPGPKeyPair(PublicKeyAlgorithmTags.ECDH, generator.generateKeyPair(), new Date());
+    }
+}
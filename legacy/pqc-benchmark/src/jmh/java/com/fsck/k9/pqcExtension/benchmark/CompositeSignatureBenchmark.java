@@ -0,0 +1,137 @@
+package com.fsck.k9.pqcExtension.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.security.KeyPairGenerator;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.fsck.k9.pqcExtension.helper.signature.PqcCompositeSignature;
+import com.fsck.k9.pqcExtension.helper.signature.PqcPreHash;
+import org.bouncycastle.bcpg.ArmoredOutputStream;
+import org.bouncycastle.bcpg.HashAlgorithmTags;
+import org.bouncycastle.bcpg.PublicKeyAlgorithmTags;
+import org.bouncycastle.crypto.params.Ed25519PrivateKeyParameters;
+import org.bouncycastle.crypto.params.Ed25519PublicKeyParameters;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openpgp.PGPKeyPair;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.PGPSignature;
+import org.bouncycastle.openpgp.PGPSignatureGenerator;
+import org.bouncycastle.openpgp.PGPSignatureList;
+import org.bouncycastle.openpgp.PGPUtil;
+import org.bouncycastle.openpgp.jcajce.JcaPGPObjectFactory;
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPContentSignerBuilder;
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPContentVerifierBuilderProvider;
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPKeyPair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openquantumsafe.Signature;
+
+/**
+ * Verification of a hybrid signature as received: separate signatures (an ASCII-armored RSA-4096 OpenPGP signature
+ * decoded with {@code PGPObjectFactory}, and a PQC signature) compared to one binary {@link PqcCompositeSignature}.
+ * Both variants digest the content and verify the same PQC signature algorithm.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class CompositeSignatureBenchmark {
+
+    private static final PqcPreHash PRE_HASH = PqcPreHash.SHA512;
+
+    @Param({ "ML-DSA-44", "ML-DSA-65", "ML-DSA-87" })
+    public String algorithm;
+
+    @Param({ "16384" })
+    public int contentSize;
+
+    private byte[] content;
+    private Signature pqcVerifier;
+    private byte[] pqcPublicKey;
+
+    private PGPPublicKey rsaPublicKey;
+    private byte[] armoredPgpSignature;
+    private byte[] separatePqcSignature;
+
+    private Ed25519PublicKeyParameters ed25519PublicKey;
+    private byte[] compositeSignature;
+
+    @Setup
+    public void setUp() throws Exception {
+        content = new byte[contentSize];
+        new Random(42).nextBytes(content);
+
+        Signature signer = new Signature(algorithm);
+        pqcPublicKey = signer.generate_keypair();
+        pqcVerifier = new Signature(algorithm);
+
+        PGPKeyPair rsaKeyPair = ClassicalKemBenchmark.generateKeyPair(ClassicalKemBenchmark.RSA);
+        rsaPublicKey = rsaKeyPair.getPublicKey();
+        armoredPgpSignature = signArmored(rsaKeyPair, content);
+        separatePqcSignature = signer.sign(PRE_HASH.toSignedMessage(new ByteArrayInputStream(content)));
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("Ed25519", BouncyCastleProvider.PROVIDER_NAME);
+        PGPKeyPair ed25519KeyPair = new JcaPGPKeyPair(PublicKeyAlgorithmTags.EDDSA_LEGACY,
+            generator.generateKeyPair(), new Date());
+        Ed25519PrivateKeyParameters ed25519PrivateKey =
+            PqcCompositeSignature.toEd25519PrivateKey(ed25519KeyPair.getPrivateKey());
+        ed25519PublicKey = PqcCompositeSignature.toEd25519PublicKey(ed25519KeyPair.getPublicKey());
+
+        byte[] message = PqcCompositeSignature.toSignedMessage(
+            PRE_HASH.toSignedMessage(new ByteArrayInputStream(content)), algorithm);
+        compositeSignature = new PqcCompositeSignature(PRE_HASH, algorithm,
+            PqcCompositeSignature.signEd25519(ed25519PrivateKey, message), signer.sign(message)).encode();
+
+        signer.dispose_sig();
+    }
+
+    @TearDown
+    public void tearDown() {
+        pqcVerifier.dispose_sig();
+    }
+
+    @Benchmark
+    public boolean verifySeparate() throws Exception {
+        InputStream sigIn = PGPUtil.getDecoderStream(new ByteArrayInputStream(armoredPgpSignature));
+        PGPSignature pgpSignature = ((PGPSignatureList) new JcaPGPObjectFactory(sigIn).nextObject()).get(0);
+        pgpSignature.init(new JcaPGPContentVerifierBuilderProvider().setProvider(BouncyCastleProvider.PROVIDER_NAME),
+            rsaPublicKey);
+        pgpSignature.update(content);
+
+        byte[] pqcMessage = PRE_HASH.toSignedMessage(new ByteArrayInputStream(content));
+        return pgpSignature.verify() && pqcVerifier.verify(pqcMessage, separatePqcSignature, pqcPublicKey);
+    }
+
+    @Benchmark
+    public boolean verifyComposite() throws Exception {
+        PqcCompositeSignature signature = PqcCompositeSignature.decode(compositeSignature);
+        byte[] message = PqcCompositeSignature.toSignedMessage(
+            signature.preHash.toSignedMessage(new ByteArrayInputStream(content)), signature.pqcAlgorithm);
+        return PqcCompositeSignature.verifyEd25519(ed25519PublicKey, message, signature.getEd25519Signature()) &&
+            pqcVerifier.verify(message, signature.getPqcSignature(), pqcPublicKey);
+    }
+
+    private static byte[] signArmored(PGPKeyPair keyPair, byte[] data) throws Exception {
+        PGPSignatureGenerator generator = new PGPSignatureGenerator(
+            new JcaPGPContentSignerBuilder(keyPair.getPublicKey().getAlgorithm(), HashAlgorithmTags.SHA512)
+                .setProvider(BouncyCastleProvider.PROVIDER_NAME));
+        generator.init(PGPSignature.BINARY_DOCUMENT, keyPair.getPrivateKey());
+        generator.update(data);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ArmoredOutputStream armoredOut = new ArmoredOutputStream(out)) {
+            generator.generate().encode(armoredOut);
+        }
+        return out.toByteArray();
+    }
+}
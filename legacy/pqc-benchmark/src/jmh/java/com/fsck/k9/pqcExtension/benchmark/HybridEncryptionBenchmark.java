@@ -0,0 +1,122 @@
+package com.fsck.k9.pqcExtension.benchmark;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.fsck.k9.mail.internet.BinaryTempFileBody;
+import com.fsck.k9.mail.internet.MimeBodyPart;
+import com.fsck.k9.mail.internet.TextBody;
+import com.fsck.k9.pqcExtension.helper.encryption.PqcEncryptionHelper;
+import com.fsck.k9.pqcExtension.helper.encryption.PqcEncryptionHelper.RecipientKeys;
+import com.fsck.k9.pqcExtension.helper.encryption.PqcHybridEnvelope.RecipientBlock;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openquantumsafe.KeyEncapsulation;
+
+/**
+ * Sender side of hybrid encryption: classical + PQC KEM encapsulation, wrapping the content key for all recipients
+ * and streaming the payload into the envelope. Recipient keys are generated once per trial, outside the measurement.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HybridEncryptionBenchmark {
+
+    private static final String KEM_ALGORITHM = "ML-KEM-768";
+
+    @State(Scope.Benchmark)
+    public static class Recipients {
+        @Param({ "1", "5", "20" })
+        public int recipientCount;
+
+        @Param({ ClassicalKemBenchmark.RSA, ClassicalKemBenchmark.X25519 })
+        public String classicalAlgorithm;
+
+        List<RecipientKeys> recipients;
+        byte[] contentKey;
+
+        @Setup
+        public void setUp() throws Exception {
+            recipients = createRecipients(recipientCount, classicalAlgorithm);
+            contentKey = PqcEncryptionHelper.generateContentKey();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Message {
+        @Param({ "65536", "1048576" })
+        public int messageSize;
+
+        MimeBodyPart part;
+        byte[] contentKey;
+        List<RecipientBlock> recipientBlocks;
+
+        @Setup
+        public void setUp() throws Exception {
+            File tempDirectory = Files.createTempDirectory("pqc-benchmark").toFile();
+            tempDirectory.deleteOnExit();
+            BinaryTempFileBody.setTempDirectory(tempDirectory);
+
+            char[] text = new char[messageSize];
+            Random random = new Random(42);
+            for (int i = 0; i < text.length; i++) {
+                text[i] = (i % 77 == 76) ? '\n' : (char) ('a' + random.nextInt(26));
+            }
+            part = MimeBodyPart.create(new TextBody(new String(text)), "text/plain; charset=utf-8");
+
+            contentKey = PqcEncryptionHelper.generateContentKey();
+            recipientBlocks = PqcEncryptionHelper.wrapContentKey(contentKey,
+                createRecipients(1, ClassicalKemBenchmark.X25519));
+        }
+    }
+
+    @Benchmark
+    public PqcEncryptionHelper.HybridKEMResult encapsulateBoth(Recipients state) throws Exception {
+        RecipientKeys recipient = state.recipients.get(0);
+        return PqcEncryptionHelper.encapsulateBoth(recipient.pgpPublicKey, recipient.pqcPublicKey,
+            recipient.pqcAlgorithm);
+    }
+
+    @Benchmark
+    public List<RecipientBlock> wrapContentKey(Recipients state) throws Exception {
+        return PqcEncryptionHelper.wrapContentKey(state.contentKey, state.recipients);
+    }
+
+    @Benchmark
+    public long encryptPartToTempBody(Message state) throws Exception {
+        BinaryTempFileBody body = PqcEncryptionHelper.encryptPartToTempBody(state.part, state.contentKey,
+            state.recipientBlocks);
+        long size = body.getSize();
+        Files.delete(body.getFile().toPath());
+        return size;
+    }
+
+    static List<RecipientKeys> createRecipients(int count, String classicalAlgorithm) throws Exception {
+        List<RecipientKeys> recipients = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            PGPPublicKey pgpPublicKey = ClassicalKemBenchmark.generateKeyPair(classicalAlgorithm).getPublicKey();
+
+            KeyEncapsulation kem = new KeyEncapsulation(KEM_ALGORITHM);
+            byte[] kemPublicKey;
+            try {
+                kemPublicKey = kem.generate_keypair();
+            } finally {
+                kem.dispose_KEM();
+            }
+
+            recipients.add(new RecipientKeys("recipient" + i + "@example.com", pgpPublicKey, KEM_ALGORITHM,
+                kemPublicKey));
+        }
+        return recipients;
+    }
+}
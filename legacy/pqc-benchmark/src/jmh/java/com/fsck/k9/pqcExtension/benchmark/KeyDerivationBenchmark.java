@@ -0,0 +1,62 @@
+package com.fsck.k9.pqcExtension.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.fsck.k9.pqcExtension.helper.encryption.PqcHybridPrimitives;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * HKDF derivation of session and key wrapping keys from the classical and PQC KEM shared secrets.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class KeyDerivationBenchmark {
+
+    private byte[] rsaSharedSecret;
+    private byte[] pqcSharedSecret;
+    private byte[] keyFingerprint;
+    private byte[] classicalCiphertext;
+    private byte[] pqcCiphertext;
+    private byte[] kemKeyFingerprint;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        rsaSharedSecret = new byte[32];
+        pqcSharedSecret = new byte[32];
+        keyFingerprint = new byte[20];
+        random.nextBytes(rsaSharedSecret);
+        random.nextBytes(pqcSharedSecret);
+        random.nextBytes(keyFingerprint);
+        classicalCiphertext = new byte[32];
+        pqcCiphertext = new byte[1088];
+        kemKeyFingerprint = new byte[32];
+        random.nextBytes(classicalCiphertext);
+        random.nextBytes(pqcCiphertext);
+        random.nextBytes(kemKeyFingerprint);
+    }
+
+    @Benchmark
+    public byte[] deriveSessionKey() throws Exception {
+        return PqcHybridPrimitives.deriveSessionKey(rsaSharedSecret, pqcSharedSecret);
+    }
+
+    @Benchmark
+    public byte[] deriveKeyWrappingKey() {
+        return PqcHybridPrimitives.deriveKeyWrappingKey(rsaSharedSecret, pqcSharedSecret, keyFingerprint);
+    }
+
+    @Benchmark
+    public byte[] combineSharedSecrets() {
+        return PqcHybridPrimitives.combineSharedSecrets(rsaSharedSecret, pqcSharedSecret, "X25519",
+            classicalCiphertext, keyFingerprint, "ML-KEM-768", pqcCiphertext, kemKeyFingerprint);
+    }
+}
@@ -0,0 +1,60 @@
+package com.fsck.k9.pqcExtension.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openquantumsafe.KeyEncapsulation;
+import org.openquantumsafe.Pair;
+
+/**
+ * liboqs KEM operations through the JNI bindings. Key pairs are generated once per trial, outside the measurement.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class LiboqsKemBenchmark {
+
+    @Param({ "ML-KEM-512", "ML-KEM-768", "ML-KEM-1024" })
+    public String algorithm;
+
+    private KeyEncapsulation kem;
+    private byte[] publicKey;
+    private byte[] secretKey;
+    private byte[] ciphertext;
+
+    @Setup
+    public void setUp() {
+        kem = new KeyEncapsulation(algorithm);
+        publicKey = kem.generate_keypair();
+        secretKey = kem.export_secret_key();
+        ciphertext = kem.encap_secret(publicKey).getLeft();
+    }
+
+    @TearDown
+    public void tearDown() {
+        kem.dispose_KEM();
+    }
+
+    @Benchmark
+    public byte[] generateKeyPair() {
+        return kem.generate_keypair();
+    }
+
+    @Benchmark
+    public Pair<byte[], byte[]> encapsulate() {
+        return kem.encap_secret(publicKey);
+    }
+
+    @Benchmark
+    public byte[] decapsulate() {
+        return kem.decap_secret_with_key(ciphertext, secretKey);
+    }
+}
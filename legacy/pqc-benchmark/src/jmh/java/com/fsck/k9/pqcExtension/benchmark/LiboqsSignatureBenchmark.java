@@ -0,0 +1,90 @@
+package com.fsck.k9.pqcExtension.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openquantumsafe.Signature;
+
+/**
+ * liboqs signature operations through the JNI bindings, for small and large messages. The {@code Direct} variants
+ * use the direct {@link ByteBuffer} overloads with a reused output buffer.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class LiboqsSignatureBenchmark {
+
+    @Param({ "ML-DSA-44", "ML-DSA-65", "ML-DSA-87" })
+    public String algorithm;
+
+    @Param({ "1024", "1048576" })
+    public int messageSize;
+
+    private Signature signer;
+    private byte[] publicKey;
+    private byte[] message;
+    private byte[] signature;
+    private ByteBuffer directMessage;
+    private ByteBuffer directSecretKey;
+    private ByteBuffer directPublicKey;
+    private ByteBuffer directSignature;
+    private ByteBuffer directOutput;
+
+    @Setup
+    public void setUp() {
+        message = new byte[messageSize];
+        new Random(42).nextBytes(message);
+
+        signer = new Signature(algorithm);
+        publicKey = signer.generate_keypair();
+        signature = signer.sign(message);
+
+        directMessage = toDirectBuffer(message);
+        directSecretKey = toDirectBuffer(signer.export_secret_key());
+        directPublicKey = toDirectBuffer(publicKey);
+        directSignature = toDirectBuffer(signature);
+        directOutput = ByteBuffer.allocateDirect(signer.get_max_length_signature());
+    }
+
+    @TearDown
+    public void tearDown() {
+        signer.dispose_sig();
+    }
+
+    @Benchmark
+    public byte[] sign() {
+        return signer.sign(message);
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return signer.verify(message, signature, publicKey);
+    }
+
+    @Benchmark
+    public int signDirect() {
+        directOutput.clear();
+        return signer.sign_with_key(directMessage, directSecretKey, directOutput);
+    }
+
+    @Benchmark
+    public boolean verifyDirect() {
+        return signer.verify(directMessage, directSignature, directPublicKey);
+    }
+
+    private static ByteBuffer toDirectBuffer(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        return buffer;
+    }
+}
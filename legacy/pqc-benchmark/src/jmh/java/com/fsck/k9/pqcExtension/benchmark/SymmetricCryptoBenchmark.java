@@ -0,0 +1,107 @@
+package com.fsck.k9.pqcExtension.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.fsck.k9.pqcExtension.helper.encryption.PqcHybridPrimitives;
+import com.fsck.k9.pqcExtension.helper.encryption.PqcStreamingAead;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Payload encryption: single-shot AES-GCM as used for wrapped keys and old messages, and the segmented
+ * AES-GCM stream used for message payloads.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class SymmetricCryptoBenchmark {
+
+    @Param({ "1024", "65536", "1048576" })
+    public int payloadSize;
+
+    private byte[] sessionKey;
+    private byte[] payload;
+    private byte[] singleShotCiphertext;
+    private byte[] streamingCiphertext;
+    private byte[] readBuffer;
+
+    @Setup
+    public void setUp() throws Exception {
+        Random random = new Random(42);
+        sessionKey = new byte[32];
+        random.nextBytes(sessionKey);
+        payload = new byte[payloadSize];
+        random.nextBytes(payload);
+        readBuffer = new byte[8192];
+
+        singleShotCiphertext = PqcHybridPrimitives.encryptWithAes(payload, sessionKey);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(payloadSize + 1024);
+        try (OutputStream encrypting = PqcStreamingAead.newEncryptingStream(out, sessionKey)) {
+            encrypting.write(payload);
+        }
+        streamingCiphertext = out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] encryptWithAes() throws Exception {
+        return PqcHybridPrimitives.encryptWithAes(payload, sessionKey);
+    }
+
+    @Benchmark
+    public byte[] decryptWithAes() throws Exception {
+        return PqcHybridPrimitives.decryptWithAes(singleShotCiphertext, sessionKey);
+    }
+
+    @Benchmark
+    public void streamingEncrypt(Blackhole blackhole) throws IOException {
+        try (OutputStream encrypting = PqcStreamingAead.newEncryptingStream(new BlackholeOutputStream(blackhole),
+            sessionKey)) {
+            encrypting.write(payload);
+        }
+    }
+
+    @Benchmark
+    public long streamingDecrypt() throws IOException {
+        long total = 0;
+        try (InputStream decrypting = PqcStreamingAead.newDecryptingStream(
+            new ByteArrayInputStream(streamingCiphertext), sessionKey)) {
+            int read;
+            while ((read = decrypting.read(readBuffer)) != -1) {
+                total += read;
+            }
+        }
+        return total;
+    }
+
+    private static class BlackholeOutputStream extends OutputStream {
+        private final Blackhole blackhole;
+
+        BlackholeOutputStream(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void write(int b) {
+            blackhole.consume(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            blackhole.consume(b);
+        }
+    }
+}
@@ -11,7 +11,7 @@ import timber.log.Timber;
 
 
 class StoreSchemaDefinition implements SchemaDefinition {
-    static final int DB_VERSION = 88;
+    static final int DB_VERSION = 90;
 
     private final MigrationsHelper migrationsHelper;
 
@@ -268,5 +268,30 @@ class StoreSchemaDefinition implements SchemaDefinition {
 
         db.execSQL("DROP INDEX IF EXISTS notifications_timestamp");
         db.execSQL("CREATE INDEX IF NOT EXISTS notifications_timestamp ON notifications(timestamp)");
+
+        db.execSQL("DROP TABLE IF EXISTS pqc_verification_results");
+        db.execSQL("CREATE TABLE pqc_verification_results (" +
+                "message_id INTEGER PRIMARY KEY NOT NULL REFERENCES messages(id) ON DELETE CASCADE," +
+                "result INTEGER NOT NULL," +
+                "sender TEXT," +
+                "algorithm TEXT," +
+                "verified_at INTEGER NOT NULL" +
+                ")");
+
+        db.execSQL("DROP INDEX IF EXISTS pqc_verification_results_sender");
+        db.execSQL("CREATE INDEX IF NOT EXISTS pqc_verification_results_sender ON pqc_verification_results(sender)");
+
+        db.execSQL("DROP TABLE IF EXISTS pqc_crypto_results");
+        db.execSQL("CREATE TABLE pqc_crypto_results (" +
+                "message_id INTEGER NOT NULL REFERENCES messages(id) ON DELETE CASCADE," +
+                "part_digest TEXT NOT NULL," +
+                "signer_fingerprint TEXT NOT NULL," +
+                "decryption_result INTEGER," +
+                "signature_result INTEGER," +
+                "wrapped_key BLOB," +
+                "encrypted_data BLOB," +
+                "created_at INTEGER NOT NULL," +
+                "PRIMARY KEY (message_id, part_digest, signer_fingerprint)" +
+                ")");
     }
 }
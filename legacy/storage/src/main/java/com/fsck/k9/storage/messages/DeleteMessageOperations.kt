@@ -22,9 +22,10 @@ internal class DeleteMessageOperations(
 
             if (hasThreadChildren) {
                 // We're not deleting the 'messages' row so we'll have to manually delete the associated
-                // 'message_parts' and 'messages_fulltext' rows.
+                // 'message_parts', 'messages_fulltext' and PQC result rows.
                 database.deleteMessagePartRows(rootMessagePartId)
                 database.deleteFulltextIndexEntry(messageId)
+                database.deletePqcResults(messageId)
 
                 // This message has children in the thread structure so we need to make it an empty message.
                 database.convertToEmptyMessage(messageId)
@@ -84,6 +85,11 @@ WHERE folder_id = ? AND uid = ?
         delete("messages_fulltext", "docid = ?", arrayOf(messageId.toString()))
     }
 
+    private fun SQLiteDatabase.deletePqcResults(messageId: Long) {
+        delete("pqc_crypto_results", "message_id = ?", arrayOf(messageId.toString()))
+        delete("pqc_verification_results", "message_id = ?", arrayOf(messageId.toString()))
+    }
+
     private fun SQLiteDatabase.convertToEmptyMessage(messageId: Long) {
         val values = ContentValues().apply {
             put("deleted", 0)
@@ -0,0 +1,24 @@
+package com.fsck.k9.storage.migrations
+
+import android.database.sqlite.SQLiteDatabase
+
+/**
+ * Add 'pqc_verification_results' table to persist the outcome of background PQC signature verification.
+ */
+internal class MigrationTo89(private val db: SQLiteDatabase) {
+    fun addPqcVerificationResultsTable() {
+        db.execSQL("DROP TABLE IF EXISTS pqc_verification_results")
+        db.execSQL(
+            "CREATE TABLE pqc_verification_results (" +
+                "message_id INTEGER PRIMARY KEY NOT NULL REFERENCES messages(id) ON DELETE CASCADE," +
+                "result INTEGER NOT NULL," +
+                "sender TEXT," +
+                "algorithm TEXT," +
+                "verified_at INTEGER NOT NULL" +
+                ")",
+        )
+
+        db.execSQL("DROP INDEX IF EXISTS pqc_verification_results_sender")
+        db.execSQL("CREATE INDEX IF NOT EXISTS pqc_verification_results_sender ON pqc_verification_results(sender)")
+    }
+}
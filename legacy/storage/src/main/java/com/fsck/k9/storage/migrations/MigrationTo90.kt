@@ -0,0 +1,25 @@
+package com.fsck.k9.storage.migrations
+
+import android.database.sqlite.SQLiteDatabase
+
+/**
+ * Add 'pqc_crypto_results' table to cache PQC verification and decryption results between message views.
+ */
+internal class MigrationTo90(private val db: SQLiteDatabase) {
+    fun addPqcCryptoResultsTable() {
+        db.execSQL("DROP TABLE IF EXISTS pqc_crypto_results")
+        db.execSQL(
+            "CREATE TABLE pqc_crypto_results (" +
+                "message_id INTEGER NOT NULL REFERENCES messages(id) ON DELETE CASCADE," +
+                "part_digest TEXT NOT NULL," +
+                "signer_fingerprint TEXT NOT NULL," +
+                "decryption_result INTEGER," +
+                "signature_result INTEGER," +
+                "wrapped_key BLOB," +
+                "encrypted_data BLOB," +
+                "created_at INTEGER NOT NULL," +
+                "PRIMARY KEY (message_id, part_digest, signer_fingerprint)" +
+                ")",
+        )
+    }
+}
@@ -0,0 +1,144 @@
+package com.fsck.k9.storage.migrations
+
+import android.content.ContentValues
+import android.database.sqlite.SQLiteConstraintException
+import android.database.sqlite.SQLiteDatabase
+import assertk.assertFailure
+import assertk.assertThat
+import assertk.assertions.containsExactly
+import assertk.assertions.containsExactlyInAnyOrder
+import assertk.assertions.isInstanceOf
+import kotlin.test.Test
+import org.junit.After
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class MigrationTo89Test {
+    private val database = createDatabaseVersion88()
+    private val migration = MigrationTo89(database)
+
+    @After
+    fun tearDown() {
+        database.close()
+    }
+
+    @Test
+    fun `stores a verification result per message`() {
+        val messageIdOne = database.createMessage()
+        val messageIdTwo = database.createMessage()
+
+        migration.addPqcVerificationResultsTable()
+        database.createVerificationResult(messageId = messageIdOne, result = 1)
+        database.createVerificationResult(messageId = messageIdTwo, result = 2)
+
+        assertThat(database.readVerificationResults()).containsExactlyInAnyOrder(
+            messageIdOne to 1,
+            messageIdTwo to 2,
+        )
+    }
+
+    @Test
+    fun `rejects a second verification result for the same message`() {
+        val messageId = database.createMessage()
+
+        migration.addPqcVerificationResultsTable()
+        database.createVerificationResult(messageId = messageId)
+
+        assertFailure { database.createVerificationResult(messageId = messageId) }
+            .isInstanceOf<SQLiteConstraintException>()
+    }
+
+    @Test
+    fun `rejects a verification result for an unknown message`() {
+        migration.addPqcVerificationResultsTable()
+
+        assertFailure { database.createVerificationResult(messageId = 42) }
+            .isInstanceOf<SQLiteConstraintException>()
+    }
+
+    @Test
+    fun `deleting a message deletes its verification result`() {
+        val messageIdOne = database.createMessage()
+        val messageIdTwo = database.createMessage()
+        migration.addPqcVerificationResultsTable()
+        database.createVerificationResult(messageId = messageIdOne, result = 1)
+        database.createVerificationResult(messageId = messageIdTwo, result = 2)
+
+        database.delete("messages", "id = ?", arrayOf(messageIdOne.toString()))
+
+        assertThat(database.readVerificationResults()).containsExactly(messageIdTwo to 2)
+    }
+
+    @Test
+    fun `creates sender index`() {
+        migration.addPqcVerificationResultsTable()
+
+        assertThat(database.readIndexNames("pqc_verification_results"))
+            .containsExactly("pqc_verification_results_sender")
+    }
+
+    private fun createDatabaseVersion88(): SQLiteDatabase {
+        return SQLiteDatabase.create(null).apply {
+            // Enabled for every connection by LockableDatabase
+            execSQL("PRAGMA foreign_keys = ON")
+            execSQL(
+                """
+                CREATE TABLE messages (
+                    id INTEGER PRIMARY KEY,
+                    subject TEXT
+                )
+                """.trimIndent(),
+            )
+        }
+    }
+
+    private fun SQLiteDatabase.createMessage(subject: String = "irrelevant"): Long {
+        val values = ContentValues().apply {
+            put("subject", subject)
+        }
+
+        return insert("messages", null, values)
+    }
+
+    private fun SQLiteDatabase.createVerificationResult(
+        messageId: Long,
+        result: Int = 1,
+        sender: String? = "alice@example.com",
+        algorithm: String? = "ML-DSA-65",
+        verifiedAt: Long = 0L,
+    ): Long {
+        val values = ContentValues().apply {
+            put("message_id", messageId)
+            put("result", result)
+            put("sender", sender)
+            put("algorithm", algorithm)
+            put("verified_at", verifiedAt)
+        }
+
+        return insertOrThrow("pqc_verification_results", null, values)
+    }
+
+    private fun SQLiteDatabase.readVerificationResults(): List<Pair<Long, Int>> {
+        return rawQuery("SELECT message_id, result FROM pqc_verification_results", null).use { cursor ->
+            buildList {
+                while (cursor.moveToNext()) {
+                    add(cursor.getLong(0) to cursor.getInt(1))
+                }
+            }
+        }
+    }
+
+    private fun SQLiteDatabase.readIndexNames(table: String): List<String> {
+        return rawQuery(
+            "SELECT name FROM sqlite_master WHERE type = 'index' AND tbl_name = ? AND sql IS NOT NULL",
+            arrayOf(table),
+        ).use { cursor ->
+            buildList {
+                while (cursor.moveToNext()) {
+                    add(cursor.getString(0))
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.fsck.k9.storage.migrations
+
+import android.content.ContentValues
+import android.database.sqlite.SQLiteConstraintException
+import android.database.sqlite.SQLiteDatabase
+import assertk.assertFailure
+import assertk.assertThat
+import assertk.assertions.containsExactly
+import assertk.assertions.containsExactlyInAnyOrder
+import assertk.assertions.isInstanceOf
+import kotlin.test.Test
+import org.junit.After
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class MigrationTo90Test {
+    private val database = createDatabaseVersion89()
+    private val migration = MigrationTo90(database)
+
+    @After
+    fun tearDown() {
+        database.close()
+    }
+
+    @Test
+    fun `stores a result per message part and signer`() {
+        val messageId = database.createMessage()
+
+        migration.addPqcCryptoResultsTable()
+        database.createCryptoResult(messageId = messageId, partDigest = "one", signerFingerprint = "alice")
+        database.createCryptoResult(messageId = messageId, partDigest = "one", signerFingerprint = "bob")
+        database.createCryptoResult(messageId = messageId, partDigest = "two", signerFingerprint = "alice")
+
+        assertThat(database.readCryptoResults()).containsExactlyInAnyOrder(
+            Triple(messageId, "one", "alice"),
+            Triple(messageId, "one", "bob"),
+            Triple(messageId, "two", "alice"),
+        )
+    }
+
+    @Test
+    fun `rejects a second result for the same message part and signer`() {
+        val messageId = database.createMessage()
+
+        migration.addPqcCryptoResultsTable()
+        database.createCryptoResult(messageId = messageId, partDigest = "one", signerFingerprint = "alice")
+
+        assertFailure {
+            database.createCryptoResult(messageId = messageId, partDigest = "one", signerFingerprint = "alice")
+        }.isInstanceOf<SQLiteConstraintException>()
+    }
+
+    @Test
+    fun `rejects a result for an unknown message`() {
+        migration.addPqcCryptoResultsTable()
+
+        assertFailure { database.createCryptoResult(messageId = 42) }
+            .isInstanceOf<SQLiteConstraintException>()
+    }
+
+    @Test
+    fun `deleting a message deletes its results`() {
+        val messageIdOne = database.createMessage()
+        val messageIdTwo = database.createMessage()
+        migration.addPqcCryptoResultsTable()
+        database.createCryptoResult(messageId = messageIdOne, partDigest = "one")
+        database.createCryptoResult(messageId = messageIdOne, partDigest = "two")
+        database.createCryptoResult(messageId = messageIdTwo, partDigest = "one")
+
+        database.delete("messages", "id = ?", arrayOf(messageIdOne.toString()))
+
+        assertThat(database.readCryptoResults()).containsExactly(Triple(messageIdTwo, "one", "alice"))
+    }
+
+    private fun createDatabaseVersion89(): SQLiteDatabase {
+        return SQLiteDatabase.create(null).apply {
+            // Enabled for every connection by LockableDatabase
+            execSQL("PRAGMA foreign_keys = ON")
+            execSQL(
+                """
+                CREATE TABLE messages (
+                    id INTEGER PRIMARY KEY,
+                    subject TEXT
+                )
+                """.trimIndent(),
+            )
+        }
+    }
+
+    private fun SQLiteDatabase.createMessage(subject: String = "irrelevant"): Long {
+        val values = ContentValues().apply {
+            put("subject", subject)
+        }
+
+        return insert("messages", null, values)
+    }
+
+    private fun SQLiteDatabase.createCryptoResult(
+        messageId: Long,
+        partDigest: String = "digest",
+        signerFingerprint: String = "alice",
+        decryptionResult: Int? = 1,
+        signatureResult: Int? = 1,
+        wrappedKey: ByteArray? = null,
+        encryptedData: ByteArray? = null,
+        createdAt: Long = 0L,
+    ): Long {
+        val values = ContentValues().apply {
+            put("message_id", messageId)
+            put("part_digest", partDigest)
+            put("signer_fingerprint", signerFingerprint)
+            put("decryption_result", decryptionResult)
+            put("signature_result", signatureResult)
+            put("wrapped_key", wrappedKey)
+            put("encrypted_data", encryptedData)
+            put("created_at", createdAt)
+        }
+
+        return insertOrThrow("pqc_crypto_results", null, values)
+    }
+
+    private fun SQLiteDatabase.readCryptoResults(): List<Triple<Long, String, String>> {
+        return rawQuery("SELECT message_id, part_digest, signer_fingerprint FROM pqc_crypto_results", null)
+            .use { cursor ->
+                buildList {
+                    while (cursor.moveToNext()) {
+                        add(Triple(cursor.getLong(0), cursor.getString(1), cursor.getString(2)))
+                    }
+                }
+            }
+    }
+}
@@ -1,7 +1,26 @@
 package com.fsck.k9.activity
 
+import com.fsck.k9.mailstore.MessageViewInfoExtractorFactory
+import com.fsck.k9.ui.helper.HtmlSettingsProvider
 import org.koin.dsl.module
 
 val activityModule = module {
-    single { MessageLoaderHelperFactory(messageViewInfoExtractorFactory = get(), htmlSettingsProvider = get()) }
+    single {
+        MessageLoaderHelperFactory(
+            messageViewInfoExtractorFactory = get(),
+            htmlSettingsProvider = get(),
+            messageViewInfoCache = get(),
+        )
+    }
+    single { MessageViewInfoCache(clock = get()) }
+    factory {
+        val htmlSettings = get<HtmlSettingsProvider>().createForMessageView()
+        MessageViewInfoPrefetcher(
+            context = get(),
+            preferences = get(),
+            messagingController = get(),
+            messageViewInfoExtractor = get<MessageViewInfoExtractorFactory>().create(htmlSettings),
+            messageViewInfoCache = get(),
+        )
+    }
 }
@@ -2,6 +2,7 @@ package com.fsck.k9.activity;
 
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -621,9 +622,20 @@ public class MessageCompose extends K9Activity implements OnClickListener,
         }
 
         boolean shouldUsePgpMessageBuilder = cryptoStatus.isOpenPgpConfigured();
-        String receptionAdress = recipientPresenter.getToAddresses().get(0).getAddress();
+        List<String> recipientEmails = new ArrayList<>();
+        for (Address address : recipientPresenter.getToAddresses()) {
+            recipientEmails.add(address.getAddress());
+        }
+        for (Address address : recipientPresenter.getCcAddresses()) {
+            recipientEmails.add(address.getAddress());
+        }
+        List<String> bccRecipientEmails = new ArrayList<>();
+        for (Address address : recipientPresenter.getBccAddresses()) {
+            bccRecipientEmails.add(address.getAddress());
+        }
         if (cryptoStatus.isSignPqcHybrid()) {
-            PqcMessagebuilder pqcBuilder = PqcMessagebuilder.newInstance(getApplicationContext(),receptionAdress);
+            PqcMessagebuilder pqcBuilder = PqcMessagebuilder.newInstance(getApplicationContext(), recipientEmails,
+                bccRecipientEmails);
             recipientPresenter.builderSetProperties(pqcBuilder, cryptoStatus , account);
             if (pqcBuilder == null) {
                 Timber.w("PqcMessagebuilder returned null – PQC config missing?");
@@ -632,7 +644,8 @@ public class MessageCompose extends K9Activity implements OnClickListener,
             builder=pqcBuilder;
         }
         else if(cryptoStatus.isEncryptPqcHybrid()){
-            PqcMessagebuilder pqcBuilder = PqcMessagebuilder.newInstance(getApplicationContext(),receptionAdress);
+            PqcMessagebuilder pqcBuilder = PqcMessagebuilder.newInstance(getApplicationContext(), recipientEmails,
+                bccRecipientEmails);
             recipientPresenter.builderSetProperties(pqcBuilder, cryptoStatus , account);
             if (pqcBuilder == null) {
                 Timber.w("PqcMessagebuilder returned null – PQC config missing?");
@@ -87,6 +87,8 @@ public class MessageLoaderHelper {
     @Nullable // make this explicitly nullable, make sure to cancel/ignore any operation if this is null
     private MessageLoaderCallbacks callback;
     private final MessageViewInfoExtractor messageViewInfoExtractor;
+    @Nullable
+    private final MessageViewInfoCache messageViewInfoCache;
     private Handler handler = new Handler(Looper.getMainLooper());
 
     // transient state
@@ -103,12 +105,14 @@ public class MessageLoaderHelper {
     private PqcDecryptionResult cachedPqcDecryptionResult;
 
     public MessageLoaderHelper(Context context, LoaderManager loaderManager, FragmentManager fragmentManager,
-            @NonNull MessageLoaderCallbacks callback, MessageViewInfoExtractor messageViewInfoExtractor) {
+            @NonNull MessageLoaderCallbacks callback, MessageViewInfoExtractor messageViewInfoExtractor,
+            @Nullable MessageViewInfoCache messageViewInfoCache) {
         this.context = context;
         this.loaderManager = loaderManager;
         this.fragmentManager = fragmentManager;
         this.callback = callback;
         this.messageViewInfoExtractor = messageViewInfoExtractor;
+        this.messageViewInfoCache = messageViewInfoCache;
     }
 
 
@@ -235,8 +239,8 @@ public class MessageLoaderHelper {
 
         callback.onMessageDataLoadFinished(localMessage);
 
-        String[] header = localMessage.getHeader("X-Key-Distribution");
-        if (header != null && header.length > 0 && "true".equalsIgnoreCase(header[0])) {
+        // Usually imported during sync already; keys that are known by now are skipped
+        if (KeyReciever.isKeyDistributionMessage(localMessage)) {
             KeyReciever.importPublicKeysFromMessage(context, localMessage, account.getUuid());
         }
 
@@ -254,6 +258,13 @@ public class MessageLoaderHelper {
             return;
         }
 
+        MessageViewInfo prefetchedMessageViewInfo = takePrefetchedMessageViewInfo();
+        if (prefetchedMessageViewInfo != null) {
+            Timber.d("Using prefetched message view info");
+            onDecodeMessageFinished(prefetchedMessageViewInfo);
+            return;
+        }
+
         boolean isPqcEnabled = account.isPqcSigningEnabled();
         String openPgpProvider = account.getOpenPgpProvider();
 
@@ -269,6 +280,22 @@ public class MessageLoaderHelper {
         startOrResumeDecodeMessage();
     }
 
+    @Nullable
+    private MessageViewInfo takePrefetchedMessageViewInfo() {
+        if (messageViewInfoCache == null || !localMessage.isSet(Flag.X_DOWNLOADED_FULL)) {
+            return null;
+        }
+
+        MessageViewInfo messageViewInfo = messageViewInfoCache.take(messageReference);
+        if (messageViewInfo == null || !(messageViewInfo.message instanceof LocalMessage)) {
+            return null;
+        }
+
+        // Make sure the message wasn't replaced in the meantime
+        LocalMessage prefetchedMessage = (LocalMessage) messageViewInfo.message;
+        return prefetchedMessage.getDatabaseId() == localMessage.getDatabaseId() ? messageViewInfo : null;
+    }
+
     private void onLoadMessageFromDatabaseFailed() {
         if (callback == null) {
             throw new IllegalStateException("unexpected call when callback is already detached");
@@ -386,6 +413,11 @@ public class MessageLoaderHelper {
 
             return callback.startIntentSenderForMessageLoaderHelper(intentSender, requestCode);
         }
+
+        @Override
+        public void onCryptoOperationsStopped() {
+            // Only helpers in prefetch mode stop early
+        }
     };
 
 
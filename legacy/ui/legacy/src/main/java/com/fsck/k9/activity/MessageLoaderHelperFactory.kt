@@ -10,6 +10,7 @@ import com.fsck.k9.ui.helper.HtmlSettingsProvider
 class MessageLoaderHelperFactory(
     private val messageViewInfoExtractorFactory: MessageViewInfoExtractorFactory,
     private val htmlSettingsProvider: HtmlSettingsProvider,
+    private val messageViewInfoCache: MessageViewInfoCache,
 ) {
     fun createForMessageView(
         context: Context,
@@ -19,7 +20,14 @@ class MessageLoaderHelperFactory(
     ): MessageLoaderHelper {
         val htmlSettings = htmlSettingsProvider.createForMessageView()
         val messageViewInfoExtractor = messageViewInfoExtractorFactory.create(htmlSettings)
-        return MessageLoaderHelper(context, loaderManager, fragmentManager, callback, messageViewInfoExtractor)
+        return MessageLoaderHelper(
+            context,
+            loaderManager,
+            fragmentManager,
+            callback,
+            messageViewInfoExtractor,
+            messageViewInfoCache,
+        )
     }
 
     fun createForMessageCompose(
@@ -30,6 +38,8 @@ class MessageLoaderHelperFactory(
     ): MessageLoaderHelper {
         val htmlSettings = htmlSettingsProvider.createForMessageCompose()
         val messageViewInfoExtractor = messageViewInfoExtractorFactory.create(htmlSettings)
-        return MessageLoaderHelper(context, loaderManager, fragmentManager, callback, messageViewInfoExtractor)
+
+        // Prefetched messages were extracted with the settings for viewing them
+        return MessageLoaderHelper(context, loaderManager, fragmentManager, callback, messageViewInfoExtractor, null)
     }
 }
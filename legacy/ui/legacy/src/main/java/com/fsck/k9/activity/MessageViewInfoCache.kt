@@ -0,0 +1,69 @@
+package com.fsck.k9.activity
+
+import app.k9mail.legacy.message.controller.MessageReference
+import com.fsck.k9.mailstore.MessageViewInfo
+import kotlinx.datetime.Clock
+
+/**
+ * Holds [MessageViewInfo]s of messages that were decrypted ahead of time by [MessageViewInfoPrefetcher] until
+ * [MessageLoaderHelper] picks them up.
+ *
+ * The cache only keeps a few entries, and each entry is handed out at most once. Entries expire after
+ * [MAX_AGE_MILLIS]; they reference decrypted attachments stored in temporary files that
+ * [com.fsck.k9.provider.DecryptedFileProvider] deletes after a few minutes.
+ */
+class MessageViewInfoCache(
+    private val clock: Clock,
+    private val maxSize: Int = DEFAULT_MAX_SIZE,
+) {
+    private val entries = object : LinkedHashMap<MessageReference, Entry>(maxSize, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<MessageReference, Entry>): Boolean {
+            return size > maxSize
+        }
+    }
+
+    @Synchronized
+    fun put(messageReference: MessageReference, messageViewInfo: MessageViewInfo) {
+        entries[messageReference] = Entry(messageViewInfo, timestamp = now())
+    }
+
+    /**
+     * Removes the entry for [messageReference] from the cache and returns it, unless it has expired.
+     */
+    @Synchronized
+    fun take(messageReference: MessageReference): MessageViewInfo? {
+        val entry = entries.remove(messageReference) ?: return null
+        return entry.messageViewInfo.takeUnless { entry.isExpired() }
+    }
+
+    @Synchronized
+    operator fun contains(messageReference: MessageReference): Boolean {
+        val entry = entries[messageReference] ?: return false
+        if (entry.isExpired()) {
+            entries.remove(messageReference)
+            return false
+        }
+
+        return true
+    }
+
+    @Synchronized
+    fun clear() {
+        entries.clear()
+    }
+
+    private fun Entry.isExpired(): Boolean {
+        return now() - timestamp > MAX_AGE_MILLIS
+    }
+
+    private fun now(): Long = clock.now().toEpochMilliseconds()
+
+    private class Entry(val messageViewInfo: MessageViewInfo, val timestamp: Long)
+
+    companion object {
+        private const val DEFAULT_MAX_SIZE = 4
+
+        // Shorter than the lifetime of decrypted temporary files
+        const val MAX_AGE_MILLIS = 2 * 60 * 1000L
+    }
+}
@@ -0,0 +1,164 @@
+package com.fsck.k9.activity
+
+import android.content.Context
+import android.content.IntentSender
+import androidx.annotation.MainThread
+import app.k9mail.legacy.account.Account
+import app.k9mail.legacy.message.controller.MessageReference
+import com.fsck.k9.Preferences
+import com.fsck.k9.autocrypt.AutocryptOperations
+import com.fsck.k9.controller.MessagingController
+import com.fsck.k9.crypto.MessageCryptoStructureDetector
+import com.fsck.k9.mail.Flag
+import com.fsck.k9.mailstore.LocalMessage
+import com.fsck.k9.mailstore.MessageCryptoAnnotations
+import com.fsck.k9.mailstore.MessageViewInfoExtractor
+import com.fsck.k9.ui.crypto.MessageCryptoCallback
+import com.fsck.k9.ui.crypto.MessageCryptoHelper
+import com.fsck.k9.ui.crypto.OpenPgpApiFactory
+import kotlin.coroutines.resume
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.MainScope
+import kotlinx.coroutines.cancelChildren
+import kotlinx.coroutines.job
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.suspendCancellableCoroutine
+import kotlinx.coroutines.withContext
+import kotlinx.coroutines.withTimeoutOrNull
+import timber.log.Timber
+
+/**
+ * Decrypts the messages next to the one on screen in the background, so swiping to them doesn't wait for the PQC
+ * decapsulation and signature verification. Results are stored in [MessageViewInfoCache] where [MessageLoaderHelper]
+ * picks them up.
+ *
+ * Only fully downloaded messages whose encrypted parts are all hybrid PQC encrypted are prefetched. Messages that
+ * need the OpenPGP provider are left alone, since the provider may ask the user for interaction.
+ */
+class MessageViewInfoPrefetcher(
+    private val context: Context,
+    private val preferences: Preferences,
+    private val messagingController: MessagingController,
+    private val messageViewInfoExtractor: MessageViewInfoExtractor,
+    private val messageViewInfoCache: MessageViewInfoCache,
+    private val backgroundDispatcher: CoroutineDispatcher = Dispatchers.IO,
+) {
+    private val coroutineScope = MainScope()
+    private val prefetchJobs = mutableMapOf<MessageReference, Job>()
+
+    /**
+     * Prefetches [messageReferences] and cancels prefetches of all other messages that are still running.
+     */
+    @MainThread
+    fun prefetch(messageReferences: List<MessageReference>) {
+        val staleMessageReferences = prefetchJobs.keys - messageReferences.toSet()
+        for (messageReference in staleMessageReferences) {
+            prefetchJobs.remove(messageReference)?.cancel()
+        }
+
+        for (messageReference in messageReferences) {
+            if (messageReference in prefetchJobs || messageReference in messageViewInfoCache) continue
+
+            prefetchJobs[messageReference] = coroutineScope.launch {
+                try {
+                    prefetchMessage(messageReference)
+                } catch (e: CancellationException) {
+                    throw e
+                } catch (e: Exception) {
+                    Timber.w(e, "Error prefetching message %s", messageReference)
+                } finally {
+                    if (prefetchJobs[messageReference] == coroutineContext.job) {
+                        prefetchJobs.remove(messageReference)
+                    }
+                }
+            }
+        }
+    }
+
+    @MainThread
+    fun cancelAll() {
+        coroutineScope.coroutineContext.cancelChildren()
+        prefetchJobs.clear()
+    }
+
+    private suspend fun prefetchMessage(messageReference: MessageReference) {
+        val account = preferences.getAccount(messageReference.accountUuid) ?: return
+        if (!account.isPqcSigningEnabled && !account.isPqcKemEnabled) return
+
+        val message = withContext(backgroundDispatcher) {
+            messagingController.loadMessage(account, messageReference.folderId, messageReference.uid)
+                .takeIf { isPrefetchable(it) }
+        } ?: return
+
+        val annotations = withTimeoutOrNull(PREFETCH_TIMEOUT_MILLIS) {
+            processCrypto(account, message)
+        }
+        if (annotations == null) {
+            Timber.d("Crypto operations of prefetched message %s didn't complete", messageReference)
+            return
+        }
+
+        val messageViewInfo = withContext(backgroundDispatcher) {
+            messageViewInfoExtractor.extractMessageForView(message, annotations, account.isOpenPgpProviderConfigured)
+        }
+
+        messageViewInfoCache.put(messageReference, messageViewInfo)
+    }
+
+    private fun isPrefetchable(message: LocalMessage): Boolean {
+        if (!message.isSet(Flag.X_DOWNLOADED_FULL)) return false
+
+        val encryptedParts = MessageCryptoStructureDetector.findMultipartEncryptedParts(message)
+        return encryptedParts.isNotEmpty() &&
+            encryptedParts.all { MessageCryptoStructureDetector.isHybridPqcEncrypted(it) }
+    }
+
+    /**
+     * Returns `null` if the helper stopped early, because the message needs the OpenPGP provider or a PQC operation
+     * was dropped in favor of the visible message.
+     */
+    private suspend fun processCrypto(account: Account, message: LocalMessage): MessageCryptoAnnotations? {
+        val messageCryptoHelper = MessageCryptoHelper(
+            context,
+            OpenPgpApiFactory(),
+            AutocryptOperations.getInstance(),
+            null,
+            account,
+        )
+        messageCryptoHelper.setPrefetch(true)
+
+        return suspendCancellableCoroutine { continuation ->
+            continuation.invokeOnCancellation { messageCryptoHelper.cancelIfRunning() }
+
+            val callback = object : MessageCryptoCallback {
+                override fun onCryptoHelperProgress(current: Int, max: Int) = Unit
+
+                override fun onCryptoOperationsFinished(annotations: MessageCryptoAnnotations) {
+                    continuation.resume(annotations)
+                }
+
+                override fun onCryptoOperationsStopped() {
+                    continuation.resume(null)
+                }
+
+                override fun startPendingIntentForCryptoHelper(intentSender: IntentSender, requestCode: Int): Boolean {
+                    return false
+                }
+            }
+
+            messageCryptoHelper.asyncStartOrResumeProcessingMessage(
+                message,
+                callback,
+                null,
+                !account.isOpenPgpHideSignOnly,
+            )
+        }
+    }
+
+    companion object {
+        private const val PREFETCH_TIMEOUT_MILLIS = 90_000L
+    }
+}
@@ -144,6 +144,12 @@ class RecipientMvpView(private val activity: MessageCompose) : View.OnFocusChang
         bccView.setShowCryptoEnabled(isEnabled)
     }
 
+    fun setRecipientTokensShowPqcCryptoState(isPqcEnabled: Boolean) {
+        toView.setShowPqcCryptoState(isPqcEnabled)
+        ccView.setShowPqcCryptoState(isPqcEnabled)
+        bccView.setShowPqcCryptoState(isPqcEnabled)
+    }
+
     fun setCryptoProvider(openPgpProvider: String?) {
         toView.setCryptoProvider(openPgpProvider)
         ccView.setCryptoProvider(openPgpProvider)
@@ -30,6 +30,7 @@ import com.fsck.k9.message.ComposePgpEnableByDefaultDecider
 import com.fsck.k9.message.ComposePgpInlineDecider
 import com.fsck.k9.message.MessageBuilder
 import com.fsck.k9.message.PgpMessageBuilder
+import com.fsck.k9.pqcExtension.keyManagement.RemoteKeyCache
 import com.fsck.k9.pqcExtension.message.PqcMessagebuilder
 import com.fsck.k9.ui.R
 import com.fsck.k9.view.RecipientSelectView.Recipient
@@ -382,6 +383,8 @@ class RecipientPresenter(
         removeAlwaysBcc()
         addAlwaysBcc()
 
+        recipientMvpView.setRecipientTokensShowPqcCryptoState(account.isPqcKemEnabled)
+
         val openPgpProvider = account.openPgpProvider
         recipientMvpView.setCryptoProvider(openPgpProvider)
         openPgpApiManager.setOpenPgpProvider(openPgpProvider, openPgpCallback)
@@ -436,6 +439,10 @@ class RecipientPresenter(
     fun asyncUpdateCryptoStatus() {
         currentCachedCryptoStatus = null
 
+        if (account.isPqcKemEnabled) {
+            RemoteKeyCache.preload(context, allRecipients.map { it.address.address })
+        }
+
         val openPgpProviderState = openPgpApiManager.openPgpProviderState
         var accountCryptoKey: Long? = account.openPgpKey
         if (accountCryptoKey == Account.NO_OPENPGP_KEY) {
@@ -484,7 +491,9 @@ class RecipientPresenter(
     private fun redrawCachedCryptoStatusIcon() {
         val cryptoStatus = checkNotNull(currentCachedCryptoStatus) { "must have cached crypto status to redraw it!" }
 
-        recipientMvpView.setRecipientTokensShowCryptoEnabled(cryptoStatus.isEncryptionEnabled)
+        recipientMvpView.setRecipientTokensShowCryptoEnabled(
+            cryptoStatus.isEncryptionEnabled || cryptoStatus.isEncryptPqcHybrid,
+        )
         recipientMvpView.showCryptoStatus(cryptoStatus.displayType)
         recipientMvpView.showCryptoSpecialMode(cryptoStatus.specialModeDisplayType)
     }
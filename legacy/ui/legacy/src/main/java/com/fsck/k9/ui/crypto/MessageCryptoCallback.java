@@ -10,4 +10,10 @@ public interface MessageCryptoCallback {
     void onCryptoHelperProgress(int current, int max);
     void onCryptoOperationsFinished(MessageCryptoAnnotations annotations);
     boolean startPendingIntentForCryptoHelper(IntentSender intentSender, int requestCode);
+
+    /**
+     * Called instead of {@link #onCryptoOperationsFinished(MessageCryptoAnnotations)} when a helper in prefetch mode
+     * stops before all parts are processed. See {@link MessageCryptoHelper#setPrefetch(boolean)}.
+     */
+    void onCryptoOperationsStopped();
 }
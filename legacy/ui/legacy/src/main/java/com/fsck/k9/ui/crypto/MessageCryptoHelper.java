@@ -8,6 +8,9 @@ import java.io.OutputStream;
 import java.util.ArrayDeque;
 import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeoutException;
 
 import android.app.Activity;
 import android.app.PendingIntent;
@@ -23,6 +26,7 @@ import androidx.annotation.RequiresApi;
 import androidx.annotation.WorkerThread;
 import androidx.core.content.IntentCompat;
 import app.k9mail.legacy.account.Account;
+import app.k9mail.legacy.di.DI;
 import com.fsck.k9.autocrypt.AutocryptOperations;
 import com.fsck.k9.crypto.MessageCryptoStructureDetector;
 import com.fsck.k9.mail.Address;
@@ -41,9 +45,17 @@ import com.fsck.k9.mail.internet.SizeAware;
 import com.fsck.k9.mail.internet.TextBody;
 import com.fsck.k9.mailstore.CryptoResultAnnotation;
 import com.fsck.k9.mailstore.CryptoResultAnnotation.CryptoError;
+import com.fsck.k9.mailstore.LocalMessage;
+import com.fsck.k9.mailstore.LocalStore;
+import com.fsck.k9.mailstore.LocalStoreProvider;
 import com.fsck.k9.mailstore.MessageCryptoAnnotations;
 import com.fsck.k9.mailstore.MessageHelper;
 import com.fsck.k9.mailstore.MimePartStreamParser;
+import com.fsck.k9.mailstore.PqcCryptoResultRepository;
+import com.fsck.k9.mailstore.PqcVerificationResult;
+import com.fsck.k9.pqcExtension.helper.PqcCryptoExecutor;
+import com.fsck.k9.pqcExtension.helper.PqcCryptoExecutor.Priority;
+import com.fsck.k9.pqcExtension.helper.PqcCryptoResultCache;
 import com.fsck.k9.pqcExtension.helper.encryption.PqcDecryptionHelper;
 import com.fsck.k9.pqcExtension.helper.signature.PqcVerifierHelper;
 import com.fsck.k9.pqcExtension.message.results.PqcDecryptionResult;
@@ -92,8 +104,10 @@ public class MessageCryptoHelper {
     private Intent userInteractionResultIntent;
     private State state;
     private CancelableBackgroundOperation cancelableBackgroundOperation;
+    private PqcCryptoExecutor.Task<CryptoResultAnnotation> pqcCryptoTask;
     private boolean isCancelled;
     private boolean processSignedOnly;
+    private boolean isPrefetch;
     private Account account;
     private OpenPgpApi openPgpApi;
     private OpenPgpServiceConnection openPgpServiceConnection;
@@ -110,6 +124,15 @@ public class MessageCryptoHelper {
         this.account =account;
     }
 
+    /**
+     * Marks this helper as processing a message that isn't visible yet. Its PQC operations then yield to those of the
+     * visible message. Processing stops where the OpenPGP provider would be needed, or when a PQC operation is
+     * dropped or times out, and the callback is told through {@link MessageCryptoCallback#onCryptoOperationsStopped()}.
+     */
+    public void setPrefetch(boolean isPrefetch) {
+        this.isPrefetch = isPrefetch;
+    }
+
     public boolean isConfiguredForOpenPgpProvider(String openPgpProvider) {
         return this.openPgpProvider.equals(openPgpProvider);
     }
@@ -177,7 +200,7 @@ public class MessageCryptoHelper {
         for (Part part : signedParts) {
 
             // -- PQC Addition --
-            if (MessageCryptoStructureDetector.isMultipartSignedWithMultipleSignatures(part)) {
+            if (MessageCryptoStructureDetector.isPqcMultipartSigned(part)) {
                 CryptoPart cryptoPart = new CryptoPart(CryptoPartType.PQC_SIGNED, part);
                 partsToProcess.add(cryptoPart);
                 continue;
@@ -272,6 +295,13 @@ public class MessageCryptoHelper {
                 return;
             }
 
+            if (isPrefetch) {
+                // The provider might need user interaction
+                Timber.d("Message needs the OpenPGP provider, not prefetching it");
+                stopPrefetch();
+                return;
+            }
+
             connectToCryptoProviderService();
             return;
         }
@@ -422,6 +452,11 @@ public class MessageCryptoHelper {
         if (cancelableBackgroundOperation != null) {
             cancelableBackgroundOperation.cancelOperation();
         }
+        if (pqcCryptoTask != null) {
+            // A running operation can't be interrupted safely; its result is discarded
+            pqcCryptoTask.cancel(false);
+            pqcCryptoTask = null;
+        }
     }
 
     private OpenPgpDataSink<MimeBodyPart> getDataSinkForDecryptedInlineData() {
@@ -503,18 +538,26 @@ public class MessageCryptoHelper {
      */
     @RequiresApi(api = VERSION_CODES.TIRAMISU)
     private void callPqcVerify(Part part) {
-        try {
-            String senderEmail = currentMessage.getFrom()[0].getAddress();
-            CryptoResultAnnotation annotation = PqcVerifierHelper.verifyAll(context, part, senderEmail, account.getUuid(),null);
-            onCryptoOperationSuccess(annotation);
-        } catch (Exception e) {
+        Message message = currentMessage;
+        String senderEmail = message.getFrom()[0].getAddress();
+        String accountUuid = account.getUuid();
+        runPqcOperation(() -> {
+            PqcCryptoResultCache.CacheKey cacheKey = createPqcCacheKey(message, part, senderEmail);
+            CryptoResultAnnotation annotation = loadCachedPqcResult(cacheKey, part);
+            if (annotation == null) {
+                annotation = loadStoredPqcVerificationResult(message, part, senderEmail);
+            }
+            if (annotation == null) {
+                annotation = PqcVerifierHelper.verifyAll(context, part, senderEmail, accountUuid, null);
+                storePqcResult(cacheKey, annotation);
+            }
+            return annotation;
+        }, e -> {
             MimeBodyPart replacement = getMultipartSignedContentPartIfAvailable(part);
-            CryptoResultAnnotation annotation = CryptoResultAnnotation.createErrorAnnotation(CryptoError.PQC_SIGNATURE_ERROR, replacement);
-            onCryptoOperationSuccess(annotation);
-        }
+            return CryptoResultAnnotation.createErrorAnnotation(CryptoError.PQC_SIGNATURE_ERROR, replacement);
+        });
     }
 
-
     /**
      * Attempts to decrypt a PQC-encrypted message using the PQCDecryptionHelper.
      *
@@ -530,17 +573,124 @@ public class MessageCryptoHelper {
      */
     @RequiresApi(api = VERSION_CODES.TIRAMISU)
     private void callPqcDecryption(Part part) {
-        try {
-            String senderEmail = currentMessage.getFrom()[0].getAddress();
-
-            CryptoResultAnnotation annotation = PqcDecryptionHelper.decrypt(context, part, senderEmail, account.getUuid());
-            onCryptoOperationSuccess(annotation);
-        } catch (Exception e) {
+        Message message = currentMessage;
+        String senderEmail = message.getFrom()[0].getAddress();
+        String accountUuid = account.getUuid();
+        runPqcOperation(() -> {
+            PqcCryptoResultCache.CacheKey cacheKey = createPqcCacheKey(message, part, senderEmail);
+            CryptoResultAnnotation annotation = loadCachedPqcResult(cacheKey, part);
+            if (annotation == null) {
+                annotation = PqcDecryptionHelper.decrypt(context, part, senderEmail, accountUuid);
+                storePqcResult(cacheKey, annotation);
+            }
+            return annotation;
+        }, e -> {
             Timber.e(e, "Fehler bei PQC-Entschlüsselung");
-            // Fehlerannotation erstellen
-            CryptoResultAnnotation annotation = CryptoResultAnnotation.createErrorAnnotation(CryptoError.PQC_ENCRYPTED_ERROR, MessageHelper.createEmptyPart());
-            // Fehlerbehandlung durchführen
-            onCryptoOperationSuccess(annotation);
+            return CryptoResultAnnotation.createErrorAnnotation(CryptoError.PQC_ENCRYPTED_ERROR,
+                MessageHelper.createEmptyPart());
+        });
+    }
+
+    /**
+     * Runs a PQC operation on {@link PqcCryptoExecutor} and continues with its result on the main thread. On
+     * failure the error annotation created by {@code onError} is used instead. Nothing is delivered once
+     * {@link #cancelIfRunning()} was called.
+     */
+    private void runPqcOperation(Callable<CryptoResultAnnotation> operation,
+            PqcErrorAnnotationFactory onError) {
+        pqcCryptoTask = PqcCryptoExecutor.submit(isPrefetch ? Priority.PREFETCH : Priority.VISIBLE, operation,
+                new PqcCryptoExecutor.Callback<CryptoResultAnnotation>() {
+                    @Override
+                    public void onResult(CryptoResultAnnotation annotation) {
+                        pqcCryptoTask = null;
+                        onCryptoOperationSuccess(annotation);
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                        pqcCryptoTask = null;
+                        if (isPrefetch && (e instanceof CancellationException || e instanceof TimeoutException)) {
+                            // Not a result of the message; it's processed again once it's shown
+                            Timber.d(e, "PQC operation of prefetched message didn't run");
+                            stopPrefetch();
+                            return;
+                        }
+                        onCryptoOperationSuccess(onError.create(e));
+                    }
+                });
+    }
+
+    private void stopPrefetch() {
+        MessageCryptoCallback stoppedCallback;
+        synchronized (callbackLock) {
+            stoppedCallback = callback;
+        }
+        cancelIfRunning();
+        if (stoppedCallback != null) {
+            stoppedCallback.onCryptoOperationsStopped();
+        }
+    }
+
+    private interface PqcErrorAnnotationFactory {
+        CryptoResultAnnotation create(Exception e);
+    }
+
+    /**
+     * Results are only cached for messages stored in the local database, since the cache is keyed by message id.
+     */
+    @Nullable
+    private PqcCryptoResultCache.CacheKey createPqcCacheKey(Message message, Part part, String senderEmail) {
+        if (!(message instanceof LocalMessage)) {
+            return null;
+        }
+        long messageId = ((LocalMessage) message).getDatabaseId();
+        return PqcCryptoResultCache.createKey(context, messageId, part, senderEmail);
+    }
+
+    @Nullable
+    private CryptoResultAnnotation loadCachedPqcResult(@Nullable PqcCryptoResultCache.CacheKey cacheKey, Part part) {
+        PqcCryptoResultRepository repository = getPqcCryptoResultRepository();
+        if (cacheKey == null || repository == null) {
+            return null;
+        }
+        return PqcCryptoResultCache.load(context, repository, cacheKey, part);
+    }
+
+    private void storePqcResult(@Nullable PqcCryptoResultCache.CacheKey cacheKey, CryptoResultAnnotation annotation) {
+        PqcCryptoResultRepository repository = getPqcCryptoResultRepository();
+        if (cacheKey == null || repository == null) {
+            return;
+        }
+        PqcCryptoResultCache.store(repository, cacheKey, annotation);
+    }
+
+    /**
+     * Uses the result of the background verification if the message was verified during sync. Only the message
+     * itself is verified in the background, not signed parts inside it.
+     */
+    @Nullable
+    private CryptoResultAnnotation loadStoredPqcVerificationResult(Message message, Part part, String senderEmail)
+            throws MessagingException {
+        if (!(message instanceof LocalMessage) || part != message) {
+            return null;
+        }
+
+        LocalStore localStore = DI.get(LocalStoreProvider.class).getInstance(account);
+        PqcVerificationResult storedResult = localStore.getPqcVerificationResultRepository()
+                .getResult(((LocalMessage) message).getDatabaseId());
+        if (storedResult == null) {
+            return null;
+        }
+        return PqcVerifierHelper.createAnnotationForStoredResult(part, senderEmail, storedResult.getResult());
+    }
+
+    @Nullable
+    private PqcCryptoResultRepository getPqcCryptoResultRepository() {
+        try {
+            return DI.get(LocalStoreProvider.class).getInstance(account).getPqcCryptoResultRepository();
+        } catch (MessagingException e) {
+            Timber.w(e, "Unable to open local store for PQC result cache");
+            return null;
         }
     }
     // --- End PQC Integration ---
@@ -31,6 +31,7 @@ import com.fsck.k9.FontSizes
 import com.fsck.k9.UiDensity
 import com.fsck.k9.contacts.ContactPictureLoader
 import com.fsck.k9.mail.Address
+import com.fsck.k9.pqcExtension.message.results.PqcSignatureResult
 import com.fsck.k9.ui.R
 import com.fsck.k9.ui.helper.RelativeDateTimeFormatter
 import com.fsck.k9.ui.resolveColorAttribute
@@ -433,6 +434,7 @@ class MessageListAdapter internal constructor(
             holder.date.setTextColor(textColor)
             holder.date.text = displayDate
             holder.attachment.isVisible = hasAttachments
+            bindPqcSignature(holder.pqcSignature, pqcSignatureResult)
 
             val statusHolder = buildStatusHolder(isForwarded, isAnswered)
             if (statusHolder != null) {
@@ -488,6 +490,24 @@ class MessageListAdapter internal constructor(
         }
     }
 
+    private fun bindPqcSignature(view: ImageView, pqcSignatureResult: Int?) {
+        when (pqcSignatureResult) {
+            PqcSignatureResult.RESULT_VALID_KEY_CONFIRMED -> {
+                view.setImageResource(Icons.Outlined.CheckCircle)
+                view.contentDescription = res.getString(R.string.pqc_message_list_signature_valid)
+                view.isVisible = true
+            }
+            PqcSignatureResult.RESULT_INVALID_SIGNATURE -> {
+                view.setImageResource(Icons.Outlined.Error)
+                view.contentDescription = res.getString(R.string.pqc_message_list_signature_invalid)
+                view.isVisible = true
+            }
+            else -> {
+                view.isVisible = false
+            }
+        }
+    }
+
     private fun buildStatusHolder(forwarded: Boolean, answered: Boolean): Drawable? {
         if (forwarded && answered) {
             return forwardedAnsweredIcon
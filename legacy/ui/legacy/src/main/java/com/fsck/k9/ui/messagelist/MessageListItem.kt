@@ -24,6 +24,8 @@ data class MessageListItem(
     val messageUid: String,
     val databaseId: Long,
     val threadRoot: Long,
+    /** Stored result of the background PQC signature verification, one of the `PqcSignatureResult.RESULT_*` codes */
+    val pqcSignatureResult: Int? = null,
 ) {
     val messageReference: MessageReference
         get() = MessageReference(account.uuid, folderId, messageUid)
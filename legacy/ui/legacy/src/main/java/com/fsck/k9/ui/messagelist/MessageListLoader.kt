@@ -50,7 +50,7 @@ class MessageListLoader(
         val sortOrder = buildSortOrder(config)
         val mapper = MessageListItemMapper(messageHelper, account)
 
-        return when {
+        val messageListItems = when {
             threadId != null -> {
                 messageListRepository.getThread(accountUuid, threadId, sortOrder, mapper)
             }
@@ -63,6 +63,25 @@ class MessageListLoader(
                 messageListRepository.getMessages(accountUuid, selection, selectionArgs, sortOrder, mapper)
             }
         }
+
+        return if (account.isPqcSigningEnabled) {
+            messageListItems.withPqcSignatureResults(account)
+        } else {
+            messageListItems
+        }
+    }
+
+    private fun List<MessageListItem>.withPqcSignatureResults(account: Account): List<MessageListItem> {
+        if (isEmpty()) return this
+
+        val repository = localStoreProvider.getInstance(account).pqcVerificationResultRepository
+        val results = repository.getResults(map { it.databaseId })
+        if (results.isEmpty()) return this
+
+        return map { item ->
+            val result = results[item.databaseId] ?: return@map item
+            item.copy(pqcSignatureResult = result.result)
+        }
     }
 
     private fun buildSelection(account: Account, config: MessageListConfig): Pair<String, Array<String>> {
@@ -20,6 +20,7 @@ class MessageViewHolder(view: View) : MessageListViewHolder(view) {
     val threadCount: MaterialTextView = view.findViewById(R.id.thread_count)
     val star: ImageView = view.findViewById(R.id.star)
     val starClickArea: View = view.findViewById(R.id.star_click_area)
+    val pqcSignature: ImageView = view.findViewById(R.id.pqc_signature)
     val attachment: ImageView = view.findViewById(R.id.attachment)
     val status: ImageView = view.findViewById(R.id.status)
 }
@@ -11,10 +11,12 @@ import androidx.viewpager2.adapter.FragmentStateAdapter
 import androidx.viewpager2.widget.MarginPageTransformer
 import androidx.viewpager2.widget.ViewPager2
 import app.k9mail.legacy.message.controller.MessageReference
+import com.fsck.k9.activity.MessageViewInfoPrefetcher
 import com.fsck.k9.ui.R
 import com.fsck.k9.ui.base.extensions.withArguments
 import com.fsck.k9.ui.messagelist.MessageListItem
 import com.fsck.k9.ui.messagelist.MessageListViewModel
+import org.koin.android.ext.android.inject
 
 /**
  * A fragment that uses [ViewPager2] to allow the user to swipe between messages.
@@ -39,6 +41,8 @@ class MessageViewContainerFragment : Fragment() {
     private lateinit var viewPager: ViewPager2
     private lateinit var adapter: MessageViewContainerAdapter
 
+    private val messageViewInfoPrefetcher: MessageViewInfoPrefetcher by inject()
+
     private val messageViewFragment: MessageViewFragment
         get() {
             check(isResumed)
@@ -112,6 +116,11 @@ class MessageViewContainerFragment : Fragment() {
         return view
     }
 
+    override fun onDestroy() {
+        messageViewInfoPrefetcher.cancelAll()
+        super.onDestroy()
+    }
+
     override fun onSaveInstanceState(outState: Bundle) {
         super.onSaveInstanceState(outState)
         outState.putString(STATE_MESSAGE_REFERENCE, messageReference.toIdentityString())
@@ -159,6 +168,17 @@ class MessageViewContainerFragment : Fragment() {
         messageReference = newMessageReference
         activeMessageReference = newMessageReference
         fragmentListener.setActiveMessage(newMessageReference)
+
+        prefetchAdjacentMessages(position)
+    }
+
+    // ViewPager2 doesn't create offscreen pages, so decrypt the messages the user is likely to swipe to next
+    private fun prefetchAdjacentMessages(position: Int) {
+        val adjacentMessageReferences = listOfNotNull(
+            adapter.getMessageReference(position + 1),
+            adapter.getMessageReference(position - 1),
+        )
+        messageViewInfoPrefetcher.prefetch(adjacentMessageReferences)
     }
 
     fun showPreviousMessage(): Boolean {
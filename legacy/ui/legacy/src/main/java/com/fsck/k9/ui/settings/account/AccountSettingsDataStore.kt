@@ -10,6 +10,7 @@ import com.fsck.k9.controller.MessagingController
 import com.fsck.k9.job.K9JobManager
 import com.fsck.k9.notification.NotificationChannelManager
 import com.fsck.k9.notification.NotificationController
+import com.fsck.k9.pqcExtension.keyManagement.service.KeyGenerationService
 import java.util.concurrent.ExecutorService
 
 class AccountSettingsDataStore(
@@ -49,6 +50,8 @@ class AccountSettingsDataStore(
             "pqc_enabled" -> account.isPqcSigningEnabled
             "pqc_kem_enabled" -> account.isPqcKemEnabled
             "pqc_hide_sign_only" -> account.isPqcHideSignOnly
+            "pqc_composite_signature" -> account.isPqcCompositeSignatureEnabled
+            "pqc_auto_select_algorithm" -> account.isPqcAutoSelectAlgorithm
             // --- End PQC Integration ---
             else -> defValue
         }
@@ -78,8 +81,13 @@ class AccountSettingsDataStore(
 
             // --- PQC Integration ---
             "pqc_enabled" -> account.isPqcSigningEnabled = value
-            "pqc_kem_enabled" -> account.isPqcKemEnabled = value
+            "pqc_kem_enabled" -> {
+                account.isPqcKemEnabled = value
+                KeyGenerationService.updateKemPoolSize()
+            }
             "pqc_hide_sign_only" -> account.isPqcHideSignOnly = value
+            "pqc_composite_signature" -> account.isPqcCompositeSignatureEnabled = value
+            "pqc_auto_select_algorithm" -> account.isPqcAutoSelectAlgorithm = value
             // --- End PQC Integration ---
             else -> return
         }
@@ -149,6 +157,9 @@ class AccountSettingsDataStore(
             // --- PQC Integration ---
             "pqc_signing_algorithm" -> account.pqcSigningAlgorithm
             "pqc_kem_algorithm" -> account.pqcKemAlgorithm
+            "pqc_classical_kem_algorithm" -> account.pqcClassicalKemAlgorithm ?: defValue
+            "pqc_minimum_nist_level" -> account.pqcMinimumNistLevel.toString()
+            "pqc_kem_pool_size" -> account.pqcKemPoolSize.toString()
             // --- End PQC Integration ---
             else -> defValue
         }
@@ -188,6 +199,12 @@ class AccountSettingsDataStore(
             // --- PQC Integration ---
             "pqc_signing_algorithm" -> account.pqcSigningAlgorithm = value
             "pqc_kem_algorithm" -> account.pqcKemAlgorithm = value
+            "pqc_classical_kem_algorithm" -> account.pqcClassicalKemAlgorithm = value
+            "pqc_minimum_nist_level" -> account.pqcMinimumNistLevel = value.toInt()
+            "pqc_kem_pool_size" -> {
+                account.pqcKemPoolSize = value.toInt()
+                KeyGenerationService.updateKemPoolSize()
+            }
             // --- End PQC Integration ---
             else -> return
         }
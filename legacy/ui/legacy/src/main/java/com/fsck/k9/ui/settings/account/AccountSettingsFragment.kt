@@ -14,6 +14,7 @@ import android.widget.EditText
 import android.widget.LinearLayout
 import android.widget.Toast
 import androidx.core.net.toUri
+import androidx.lifecycle.lifecycleScope
 import androidx.preference.ListPreference
 import androidx.preference.Preference
 import androidx.preference.PreferenceCategory
@@ -34,7 +35,10 @@ import com.fsck.k9.fragment.ConfirmationDialogFragment.ConfirmationDialogFragmen
 import com.fsck.k9.notification.NotificationChannelManager
 import com.fsck.k9.notification.NotificationChannelManager.ChannelType
 import com.fsck.k9.notification.NotificationSettingsUpdater
+import com.fsck.k9.pqcExtension.calibration.PqcAlgorithmCalibrator
+import com.fsck.k9.pqcExtension.calibration.PqcAlgorithmProfile
 import com.fsck.k9.pqcExtension.keyManagement.SimpleKeyStoreFactory
+import com.fsck.k9.pqcExtension.keyManagement.service.KeyGenerationService
 import com.fsck.k9.pqcExtension.keyManagement.service.SimpleKeyService
 import com.fsck.k9.ui.R
 import com.fsck.k9.ui.base.extensions.withArguments
@@ -58,6 +62,7 @@ import org.koin.core.parameter.parametersOf
 import org.openintents.openpgp.OpenPgpApiManager
 import org.openintents.openpgp.util.OpenPgpKeyPreference
 import org.openintents.openpgp.util.OpenPgpProviderUtil
+import java.util.concurrent.ExecutionException
 import com.fsck.k9.ui.base.R as BaseR
 
 class AccountSettingsFragment : PreferenceFragmentCompat(), ConfirmationDialogFragmentListener {
@@ -106,6 +111,7 @@ class AccountSettingsFragment : PreferenceFragmentCompat(), ConfirmationDialogFr
         initializeNotifications(account)
 
         //--- PQC Addition ---
+        initializePqcAlgorithmSelection()
         initializePqcSigningKeyManagement()
         initializePqcKemKeyManagement()
         initializeInternalKeyDeletion()
@@ -508,6 +514,76 @@ class AccountSettingsFragment : PreferenceFragmentCompat(), ConfirmationDialogFr
 
     //--- PQC Integration  ---
 
+    /**
+     * Initializes automatic algorithm selection.
+     *
+     * - Turning it on, or changing the minimum level while it is on, selects the algorithms recommended by the
+     *   on-device calibration for the enabled PQC features.
+     * - The algorithms are set through the algorithm preferences, so replacing an existing key pair asks first.
+     */
+    private fun initializePqcAlgorithmSelection() {
+        val autoSelectPref = findPreference<SwitchPreference>("pqc_auto_select_algorithm") ?: return
+        val minimumLevelPref = findPreference<ListPreference>("pqc_minimum_nist_level") ?: return
+
+        autoSelectPref.setOnPreferenceChangeListener { _, newValue ->
+            if (newValue as Boolean) {
+                selectRecommendedAlgorithms(minimumLevelPref.value.toInt())
+            }
+            true
+        }
+
+        minimumLevelPref.setOnPreferenceChangeListener { _, newValue ->
+            if (autoSelectPref.isChecked) {
+                selectRecommendedAlgorithms((newValue as String).toInt())
+            }
+            true
+        }
+    }
+
+    private fun selectRecommendedAlgorithms(minimumNistLevel: Int) {
+        val context = requireContext().applicationContext
+        lifecycleScope.launch {
+            val recommendations = withContext(Dispatchers.IO) {
+                if (PqcAlgorithmCalibrator.getProfiles(context).isEmpty()) {
+                    null
+                } else {
+                    val signingAlgorithm = PqcAlgorithmCalibrator.recommendAlgorithm(
+                        context,
+                        PqcAlgorithmProfile.Type.SIGNATURE,
+                        minimumNistLevel,
+                    )
+                    val kemAlgorithm = PqcAlgorithmCalibrator.recommendAlgorithm(
+                        context,
+                        PqcAlgorithmProfile.Type.KEM,
+                        minimumNistLevel,
+                    )
+                    signingAlgorithm to kemAlgorithm
+                }
+            }
+
+            if (recommendations == null) {
+                Snackbar.make(requireView(), R.string._pqc_auto_select_pending, Snackbar.LENGTH_LONG).show()
+                return@launch
+            }
+
+            val (signingAlgorithm, kemAlgorithm) = recommendations
+            if (signingAlgorithm == null || kemAlgorithm == null) {
+                Snackbar.make(requireView(), R.string._pqc_auto_select_none, Snackbar.LENGTH_LONG).show()
+            }
+            selectAlgorithm("pqc_signing_algorithm", signingAlgorithm)
+            selectAlgorithm("pqc_kem_algorithm", kemAlgorithm)
+        }
+    }
+
+    private fun selectAlgorithm(key: String, algorithm: String?) {
+        val algorithmPref = findPreference<ListPreference>(key) ?: return
+        if (algorithm == null || !algorithmPref.isEnabled || algorithm == algorithmPref.value) return
+
+        if (algorithmPref.callChangeListener(algorithm)) {
+            algorithmPref.value = algorithm
+        }
+    }
+
     /**
      * Initializes PQC signing key management UI and logic.
      *
@@ -535,17 +611,9 @@ class AccountSettingsFragment : PreferenceFragmentCompat(), ConfirmationDialogFr
 
         isPqcEnabledPref?.setOnPreferenceChangeListener { _, newValue ->
             val enabled = newValue as Boolean
-            if (enabled) {
-                try {
-                    SimpleKeyService.ensurePgpKeypairExists(requireContext(), account.uuid, "Ed25519")
-                } catch (e: Exception) {
-                    Snackbar.make(requireView(), "Fehler bei PGP Key-Setup: ${e.message}", Snackbar.LENGTH_LONG).show()
-                }
-            }
-
             updateKeyManagementState(enabled)
             if (enabled) {
-                Snackbar.make(requireView(), "PQC Signing aktiviert ✅", Snackbar.LENGTH_SHORT).show()
+                ensurePgpKeyPairAndConfirm(account, "PQC Signing aktiviert ✅")
             }
             true
         }
@@ -620,17 +688,9 @@ class AccountSettingsFragment : PreferenceFragmentCompat(), ConfirmationDialogFr
 
         isPqcKemEnabledPref?.setOnPreferenceChangeListener { _, newValue ->
             val enabled = newValue as Boolean
-            if (enabled) {
-                try {
-                    SimpleKeyService.ensurePgpKeypairExists(context,account.uuid,"Ed25519")
-                } catch (e: Exception) {
-                    Snackbar.make(requireView(), "Fehler bei PGP Key-Setup: ${e.message}", Snackbar.LENGTH_LONG).show()
-                }
-            }
-
             updateKemKeyManagementState(enabled)
             if (enabled) {
-                Snackbar.make(requireView(), "PQC KEM aktiviert ✅", Snackbar.LENGTH_SHORT).show()
+                ensurePgpKeyPairAndConfirm(account, "PQC KEM aktiviert ✅")
             }
             true
         }
@@ -770,6 +830,30 @@ class AccountSettingsFragment : PreferenceFragmentCompat(), ConfirmationDialogFr
         }
     }
 
+    /**
+     * Makes sure the account has a PGP key pair and shows [successMessage] once it exists.
+     */
+    private fun ensurePgpKeyPairAndConfirm(account: Account, successMessage: String) {
+        // Generating the PGP key pair can take seconds, so the confirmation waits for it in the background
+        val generation = SimpleKeyService.ensurePgpKeypairExists(requireContext(), account.uuid, "Ed25519")
+        CoroutineScope(Dispatchers.IO).launch {
+            val error = try {
+                generation.get()
+                null
+            } catch (e: ExecutionException) {
+                e.cause ?: e
+            }
+            withContext(Dispatchers.Main) {
+                if (view == null) return@withContext
+                if (error == null) {
+                    Snackbar.make(requireView(), successMessage, Snackbar.LENGTH_SHORT).show()
+                } else {
+                    Snackbar.make(requireView(), "Fehler bei PGP Key-Setup: ${error.message}", Snackbar.LENGTH_LONG).show()
+                }
+            }
+        }
+    }
+
     /**
      * Adds an option to manually generate a local PGP key pair.
      *
@@ -791,11 +875,25 @@ class AccountSettingsFragment : PreferenceFragmentCompat(), ConfirmationDialogFr
                     return@onClick
                 }
 
-                SimpleKeyStoreFactory
-                    .getKeyStore(SimpleKeyStoreFactory.KeyType.PGP)
-                    .generateKeyPair(requireContext(), account.uuid, "RSA")
-                initializePqcSendKeys()
-                Snackbar.make(requireView(), getString(R.string._pqc_generate_pgp_success), Snackbar.LENGTH_SHORT).show()
+                // RSA-4096 generation takes seconds, so it runs on the key generation thread
+                val generation = KeyGenerationService.ensurePgpKeyPair(requireContext(), account.uuid, null)
+                CoroutineScope(Dispatchers.IO).launch {
+                    val error = try {
+                        generation.get()
+                        null
+                    } catch (e: ExecutionException) {
+                        e.cause ?: e
+                    }
+                    withContext(Dispatchers.Main) {
+                        if (view == null) return@withContext
+                        if (error == null) {
+                            initializePqcSendKeys()
+                            Snackbar.make(requireView(), getString(R.string._pqc_generate_pgp_success), Snackbar.LENGTH_SHORT).show()
+                        } else {
+                            Snackbar.make(requireView(), getString(R.string._pqc_generate_pgp_error, error.message ?: "unknown"), Snackbar.LENGTH_LONG).show()
+                        }
+                    }
+                }
             } catch (e: Exception) {
                 Snackbar.make(requireView(), getString(R.string._pqc_generate_pgp_error, e.message ?: "unknown"), Snackbar.LENGTH_LONG).show()
             }
@@ -21,7 +21,6 @@ import kotlinx.coroutines.CoroutineDispatcher
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
-import com.fsck.k9.Preferences
 
 class AccountSettingsViewModel(
     private val accountManager: AccountManager,
@@ -104,7 +103,6 @@ class AccountSettingsViewModel(
         viewModelScope.launch(Dispatchers.IO) {
             try {
                 val sigStore = SimpleKeyStoreFactory.getKeyStore(SimpleKeyStoreFactory.KeyType.PQC_SIG)
-                val kemStore = SimpleKeyStoreFactory.getKeyStore(SimpleKeyStoreFactory.KeyType.PQC_KEM)
                 val pgpStore = SimpleKeyStoreFactory.getKeyStore(SimpleKeyStoreFactory.KeyType.PGP)
 
                 val id = account.uuid
@@ -112,26 +110,13 @@ class AccountSettingsViewModel(
                 if (!sigStore.hasOwnKeyPair(context, id)) return@launch
                 if (!pgpStore.hasOwnKeyPair(context, id)) return@launch
 
-                val pgpKey = pgpStore.exportPublicKey(context, id) ?: return@launch
-                val sigKey = sigStore.exportPublicKey(context, id)
-                val kemKey = if (kemStore.hasOwnKeyPair(context, id)) kemStore.exportPublicKey(context, id) else null
-
-                KeyDistributor.createAndSendKeyDistributionMessage(
+                KeyDistributor.distributeKeys(
                     context,
                     DI.get(MessagingController::class.java),
-                    DI.get(Preferences::class.java),
                     DI.get(Contacts::class.java),
                     account,
                     recipients,
-                    kemKey,
-                    sigKey,
-                    account.pqcKemAlgorithm,
-                    account.pqcSigningAlgorithm,
-                    pgpKey,
-                    null,
-                    "My public keys",
                     null,
-                    null
                 )
             } catch (e: Exception) {
                 e.printStackTrace()
@@ -79,6 +79,11 @@ class PqcKemKeyManagementFragment : Fragment(), ConfirmationDialogFragmentListen
                 .withEndAction { if (!isLoading) overlay.visibility = View.GONE }
         }
 
+        val progressText = view.findViewById<TextView>(R.id.progressText)
+        viewModel.generationProgress.observe(viewLifecycleOwner) { (completedSteps, totalSteps) ->
+            progressText.text = "Generating keys ($completedSteps/$totalSteps)"
+        }
+
         viewModel.errorMessage.observe(viewLifecycleOwner) { event ->
             event.getContentIfNotHandled()?.let { showErrorDialog(it) }
         }
@@ -9,11 +9,13 @@ import app.k9mail.legacy.account.Account
 import app.k9mail.legacy.account.AccountManager
 import com.fsck.k9.Preferences
 import com.fsck.k9.pqcExtension.keyManagement.SimpleKeyStoreFactory
+import com.fsck.k9.pqcExtension.keyManagement.service.KeyGenerationService
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import org.json.JSONObject
 import java.io.InputStream
+import java.util.concurrent.ExecutionException
 
 /**
  * ViewModel for managing PQC KEM (Key Encapsulation Mechanism) key operations in the account settings UI.
@@ -37,6 +39,21 @@ class PqcKemKeyManagementViewModel(
     private val _errorMessage = MutableLiveData<Event<String>>()
     val errorMessage: LiveData<Event<String>> = _errorMessage
 
+    // Progress of a running key generation, as completed and total steps
+    private val _generationProgress = MutableLiveData<Pair<Int, Int>>()
+    val generationProgress: LiveData<Pair<Int, Int>> = _generationProgress
+
+    private val generationCallback = object : KeyGenerationService.Callback {
+        override fun onProgress(completedSteps: Int, totalSteps: Int) {
+            _generationProgress.postValue(completedSteps to totalSteps)
+        }
+
+        override fun onComplete() = Unit
+
+        // Errors are reported when the generation's Future fails
+        override fun onError(e: Exception) = Unit
+    }
+
     // Live list of all available accounts (used for dropdowns, etc.)
     val accounts = accountManager.getAccountsFlow().asLiveData()
 
@@ -57,15 +74,18 @@ class PqcKemKeyManagementViewModel(
         viewModelScope.launch {
             _isLoading.value = true
             try {
+                val generation = KeyGenerationService.generateKeyPairs(
+                    context,
+                    accountUuid,
+                    SimpleKeyStoreFactory.KeyType.PQC_KEM,
+                    algorithm,
+                    generationCallback,
+                )
                 withContext(Dispatchers.IO) {
-                    val pgpStore = SimpleKeyStoreFactory.getKeyStore(SimpleKeyStoreFactory.KeyType.PGP)
-                    if (!pgpStore.hasOwnKeyPair(context, accountUuid)) {
-                        pgpStore.generateKeyPair(context, accountUuid, "pgp")
-                    }
-
-                    SimpleKeyStoreFactory.getKeyStore(SimpleKeyStoreFactory.KeyType.PQC_KEM)
-                        .generateKeyPair(context, accountUuid, algorithm)
+                    generation.get()
                 }
+            } catch (e: ExecutionException) {
+                _errorMessage.postValue(Event("Error while generating: ${e.cause?.message}"))
             } catch (e: Exception) {
                 e.printStackTrace()
                 _errorMessage.postValue(Event("Error while generating: ${e.message}"))
@@ -9,11 +9,13 @@ import app.k9mail.legacy.account.Account
 import app.k9mail.legacy.account.AccountManager
 import com.fsck.k9.Preferences
 import com.fsck.k9.pqcExtension.keyManagement.SimpleKeyStoreFactory
+import com.fsck.k9.pqcExtension.keyManagement.service.KeyGenerationService
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import org.json.JSONObject
 import java.io.InputStream
+import java.util.concurrent.ExecutionException
 
 /**
  * ViewModel for managing PQC signature (PQC-SIG) keys.
@@ -37,6 +39,21 @@ class PqcSigningKeyManagementViewModel(
     private val _errorMessage = MutableLiveData<Event<String>>()
     val errorMessage: LiveData<Event<String>> = _errorMessage
 
+    // Progress of a running key generation, as completed and total steps
+    private val _generationProgress = MutableLiveData<Pair<Int, Int>>()
+    val generationProgress: LiveData<Pair<Int, Int>> = _generationProgress
+
+    private val generationCallback = object : KeyGenerationService.Callback {
+        override fun onProgress(completedSteps: Int, totalSteps: Int) {
+            _generationProgress.postValue(completedSteps to totalSteps)
+        }
+
+        override fun onComplete() = Unit
+
+        // Errors are reported when the generation's Future fails
+        override fun onError(e: Exception) = Unit
+    }
+
     // Live list of all accounts for dropdowns or selection
     val accounts = accountManager.getAccountsFlow().asLiveData()
 
@@ -63,15 +80,18 @@ class PqcSigningKeyManagementViewModel(
         viewModelScope.launch {
             _isLoading.value = true
             try {
+                val generation = KeyGenerationService.generateKeyPairs(
+                    context,
+                    accountUuid,
+                    SimpleKeyStoreFactory.KeyType.PQC_SIG,
+                    algorithm,
+                    generationCallback,
+                )
                 withContext(Dispatchers.IO) {
-                    val pgpStore = SimpleKeyStoreFactory.getKeyStore(SimpleKeyStoreFactory.KeyType.PGP)
-                    if (!pgpStore.hasOwnKeyPair(context, accountUuid)) {
-                        pgpStore.generateKeyPair(context, accountUuid, "pgp")
-                    }
-
-                    SimpleKeyStoreFactory.getKeyStore(SimpleKeyStoreFactory.KeyType.PQC_SIG)
-                        .generateKeyPair(context, accountUuid, algorithm)
+                    generation.get()
                 }
+            } catch (e: ExecutionException) {
+                _errorMessage.postValue(Event("Error while generating: ${e.cause?.message}"))
             } catch (e: Exception) {
                 e.printStackTrace()
                 _errorMessage.postValue(Event("Error while generating: ${e.message}"))
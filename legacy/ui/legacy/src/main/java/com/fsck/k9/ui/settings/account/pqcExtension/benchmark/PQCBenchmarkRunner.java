@@ -9,12 +9,17 @@ import android.os.Environment;
 import android.provider.MediaStore;
 import android.util.Log;
 
+import com.fsck.k9.pqcExtension.calibration.PqcMicroBenchmark;
+import com.fsck.k9.pqcExtension.calibration.PqcMicroBenchmark.KemSample;
+import com.fsck.k9.pqcExtension.calibration.PqcMicroBenchmark.SignatureSample;
+
 import javax.crypto.Cipher;
 import org.openquantumsafe.*;
 
 import org.openquantumsafe.Signature;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.*;
 import java.security.interfaces.RSAPrivateKey;
@@ -78,41 +83,22 @@ public class PQCBenchmarkRunner {
             "Ver_ns", "PubKey_bytes", "PrivKey_bytes", "Valid"
         });
 
-        Set<String> blacklist = new HashSet<>(Arrays.asList("cross-rsdp-256-small"));
         for (String alg : algorithms) {
-            if (blacklist.contains(alg)) continue;
+            if (PqcMicroBenchmark.SIGNATURE_BLACKLIST.contains(alg)) continue;
             Signature signer = new Signature(alg);
 
             for (int i = 0; i < ITERATIONS; i++) {
-                long t0 = System.nanoTime();
-                signer.generate_keypair();
-                long t1 = System.nanoTime();
-
-                byte[] pub = signer.export_public_key();
-                byte[] priv = signer.export_secret_key();
-                int pubSz = pub.length;
-                int privSz = priv.length;
-
-                long t2 = System.nanoTime();
-                final byte[][] sig = new byte[1][];
-                sig[0] = signer.sign(SAMPLE_MESSAGE);
-                long t3 = System.nanoTime();
-                int sigSz = sig[0].length;
-
-                long t4 = System.nanoTime();
-                final boolean[] valid = new boolean[1];
-                valid[0] = signer.verify(SAMPLE_MESSAGE, sig[0], pub);
-                long t5 = System.nanoTime();
+                SignatureSample sample = PqcMicroBenchmark.measureSignature(signer, SAMPLE_MESSAGE);
 
                 writer.append(String.format(Locale.US,
                     "%s,%d,%d,%d,%d,%d,%d,%d,%b\n",
                     alg, i,
-                    t1 - t0,
-                    t3 - t2,
-                    sigSz,
-                    t5 - t4,
-                    pubSz, privSz,
-                    valid[0]
+                    sample.keyGenNanos,
+                    sample.signNanos,
+                    sample.signatureBytes,
+                    sample.verifyNanos,
+                    sample.publicKeyBytes, sample.secretKeyBytes,
+                    sample.valid
                 ));
             }
             signer.dispose_sig();
@@ -144,29 +130,34 @@ public class PQCBenchmarkRunner {
             "Algorithm", "PayloadBytes", "Iter", "Sign_ns","Verifying_ns", "Valid"
         });
 
-        Set<String> blacklist = new HashSet<>(Arrays.asList("cross-rsdp-256-small"));
-
         // === PQC Signaturalgorithmen
+        // One message of the largest size; smaller sizes use its beginning
+        ByteBuffer randomMessage = randomDirectBuffer(messageSizes[messageSizes.length - 1]);
         List<String> pqcAlgs = Sigs.get_supported_sigs();
         for (String alg : pqcAlgs) {
-            if (blacklist.contains(alg)) continue;
+            if (PqcMicroBenchmark.SIGNATURE_BLACKLIST.contains(alg)) continue;
 
             Signature signer = new Signature(alg);
 
             signer.generate_keypair();
-            byte[] pub = signer.export_public_key();
+            // Direct buffers are passed to liboqs in place, so large messages are not copied on every call
+            ByteBuffer pub = toDirectBuffer(signer.export_public_key());
+            ByteBuffer priv = toDirectBuffer(signer.export_secret_key());
+            ByteBuffer sigBuffer = ByteBuffer.allocateDirect(signer.get_max_length_signature());
 
             for (int size : messageSizes) {
-                byte[] message = new byte[size];
-                new SecureRandom().nextBytes(message);
+                ByteBuffer message = randomMessage.duplicate();
+                message.limit(size);
 
                 for (int i = 0; i < ITERATIONS; i++) {
+                    sigBuffer.clear();
                     long t1 = System.nanoTime();
-                    byte[] sig = signer.sign(message);
+                    signer.sign_with_key(message, priv, sigBuffer);
                     long t2 = System.nanoTime();
+                    sigBuffer.flip();
 
                     long verT0 = System.nanoTime();
-                    boolean valid = signer.verify(message, sig, pub);
+                    boolean valid = signer.verify(message, sigBuffer, pub);
                     long verT1 = System.nanoTime();
                     writer.append(String.format(Locale.US,
                         "%s,%d,%d,%d,%d,%b\n",
@@ -384,51 +375,22 @@ public class PQCBenchmarkRunner {
             "Dec_ns", "PubKey_bytes", "PrivKey_bytes", "Match"
         });
 
-        Set<String> blacklist = new HashSet<>(Arrays.asList(
-            "Classic-McEliece-6688128", "Classic-McEliece-6688128f",
-            "Classic-McEliece-6960119", "Classic-McEliece-6960119f",
-            "Classic-McEliece-8192128", "Classic-McEliece-8192128f"
-        ));
-
         for (String alg : algorithms) {
-            if (blacklist.contains(alg)) continue;
+            if (PqcMicroBenchmark.KEM_BLACKLIST.contains(alg)) continue;
             KeyEncapsulation kem = new KeyEncapsulation(alg);
 
-
             for (int i = 0; i < ITERATIONS; i++) {
-                long t0 = System.nanoTime();
-                kem.generate_keypair();
-                long t1 = System.nanoTime();
-
-                byte[] pub = kem.export_public_key();
-                byte[] priv = kem.export_secret_key();
-                int pubSize = pub.length;
-                int privSize = priv.length;
-
-                long t2 = System.nanoTime();
-                Pair<byte[], byte[]> pair = kem.encap_secret(pub);
-                long t3 = System.nanoTime();
-
-                byte[] ct = pair.getLeft();
-                byte[] ssEnc = pair.getRight();
-                int ctSz = ct.length;
-                int ssSz = ssEnc.length;
-
-                long t4 = System.nanoTime();
-                byte[] ssDec = kem.decap_secret(ct);
-                long t5 = System.nanoTime();
-
-                boolean match = Arrays.equals(ssEnc, ssDec);
+                KemSample sample = PqcMicroBenchmark.measureKem(kem);
 
                 writer.append(String.format(Locale.US,
                     "%s,%d,%d,%d,%d,%d,%d,%d,%d,%b\n",
                     alg, i,
-                    t1 - t0,
-                    t3 - t2,
-                    ctSz, ssSz,
-                    t5 - t4,
-                    pubSize, privSize,
-                    match
+                    sample.keyGenNanos,
+                    sample.encapsulateNanos,
+                    sample.ciphertextBytes, sample.sharedSecretBytes,
+                    sample.decapsulateNanos,
+                    sample.publicKeyBytes, sample.secretKeyBytes,
+                    sample.match
                 ));
             }
             kem.dispose_KEM();
@@ -458,4 +420,24 @@ public class PQCBenchmarkRunner {
         }
     }
 
+    private static ByteBuffer toDirectBuffer(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        return buffer;
+    }
+
+    /**
+     * Fills a direct buffer with random bytes in small chunks, so a large message never exists on the heap.
+     */
+    private static ByteBuffer randomDirectBuffer(int size) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        SecureRandom random = new SecureRandom();
+        byte[] chunk = new byte[64 * 1024];
+        while (buffer.hasRemaining()) {
+            random.nextBytes(chunk);
+            buffer.put(chunk, 0, Math.min(chunk.length, buffer.remaining()));
+        }
+        buffer.flip();
+        return buffer;
+    }
 }
@@ -40,6 +40,8 @@ import com.fsck.k9.activity.compose.RecipientAdapter;
 import com.fsck.k9.activity.compose.RecipientLoader;
 import com.fsck.k9.helper.ClipboardManager;
 import com.fsck.k9.mail.Address;
+import com.fsck.k9.pqcExtension.keyManagement.RemoteKeyCache;
+import com.fsck.k9.pqcExtension.keyManagement.RemoteKeyCache.Capability;
 import com.fsck.k9.ui.R;
 import com.fsck.k9.ui.compose.RecipientCircleImageView;
 import com.fsck.k9.view.RecipientSelectView.Recipient;
@@ -68,6 +70,7 @@ public class RecipientSelectView extends TokenCompleteTextView<Recipient> implem
     @Nullable
     private String cryptoProvider;
     private boolean showCryptoEnabled;
+    private boolean showPqcCryptoState;
     @Nullable
     private LoaderManager loaderManager;
 
@@ -77,6 +80,8 @@ public class RecipientSelectView extends TokenCompleteTextView<Recipient> implem
     private TokenListener<Recipient> listener;
     private int tokenTextSize = FONT_DEFAULT;
 
+    private final RemoteKeyCache.Listener remoteKeyListener = emails -> post(this::redrawAllTokens);
+
 
     public RecipientSelectView(Context context) {
         super(context);
@@ -155,6 +160,11 @@ public class RecipientSelectView extends TokenCompleteTextView<Recipient> implem
 
         RecipientAdapter.setContactPhotoOrPlaceholder(getContext(), holder.vContactPhoto, recipient);
 
+        if (showPqcCryptoState) {
+            bindPqcCryptoState(recipient, holder);
+            return;
+        }
+
         boolean hasCryptoProvider = cryptoProvider != null;
         if (!hasCryptoProvider) {
             holder.hideCryptoState();
@@ -167,6 +177,17 @@ public class RecipientSelectView extends TokenCompleteTextView<Recipient> implem
         holder.showCryptoState(isAvailable, showCryptoEnabled);
     }
 
+    private void bindPqcCryptoState(Recipient recipient, RecipientTokenViewHolder holder) {
+        // Tokens are bound on the main thread, so only already cached keys are used. RecipientPresenter preloads the
+        // keys of new recipients and the listener redraws the tokens once they are available.
+        Capability capability = RemoteKeyCache.getHybridEncryptionCapability(recipient.address.getAddress());
+        if (capability == Capability.UNKNOWN) {
+            holder.hideCryptoState();
+        } else {
+            holder.showCryptoState(capability == Capability.AVAILABLE, showCryptoEnabled);
+        }
+    }
+
     @Override
     protected Recipient defaultObject(String completionText) {
         try {
@@ -188,9 +209,16 @@ public class RecipientSelectView extends TokenCompleteTextView<Recipient> implem
         this.loaderManager = loaderManager;
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        RemoteKeyCache.addListener(remoteKeyListener);
+    }
+
     @Override
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
+        RemoteKeyCache.removeListener(remoteKeyListener);
         if (loaderManager != null) {
             loaderManager.destroyLoader(LOADER_ID_ALTERNATES);
             loaderManager.destroyLoader(LOADER_ID_FILTERING);
@@ -275,6 +303,15 @@ public class RecipientSelectView extends TokenCompleteTextView<Recipient> implem
         this.cryptoProvider = cryptoProvider;
     }
 
+    /**
+     * Shows whether recipients have the keys needed for PQC hybrid encryption instead of the OpenPGP provider state.
+     */
+    public void setShowPqcCryptoState(boolean showPqcCryptoState) {
+        this.showPqcCryptoState = showPqcCryptoState;
+
+        redrawAllTokens();
+    }
+
     public void setShowCryptoEnabled(boolean showCryptoEnabled) {
         this.showCryptoEnabled = showCryptoEnabled;
 
@@ -0,0 +1,61 @@
+package com.fsck.k9.activity
+
+import app.k9mail.core.testing.TestClock
+import app.k9mail.legacy.message.controller.MessageReference
+import assertk.assertThat
+import assertk.assertions.isFalse
+import assertk.assertions.isNull
+import assertk.assertions.isSameInstanceAs
+import assertk.assertions.isTrue
+import com.fsck.k9.mail.Message
+import com.fsck.k9.mailstore.MessageViewInfo
+import kotlin.time.Duration.Companion.milliseconds
+import org.junit.Test
+import org.mockito.kotlin.mock
+
+class MessageViewInfoCacheTest {
+    private val clock = TestClock()
+    private val cache = MessageViewInfoCache(clock, maxSize = 2)
+
+    @Test
+    fun `take() returns entry only once`() {
+        val messageViewInfo = createMessageViewInfo()
+        cache.put(MESSAGE_REFERENCE_1, messageViewInfo)
+
+        assertThat(cache.take(MESSAGE_REFERENCE_1)).isSameInstanceAs(messageViewInfo)
+        assertThat(cache.take(MESSAGE_REFERENCE_1)).isNull()
+    }
+
+    @Test
+    fun `expired entries are not returned`() {
+        cache.put(MESSAGE_REFERENCE_1, createMessageViewInfo())
+
+        clock.advanceTimeBy((MessageViewInfoCache.MAX_AGE_MILLIS + 1).milliseconds)
+
+        assertThat(MESSAGE_REFERENCE_1 in cache).isFalse()
+        assertThat(cache.take(MESSAGE_REFERENCE_1)).isNull()
+    }
+
+    @Test
+    fun `least recently used entry is evicted`() {
+        cache.put(MESSAGE_REFERENCE_1, createMessageViewInfo())
+        cache.put(MESSAGE_REFERENCE_2, createMessageViewInfo())
+        assertThat(MESSAGE_REFERENCE_1 in cache).isTrue()
+
+        cache.put(MESSAGE_REFERENCE_3, createMessageViewInfo())
+
+        assertThat(MESSAGE_REFERENCE_1 in cache).isTrue()
+        assertThat(MESSAGE_REFERENCE_2 in cache).isFalse()
+        assertThat(MESSAGE_REFERENCE_3 in cache).isTrue()
+    }
+
+    private fun createMessageViewInfo(): MessageViewInfo {
+        return MessageViewInfo.createForMetadataOnly(mock<Message>(), false)
+    }
+
+    companion object {
+        private val MESSAGE_REFERENCE_1 = MessageReference("account", 1L, "uid1")
+        private val MESSAGE_REFERENCE_2 = MessageReference("account", 1L, "uid2")
+        private val MESSAGE_REFERENCE_3 = MessageReference("account", 1L, "uid3")
+    }
+}
@@ -120,6 +120,25 @@ public class MessageCryptoHelperTest extends RobolectricTest {
                 same((OutputStream) null), any(IOpenPgpCallback.class));
     }
 
+    @Test
+    public void textPlain_withAutocrypt_inPrefetchMode_shouldStopWithoutProvider() throws Exception {
+        MimeMessage message = new MimeMessage();
+        message.setUid("msguid");
+        message.setHeader("Content-Type", "text/plain");
+
+        when(autocryptOperations.hasAutocryptHeader(message)).thenReturn(true);
+        messageCryptoHelper.setPrefetch(true);
+
+
+        MessageCryptoCallback messageCryptoCallback = mock(MessageCryptoCallback.class);
+        messageCryptoHelper.asyncStartOrResumeProcessingMessage(message, messageCryptoCallback, null, false);
+
+
+        verify(messageCryptoCallback).onCryptoOperationsStopped();
+        verifyNoMoreInteractions(messageCryptoCallback);
+        verifyNoMoreInteractions(openPgpApi);
+    }
+
     @Test
     public void multipartSigned__withNullBody__shouldReturnSignedIncomplete() throws Exception {
         Message message = messageFromBody(
@@ -155,3 +155,46 @@ JNIEXPORT jint JNICALL Java_org_openquantumsafe_KeyEncapsulation_decap_1secret
     (*env)->ReleaseByteArrayElements(env, jsecret_key, secret_key_native, JNI_ABORT);
     return (rv_ == OQS_SUCCESS) ? 0 : -1;
 }
+
+/*
+ * Class:     org_openquantumsafe_KeyEncapsulation
+ * Method:    encap_secret_direct
+ * Signature: (Ljava/nio/ByteBuffer;ILjava/nio/ByteBuffer;ILjava/nio/ByteBuffer;I)I
+ */
+JNIEXPORT jint JNICALL Java_org_openquantumsafe_KeyEncapsulation_encap_1secret_1direct
+  (JNIEnv *env, jobject obj, jobject jciphertext, jint ciphertext_off,
+      jobject jshared_secret, jint shared_secret_off, jobject jpublic_key, jint public_key_off)
+{
+    // Direct buffers are accessed in place, nothing is pinned or copied
+    uint8_t *ciphertext = (uint8_t*) (*env)->GetDirectBufferAddress(env, jciphertext);
+    uint8_t *shared_secret = (uint8_t*) (*env)->GetDirectBufferAddress(env, jshared_secret);
+    uint8_t *public_key = (uint8_t*) (*env)->GetDirectBufferAddress(env, jpublic_key);
+    if (ciphertext == NULL || shared_secret == NULL || public_key == NULL) return -1;
+
+    OQS_KEM *kem = (OQS_KEM *) getHandle(env, obj, "native_kem_handle_");
+    OQS_STATUS rv_ = OQS_KEM_encaps(kem, ciphertext + ciphertext_off,
+                                    shared_secret + shared_secret_off,
+                                    public_key + public_key_off);
+    return (rv_ == OQS_SUCCESS) ? 0 : -1;
+}
+
+/*
+ * Class:     org_openquantumsafe_KeyEncapsulation
+ * Method:    decap_secret_direct
+ * Signature: (Ljava/nio/ByteBuffer;ILjava/nio/ByteBuffer;ILjava/nio/ByteBuffer;I)I
+ */
+JNIEXPORT jint JNICALL Java_org_openquantumsafe_KeyEncapsulation_decap_1secret_1direct
+  (JNIEnv *env, jobject obj, jobject jshared_secret, jint shared_secret_off,
+      jobject jciphertext, jint ciphertext_off, jobject jsecret_key, jint secret_key_off)
+{
+    uint8_t *shared_secret = (uint8_t*) (*env)->GetDirectBufferAddress(env, jshared_secret);
+    uint8_t *ciphertext = (uint8_t*) (*env)->GetDirectBufferAddress(env, jciphertext);
+    uint8_t *secret_key = (uint8_t*) (*env)->GetDirectBufferAddress(env, jsecret_key);
+    if (shared_secret == NULL || ciphertext == NULL || secret_key == NULL) return -1;
+
+    OQS_KEM *kem = (OQS_KEM *) getHandle(env, obj, "native_kem_handle_");
+    OQS_STATUS rv_ = OQS_KEM_decaps(kem, shared_secret + shared_secret_off,
+                                    ciphertext + ciphertext_off,
+                                    secret_key + secret_key_off);
+    return (rv_ == OQS_SUCCESS) ? 0 : -1;
+}
@@ -252,3 +252,52 @@ JNIEXPORT jboolean JNICALL Java_org_openquantumsafe_Signature_verify_1with_1ctx_
 }
 
 
+
+/*
+ * Class:     org_openquantumsafe_Signature
+ * Method:    sign_direct
+ * Signature: (Ljava/nio/ByteBuffer;ILjava/nio/ByteBuffer;IJLjava/nio/ByteBuffer;I)J
+ */
+JNIEXPORT jlong JNICALL Java_org_openquantumsafe_Signature_sign_1direct
+  (JNIEnv *env, jobject obj, jobject jsignature, jint signature_off,
+      jobject jmessage, jint message_off, jlong message_len,
+      jobject jsecret_key, jint secret_key_off)
+{
+    // Direct buffers are accessed in place, nothing is pinned or copied
+    uint8_t *signature = (uint8_t*) (*env)->GetDirectBufferAddress(env, jsignature);
+    uint8_t *message = (uint8_t*) (*env)->GetDirectBufferAddress(env, jmessage);
+    uint8_t *secret_key = (uint8_t*) (*env)->GetDirectBufferAddress(env, jsecret_key);
+    if (signature == NULL || message == NULL || secret_key == NULL) return -1;
+
+    OQS_SIG *sig = (OQS_SIG *) getHandle(env, obj, "native_sig_handle_");
+    size_t len_sig;
+    OQS_STATUS rv_ = OQS_SIG_sign(sig, signature + signature_off, &len_sig,
+                                    message + message_off, (size_t) message_len,
+                                    secret_key + secret_key_off);
+
+    // The signature length is returned directly instead of through a Mutable
+    return (rv_ == OQS_SUCCESS) ? (jlong) len_sig : -1;
+}
+
+/*
+ * Class:     org_openquantumsafe_Signature
+ * Method:    verify_direct
+ * Signature: (Ljava/nio/ByteBuffer;IJLjava/nio/ByteBuffer;IJLjava/nio/ByteBuffer;I)Z
+ */
+JNIEXPORT jboolean JNICALL Java_org_openquantumsafe_Signature_verify_1direct
+  (JNIEnv *env, jobject obj, jobject jmessage, jint message_off, jlong message_len,
+      jobject jsignature, jint signature_off, jlong signature_len,
+      jobject jpublic_key, jint public_key_off)
+{
+    uint8_t *message = (uint8_t*) (*env)->GetDirectBufferAddress(env, jmessage);
+    uint8_t *signature = (uint8_t*) (*env)->GetDirectBufferAddress(env, jsignature);
+    uint8_t *public_key = (uint8_t*) (*env)->GetDirectBufferAddress(env, jpublic_key);
+    if (message == NULL || signature == NULL || public_key == NULL) return JNI_FALSE;
+
+    OQS_SIG *sig = (OQS_SIG *) getHandle(env, obj, "native_sig_handle_");
+    OQS_STATUS rv_ = OQS_SIG_verify(sig, message + message_off, (size_t) message_len,
+                                    signature + signature_off, (size_t) signature_len,
+                                    public_key + public_key_off);
+
+    return (rv_ == OQS_SUCCESS) ? JNI_TRUE : JNI_FALSE;
+}
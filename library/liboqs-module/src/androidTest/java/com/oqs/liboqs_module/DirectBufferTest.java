@@ -0,0 +1,192 @@
+package com.oqs.liboqs_module;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openquantumsafe.*;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the direct buffer overloads of {@link Signature} and {@link KeyEncapsulation} against the byte array ones.
+ * All buffers start at an offset and end before their capacity, to show that only position to limit is used.
+ */
+public class DirectBufferTest {
+
+    private static final String SIG_ALGORITHM = "ML-DSA-65";
+    private static final String KEM_ALGORITHM = "ML-KEM-768";
+    private static final int OFFSET = 7;
+    private static final int PADDING = 5;
+
+    private final SecureRandom random = new SecureRandom();
+
+    @BeforeClass
+    public static void loadNativeLibrary() {
+        Common.loadNativeLibrary();
+    }
+
+    @Test
+    public void signAndVerifyReadOnlyPositionToLimit() {
+        Signature signer = new Signature(SIG_ALGORITHM);
+        try {
+            byte[] publicKeyBytes = signer.generate_keypair();
+            byte[] messageBytes = randomBytes(1000);
+            ByteBuffer message = embed(messageBytes);
+            ByteBuffer secretKey = embed(signer.export_secret_key());
+            ByteBuffer publicKey = embed(publicKeyBytes);
+            ByteBuffer signature = ByteBuffer.allocateDirect(OFFSET + signer.get_max_length_signature());
+            signature.position(OFFSET);
+
+            int signatureLength = signer.sign_with_key(message, secretKey, signature);
+
+            assertEquals(OFFSET + signatureLength, signature.position());
+            assertUnchanged(message, messageBytes.length);
+            assertUnchanged(secretKey, signer.export_secret_key().length);
+
+            signature.limit(signature.position()).position(OFFSET);
+            assertTrue(signer.verify(message, signature, publicKey));
+            assertUnchanged(message, messageBytes.length);
+            assertUnchanged(signature, signatureLength);
+            assertUnchanged(publicKey, publicKeyBytes.length);
+            assertTrue(signer.verify(messageBytes, contentOf(signature), publicKeyBytes));
+
+            // Bytes outside position to limit are not part of the message
+            ByteBuffer wholeMessage = message.duplicate();
+            wholeMessage.clear();
+            wholeMessage.put(0, (byte) ~wholeMessage.get(0));
+            wholeMessage.put(message.limit(), (byte) ~wholeMessage.get(message.limit()));
+            assertTrue(signer.verify(message, signature, publicKey));
+
+            message.put(OFFSET, (byte) ~message.get(OFFSET));
+            assertFalse(signer.verify(message, signature, publicKey));
+        } finally {
+            signer.dispose_sig();
+        }
+    }
+
+    @Test
+    public void signRejectsTooSmallSignatureBuffer() {
+        Signature signer = new Signature(SIG_ALGORITHM);
+        try {
+            signer.generate_keypair();
+            ByteBuffer signature = ByteBuffer.allocateDirect(signer.get_max_length_signature() - 1);
+
+            try {
+                signer.sign_with_key(embed(randomBytes(10)), embed(signer.export_secret_key()), signature);
+                fail("Expected RuntimeException");
+            } catch (RuntimeException e) {
+                assertEquals("Signature buffer too small", e.getMessage());
+            }
+        } finally {
+            signer.dispose_sig();
+        }
+    }
+
+    @Test
+    public void signRejectsHeapBuffers() {
+        Signature signer = new Signature(SIG_ALGORITHM);
+        try {
+            signer.generate_keypair();
+
+            try {
+                signer.sign_with_key(ByteBuffer.wrap(randomBytes(10)), embed(signer.export_secret_key()),
+                    ByteBuffer.allocateDirect(signer.get_max_length_signature()));
+                fail("Expected IllegalArgumentException");
+            } catch (IllegalArgumentException e) {
+                assertEquals("message must be a direct buffer", e.getMessage());
+            }
+        } finally {
+            signer.dispose_sig();
+        }
+    }
+
+    @Test
+    public void encapsulateAndDecapsulateReadOnlyPositionToLimit() {
+        KeyEncapsulation kem = new KeyEncapsulation(KEM_ALGORITHM);
+        try {
+            byte[] publicKeyBytes = kem.generate_keypair();
+            byte[] secretKeyBytes = kem.export_secret_key();
+            ByteBuffer publicKey = embed(publicKeyBytes);
+            ByteBuffer ciphertext = ByteBuffer.allocateDirect(OFFSET + kem.get_length_ciphertext() + PADDING);
+            ciphertext.position(OFFSET);
+            ByteBuffer sharedSecret = ByteBuffer.allocateDirect(OFFSET + kem.get_length_shared_secret() + PADDING);
+            sharedSecret.position(OFFSET);
+
+            kem.encap_secret(publicKey, ciphertext, sharedSecret);
+
+            assertEquals(OFFSET + kem.get_length_ciphertext(), ciphertext.position());
+            assertEquals(OFFSET + kem.get_length_shared_secret(), sharedSecret.position());
+            assertUnchanged(publicKey, publicKeyBytes.length);
+
+            ciphertext.limit(ciphertext.position()).position(OFFSET);
+            sharedSecret.limit(sharedSecret.position()).position(OFFSET);
+            ByteBuffer secretKey = embed(secretKeyBytes);
+            ByteBuffer decapsulated = ByteBuffer.allocateDirect(OFFSET + kem.get_length_shared_secret() + PADDING);
+            decapsulated.position(OFFSET);
+
+            kem.decap_secret_with_key(ciphertext, secretKey, decapsulated);
+
+            assertEquals(OFFSET + kem.get_length_shared_secret(), decapsulated.position());
+            assertUnchanged(ciphertext, kem.get_length_ciphertext());
+            assertUnchanged(secretKey, secretKeyBytes.length);
+            decapsulated.limit(decapsulated.position()).position(OFFSET);
+            assertArrayEquals(contentOf(sharedSecret), contentOf(decapsulated));
+            assertArrayEquals(contentOf(sharedSecret),
+                kem.decap_secret_with_key(contentOf(ciphertext), secretKeyBytes));
+        } finally {
+            kem.dispose_KEM();
+        }
+    }
+
+    @Test
+    public void decapsulateRejectsCiphertextOfWrongLength() {
+        KeyEncapsulation kem = new KeyEncapsulation(KEM_ALGORITHM);
+        try {
+            kem.generate_keypair();
+            ByteBuffer ciphertext = embed(randomBytes(kem.get_length_ciphertext() + 1));
+
+            try {
+                kem.decap_secret_with_key(ciphertext, embed(kem.export_secret_key()),
+                    ByteBuffer.allocateDirect(kem.get_length_shared_secret()));
+                fail("Expected RuntimeException");
+            } catch (RuntimeException e) {
+                assertEquals("Incorrect ciphertext length", e.getMessage());
+            }
+        } finally {
+            kem.dispose_KEM();
+        }
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Returns a direct buffer with the bytes between position and limit, surrounded by random bytes.
+     */
+    private ByteBuffer embed(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(OFFSET + bytes.length + PADDING);
+        buffer.put(randomBytes(OFFSET)).put(bytes).put(randomBytes(PADDING));
+        buffer.position(OFFSET).limit(OFFSET + bytes.length);
+        return buffer;
+    }
+
+    private static void assertUnchanged(ByteBuffer buffer, int length) {
+        assertEquals(OFFSET, buffer.position());
+        assertEquals(OFFSET + length, buffer.limit());
+    }
+
+    private static byte[] contentOf(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
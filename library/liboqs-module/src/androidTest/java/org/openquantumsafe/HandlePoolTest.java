@@ -0,0 +1,223 @@
+package org.openquantumsafe;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Pool behavior is tested with fake handles and a fake clock, the secret key
+ * handling with the shared pools of native handles.
+ */
+public class HandlePoolTest {
+
+    private static final String ALGORITHM = "A";
+    private static final String OTHER_ALGORITHM = "B";
+
+    private final List<FakeHandle> created = new ArrayList<>();
+    private long now = 1_000_000L;
+
+    private final HandlePool<FakeHandle> pool = new HandlePool<>(
+        alg_name -> {
+            FakeHandle handle = new FakeHandle(alg_name);
+            created.add(handle);
+            return handle;
+        },
+        handle -> handle.disposed = true,
+        HandlePool.DEFAULT_MAX_IDLE_PER_ALGORITHM,
+        HandlePool.DEFAULT_IDLE_TIMEOUT_MILLIS,
+        () -> now);
+
+    @Test
+    public void acquireCreatesHandleWhenNoneIsIdle() {
+        FakeHandle handle = pool.acquire(ALGORITHM);
+
+        assertEquals(ALGORITHM, handle.algorithm);
+        assertEquals(1, created.size());
+        assertEquals(0, pool.idle_count(ALGORITHM));
+    }
+
+    @Test
+    public void releasedHandleIsReused() {
+        FakeHandle handle = pool.acquire(ALGORITHM);
+        pool.release(ALGORITHM, handle);
+
+        assertEquals(1, pool.idle_count(ALGORITHM));
+        assertSame(handle, pool.acquire(ALGORITHM));
+        assertEquals(1, created.size());
+        assertFalse(handle.disposed);
+    }
+
+    @Test
+    public void handlesAreOnlyReusedForTheirAlgorithm() {
+        FakeHandle handle = pool.acquire(ALGORITHM);
+        pool.release(ALGORITHM, handle);
+
+        FakeHandle other = pool.acquire(OTHER_ALGORITHM);
+
+        assertNotSame(handle, other);
+        assertEquals(OTHER_ALGORITHM, other.algorithm);
+        assertEquals(1, pool.idle_count(ALGORITHM));
+    }
+
+    @Test
+    public void keepsAtMostFourIdleHandlesPerAlgorithm() {
+        List<FakeHandle> handles = new ArrayList<>();
+        for (int i = 0; i < HandlePool.DEFAULT_MAX_IDLE_PER_ALGORITHM + 1; i++) {
+            handles.add(pool.acquire(ALGORITHM));
+        }
+        for (FakeHandle handle : handles) {
+            pool.release(ALGORITHM, handle);
+        }
+
+        assertEquals(HandlePool.DEFAULT_MAX_IDLE_PER_ALGORITHM, pool.idle_count(ALGORITHM));
+        assertTrue(handles.get(handles.size() - 1).disposed);
+        for (FakeHandle handle : handles.subList(0, handles.size() - 1)) {
+            assertFalse(handle.disposed);
+        }
+
+        pool.release(OTHER_ALGORITHM, pool.acquire(OTHER_ALGORITHM));
+        assertEquals(1, pool.idle_count(OTHER_ALGORITHM));
+    }
+
+    @Test
+    public void idleHandlesAreFreedAfterSixtySeconds() {
+        FakeHandle handle = pool.acquire(ALGORITHM);
+        pool.release(ALGORITHM, handle);
+
+        now += HandlePool.DEFAULT_IDLE_TIMEOUT_MILLIS - 1;
+        pool.evict_idle();
+
+        assertEquals(1, pool.idle_count(ALGORITHM));
+        assertFalse(handle.disposed);
+
+        now += 1;
+        pool.evict_idle();
+
+        assertEquals(0, pool.idle_count(ALGORITHM));
+        assertTrue(handle.disposed);
+    }
+
+    @Test
+    public void acquireSkipsExpiredHandles() {
+        FakeHandle expired = pool.acquire(ALGORITHM);
+        pool.release(ALGORITHM, expired);
+
+        now += HandlePool.DEFAULT_IDLE_TIMEOUT_MILLIS;
+        FakeHandle handle = pool.acquire(ALGORITHM);
+
+        assertNotSame(expired, handle);
+        assertTrue(expired.disposed);
+        assertEquals(2, created.size());
+    }
+
+    @Test
+    public void releaseRestartsIdleTimeout() {
+        FakeHandle handle = pool.acquire(ALGORITHM);
+        pool.release(ALGORITHM, handle);
+
+        now += HandlePool.DEFAULT_IDLE_TIMEOUT_MILLIS - 1;
+        assertSame(handle, pool.acquire(ALGORITHM));
+        pool.release(ALGORITHM, handle);
+
+        now += HandlePool.DEFAULT_IDLE_TIMEOUT_MILLIS - 1;
+        pool.evict_idle();
+
+        assertEquals(1, pool.idle_count(ALGORITHM));
+        assertFalse(handle.disposed);
+    }
+
+    @Test
+    public void clearFreesAllIdleHandles() {
+        FakeHandle handle = pool.acquire(ALGORITHM);
+        FakeHandle other = pool.acquire(OTHER_ALGORITHM);
+        pool.release(ALGORITHM, handle);
+        pool.release(OTHER_ALGORITHM, other);
+
+        pool.clear();
+
+        assertEquals(0, pool.idle_count(ALGORITHM));
+        assertEquals(0, pool.idle_count(OTHER_ALGORITHM));
+        assertTrue(handle.disposed);
+        assertTrue(other.disposed);
+    }
+
+    @Test
+    public void pooledKemHandleKeepsNoSecretKey() {
+        Common.loadNativeLibrary();
+        String algorithm = "ML-KEM-768";
+        KeyEncapsulation owner = new KeyEncapsulation(algorithm);
+        HandlePool<KeyEncapsulation> kemPool = HandlePool.get_KEM_instance();
+        try {
+            byte[] publicKey = owner.generate_keypair();
+            byte[] secretKey = owner.export_secret_key();
+
+            KeyEncapsulation kem = kemPool.acquire(algorithm);
+            Pair<byte[], byte[]> encapsulated = kem.encap_secret(publicKey);
+            byte[] sharedSecret = kem.decap_secret_with_key(encapsulated.getLeft(), secretKey);
+            kemPool.release(algorithm, kem);
+
+            assertArrayEquals(encapsulated.getRight(), sharedSecret);
+            KeyEncapsulation reused = kemPool.acquire(algorithm);
+            try {
+                assertSame(kem, reused);
+                assertTrue(isZero(reused.export_secret_key()));
+            } finally {
+                kemPool.release(algorithm, reused);
+            }
+        } finally {
+            owner.dispose_KEM();
+        }
+    }
+
+    @Test
+    public void pooledSignatureHandleKeepsNoSecretKey() {
+        Common.loadNativeLibrary();
+        String algorithm = "ML-DSA-65";
+        Signature owner = new Signature(algorithm);
+        HandlePool<Signature> sigPool = HandlePool.get_sig_instance();
+        try {
+            byte[] publicKey = owner.generate_keypair();
+            byte[] message = new byte[100];
+
+            Signature signer = sigPool.acquire(algorithm);
+            byte[] signature = signer.sign_with_key(message, owner.export_secret_key());
+            boolean valid = signer.verify(message, signature, publicKey);
+            sigPool.release(algorithm, signer);
+
+            assertTrue(valid);
+            Signature reused = sigPool.acquire(algorithm);
+            try {
+                assertSame(signer, reused);
+                assertTrue(isZero(reused.export_secret_key()));
+            } finally {
+                sigPool.release(algorithm, reused);
+            }
+        } finally {
+            owner.dispose_sig();
+        }
+    }
+
+    private static boolean isZero(byte[] bytes) {
+        for (byte b : bytes) {
+            if (b != 0) return false;
+        }
+        return true;
+    }
+
+    private static final class FakeHandle {
+        final String algorithm;
+        boolean disposed = false;
+
+        FakeHandle(String algorithm) {
+            this.algorithm = algorithm;
+        }
+    }
+}
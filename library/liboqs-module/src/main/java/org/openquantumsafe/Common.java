@@ -4,11 +4,10 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.util.Arrays;
 
-import android.os.Build;
-
 
 public class Common {
 
@@ -18,6 +17,15 @@ public class Common {
         Arrays.fill(array, (byte) 0);
     }
 
+    /**
+     * Throws if the buffer is not direct. The native code accesses direct buffers in place, without copying.
+     */
+    static void requireDirect(ByteBuffer buffer, String name) {
+        if (!buffer.isDirect()) {
+            throw new IllegalArgumentException(name + " must be a direct buffer");
+        }
+    }
+
     public static boolean isWindows() {
         return OS.contains("win");
     }
@@ -30,16 +38,12 @@ public class Common {
         return OS.contains("nux");
     }
 
+    /**
+     * Loads the JNI library. On Android it is packaged per ABI; on a desktop JVM (e.g. for benchmarks) it is
+     * looked up in {@code java.library.path}.
+     */
     public static void loadNativeLibrary() {
-        String[] abis = Build.SUPPORTED_ABIS; // Use the correct variable name 'abis'
-        // Modified loading for
-        if (abis != null && abis.length > 0) {
-            System.out.println("Load liboqs for: " + abis[0]);
-            System.loadLibrary("oqs-jni");
-        } else {
-            // Fehlerbehandlung, falls keine ABIs gefunden werden
-            System.err.println("No supported ABIs found.");
-        }
+        System.loadLibrary("oqs-jni");
     }
     public static <E, T extends Iterable<E>> void print_list(T list) {
         for (Object element : list){
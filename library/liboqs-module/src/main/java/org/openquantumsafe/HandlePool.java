@@ -0,0 +1,214 @@
+package org.openquantumsafe;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * \brief Thread-safe pool of reusable native mechanism handles.
+ * Keeps a bounded number of idle handles per algorithm, so that repeated
+ * operations do not pay OQS_KEM_new/OQS_SIG_new plus the details lookup on
+ * every call. Idle handles are freed lazily once they exceed the idle timeout.
+ *
+ * Pooled handles must never carry a secret key; use the *_with_key methods
+ * of KeyEncapsulation and Signature to pass secret keys per call.
+ */
+public class HandlePool<T> {
+
+    public static final int DEFAULT_MAX_IDLE_PER_ALGORITHM = 4;
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 60_000L;
+
+    /**
+     * \brief Creates a new native handle for the given algorithm
+     */
+    interface Factory<T> {
+        T create(String alg_name);
+    }
+
+    /**
+     * \brief Frees the native memory of a handle
+     */
+    interface Disposer<T> {
+        void dispose(T handle);
+    }
+
+    /**
+     * \brief Current time in milliseconds, replaceable in tests
+     */
+    interface Clock {
+        long now_millis();
+    }
+
+    private static final class IdleHandle<T> {
+        final T handle;
+        final long released_at;
+
+        IdleHandle(T handle, long released_at) {
+            this.handle = handle;
+            this.released_at = released_at;
+        }
+    }
+
+    private static HandlePool<KeyEncapsulation> kem_instance = null;
+    private static HandlePool<Signature> sig_instance = null;
+
+    private final ConcurrentHashMap<String, ArrayDeque<IdleHandle<T>>> idle_ =
+        new ConcurrentHashMap<>();
+    private final Factory<T> factory_;
+    private final Disposer<T> disposer_;
+    private final int max_idle_per_algorithm_;
+    private final long idle_timeout_millis_;
+    private final Clock clock_;
+
+    HandlePool(Factory<T> factory, Disposer<T> disposer,
+               int max_idle_per_algorithm, long idle_timeout_millis) {
+        this(factory, disposer, max_idle_per_algorithm, idle_timeout_millis,
+            System::currentTimeMillis);
+    }
+
+    HandlePool(Factory<T> factory, Disposer<T> disposer,
+               int max_idle_per_algorithm, long idle_timeout_millis, Clock clock) {
+        if (max_idle_per_algorithm < 0) {
+            throw new IllegalArgumentException("max_idle_per_algorithm must not be negative");
+        }
+        this.factory_ = factory;
+        this.disposer_ = disposer;
+        this.max_idle_per_algorithm_ = max_idle_per_algorithm;
+        this.idle_timeout_millis_ = idle_timeout_millis;
+        this.clock_ = clock;
+    }
+
+    /**
+     * \brief Shared pool of KeyEncapsulation handles
+     * \return Singleton instance
+     */
+    public static synchronized HandlePool<KeyEncapsulation> get_KEM_instance() {
+        if (kem_instance == null) {
+            kem_instance = new HandlePool<>(
+                KeyEncapsulation::new,
+                KeyEncapsulation::dispose_KEM,
+                DEFAULT_MAX_IDLE_PER_ALGORITHM,
+                DEFAULT_IDLE_TIMEOUT_MILLIS);
+        }
+        return kem_instance;
+    }
+
+    /**
+     * \brief Shared pool of Signature handles
+     * \return Singleton instance
+     */
+    public static synchronized HandlePool<Signature> get_sig_instance() {
+        if (sig_instance == null) {
+            sig_instance = new HandlePool<>(
+                Signature::new,
+                Signature::dispose_sig,
+                DEFAULT_MAX_IDLE_PER_ALGORITHM,
+                DEFAULT_IDLE_TIMEOUT_MILLIS);
+        }
+        return sig_instance;
+    }
+
+    /**
+     * \brief Take an idle handle for alg_name, or create a new one if none is available.
+     * The caller owns the handle until it is passed back to release().
+     * \param alg_name Cryptographic algorithm method_name
+     * \return Handle for alg_name
+     */
+    public T acquire(String alg_name) throws RuntimeException {
+        ArrayDeque<IdleHandle<T>> deque = deque_for(alg_name);
+        long now = clock_.now_millis();
+        T reused = null;
+        synchronized (deque) {
+            evict_expired(deque, now);
+            IdleHandle<T> idle = deque.pollFirst();
+            if (idle != null) {
+                reused = idle.handle;
+            }
+        }
+        return reused != null ? reused : factory_.create(alg_name);
+    }
+
+    /**
+     * \brief Return a handle obtained from acquire(). If the pool for alg_name
+     * is already full, the handle is freed immediately.
+     * \param alg_name Cryptographic algorithm method_name the handle was acquired for
+     * \param handle Handle to return
+     */
+    public void release(String alg_name, T handle) {
+        if (handle == null) return;
+        ArrayDeque<IdleHandle<T>> deque = deque_for(alg_name);
+        long now = clock_.now_millis();
+        boolean pooled = false;
+        synchronized (deque) {
+            evict_expired(deque, now);
+            if (deque.size() < max_idle_per_algorithm_) {
+                deque.addFirst(new IdleHandle<>(handle, now));
+                pooled = true;
+            }
+        }
+        if (!pooled) {
+            disposer_.dispose(handle);
+        }
+    }
+
+    /**
+     * \brief Free all handles that have been idle for longer than the idle timeout
+     */
+    public void evict_idle() {
+        long now = clock_.now_millis();
+        for (ArrayDeque<IdleHandle<T>> deque : idle_.values()) {
+            synchronized (deque) {
+                evict_expired(deque, now);
+            }
+        }
+    }
+
+    /**
+     * \brief Free all idle handles of every algorithm
+     */
+    public void clear() {
+        for (ArrayDeque<IdleHandle<T>> deque : idle_.values()) {
+            synchronized (deque) {
+                while (!deque.isEmpty()) {
+                    disposer_.dispose(deque.pollFirst().handle);
+                }
+            }
+        }
+    }
+
+    /**
+     * \brief Number of idle handles currently held for alg_name
+     */
+    public int idle_count(String alg_name) {
+        ArrayDeque<IdleHandle<T>> deque = idle_.get(alg_name);
+        if (deque == null) return 0;
+        synchronized (deque) {
+            return deque.size();
+        }
+    }
+
+    private ArrayDeque<IdleHandle<T>> deque_for(String alg_name) {
+        ArrayDeque<IdleHandle<T>> deque = idle_.get(alg_name);
+        if (deque == null) {
+            ArrayDeque<IdleHandle<T>> created = new ArrayDeque<>();
+            deque = idle_.putIfAbsent(alg_name, created);
+            if (deque == null) {
+                deque = created;
+            }
+        }
+        return deque;
+    }
+
+    // Most recently released handles sit at the head, so expired ones collect at the tail.
+    private void evict_expired(ArrayDeque<IdleHandle<T>> deque, long now) {
+        Iterator<IdleHandle<T>> it = deque.descendingIterator();
+        while (it.hasNext()) {
+            IdleHandle<T> idle = it.next();
+            if (now - idle.released_at < idle_timeout_millis_) {
+                break;
+            }
+            it.remove();
+            disposer_.dispose(idle.handle);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package org.openquantumsafe;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -149,6 +150,24 @@ public class KeyEncapsulation {
     private native int decap_secret(byte[] shared_secret, byte[] ciphertext,
                                     byte[] secret_key);
 
+    /**
+     * \brief Same as encap_secret, but on direct buffers starting at the given
+     * offsets. The buffers are accessed in place, without pinning or copying.
+     * \return Status
+     */
+    private native int encap_secret_direct(ByteBuffer ciphertext, int ciphertext_off,
+                                    ByteBuffer shared_secret, int shared_secret_off,
+                                    ByteBuffer public_key, int public_key_off);
+
+    /**
+     * \brief Same as decap_secret, but on direct buffers starting at the given
+     * offsets. The buffers are accessed in place, without pinning or copying.
+     * \return Status
+     */
+    private native int decap_secret_direct(ByteBuffer shared_secret, int shared_secret_off,
+                                    ByteBuffer ciphertext, int ciphertext_off,
+                                    ByteBuffer secret_key, int secret_key_off);
+
     /**
      * \brief Invoke native free_KEM
      */
@@ -223,6 +242,114 @@ public class KeyEncapsulation {
         return shared_secret;
     }
 
+    /**
+     * \brief Decapsulate secret with a caller-supplied secret key. Does not touch
+     * the secret key held by this instance, so the handle can be shared through
+     * a HandlePool.
+     * \param ciphertext Ciphertext
+     * \param secret_key Secret key
+     * \return Shared secret
+     */
+    public byte[] decap_secret_with_key(byte[] ciphertext, byte[] secret_key)
+                                                    throws RuntimeException {
+        if (ciphertext.length != alg_details_.length_ciphertext) {
+            throw new RuntimeException("Incorrect ciphertext length");
+        }
+        if (secret_key.length != alg_details_.length_secret_key) {
+            throw new RuntimeException("Incorrect secret key length");
+        }
+        byte[] shared_secret = new byte[(int)alg_details_.length_shared_secret];
+        int rv_ = decap_secret(shared_secret, ciphertext, secret_key);
+        if (rv_ != 0) throw new RuntimeException("Cannot decapsulate secret");
+        return shared_secret;
+    }
+
+    /**
+     * \brief Encapsulate a secret into caller-supplied direct buffers, so hot
+     * paths can reuse off-heap buffers instead of allocating per call. The
+     * public key is read from its position to its limit and left unchanged.
+     * The positions of ciphertext and shared_secret are advanced by the bytes
+     * written.
+     * \param public_key Public key (direct buffer)
+     * \param ciphertext Output for the ciphertext (direct buffer)
+     * \param shared_secret Output for the shared secret (direct buffer)
+     */
+    public void encap_secret(ByteBuffer public_key, ByteBuffer ciphertext,
+                            ByteBuffer shared_secret) throws RuntimeException {
+        Common.requireDirect(public_key, "public_key");
+        Common.requireDirect(ciphertext, "ciphertext");
+        Common.requireDirect(shared_secret, "shared_secret");
+        if (public_key.remaining() != alg_details_.length_public_key) {
+            throw new RuntimeException("Incorrect public key length");
+        }
+        if (ciphertext.remaining() < alg_details_.length_ciphertext) {
+            throw new RuntimeException("Ciphertext buffer too small");
+        }
+        if (shared_secret.remaining() < alg_details_.length_shared_secret) {
+            throw new RuntimeException("Shared secret buffer too small");
+        }
+        int rv_ = encap_secret_direct(ciphertext, ciphertext.position(),
+                                    shared_secret, shared_secret.position(),
+                                    public_key, public_key.position());
+        if (rv_ != 0) throw new RuntimeException("Cannot encapsulate secret");
+        ciphertext.position(ciphertext.position()
+                                    + (int) alg_details_.length_ciphertext);
+        shared_secret.position(shared_secret.position()
+                                    + (int) alg_details_.length_shared_secret);
+    }
+
+    /**
+     * \brief Decapsulate a secret into a caller-supplied direct buffer, using
+     * a caller-supplied secret key. Ciphertext and secret key are read from
+     * their position to their limit and left unchanged. The position of
+     * shared_secret is advanced by the bytes written.
+     * \param ciphertext Ciphertext (direct buffer)
+     * \param secret_key Secret key (direct buffer)
+     * \param shared_secret Output for the shared secret (direct buffer)
+     */
+    public void decap_secret_with_key(ByteBuffer ciphertext, ByteBuffer secret_key,
+                            ByteBuffer shared_secret) throws RuntimeException {
+        Common.requireDirect(ciphertext, "ciphertext");
+        Common.requireDirect(secret_key, "secret_key");
+        Common.requireDirect(shared_secret, "shared_secret");
+        if (ciphertext.remaining() != alg_details_.length_ciphertext) {
+            throw new RuntimeException("Incorrect ciphertext length");
+        }
+        if (secret_key.remaining() != alg_details_.length_secret_key) {
+            throw new RuntimeException("Incorrect secret key length");
+        }
+        if (shared_secret.remaining() < alg_details_.length_shared_secret) {
+            throw new RuntimeException("Shared secret buffer too small");
+        }
+        int rv_ = decap_secret_direct(shared_secret, shared_secret.position(),
+                                    ciphertext, ciphertext.position(),
+                                    secret_key, secret_key.position());
+        if (rv_ != 0) throw new RuntimeException("Cannot decapsulate secret");
+        shared_secret.position(shared_secret.position()
+                                    + (int) alg_details_.length_shared_secret);
+    }
+
+    /**
+     * \brief Return the public key length in bytes
+     */
+    public int get_length_public_key() {
+        return (int) alg_details_.length_public_key;
+    }
+
+    /**
+     * \brief Return the ciphertext length in bytes, for sizing output buffers
+     */
+    public int get_length_ciphertext() {
+        return (int) alg_details_.length_ciphertext;
+    }
+
+    /**
+     * \brief Return the shared secret length in bytes, for sizing output buffers
+     */
+    public int get_length_shared_secret() {
+        return (int) alg_details_.length_shared_secret;
+    }
+
     /**
      * \brief Print KeyEncapsulation. If a KeyEncapsulationDetails object is not
      * initialized, initialize it and fill it using native C code.
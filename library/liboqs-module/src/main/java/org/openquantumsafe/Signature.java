@@ -1,5 +1,6 @@
 package org.openquantumsafe;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -201,6 +202,26 @@ public class Signature {
                                 byte[] ctx, long ctx_len,
                                 byte[] public_key);
 
+    /**
+     * \brief Same as sign, but on direct buffers starting at the given offsets.
+     * The buffers are accessed in place, without pinning or copying.
+     * \return Signature length, or -1 on failure
+     */
+    private native long sign_direct(ByteBuffer signature, int signature_off,
+                        ByteBuffer message, int message_off, long message_len,
+                        ByteBuffer secret_key, int secret_key_off);
+
+    /**
+     * \brief Same as verify, but on direct buffers starting at the given
+     * offsets. The buffers are accessed in place, without pinning or copying.
+     * \return True if the signature is valid, false otherwise
+     */
+    private native boolean verify_direct(ByteBuffer message, int message_off,
+                                long message_len,
+                                ByteBuffer signature, int signature_off,
+                                long signature_len,
+                                ByteBuffer public_key, int public_key_off);
+
     /**
      * \brief Invoke native free_sig
      */
@@ -324,6 +345,93 @@ public class Signature {
         return verify_with_ctx_str(message, message.length, signature, signature.length, ctx, ctx_len, public_key);
     }
 
+    /**
+     * \brief Sign with a caller-supplied secret key. Does not touch the secret
+     * key held by this instance, so the handle can be shared through a HandlePool.
+     * \param message
+     * \param secret_key
+     * \return signature
+     */
+    public byte[] sign_with_key(byte[] message, byte[] secret_key)
+                                                    throws RuntimeException {
+        if (secret_key.length != alg_details_.length_secret_key) {
+            throw new RuntimeException("Incorrect secret key length");
+        }
+        byte[] signature = new byte[(int) alg_details_.max_length_signature];
+        Mutable<Long> signature_len_ret = new Mutable<>();
+        int rv_= sign(signature, signature_len_ret,
+                        message, message.length, secret_key);
+        if (rv_ != 0) throw new RuntimeException("Cannot sign message");
+        long actual_signature_len = signature_len_ret.value;
+        byte[] actual_signature = new byte[(int) actual_signature_len];
+        System.arraycopy(signature, 0,
+                            actual_signature, 0, (int) actual_signature_len);
+        return actual_signature;
+    }
+
+    /**
+     * \brief Sign into a caller-supplied direct buffer with a caller-supplied
+     * secret key. The message can be a memory-mapped file, so large inputs are
+     * signed without loading them onto the heap. Message and secret key are
+     * read from their position to their limit and left unchanged. The position
+     * of signature is advanced by the signature length.
+     * \param message Message (direct buffer)
+     * \param secret_key Secret key (direct buffer)
+     * \param signature Output for the signature, with at least
+     * get_max_length_signature() bytes remaining (direct buffer)
+     * \return Signature length
+     */
+    public int sign_with_key(ByteBuffer message, ByteBuffer secret_key,
+                            ByteBuffer signature) throws RuntimeException {
+        Common.requireDirect(message, "message");
+        Common.requireDirect(secret_key, "secret_key");
+        Common.requireDirect(signature, "signature");
+        if (secret_key.remaining() != alg_details_.length_secret_key) {
+            throw new RuntimeException("Incorrect secret key length");
+        }
+        if (signature.remaining() < alg_details_.max_length_signature) {
+            throw new RuntimeException("Signature buffer too small");
+        }
+        long signature_len = sign_direct(signature, signature.position(),
+                        message, message.position(), message.remaining(),
+                        secret_key, secret_key.position());
+        if (signature_len < 0) throw new RuntimeException("Cannot sign message");
+        signature.position(signature.position() + (int) signature_len);
+        return (int) signature_len;
+    }
+
+    /**
+     * \brief Verify on direct buffers. All buffers are read from their position
+     * to their limit and left unchanged.
+     * \param message Message (direct buffer)
+     * \param signature Signature (direct buffer)
+     * \param public_key Public key (direct buffer)
+     * \return True if the signature is valid, false otherwise
+     */
+    public boolean verify(ByteBuffer message, ByteBuffer signature,
+                            ByteBuffer public_key) throws RuntimeException {
+        Common.requireDirect(message, "message");
+        Common.requireDirect(signature, "signature");
+        Common.requireDirect(public_key, "public_key");
+        if (public_key.remaining() != alg_details_.length_public_key) {
+            throw new RuntimeException("Incorrect public key length");
+        }
+        if (signature.remaining() > alg_details_.max_length_signature) {
+            throw new RuntimeException("Incorrect signature length");
+        }
+        return verify_direct(message, message.position(), message.remaining(),
+                        signature, signature.position(), signature.remaining(),
+                        public_key, public_key.position());
+    }
+
+    /**
+     * \brief Return the maximum signature length in bytes, for sizing output
+     * buffers
+     */
+    public int get_max_length_signature() {
+        return (int) alg_details_.max_length_signature;
+    }
+
     /**
      * \brief Print Signature. If a SignatureDetails object is not
      * initialized, initialize it and fill it using native C code.
@@ -132,6 +132,7 @@ include(
     ":legacy:mailstore",
     ":legacy:message",
     ":legacy:notification",
+    ":legacy:pqc-benchmark",
     ":legacy:preferences",
     ":legacy:search",
     ":legacy:storage",